@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.api.jsr283.query;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+
+/**
+ * A query with bind variables. The statement is parsed once and may be
+ * executed repeatedly with different values bound to its variables. In an
+ * XPath statement a variable is written as <code>$name</code> and may be
+ * used in place of a literal in a comparison or as the pattern of
+ * <code>jcr:like()</code>.
+ * <p/>
+ * This interface holds extensions made in JCR 2.0 while work
+ * is in progress implementing JCR 2.0.
+ *
+ * @since JCR 2.0
+ */
+public interface PreparedQuery extends Query {
+
+    /**
+     * Binds the given <code>value</code> to the variable named
+     * <code>varName</code>.
+     *
+     * @param varName name of variable in query
+     * @param value   value to bind
+     * @throws IllegalArgumentException if <code>varName</code> is not a
+     *                                  valid variable in this query.
+     * @throws RepositoryException      if an error occurs.
+     * @since JCR 2.0
+     */
+    public void bindValue(String varName, Value value)
+            throws IllegalArgumentException, RepositoryException;
+
+    /**
+     * Returns the names of the bind variables in this query. If this query
+     * does not contain any bind variables then an empty array is returned.
+     *
+     * @return the names of the bind variables in this query.
+     * @throws RepositoryException if an error occurs.
+     * @since JCR 2.0
+     */
+    public String[] getBindVariableNames() throws RepositoryException;
+}
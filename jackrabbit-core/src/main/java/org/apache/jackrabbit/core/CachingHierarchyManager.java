@@ -17,6 +17,9 @@
 package org.apache.jackrabbit.core;
 
 import org.apache.commons.collections.map.ReferenceMap;
+import org.apache.jackrabbit.core.state.Cache;
+import org.apache.jackrabbit.core.state.CacheAccessListener;
+import org.apache.jackrabbit.core.state.CacheManager;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.ItemStateManager;
@@ -45,13 +48,25 @@ import java.util.Iterator;
  * items.
  */
 public class CachingHierarchyManager extends HierarchyManagerImpl
-        implements NodeStateListener, Dumpable {
+        implements NodeStateListener, Dumpable, Cache {
 
     /**
      * Default upper limit of cached states
      */
     public static final int DEFAULT_UPPER_LIMIT = 10000;
 
+    /**
+     * Minimum upper limit of cached states, if the limit is set by the
+     * {@link CacheManager}
+     */
+    private static final int MIN_UPPER_LIMIT = 100;
+
+    /**
+     * Estimated memory used by a cached state in bytes, including the
+     * path map element and the id mapping
+     */
+    static final int ENTRY_SIZE = 256;
+
     /**
      * Logger instance
      */
@@ -75,7 +90,22 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
     /**
      * Upper limit
      */
-    private final int upperLimit;
+    private int upperLimit;
+
+    /**
+     * Number of lookups since the last {@link #resetAccessCount()}
+     */
+    private long accessCount;
+
+    /**
+     * Number of lookups that missed since the last {@link #resetAccessCount()}
+     */
+    private long missCount;
+
+    /**
+     * Cache access listener
+     */
+    private CacheAccessListener accessListener;
 
     /**
      * Head of LRU
@@ -102,6 +132,9 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                                    ItemStateManager provider) {
         super(rootNodeId, provider);
         upperLimit = DEFAULT_UPPER_LIMIT;
+        CacheManager cacheMgr = CacheManager.getInstance();
+        cacheMgr.add(this);
+        setAccessListener(cacheMgr);
     }
 
     /**
@@ -114,6 +147,23 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
         this.consistencyCheckEnabled = enable;
     }
 
+    /**
+     * Disposes this hierarchy manager. It is removed from the cache manager,
+     * so that the memory assigned to it is available to the other caches
+     * again. Must be called when the session or workspace that owns this
+     * hierarchy manager is closed.
+     */
+    public void dispose() {
+        CacheAccessListener listener;
+        synchronized (cacheMonitor) {
+            listener = accessListener;
+            accessListener = null;
+        }
+        if (listener != null) {
+            listener.disposeCache(this);
+        }
+    }
+
     //-------------------------------------------------< base class overrides >
 
     /**
@@ -470,6 +520,81 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
         }
     }
 
+    //---------------------------------------------------------------< Cache >
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Converts the memory size into an upper limit of cached states and
+     * evicts the least recently used states that exceed the new limit.
+     */
+    public void setMaxMemorySize(long size) {
+        synchronized (cacheMonitor) {
+            upperLimit = (int) Math.max(MIN_UPPER_LIMIT,
+                    Math.min(Integer.MAX_VALUE, size / ENTRY_SIZE));
+            while (idCache.size() > upperLimit) {
+                if (!evictLRU()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxMemorySize() {
+        synchronized (cacheMonitor) {
+            return (long) upperLimit * ENTRY_SIZE;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMemoryUsed() {
+        synchronized (cacheMonitor) {
+            return (long) idCache.size() * ENTRY_SIZE;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAccessCount() {
+        synchronized (cacheMonitor) {
+            return accessCount;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMissCount() {
+        synchronized (cacheMonitor) {
+            return missCount;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void resetAccessCount() {
+        synchronized (cacheMonitor) {
+            accessCount = 0;
+            missCount = 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setAccessListener(CacheAccessListener listener) {
+        synchronized (cacheMonitor) {
+            accessListener = listener;
+        }
+    }
+
     //------------------------------------------------------< private methods >
 
     /**
@@ -479,14 +604,20 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * @return cached element, <code>null</code> if not found
      */
     private PathMap.Element get(ItemId id) {
+        PathMap.Element element = null;
+        boolean notify;
         synchronized (cacheMonitor) {
             LRUEntry entry = (LRUEntry) idCache.get(id);
+            notify = touch(entry != null);
             if (entry != null) {
                 entry.touch();
-                return entry.getElements()[0];
+                element = entry.getElements()[0];
             }
-            return null;
         }
+        if (notify) {
+            notifyAccessListener();
+        }
+        return element;
     }
 
     /**
@@ -498,18 +629,27 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * @return cached element, <code>null</code> if not found
      */
     private PathMap.Element map(Path path) {
+        PathMap.Element element;
+        boolean notify;
         synchronized (cacheMonitor) {
-            PathMap.Element element = pathCache.map(path, false);
+            element = pathCache.map(path, false);
+            // only a cached state for the complete path is a hit
+            boolean hit = element != null && element.hasPath(path);
             while (element != null) {
                 LRUEntry entry = (LRUEntry) element.get();
                 if (entry != null) {
                     entry.touch();
-                    return element;
+                    break;
                 }
+                hit = false;
                 element = element.getParent();
             }
-            return null;
+            notify = touch(hit);
+        }
+        if (notify) {
+            notifyAccessListener();
         }
+        return element;
     }
 
     /**
@@ -524,22 +664,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 return;
             }
             if (idCache.size() >= upperLimit) {
-                /**
-                 * Remove least recently used item. Scans the LRU list from
-                 * head to tail and removes the first item that has no children.
-                 */
-                LRUEntry entry = head;
-                while (entry != null) {
-                    PathMap.Element[] elements = entry.getElements();
-                    int childrenCount = 0;
-                    for (int i = 0; i < elements.length; i++) {
-                        childrenCount += elements[i].getChildrenCount();
-                    }
-                    if (childrenCount == 0) {
-                        evictAll(entry.getId(), false);
-                        return;
-                    }
-                    entry = entry.getNext();
+                if (evictLRU()) {
+                    return;
                 }
             }
             PathMap.Element element = pathCache.put(path);
@@ -561,6 +687,61 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
         }
     }
 
+    /**
+     * Remove least recently used item. Scans the LRU list from head to tail
+     * and removes the first item that has no children.
+     *
+     * @return <code>true</code> if an item was removed;
+     *         <code>false</code> otherwise
+     */
+    private boolean evictLRU() {
+        // assert: synchronized (cacheMonitor)
+        LRUEntry entry = head;
+        while (entry != null) {
+            PathMap.Element[] elements = entry.getElements();
+            int childrenCount = 0;
+            for (int i = 0; i < elements.length; i++) {
+                childrenCount += elements[i].getChildrenCount();
+            }
+            if (childrenCount == 0) {
+                evictAll(entry.getId(), false);
+                return true;
+            }
+            entry = entry.getNext();
+        }
+        return false;
+    }
+
+    /**
+     * Records a lookup in the cache.
+     *
+     * @param hit whether the lookup found the item
+     * @return <code>true</code> if the access listener should be informed
+     */
+    private boolean touch(boolean hit) {
+        // assert: synchronized (cacheMonitor)
+        accessCount++;
+        if (!hit) {
+            missCount++;
+        }
+        return accessCount % CacheAccessListener.ACCESS_INTERVAL == 0;
+    }
+
+    /**
+     * Informs the access listener after a number of lookups. Must not be
+     * called while holding the cache monitor, because the listener may
+     * resize other caches.
+     */
+    private void notifyAccessListener() {
+        CacheAccessListener listener;
+        synchronized (cacheMonitor) {
+            listener = accessListener;
+        }
+        if (listener != null) {
+            listener.cacheAccessed();
+        }
+    }
+
     /**
      * Return a flag indicating whether a certain node and/or path is cached.
      * If <code>path</code> is <code>null</code>, check whether the item is
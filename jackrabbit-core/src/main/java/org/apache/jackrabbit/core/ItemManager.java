@@ -53,6 +53,7 @@ import javax.jcr.nodetype.PropertyDefinition;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -602,6 +603,30 @@ public class ItemManager implements Dumpable, ItemStateListener {
         return new LazyItemIterator(this, childIds, parentId);
     }
 
+    /**
+     * Hints this item manager that the nodes with the given ids are about
+     * to be read. The states of nodes that have not been instantiated yet
+     * are loaded in advance by the underlying item state managers.
+     *
+     * @param ids the {@link NodeId}s of the nodes
+     */
+    void prefetchNodes(List ids) {
+        if (!(itemStateProvider instanceof SessionItemStateManager)) {
+            return;
+        }
+        List uncached = new ArrayList(ids.size());
+        Iterator iter = ids.iterator();
+        while (iter.hasNext()) {
+            NodeId id = (NodeId) iter.next();
+            if (retrieveItem(id) == null) {
+                uncached.add(id);
+            }
+        }
+        if (uncached.size() > 1) {
+            ((SessionItemStateManager) itemStateProvider).prefetch(uncached);
+        }
+    }
+
     /**
      * @param parentId
      * @return
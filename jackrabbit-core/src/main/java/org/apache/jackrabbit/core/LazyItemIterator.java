@@ -50,6 +50,9 @@ class LazyItemIterator implements NodeIterator, PropertyIterator {
     /** Logger instance for this class */
     private static Logger log = LoggerFactory.getLogger(LazyItemIterator.class);
 
+    /** the number of child nodes that are prefetched at once */
+    private static final int PREFETCH_SIZE = 32;
+
     /** the item manager that is used to lazily fetch the items */
     private final ItemManager itemMgr;
 
@@ -65,6 +68,9 @@ class LazyItemIterator implements NodeIterator, PropertyIterator {
     /** prefetched item to be returned on <code>{@link #next()}</code> */
     private Item next;
 
+    /** the position up to which child node states have been prefetched */
+    private int prefetched;
+
     /**
      * Creates a new <code>LazyItemIterator</code> instance.
      *
@@ -104,6 +110,9 @@ class LazyItemIterator implements NodeIterator, PropertyIterator {
         next = null;
         while (next == null && pos < idList.size()) {
             ItemId id = (ItemId) idList.get(pos);
+            if (parentId != null && pos >= prefetched) {
+                prefetchStates();
+            }
             try {
                 if (parentId != null) {
                     next = itemMgr.getNode((NodeId) id, parentId);
@@ -129,6 +138,16 @@ class LazyItemIterator implements NodeIterator, PropertyIterator {
         }
     }
 
+    /**
+     * Loads the states of the next {@link #PREFETCH_SIZE} child nodes in
+     * advance, so that they can be read from the persistence manager with
+     * a single request.
+     */
+    private void prefetchStates() {
+        prefetched = Math.min(pos + PREFETCH_SIZE, idList.size());
+        itemMgr.prefetchNodes(new ArrayList(idList.subList(pos, prefetched)));
+    }
+
     //---------------------------------------------------------< NodeIterator >
     /**
      * {@inheritDoc}
@@ -21,6 +21,7 @@ import EDU.oswego.cs.dl.util.concurrent.ReadWriteLock;
 import EDU.oswego.cs.dl.util.concurrent.ReentrantWriterPreferenceReadWriteLock;
 import EDU.oswego.cs.dl.util.concurrent.WriterPreferenceReadWriteLock;
 import org.apache.commons.collections.map.ReferenceMap;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.api.JackrabbitRepository;
 import org.apache.jackrabbit.commons.AbstractRepository;
@@ -35,6 +36,7 @@ import org.apache.jackrabbit.core.cluster.UpdateEventListener;
 import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.core.config.PersistenceManagerConfig;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.config.SearchConfig;
 import org.apache.jackrabbit.core.config.SecurityManagerConfig;
 import org.apache.jackrabbit.core.config.VersioningConfig;
 import org.apache.jackrabbit.core.config.WorkspaceConfig;
@@ -52,6 +54,9 @@ import org.apache.jackrabbit.core.observation.EventStateCollection;
 import org.apache.jackrabbit.core.observation.ObservationDispatcher;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.query.ExtractedTextCache;
+import org.apache.jackrabbit.core.query.AbstractQueryHandler;
+import org.apache.jackrabbit.core.query.QueryHandler;
 import org.apache.jackrabbit.core.security.JackrabbitSecurityManager;
 import org.apache.jackrabbit.core.security.authentication.AuthContext;
 import org.apache.jackrabbit.core.security.simple.SimpleSecurityManager;
@@ -95,6 +100,7 @@ import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.security.AccessControlContext;
 import java.security.AccessController;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -111,6 +117,18 @@ public class RepositoryImpl extends AbstractRepository
 
     private static Logger log = LoggerFactory.getLogger(RepositoryImpl.class);
 
+    /**
+     * Directory in a search index snapshot that contains the search indexes
+     * of the workspaces.
+     */
+    private static final String SNAPSHOT_WORKSPACES = "workspaces/";
+
+    /**
+     * Directory in a search index snapshot that contains the search index
+     * of the version storage.
+     */
+    private static final String SNAPSHOT_SYSTEM = "system";
+
     /**
      * hardcoded id of the repository root node
      */
@@ -178,6 +196,12 @@ public class RepositoryImpl extends AbstractRepository
      */
     private final DataStore dataStore;
 
+    /**
+     * Cache of the text extracted from binaries in the data store, or
+     * <code>null</code> if there is no data store.
+     */
+    private final ExtractedTextCache textCache;
+
     /**
      * the delegating observation dispatcher for all workspaces
      */
@@ -224,9 +248,10 @@ public class RepositoryImpl extends AbstractRepository
     private final ReadWriteLock shutdownLock = new WriterPreferenceReadWriteLock();
 
     /**
-     * There is one cache manager per repository that manages the sizes of the caches used.
+     * The global cache manager that manages the sizes of the caches used.
+     * The caches of all repositories in this JVM share its memory budget.
      */
-    private final CacheManager cacheMgr = new CacheManager();
+    private final CacheManager cacheMgr = CacheManager.getInstance();
 
     /**
      * There is only one item state cache factory
@@ -284,6 +309,10 @@ public class RepositoryImpl extends AbstractRepository
             dataStore = repConfig.getDataStore();
             if (dataStore != null) {
                 assert InternalValue.USE_DATA_STORE;
+                textCache = new ExtractedTextCache(
+                        new File(repConfig.getHomeDir(), "textcache"));
+            } else {
+                textCache = null;
             }
 
             // init workspace configs
@@ -370,6 +399,15 @@ public class RepositoryImpl extends AbstractRepository
         return dataStore;
     }
 
+    /**
+     * Returns the cache of text extracted from binaries in the data store.
+     *
+     * @return the text cache or <code>null</code> if there is no data store.
+     */
+    public ExtractedTextCache getExtractedTextCache() {
+        return textCache;
+    }
+
     /**
      * Get the cache manager of this repository, useful
      * for setting its memory parameters.
@@ -685,7 +723,8 @@ public class RepositoryImpl extends AbstractRepository
                 SystemSession defSysSession = getSystemSession(wspName);
                 systemSearchMgr = new SearchManager(repConfig.getSearchConfig(),
                         nsReg, ntReg, defSysSession.getItemStateManager(),
-                        vMgr.getPersistenceManager(), SYSTEM_ROOT_NODE_ID, null, null);
+                        vMgr.getPersistenceManager(), SYSTEM_ROOT_NODE_ID,
+                        null, null, textCache);
                 ObservationManager obsMgr = defSysSession.getWorkspace().getObservationManager();
                 obsMgr.addEventListener(systemSearchMgr, Event.NODE_ADDED
                         | Event.NODE_REMOVED | Event.PROPERTY_ADDED
@@ -1778,7 +1817,8 @@ public class RepositoryImpl extends AbstractRepository
                             persistMgr,
                             rootNodeId,
                             getSystemSearchManager(getName()),
-                            SYSTEM_ROOT_NODE_ID);
+                            SYSTEM_ROOT_NODE_ID,
+                            textCache);
                 }
                 return searchMgr;
             }
@@ -2242,5 +2282,117 @@ public class RepositoryImpl extends AbstractRepository
         public DataStore getDataStore() {
             return RepositoryImpl.this.getDataStore();
         }
+
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * Workspaces that are not initialized yet are initialized first.
+         * Only search indexes of query handlers that support snapshots are
+         * copied.
+         */
+        public void snapshotIndexes(File directory) throws RepositoryException {
+            try {
+                String[] names = getWorkspaceNames();
+                for (int i = 0; i < names.length; i++) {
+                    snapshotIndex(getSearchManager(names[i]),
+                            new File(directory, SNAPSHOT_WORKSPACES + names[i]));
+                }
+                snapshotIndex(getSystemSearchManager(repConfig.getDefaultWorkspaceName()),
+                        new File(directory, SNAPSHOT_SYSTEM));
+            } catch (IOException e) {
+                String msg = "Unable to copy search index: " + e.getMessage();
+                throw new RepositoryException(msg, e);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * Every search index is first copied next to its configured path and
+         * then renamed, so a search index is either restored completely or
+         * not at all. Search indexes missing from the snapshot are built when
+         * the workspace is initialized.
+         */
+        public boolean restoreIndexes(File directory) throws RepositoryException {
+            List sources = new ArrayList();
+            List targets = new ArrayList();
+            Iterator iter = repConfig.getWorkspaceConfigs().iterator();
+            while (iter.hasNext()) {
+                WorkspaceConfig config = (WorkspaceConfig) iter.next();
+                addIndex(config.getSearchConfig(),
+                        new File(directory, SNAPSHOT_WORKSPACES + config.getName()),
+                        sources, targets);
+            }
+            addIndex(repConfig.getSearchConfig(),
+                    new File(directory, SNAPSHOT_SYSTEM), sources, targets);
+
+            for (int i = 0; i < targets.size(); i++) {
+                File target = (File) targets.get(i);
+                String[] files = target.list();
+                if (files != null && files.length > 0) {
+                    log.info("Search index exists: " + target.getPath());
+                    return false;
+                }
+            }
+            try {
+                for (int i = 0; i < targets.size(); i++) {
+                    File source = (File) sources.get(i);
+                    File target = (File) targets.get(i);
+                    File temp = new File(target.getPath() + ".restore");
+                    FileUtils.deleteDirectory(temp);
+                    FileUtils.copyDirectory(source, temp);
+                    FileUtils.deleteDirectory(target);
+                    if (!temp.renameTo(target)) {
+                        String msg = "Unable to rename " + temp.getPath()
+                                + " to " + target.getPath();
+                        throw new IOException(msg);
+                    }
+                    log.info("Search index restored: " + target.getPath());
+                }
+            } catch (IOException e) {
+                String msg = "Unable to restore search index: " + e.getMessage();
+                throw new RepositoryException(msg, e);
+            }
+            return true;
+        }
+
+        /**
+         * Copy a snapshot of the search index of a search manager.
+         *
+         * @param searchMgr search manager or <code>null</code>
+         * @param target directory to copy the search index to
+         * @throws IOException if an error occurs while copying
+         */
+        private void snapshotIndex(SearchManager searchMgr, File target)
+                throws IOException {
+            if (searchMgr != null) {
+                QueryHandler handler = searchMgr.getQueryHandler();
+                if (!(handler instanceof AbstractQueryHandler)
+                        || !((AbstractQueryHandler) handler).snapshot(target)) {
+                    log.info("Query handler does not support snapshots: "
+                            + handler.getClass().getName());
+                }
+            }
+        }
+
+        /**
+         * Add a search index to restore, if it is configured and contained
+         * in the snapshot.
+         *
+         * @param config search configuration or <code>null</code>
+         * @param source search index in the snapshot
+         * @param sources list of search indexes in the snapshot
+         * @param targets list of directories to restore search indexes to
+         */
+        private void addIndex(SearchConfig config, File source,
+                              List sources, List targets) {
+            if (config != null && source.isDirectory()) {
+                String path = config.getParameters().getProperty("path");
+                if (path != null) {
+                    sources.add(source);
+                    targets.add(new File(path));
+                }
+            }
+        }
     }
 }
@@ -23,6 +23,7 @@ import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
 import org.apache.jackrabbit.core.observation.EventImpl;
 import org.apache.jackrabbit.core.observation.SynchronousEventListener;
 import org.apache.jackrabbit.core.query.AbstractQueryImpl;
+import org.apache.jackrabbit.core.query.ExtractedTextCache;
 import org.apache.jackrabbit.core.query.QueryHandler;
 import org.apache.jackrabbit.core.query.QueryHandlerContext;
 import org.apache.jackrabbit.core.query.QueryImpl;
@@ -152,6 +153,11 @@ public class SearchManager implements SynchronousEventListener {
      */
     private final NodeId excludedNodeId;
 
+    /**
+     * The cache of extracted text or <code>null</code> if none.
+     */
+    private final ExtractedTextCache textCache;
+
     /**
      * Path that will be excluded from indexing.
      */
@@ -187,6 +193,37 @@ public class SearchManager implements SynchronousEventListener {
                          NodeId rootNodeId,
                          SearchManager parentMgr,
                          NodeId excludedNodeId) throws RepositoryException {
+        this(config, nsReg, ntReg, itemMgr, pm, rootNodeId,
+                parentMgr, excludedNodeId, null);
+    }
+
+    /**
+     * Creates a new <code>SearchManager</code>.
+     *
+     * @param config         the search configuration.
+     * @param nsReg          the namespace registry.
+     * @param ntReg          the node type registry.
+     * @param itemMgr        the shared item state manager.
+     * @param pm             the underlying persistence manager.
+     * @param rootNodeId     the id of the root node.
+     * @param parentMgr      the parent search manager or <code>null</code> if
+     *                       there is no parent search manager.
+     * @param excludedNodeId id of the node that should be excluded from
+     *                       indexing. Any descendant of that node will also be
+     *                       excluded from indexing.
+     * @param textCache      the cache of text extracted from binaries in the
+     *                       data store or <code>null</code> if none.
+     * @throws RepositoryException if the search manager cannot be initialized
+     */
+    public SearchManager(SearchConfig config,
+                         final NamespaceRegistryImpl nsReg,
+                         NodeTypeRegistry ntReg,
+                         ItemStateManager itemMgr,
+                         PersistenceManager pm,
+                         NodeId rootNodeId,
+                         SearchManager parentMgr,
+                         NodeId excludedNodeId,
+                         ExtractedTextCache textCache) throws RepositoryException {
         this.fs = config.getFileSystem();
         this.config = config;
         this.ntReg = ntReg;
@@ -196,6 +233,7 @@ public class SearchManager implements SynchronousEventListener {
         this.rootNodeId = rootNodeId;
         this.parentHandler = (parentMgr != null) ? parentMgr.handler : null;
         this.excludedNodeId = excludedNodeId;
+        this.textCache = textCache;
 
         // register namespaces
         safeRegisterNamespace(NS_XS_PREFIX, NS_XS_URI);
@@ -549,7 +587,8 @@ public class SearchManager implements SynchronousEventListener {
             handler = (QueryHandler) config.newInstance();
             QueryHandlerContext context
                     = new QueryHandlerContext(fs, itemMgr, pm, rootNodeId,
-                            ntReg, nsReg, parentHandler, excludedNodeId);
+                            ntReg, nsReg, parentHandler, excludedNodeId,
+                            textCache);
             handler.init(context);
         } catch (Exception e) {
             throw new RepositoryException(e.getMessage(), e);
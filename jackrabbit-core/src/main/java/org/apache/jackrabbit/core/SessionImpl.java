@@ -197,6 +197,11 @@ public class SessionImpl extends AbstractSession
      */
     protected NamePathResolver namePathResolver;
 
+    /**
+     * Whether a namespace prefix has been remapped in this session.
+     */
+    private volatile boolean localNamespaceMappings = false;
+
     /**
      * The version manager for this session
      */
@@ -1221,6 +1226,18 @@ public class SessionImpl extends AbstractSession
         super.setNamespacePrefix(prefix, uri);
         // Clear name and path caches
         namePathResolver = new DefaultNamePathResolver(this, true);
+        localNamespaceMappings = true;
+    }
+
+    /**
+     * Returns <code>true</code> if a namespace prefix has been remapped in
+     * this session. Names and paths of such a session may resolve differently
+     * than in other sessions.
+     *
+     * @return whether this session has local namespace mappings.
+     */
+    public boolean hasLocalNamespaceMappings() {
+        return localNamespaceMappings;
     }
 
 
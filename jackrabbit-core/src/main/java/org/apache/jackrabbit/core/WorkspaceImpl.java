@@ -162,6 +162,7 @@ public class WorkspaceImpl extends AbstractWorkspace
             obsMgr = null;
         }
         stateMgr.dispose();
+        hierMgr.dispose();
     }
 
     /**
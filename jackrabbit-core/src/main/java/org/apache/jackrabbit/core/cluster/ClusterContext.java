@@ -67,4 +67,27 @@ public interface ClusterContext {
      */
     void lockEventsReady(String workspace) throws RepositoryException;
 
+    /**
+     * Copies a consistent snapshot of all search indexes into a directory.
+     * Every search index contains at least the changes up to the revision
+     * of the cluster node at the time this method is called.
+     *
+     * @param directory directory to copy the search indexes to
+     * @throws RepositoryException if the search indexes cannot be copied
+     */
+    void snapshotIndexes(File directory) throws RepositoryException;
+
+    /**
+     * Restores the search indexes from a snapshot created by
+     * {@link #snapshotIndexes(File)}. Called before any workspace has been
+     * initialized. Search indexes are only restored if none of them exists
+     * yet.
+     *
+     * @param directory directory containing the snapshot
+     * @return <code>true</code> if the search indexes have been restored;
+     *         <code>false</code> if search indexes already exist
+     * @throws RepositoryException if the search indexes cannot be restored
+     */
+    boolean restoreIndexes(File directory) throws RepositoryException;
+
 }
@@ -18,7 +18,10 @@ package org.apache.jackrabbit.core.cluster;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -38,6 +41,7 @@ import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
 import org.apache.jackrabbit.core.journal.RecordConsumer;
 import org.apache.jackrabbit.core.journal.RecordProducer;
+import org.apache.jackrabbit.core.journal.RevisionNotifier;
 import org.apache.jackrabbit.core.nodetype.InvalidNodeTypeDefException;
 import org.apache.jackrabbit.core.nodetype.NodeTypeDef;
 import org.apache.jackrabbit.core.state.ChangeLog;
@@ -71,6 +75,22 @@ public class ClusterNode implements Runnable,
      */
     private static final String PRODUCER_ID = "JR";
 
+    /**
+     * Prefix of a snapshot directory name, followed by the revision and the
+     * cluster node id.
+     */
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    /**
+     * Suffix of a snapshot directory that is still being written.
+     */
+    private static final String SNAPSHOT_TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Number of snapshots kept when a new snapshot is published.
+     */
+    private static final int SNAPSHOTS_KEPT = 2;
+
     /**
      * Status constant.
      */
@@ -131,6 +151,17 @@ public class ClusterNode implements Runnable,
      */
     private final Latch stopLatch = new Latch();
 
+    /**
+     * Monitor used to wake up the synchronization thread before the
+     * synchronization delay has passed.
+     */
+    private final Object syncMonitor = new Object();
+
+    /**
+     * Flag indicating whether an immediate synchronization was requested.
+     */
+    private boolean syncRequested;
+
     /**
      * Status flag, one of {@link #NONE}, {@link #STARTED} or {@link #STOPPED}.
      */
@@ -181,6 +212,63 @@ public class ClusterNode implements Runnable,
      */
     private ClusterRecordDeserializer deserializer = new ClusterRecordDeserializer();
 
+    /**
+     * Maximum number of change log records applied together.
+     */
+    private int batchSize = 1;
+
+    /**
+     * Update listener of the change log records in the current batch.
+     */
+    private UpdateEventListener batchListener;
+
+    /**
+     * Merged changes of the current batch.
+     */
+    private ChangeLog batchChanges;
+
+    /**
+     * Events of the current batch.
+     */
+    private List batchEvents;
+
+    /**
+     * Number of change log records in the current batch.
+     */
+    private int batchCount;
+
+    /**
+     * Revision of the last change log record in the current batch.
+     */
+    private long batchRevision;
+
+    /**
+     * Directory where snapshots are published, <code>null</code> if
+     * snapshots are disabled.
+     */
+    private File snapshotDirectory;
+
+    /**
+     * Interval in milliseconds between two snapshots published by this node.
+     */
+    private long snapshotInterval;
+
+    /**
+     * Time of the last snapshot published by this node.
+     */
+    private long lastSnapshotTime;
+
+    /**
+     * Thread publishing a periodic snapshot, <code>null</code> if no
+     * periodic snapshot is being published.
+     */
+    private volatile Thread snapshotThread;
+
+    /**
+     * Mutex used when publishing snapshots.
+     */
+    private final Object snapshotMonitor = new Object();
+
     /**
      * Initialize this cluster node.
      *
@@ -210,6 +298,24 @@ public class ClusterNode implements Runnable,
             instanceRevision = journal.getInstanceRevision();
             journal.register(this);
             producer = journal.getProducer(PRODUCER_ID);
+            if (journal instanceof AbstractJournal) {
+                AbstractJournal aj = (AbstractJournal) journal;
+                batchSize = aj.getReplayBatchSize();
+                if (aj.getSnapshotDirectory() != null) {
+                    snapshotDirectory = new File(aj.getSnapshotDirectory());
+                    snapshotInterval = aj.getSnapshotInterval();
+                    lastSnapshotTime = System.currentTimeMillis();
+                    if (instanceRevision.get() == 0) {
+                        restoreSnapshot();
+                    }
+                }
+                aj.setRevisionListener(
+                        new RevisionNotifier.Listener() {
+                            public void revisionChanged() {
+                                requestSync();
+                            }
+                        });
+            }
         } catch (ConfigurationException e) {
             throw new ClusterException(e.getMessage(), e.getCause());
         } catch (JournalException e) {
@@ -270,12 +376,19 @@ public class ClusterNode implements Runnable,
     }
 
     /**
-     * Run loop that will sync this node after some delay.
+     * Run loop that will sync this node after some delay, or as soon as
+     * a synchronization has been requested.
      */
     public void run() {
         for (;;) {
             try {
-                if (stopLatch.attempt(syncDelay)) {
+                synchronized (syncMonitor) {
+                    if (!syncRequested && syncDelay > 0) {
+                        syncMonitor.wait(syncDelay);
+                    }
+                    syncRequested = false;
+                }
+                if (stopLatch.attempt(0)) {
                     break;
                 }
             } catch (InterruptedException e) {
@@ -295,9 +408,36 @@ public class ClusterNode implements Runnable,
                 log.error(msg, e);
                 throw e;
             }
+            if (snapshotInterval > 0 && snapshotThread == null
+                    && System.currentTimeMillis() - lastSnapshotTime >= snapshotInterval) {
+                startSnapshotThread();
+            }
         }
     }
 
+    /**
+     * Publishes a snapshot on a separate thread, so that copying the search
+     * indexes does not delay the synchronization of this node.
+     */
+    private void startSnapshotThread() {
+        lastSnapshotTime = System.currentTimeMillis();
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    publishSnapshot();
+                } catch (ClusterException e) {
+                    String msg = "Periodic snapshot failed: " + e.getMessage();
+                    log.error(msg, e);
+                } finally {
+                    snapshotThread = null;
+                }
+            }
+        }, "ClusterNode-" + clusterNodeId + "-Snapshot");
+        t.setDaemon(true);
+        snapshotThread = t;
+        t.start();
+    }
+
     /**
      * Synchronize contents from journal.
      *
@@ -320,6 +460,180 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Requests an immediate synchronization by the synchronization thread,
+     * e.g. because another cluster node announced a new revision. Returns
+     * without waiting for the synchronization.
+     */
+    public void requestSync() {
+        synchronized (syncMonitor) {
+            syncRequested = true;
+            syncMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Publish a snapshot of the search indexes and the revision of this node
+     * to the snapshot directory. Cluster nodes starting without a local
+     * revision restore the newest snapshot. Older snapshots are removed.
+     *
+     * @throws ClusterException if snapshots are disabled or an error occurs
+     */
+    public void publishSnapshot() throws ClusterException {
+        if (snapshotDirectory == null) {
+            throw new ClusterException("Snapshot directory not configured.");
+        }
+        synchronized (snapshotMonitor) {
+            lastSnapshotTime = System.currentTimeMillis();
+            doPublishSnapshot();
+        }
+    }
+
+    /**
+     * Publish a snapshot. The caller must hold the snapshot mutex.
+     *
+     * @throws ClusterException if an error occurs
+     */
+    private void doPublishSnapshot() throws ClusterException {
+
+        long revision = getIndexedRevision();
+        String name = SNAPSHOT_PREFIX + revision + "-" + clusterNodeId;
+        File snapshot = new File(snapshotDirectory, name);
+        if (snapshot.exists()) {
+            log.info("Snapshot of revision " + revision + " already published.");
+            return;
+        }
+        File temp = new File(snapshotDirectory, name + SNAPSHOT_TEMP_SUFFIX);
+        try {
+            FileUtils.deleteDirectory(temp);
+            clusterContext.snapshotIndexes(temp);
+            if (!temp.renameTo(snapshot)) {
+                String msg = "Unable to rename snapshot: " + temp.getPath();
+                throw new ClusterException(msg);
+            }
+        } catch (IOException e) {
+            String msg = "Unable to publish snapshot: " + e.getMessage();
+            throw new ClusterException(msg, e);
+        } catch (RepositoryException e) {
+            String msg = "Unable to publish snapshot: " + e.getMessage();
+            throw new ClusterException(msg, e);
+        }
+        log.info("Published snapshot of revision: " + revision);
+
+        File[] snapshots = getSnapshots();
+        for (int i = SNAPSHOTS_KEPT; i < snapshots.length; i++) {
+            try {
+                FileUtils.deleteDirectory(snapshots[i]);
+            } catch (IOException e) {
+                String msg = "Unable to remove snapshot: " + snapshots[i].getPath();
+                log.warn(msg, e);
+            }
+        }
+    }
+
+    /**
+     * Return the revision up to which all changes have been applied to the
+     * search indexes. The revision of this node is set as soon as a record
+     * has been appended or consumed, so it is read while the journal is
+     * locked: a local update keeps the journal locked until its events have
+     * been dispatched to the search managers, and external changes are
+     * applied before the revision is set during a synchronization.
+     *
+     * @return revision contained in the search indexes
+     * @throws ClusterException if the journal cannot be locked
+     */
+    private long getIndexedRevision() throws ClusterException {
+        AbstractJournal aj = (AbstractJournal) journal;
+        try {
+            aj.lockAndSync();
+            try {
+                return instanceRevision.get();
+            } finally {
+                aj.unlock(false);
+            }
+        } catch (JournalException e) {
+            throw new ClusterException(e.getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Restore the search indexes from the newest snapshot and continue from
+     * the revision of the snapshot. If no snapshot can be restored, this node
+     * replays the whole journal.
+     */
+    private void restoreSnapshot() {
+        File[] snapshots = getSnapshots();
+        if (snapshots.length == 0) {
+            log.info("No snapshot found in: " + snapshotDirectory.getPath());
+            return;
+        }
+        long revision = getSnapshotRevision(snapshots[0]);
+        try {
+            if (clusterContext.restoreIndexes(snapshots[0])) {
+                instanceRevision.set(revision);
+                log.info("Restored snapshot of revision: " + revision);
+            } else {
+                log.info("Search indexes exist, snapshot not restored.");
+            }
+        } catch (RepositoryException e) {
+            String msg = "Unable to restore snapshot: " + snapshots[0].getPath();
+            log.error(msg, e);
+        } catch (JournalException e) {
+            String msg = "Unable to set revision of snapshot: " + revision;
+            log.error(msg, e);
+        }
+    }
+
+    /**
+     * Return the published snapshots, newest first.
+     *
+     * @return snapshot directories
+     */
+    private File[] getSnapshots() {
+        File[] files = snapshotDirectory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List snapshots = new ArrayList();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].isDirectory() && getSnapshotRevision(files[i]) >= 0) {
+                snapshots.add(files[i]);
+            }
+        }
+        File[] result = (File[]) snapshots.toArray(new File[snapshots.size()]);
+        Arrays.sort(result, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long r1 = getSnapshotRevision((File) o1);
+                long r2 = getSnapshotRevision((File) o2);
+                return r1 > r2 ? -1 : (r1 < r2 ? 1 : 0);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Return the revision of a snapshot.
+     *
+     * @param snapshot snapshot directory
+     * @return revision or <code>-1</code> if the directory is no complete
+     *         snapshot
+     */
+    private static long getSnapshotRevision(File snapshot) {
+        String name = snapshot.getName();
+        if (!name.startsWith(SNAPSHOT_PREFIX) || name.endsWith(SNAPSHOT_TEMP_SUFFIX)) {
+            return -1;
+        }
+        int end = name.indexOf('-', SNAPSHOT_PREFIX.length());
+        if (end == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * Stops this cluster node.
      */
@@ -328,6 +642,7 @@ public class ClusterNode implements Runnable,
             status = STOPPED;
 
             stopLatch.release();
+            requestSync();
 
             // Give synchronization thread some time to finish properly before
             // closing down the journal (see JCR-1553)
@@ -339,6 +654,15 @@ public class ClusterNode implements Runnable,
                     log.warn(msg);
                 }
             }
+            Thread t = snapshotThread;
+            if (t != null) {
+                try {
+                    t.join(stopDelay);
+                } catch (InterruptedException e) {
+                    String msg = "Interrupted while joining snapshot thread.";
+                    log.warn(msg);
+                }
+            }
             if (journal != null) {
                 journal.close();
             }
@@ -794,8 +1118,17 @@ public class ClusterNode implements Runnable,
     public void consume(Record record) {
         log.info("Processing revision: " + record.getRevision());
 
+        if (batchCount > 0 && record.getRevision() <= batchRevision) {
+            // a previous synchronization failed and its records are replayed
+            log.info("Discarding " + batchCount + " unapplied records.");
+            clearBatch();
+        }
         try {
-            deserializer.deserialize(record).process(this);
+            ClusterRecord clusterRecord = deserializer.deserialize(record);
+            if (!(clusterRecord instanceof ChangeLogRecord)) {
+                applyBatch();
+            }
+            clusterRecord.process(this);
         } catch (JournalException e) {
             String msg = "Unable to read revision '" + record.getRevision() + "'.";
             log.error(msg, e);
@@ -806,6 +1139,7 @@ public class ClusterNode implements Runnable,
      * {@inheritDoc}
      */
     public void setRevision(long revision) {
+        applyBatch();
         try {
             instanceRevision.set(revision);
         } catch (JournalException e) {
@@ -848,8 +1182,62 @@ public class ClusterNode implements Runnable,
                 return;
             }
         }
+        if (batchSize > 1) {
+            if (listener != batchListener) {
+                applyBatch();
+                batchListener = listener;
+                batchChanges = new ChangeLog();
+                batchEvents = new ArrayList();
+            }
+            batchChanges.addAll(record.getChanges());
+            batchEvents.addAll(record.getEvents());
+            batchRevision = record.getRevision();
+            if (++batchCount >= batchSize) {
+                applyBatch();
+            }
+            return;
+        }
+        externalUpdate(listener, record.getChanges(), record.getEvents());
+    }
+
+    /**
+     * Apply the change log records collected in the current batch, if any,
+     * with one external update. The batch is applied before any other kind
+     * of record and before the revision of this node is set, so records are
+     * still applied in order and never skipped.
+     */
+    private void applyBatch() {
+        if (batchCount > 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Applying batch of " + batchCount
+                        + " records up to revision: " + batchRevision);
+            }
+            externalUpdate(batchListener, batchChanges, batchEvents);
+        }
+        clearBatch();
+    }
+
+    /**
+     * Clear the current batch.
+     */
+    private void clearBatch() {
+        batchListener = null;
+        batchChanges = null;
+        batchEvents = null;
+        batchCount = 0;
+    }
+
+    /**
+     * Deliver changes and events to an update listener.
+     *
+     * @param listener update listener
+     * @param changes external changes
+     * @param events events to deliver
+     */
+    private void externalUpdate(UpdateEventListener listener,
+                                ChangeLog changes, List events) {
         try {
-            listener.externalUpdate(record.getChanges(), record.getEvents());
+            listener.externalUpdate(changes, events);
         } catch (RepositoryException e) {
             String msg = "Unable to deliver update events: " + e.getMessage();
             log.error(msg);
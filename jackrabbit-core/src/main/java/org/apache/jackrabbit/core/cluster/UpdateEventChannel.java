@@ -36,7 +36,9 @@ public interface UpdateEventChannel {
     void updatePrepared(Update update);
 
     /**
-     * Called when an a update operation has been committed.
+     * Called when an a update operation has been committed. The events of
+     * the update have already been dispatched to the synchronous event
+     * listeners, e.g. the search managers.
      *
      * @param update update operation
      */
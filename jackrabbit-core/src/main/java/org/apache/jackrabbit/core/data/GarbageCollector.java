@@ -22,6 +22,7 @@ import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.observation.SynchronousEventListener;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.query.ExtractedTextCache;
 import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeState;
@@ -76,6 +77,8 @@ public class GarbageCollector {
 
     private final DataStore store;
 
+    private final ExtractedTextCache textCache;
+
     private long startScanTimestamp;
 
     private final ArrayList listeners = new ArrayList();
@@ -98,6 +101,7 @@ public class GarbageCollector {
     public GarbageCollector(SessionImpl session, IterablePersistenceManager[] list, Session[] sessionList) {
         RepositoryImpl rep = (RepositoryImpl) session.getRepository();
         store = rep.getDataStore();
+        textCache = rep.getExtractedTextCache();
         this.pmList = list;
         this.persistenceManagerScan = list != null;
         this.sessionList = sessionList;
@@ -246,7 +250,12 @@ public class GarbageCollector {
     public int deleteUnused() throws RepositoryException {
         checkScanStarted();
         checkScanStopped();
-        return store.deleteAllOlderThan(startScanTimestamp);
+        int count = store.deleteAllOlderThan(startScanTimestamp);
+        if (textCache != null) {
+            // remove the extracted text of the deleted records
+            textCache.purge(store);
+        }
+        return count;
     }
 
     private void checkScanStarted() throws RepositoryException {
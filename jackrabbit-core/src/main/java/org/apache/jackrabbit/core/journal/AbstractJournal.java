@@ -25,7 +25,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -85,6 +87,89 @@ public abstract class AbstractJournal implements Journal {
      */
     private File repHome;
 
+    /**
+     * Default port of the multicast group used to announce new revisions.
+     */
+    public static final int DEFAULT_NOTIFY_PORT = 7373;
+
+    /**
+     * Multicast group used to announce new revisions, <code>null</code> if
+     * revisions are not announced. Configurable through the repository.xml.
+     */
+    private String notifyGroup;
+
+    /**
+     * Port of the multicast group used to announce new revisions.
+     * Configurable through the repository.xml.
+     */
+    private int notifyPort = DEFAULT_NOTIFY_PORT;
+
+    /**
+     * Maximum number of updates that share one lock of the journal revision.
+     * Configurable through the repository.xml.
+     */
+    private int groupCommitSize = 1;
+
+    /**
+     * Flag indicating whether records are written in compact format.
+     * Configurable through the repository.xml.
+     */
+    private boolean compactRecords;
+
+    /**
+     * Flag indicating whether records are compressed.
+     * Configurable through the repository.xml.
+     */
+    private boolean compressRecords;
+
+    /**
+     * Maximum number of change records applied together while replaying the
+     * journal. Configurable through the repository.xml.
+     */
+    private int replayBatchSize = 1;
+
+    /**
+     * Number of records read ahead in the background while replaying the
+     * journal, <code>0</code> to disable. Configurable through the
+     * repository.xml.
+     */
+    private int replayPrefetchSize;
+
+    /**
+     * Directory shared by the cluster nodes where snapshots of the search
+     * indexes are published, <code>null</code> to disable snapshots.
+     * Configurable through the repository.xml.
+     */
+    private String snapshotDirectory;
+
+    /**
+     * Interval in milliseconds between two snapshots published by this
+     * node, <code>0</code> to never publish snapshots automatically.
+     * Configurable through the repository.xml.
+     */
+    private long snapshotInterval;
+
+    /**
+     * Number of threads waiting in {@link #lockAndSync()} for the write lock.
+     */
+    private int waitingWriters;
+
+    /**
+     * Number of successful updates whose unlock of the journal revision has
+     * been deferred to the end of the current group.
+     */
+    private int deferredUnlocks;
+
+    /**
+     * Announces new revisions, <code>null</code> if disabled.
+     */
+    private RevisionNotifier notifier;
+
+    /**
+     * Listener notified when another journal announces a new revision.
+     */
+    private volatile RevisionNotifier.Listener revisionListener;
+
     /**
      * {@inheritDoc}
      */
@@ -92,6 +177,48 @@ public abstract class AbstractJournal implements Journal {
         this.id = id;
         this.resolver = resolver;
         this.npResolver = new DefaultNamePathResolver(resolver, true);
+
+        if (notifyGroup != null) {
+            try {
+                notifier = new RevisionNotifier(id, InetAddress.getByName(notifyGroup),
+                        notifyPort, new RevisionNotifier.Listener() {
+                            public void revisionChanged() {
+                                RevisionNotifier.Listener listener = revisionListener;
+                                if (listener != null) {
+                                    listener.revisionChanged();
+                                }
+                            }
+                        });
+                notifier.start();
+            } catch (IOException e) {
+                String msg = "Unable to join multicast group " + notifyGroup
+                    + ":" + notifyPort + ", revisions are not announced.";
+                log.warn(msg, e);
+                notifier = null;
+            }
+        }
+    }
+
+    /**
+     * Close this journal. Subclasses that override this method must call
+     * the implementation in this class.
+     */
+    public void close() {
+        if (notifier != null) {
+            notifier.close();
+            notifier = null;
+        }
+    }
+
+    /**
+     * Set the listener to notify when another journal announces a new
+     * revision. The listener is only called if a multicast group has been
+     * configured with {@link #setNotifyGroup(String)}.
+     *
+     * @param listener listener or <code>null</code>
+     */
+    public void setRevisionListener(RevisionNotifier.Listener listener) {
+        this.revisionListener = listener;
     }
 
     /**
@@ -199,6 +326,9 @@ public abstract class AbstractJournal implements Journal {
      */
     protected void doSync(long startRevision) throws JournalException {
         RecordIterator iterator = getRecords(startRevision);
+        if (replayPrefetchSize > 0) {
+            iterator = new PrefetchingRecordIterator(iterator, replayPrefetchSize);
+        }
         long stopRevision = Long.MIN_VALUE;
 
         try {
@@ -246,12 +376,23 @@ public abstract class AbstractJournal implements Journal {
      * @throws JournalException if an error occurs
      */
     public void lockAndSync() throws JournalException {
+        synchronized (rwLock) {
+            waitingWriters++;
+        }
         try {
             rwLock.writeLock().acquire();
         } catch (InterruptedException e) {
+            synchronized (rwLock) {
+                waitingWriters--;
+            }
+            // the previous writer may have kept the journal locked for us
+            finishGroupCommit();
             String msg = "Unable to acquire write lock.";
             throw new JournalException(msg, e);
         }
+        synchronized (rwLock) {
+            waitingWriters--;
+        }
 
         boolean succeeded = false;
 
@@ -269,6 +410,7 @@ public abstract class AbstractJournal implements Journal {
             }
         } finally {
             if (!succeeded) {
+                unlockGroup();
                 rwLock.writeLock().release();
             }
         }
@@ -281,9 +423,80 @@ public abstract class AbstractJournal implements Journal {
      *                   successful
      */
     public void unlock(boolean successful) {
+        if (successful && deferredUnlocks + 1 < groupCommitSize) {
+            boolean waiting;
+            synchronized (rwLock) {
+                waiting = waitingWriters > 0;
+            }
+            if (waiting) {
+                // keep the journal revision locked and let the next
+                // writer append its record within the same lock
+                deferredUnlocks++;
+                rwLock.writeLock().release();
+                return;
+            }
+        }
+
         doUnlock(successful);
+        boolean committed = unlockGroup() || successful;
 
         rwLock.writeLock().release();
+
+        if (committed && notifier != null) {
+            notifier.announce();
+        }
+    }
+
+    /**
+     * Unlock the journal revision for all updates of the current group whose
+     * unlock has been deferred. Must be called while holding the write lock,
+     * after the unlock of the current update.
+     *
+     * @return <code>true</code> if there were deferred updates
+     */
+    private boolean unlockGroup() {
+        if (deferredUnlocks == 0) {
+            return false;
+        }
+        log.debug("Unlocking journal revision after " + deferredUnlocks
+                + " deferred updates.");
+        // deferred updates were successful, a failed update of the group
+        // has already undone its own changes in its nested unlock
+        while (deferredUnlocks > 0) {
+            deferredUnlocks--;
+            doUnlock(true);
+        }
+        return true;
+    }
+
+    /**
+     * Unlock the journal revision for deferred updates in case no other
+     * writer is waiting to take over the lock anymore.
+     */
+    private void finishGroupCommit() {
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                rwLock.writeLock().acquire();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            boolean waiting;
+            synchronized (rwLock) {
+                waiting = waitingWriters > 0;
+            }
+            if (!waiting && unlockGroup() && notifier != null) {
+                notifier.announce();
+            }
+        } finally {
+            rwLock.writeLock().release();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -318,7 +531,12 @@ public abstract class AbstractJournal implements Journal {
             throws JournalException;
 
     /**
-     * Unlock the journal revision. Subclass responsibility.
+     * Unlock the journal revision. Subclass responsibility. With group commit,
+     * locks are nested: the updates of a group are unlocked in reverse order
+     * and only the first lock of the group is the outermost one. A subclass
+     * must then undo the changes made since the matching {@link #doLock} when
+     * a nested lock is unlocked unsuccessfully, without affecting the changes
+     * of the other updates in the group.
      *
      * @param successful flag indicating whether the update process was
      *                   successful
@@ -389,4 +607,191 @@ public abstract class AbstractJournal implements Journal {
      public void setRevision(String revision) {
          this.revision = revision;
      }
+
+     /**
+      * @return the maximum number of updates that share one lock of the
+      *         journal revision
+      */
+     public int getGroupCommitSize() {
+         return groupCommitSize;
+     }
+
+     /**
+      * Set the maximum number of updates that share one lock of the journal
+      * revision. If greater than one, an update that finishes while another
+      * local update waits for the journal keeps the journal revision locked
+      * and hands it over. Each update still appends its own record with its
+      * own revision. The lock is released, and with a database journal the
+      * transaction committed, once for the whole group. This reduces the
+      * time that other cluster nodes wait for the global revision under
+      * concurrent local updates. A failed update ends the group and only
+      * its own changes are rolled back; the database journal uses a
+      * savepoint per update and disables group commit if the database does
+      * not support savepoints. If the shared transaction itself fails, the
+      * records of all updates in the group are lost. Default is
+      * <code>1</code>, which disables group commit.
+      *
+      * @param groupCommitSize maximum number of updates per group
+      */
+     public void setGroupCommitSize(int groupCommitSize) {
+         this.groupCommitSize = groupCommitSize;
+     }
+
+     /**
+      * @return the multicast group used to announce new revisions
+      */
+     public String getNotifyGroup() {
+         return notifyGroup;
+     }
+
+     /**
+      * Set the multicast group used to announce new revisions to the other
+      * cluster nodes, e.g. <code>239.255.73.73</code>. A node that receives
+      * an announcement synchronizes immediately. Announcements may get lost,
+      * so periodic synchronization remains as a fallback, but its delay may
+      * be raised to reduce the load on the journal.
+      *
+      * @param notifyGroup the multicast group or <code>null</code> to
+      *                    disable announcements
+      */
+     public void setNotifyGroup(String notifyGroup) {
+         this.notifyGroup = notifyGroup;
+     }
+
+     /**
+      * @return the port of the multicast group
+      */
+     public int getNotifyPort() {
+         return notifyPort;
+     }
+
+     /**
+      * @param notifyPort the port of the multicast group
+      */
+     public void setNotifyPort(int notifyPort) {
+         this.notifyPort = notifyPort;
+     }
+
+     /**
+      * @return <code>true</code> if records are written in compact format
+      */
+     public boolean getCompactRecords() {
+         return compactRecords || compressRecords;
+     }
+
+     /**
+      * Set whether records are written in compact format. In compact format,
+      * a name or path that occurs more than once in a record is written in
+      * full only once and later referenced by its index. Records in the
+      * original format remain readable, but cluster nodes running an older
+      * version cannot read records in compact format, therefore this is
+      * disabled by default.
+      *
+      * @param compactRecords <code>true</code> to write records in compact
+      *                       format
+      */
+     public void setCompactRecords(boolean compactRecords) {
+         this.compactRecords = compactRecords;
+     }
+
+     /**
+      * @return <code>true</code> if records are compressed
+      */
+     public boolean getCompressRecords() {
+         return compressRecords;
+     }
+
+     /**
+      * Set whether records are compressed with deflate. Compressed records
+      * are always written in compact format. Disabled by default.
+      *
+      * @param compressRecords <code>true</code> to compress records
+      */
+     public void setCompressRecords(boolean compressRecords) {
+         this.compressRecords = compressRecords;
+     }
+
+     /**
+      * @return the maximum number of change records applied together while
+      *         replaying the journal
+      */
+     public int getReplayBatchSize() {
+         return replayBatchSize;
+     }
+
+     /**
+      * Set the maximum number of change records applied together while
+      * replaying the journal. Consecutive changes to the same workspace are
+      * merged, so caches are invalidated and the search index is updated
+      * once per batch instead of once per record. This mainly speeds up a
+      * cluster node that catches up after downtime. Observation listeners
+      * receive the events of a batch at once. Default is <code>1</code>,
+      * which applies every record on its own.
+      *
+      * @param replayBatchSize maximum number of records per batch
+      */
+     public void setReplayBatchSize(int replayBatchSize) {
+         this.replayBatchSize = replayBatchSize;
+     }
+
+     /**
+      * @return the number of records read ahead while replaying the journal
+      */
+     public int getReplayPrefetchSize() {
+         return replayPrefetchSize;
+     }
+
+     /**
+      * Set the number of records that are read ahead in a background thread
+      * and kept in memory while the journal is replayed, so that reading
+      * records overlaps with applying them. Default is <code>0</code>,
+      * which disables reading ahead.
+      *
+      * @param replayPrefetchSize number of records read ahead
+      */
+     public void setReplayPrefetchSize(int replayPrefetchSize) {
+         this.replayPrefetchSize = replayPrefetchSize;
+     }
+
+     /**
+      * @return the directory where snapshots of the search indexes are
+      *         published
+      */
+     public String getSnapshotDirectory() {
+         return snapshotDirectory;
+     }
+
+     /**
+      * Set the directory where snapshots of the search indexes are published.
+      * The directory must be shared by all cluster nodes. A node that starts
+      * without a local revision restores the search indexes from the newest
+      * snapshot and only replays the journal records that follow the
+      * revision of the snapshot, instead of building its search indexes
+      * from scratch and replaying the whole journal.
+      *
+      * @param snapshotDirectory the snapshot directory or <code>null</code>
+      *                          to disable snapshots
+      */
+     public void setSnapshotDirectory(String snapshotDirectory) {
+         this.snapshotDirectory = snapshotDirectory;
+     }
+
+     /**
+      * @return the interval in milliseconds between two snapshots published
+      *         by this node
+      */
+     public long getSnapshotInterval() {
+         return snapshotInterval;
+     }
+
+     /**
+      * Set the interval in milliseconds between two snapshots published by
+      * this node. Default is <code>0</code>, which only publishes snapshots
+      * when explicitly requested.
+      *
+      * @param snapshotInterval interval in milliseconds
+      */
+     public void setSnapshotInterval(long snapshotInterval) {
+         this.snapshotInterval = snapshotInterval;
+     }
 }
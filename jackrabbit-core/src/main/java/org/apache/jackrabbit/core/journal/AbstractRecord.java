@@ -38,7 +38,9 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Base implementation for a record.
@@ -55,11 +57,57 @@ public abstract class AbstractRecord implements Record {
      */
     private static final byte UUID_INDEX = 'I';
 
+    /**
+     * Indicator for a literal name or path.
+     */
+    private static final byte LITERAL = 'L';
+
+    /**
+     * Indicator for a name or path index.
+     */
+    private static final byte INDEX = 'I';
+
+    /**
+     * First byte of a record in the compact format. Records in the original
+     * format start with a boolean, i.e. with <code>0</code> or <code>1</code>.
+     * The marker is followed by one of {@link #COMPRESSION_NONE} or
+     * {@link #COMPRESSION_DEFLATE}.
+     */
+    protected static final byte COMPACT_FORMAT = 'C';
+
+    /**
+     * Indicator for an uncompressed record in the compact format.
+     */
+    protected static final byte COMPRESSION_NONE = 0;
+
+    /**
+     * Indicator for a record in the compact format, whose data following
+     * the header is compressed with the deflate algorithm.
+     */
+    protected static final byte COMPRESSION_DEFLATE = 1;
+
     /**
      * UUID index.
      */
     private final ArrayList uuidIndex = new ArrayList();
 
+    /**
+     * Flag indicating whether this record uses the compact format, which
+     * writes names and paths only once per record.
+     */
+    protected boolean compact;
+
+    /**
+     * Names or paths read so far, if this record uses the compact format.
+     */
+    private final ArrayList readIndex = new ArrayList();
+
+    /**
+     * Indexes of the names or paths written so far, if this record uses the
+     * compact format.
+     */
+    private final Map writeIndex = new HashMap();
+
     /**
      * Namespace resolver.
      */
@@ -82,6 +130,9 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writeQName(Name name) throws JournalException {
+        if (compact && writeIndex(name)) {
+            return;
+        }
         try {
             writeString(resolver.getJCRName(name));
         } catch (NamespaceException e) {
@@ -102,6 +153,9 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writePath(Path path) throws JournalException {
+        if (compact && writeIndex(path)) {
+            return;
+        }
         try {
             writeString(resolver.getJCRPath(path));
         } catch (NamespaceException e) {
@@ -158,8 +212,15 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Name readQName() throws JournalException {
+        if (compact && readByte() == INDEX) {
+            return (Name) readIndex.get(readInt());
+        }
         try {
-            return resolver.getQName(readString());
+            Name name = resolver.getQName(readString());
+            if (compact) {
+                readIndex.add(name);
+            }
+            return name;
         } catch (NameException e) {
             String msg = "Unknown prefix error while reading name.";
             throw new JournalException(msg, e);
@@ -173,20 +234,12 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Path.Element readPathElement() throws JournalException {
-        try {
-            Name name = resolver.getQName(readString());
-            int index = readInt();
-            if (index != 0) {
-                return PathFactoryImpl.getInstance().createElement(name, index);
-            } else {
-                return PathFactoryImpl.getInstance().createElement(name);
-            }
-        } catch (NameException e) {
-            String msg = "Unknown prefix error while reading path element.";
-            throw new JournalException(msg, e);
-        } catch (NamespaceException e) {
-            String msg = "Illegal name error while reading path element.";
-            throw new JournalException(msg, e);
+        Name name = readQName();
+        int index = readInt();
+        if (index != 0) {
+            return PathFactoryImpl.getInstance().createElement(name, index);
+        } else {
+            return PathFactoryImpl.getInstance().createElement(name);
         }
     }
 
@@ -194,8 +247,15 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Path readPath() throws JournalException {
+        if (compact && readByte() == INDEX) {
+            return (Path) readIndex.get(readInt());
+        }
         try {
-            return resolver.getQPath(readString());
+            Path path = resolver.getQPath(readString());
+            if (compact) {
+                readIndex.add(path);
+            }
+            return path;
         } catch (MalformedPathException e) {
             String msg = "Malformed path error while reading path.";
             throw new JournalException(msg, e);
@@ -259,6 +319,28 @@ public abstract class AbstractRecord implements Record {
         }
     }
 
+    /**
+     * Write the index of a name or path that has already been written to
+     * this record. Otherwise write the literal indicator and assign the next
+     * index, the caller must then write the literal value.
+     *
+     * @param value name or path
+     * @return <code>true</code> if the index has been written
+     * @throws JournalException if an error occurs
+     */
+    private boolean writeIndex(Object value) throws JournalException {
+        Integer index = (Integer) writeIndex.get(value);
+        if (index != null) {
+            writeByte(INDEX);
+            writeInt(index.intValue());
+            return true;
+        } else {
+            writeIndex.put(value, new Integer(writeIndex.size()));
+            writeByte(LITERAL);
+            return false;
+        }
+    }
+
     /**
      * Get a <code>NodeId</code>'s existing cache index, creating a new entry if necesary.
      *
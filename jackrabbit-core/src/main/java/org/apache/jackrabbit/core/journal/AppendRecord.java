@@ -28,6 +28,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
 
 /**
  * Default temporary record used for appending to some journal.
@@ -94,6 +96,18 @@ public class AppendRecord extends AbstractRecord {
      */
     private FileOutputStream fileOut;
 
+    /**
+     * Output that receives the bytes of the record as they are stored,
+     * i.e. after compression, and forwards them to the byte or file output.
+     */
+    private final CountingOutputStream rawOut = new CountingOutputStream();
+
+    /**
+     * Compressing output, or <code>null</code> if the record is not
+     * compressed.
+     */
+    private DeflaterOutputStream deflaterOut;
+
     /**
      * Flag indicating whether the output is closed.
      */
@@ -113,7 +127,17 @@ public class AppendRecord extends AbstractRecord {
         this.revision = 0L;
 
         byteOut = new ByteArrayOutputStream(DEFAULT_IN_MEMORY_SIZE);
-        dataOut = new DataOutputStream(byteOut);
+        rawOut.out = byteOut;
+        if (journal.getCompressRecords()) {
+            writeFormat(COMPRESSION_DEFLATE);
+            deflaterOut = new DeflaterOutputStream(rawOut);
+            dataOut = new DataOutputStream(deflaterOut);
+        } else {
+            if (journal.getCompactRecords()) {
+                writeFormat(COMPRESSION_NONE);
+            }
+            dataOut = new DataOutputStream(rawOut);
+        }
     }
 
     /**
@@ -242,8 +266,8 @@ public class AppendRecord extends AbstractRecord {
         boolean succeeded = false;
 
         try {
-            int length = dataOut.size();
             closeOutput();
+            int length = (int) rawOut.count;
 
             InputStream in = openInput();
 
@@ -314,10 +338,9 @@ public class AppendRecord extends AbstractRecord {
                 String msg = "Unable to open output stream on: " + file.getPath();
                 throw new JournalException(msg, e);
             }
-            dataOut = new DataOutputStream(fileOut);
-
             try {
-                dataOut.write(byteOut.toByteArray());
+                byteOut.writeTo(fileOut);
+                rawOut.out = fileOut;
             } catch (IOException e) {
                 String msg = "Unable to write in-memory record to file.";
                 throw new JournalException(msg, e);
@@ -333,6 +356,9 @@ public class AppendRecord extends AbstractRecord {
     private void closeOutput() throws JournalException {
         if (!outputClosed) {
             try {
+                if (deflaterOut != null) {
+                    deflaterOut.finish();
+                }
                 if (fileOut != null) {
                     dataOut.flush();
                     fileOut.getFD().sync();
@@ -398,4 +424,52 @@ public class AppendRecord extends AbstractRecord {
         String msg = "Reading from an appended record is not supported.";
         return new JournalException(msg);
     }
+
+    /**
+     * Write the header of a record in compact format. The header is never
+     * compressed.
+     *
+     * @param compression compression used for the rest of the record
+     */
+    private void writeFormat(int compression) {
+        byteOut.write(COMPACT_FORMAT);
+        byteOut.write(compression);
+        rawOut.count = byteOut.size();
+        compact = true;
+    }
+
+    /**
+     * Output stream that counts the bytes written and forwards them to an
+     * output stream that may change while writing.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        /**
+         * Current output stream.
+         */
+        private OutputStream out;
+
+        /**
+         * Number of bytes written.
+         */
+        private long count;
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
 }
@@ -32,8 +32,10 @@ import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.Calendar;
+import java.util.LinkedList;
 
 import javax.jcr.RepositoryException;
 
@@ -192,6 +194,14 @@ public class DatabaseJournal extends AbstractJournal {
      */
     private int lockLevel;
 
+    /**
+     * Savepoints of the nested locks, one for every lock level above the
+     * first. A failed update within a group commit is rolled back to its
+     * savepoint, so that the records of the other updates of the group are
+     * still committed while its own changes are not.
+     */
+    private final LinkedList savepoints = new LinkedList();
+
     /**
      * Locked revision.
      */
@@ -306,6 +316,7 @@ public class DatabaseJournal extends AbstractJournal {
             buildSQLStatements();
             prepareStatements();
             initInstanceRevisionAndJanitor();
+            checkGroupCommit();
         } catch (Exception e) {
             String msg = "Unable to create connection.";
             throw new JournalException(msg, e);
@@ -472,6 +483,8 @@ public class DatabaseJournal extends AbstractJournal {
             checkConnection();
             if (lockLevel++ == 0) {
                 setAutoCommit(connection, false);
+            } else {
+                savepoints.addLast(connection.setSavepoint());
             }
         } catch (SQLException e) {
             close(true);
@@ -520,6 +533,26 @@ public class DatabaseJournal extends AbstractJournal {
                 rollback(connection);
             }
             setAutoCommit(connection, true);
+        } else if (!savepoints.isEmpty()) {
+            Savepoint savepoint = (Savepoint) savepoints.removeLast();
+            if (!successful) {
+                rollback(connection, savepoint);
+            }
+        }
+    }
+
+    /**
+     * Disable group commit if the database does not support savepoints,
+     * because a failed update could not be rolled back without also rolling
+     * back the other updates of its group.
+     *
+     * @throws SQLException if an error occurs
+     */
+    private void checkGroupCommit() throws SQLException {
+        if (getGroupCommitSize() > 1
+                && !connection.getMetaData().supportsSavepoints()) {
+            log.warn("Database does not support savepoints, group commit disabled.");
+            setGroupCommitSize(1);
         }
     }
 
@@ -564,6 +597,7 @@ public class DatabaseJournal extends AbstractJournal {
      */
     public void close() {
         close(false);
+        super.close();
     }
 
     /**
@@ -597,6 +631,13 @@ public class DatabaseJournal extends AbstractJournal {
         close(updateLocalRevisionStmt);
         updateLocalRevisionStmt = null;
         
+        if (lockLevel > 1) {
+            log.error("Connection closed while " + (lockLevel - 1)
+                    + " updates of a group commit were pending: their"
+                    + " records are lost.");
+        }
+        savepoints.clear();
+
         close(connection);
         connection = null;
     }
@@ -639,6 +680,24 @@ public class DatabaseJournal extends AbstractJournal {
         }
     }
 
+    /**
+     * Rollback a connection to a savepoint. Does nothing if the connection
+     * passed is <code>null</code> and logs any exception as warning.
+     *
+     * @param connection connection.
+     * @param savepoint savepoint to roll back to
+     */
+    private static void rollback(Connection connection, Savepoint savepoint) {
+        if (connection != null) {
+            try {
+                connection.rollback(savepoint);
+            } catch (SQLException e) {
+                String msg = "Error while rolling back to savepoint: " + e.getMessage();
+                log.warn(msg);
+            }
+        }
+    }
+
     /**
      * Rollback a connection. Does nothing if the connection passed is
      * <code>null</code> and logs any exception as warning.
@@ -215,6 +215,7 @@ public class FileJournal extends AbstractJournal {
      * {@inheritDoc}
      */
     public void close() {
+        super.close();
     }
 
     /**
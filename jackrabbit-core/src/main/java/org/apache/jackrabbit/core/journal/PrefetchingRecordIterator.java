@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import EDU.oswego.cs.dl.util.concurrent.BoundedBuffer;
+import EDU.oswego.cs.dl.util.concurrent.Latch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Record iterator that reads records from another iterator in a background
+ * thread, while the records already read are being consumed. Records are
+ * copied into memory, at most a given number of records is read ahead.
+ */
+class PrefetchingRecordIterator implements RecordIterator, Runnable {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(PrefetchingRecordIterator.class);
+
+    /**
+     * Marker for the end of the records.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Milliseconds to wait for free space in the buffer before checking
+     * whether this iterator has been closed.
+     */
+    private static final long OFFER_TIMEOUT = 100;
+
+    /**
+     * Underlying iterator, only used by the background thread.
+     */
+    private final RecordIterator iterator;
+
+    /**
+     * Records read ahead, followed by either {@link #END} or the exception
+     * that stopped the background thread.
+     */
+    private final BoundedBuffer buffer;
+
+    /**
+     * Latch released when the background thread has finished.
+     */
+    private final Latch finished = new Latch();
+
+    /**
+     * Flag indicating whether this iterator has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Next element taken from the buffer, <code>null</code> if none has
+     * been taken yet.
+     */
+    private Object next;
+
+    /**
+     * Create a new instance of this class and start reading records.
+     *
+     * @param iterator underlying iterator, returning <code>ReadRecord</code>s
+     * @param size maximum number of records to read ahead
+     */
+    public PrefetchingRecordIterator(RecordIterator iterator, int size) {
+        this.iterator = iterator;
+        this.buffer = new BoundedBuffer(size);
+
+        Thread t = new Thread(this, "PrefetchingRecordIterator");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = buffer.take();
+            } catch (InterruptedException e) {
+                String msg = "Interrupted while waiting for next record.";
+                next = new JournalException(msg, e);
+            }
+        }
+        return next != END;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Record nextRecord() throws NoSuchElementException, JournalException {
+        if (!hasNext()) {
+            String msg = "No current record.";
+            throw new NoSuchElementException(msg);
+        }
+        Object o = next;
+        if (o instanceof JournalException) {
+            throw (JournalException) o;
+        }
+        next = null;
+        return (Record) o;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        closed = true;
+        try {
+            finished.acquire();
+        } catch (InterruptedException e) {
+            String msg = "Interrupted while waiting for prefetching to stop.";
+            log.warn(msg);
+        }
+    }
+
+    /**
+     * Read records from the underlying iterator until all records have
+     * been read or this iterator is closed.
+     */
+    public void run() {
+        try {
+            Object o = END;
+            try {
+                while (!closed && iterator.hasNext()) {
+                    ReadRecord record = (ReadRecord) iterator.nextRecord();
+                    if (!put(record.copy())) {
+                        return;
+                    }
+                }
+            } catch (JournalException e) {
+                o = e;
+            } catch (RuntimeException e) {
+                String msg = "Unexpected error while prefetching records.";
+                o = new JournalException(msg, e);
+            }
+            put(o);
+        } catch (InterruptedException e) {
+            String msg = "Interrupted while prefetching records.";
+            log.warn(msg);
+        } finally {
+            iterator.close();
+            finished.release();
+        }
+    }
+
+    /**
+     * Put an element into the buffer, waiting for free space.
+     *
+     * @param o element
+     * @return <code>true</code> if the element has been added,
+     *         <code>false</code> if this iterator has been closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean put(Object o) throws InterruptedException {
+        while (!buffer.offer(o, OFFER_TIMEOUT)) {
+            if (closed) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -19,9 +19,15 @@ package org.apache.jackrabbit.core.journal;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.apache.jackrabbit.spi.Name;
+import org.apache.commons.io.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Record used for reading.
@@ -46,7 +52,19 @@ public class ReadRecord extends AbstractRecord {
     /**
      * Underlying data input.
      */
-    private final DataInputStream dataIn;
+    private final DataInputStream rawIn;
+
+    /**
+     * Data input of the record contents, available after the format of the
+     * record has been determined.
+     */
+    private DataInputStream dataIn;
+
+    /**
+     * Input of the compressed record contents if the record is compressed
+     * and has a known length, <code>null</code> otherwise.
+     */
+    private BoundedInputStream compressedIn;
 
     /**
      * This record's length.
@@ -70,7 +88,7 @@ public class ReadRecord extends AbstractRecord {
         this.journalId = journalId;
         this.producerId = producerId;
         this.revision = revision;
-        this.dataIn = dataIn;
+        this.rawIn = dataIn;
         this.length = length;
     }
 
@@ -99,7 +117,7 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public byte readByte() throws JournalException {
-        consumed = true;
+        checkFormat();
 
         try {
             return dataIn.readByte();
@@ -113,7 +131,7 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public char readChar() throws JournalException {
-        consumed = true;
+        checkFormat();
 
         try {
             return dataIn.readChar();
@@ -127,7 +145,7 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public boolean readBoolean() throws JournalException {
-        consumed = true;
+        checkFormat();
 
         try {
             return dataIn.readBoolean();
@@ -141,7 +159,7 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public int readInt() throws JournalException {
-        consumed = true;
+        checkFormat();
 
         try {
             return dataIn.readInt();
@@ -155,7 +173,7 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public String readString() throws JournalException {
-        consumed = true;
+        checkFormat();
 
         try {
             boolean isNull = dataIn.readBoolean();
@@ -174,7 +192,7 @@ public class ReadRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public void readFully(byte[] b) throws JournalException {
-        consumed = true;
+        checkFormat();
 
         try {
             dataIn.readFully(b);
@@ -193,9 +211,92 @@ public class ReadRecord extends AbstractRecord {
         if (length != 0) {
             if (!consumed) {
                 skip(length);
+            } else if (compressedIn != null) {
+                // skip what the decompressor did not read and release it
+                compressedIn.skipRemaining();
+                dataIn.close();
             }
-        } else {
+        } else if (dataIn != null) {
             dataIn.close();
+        } else {
+            rawIn.close();
+        }
+    }
+
+    /**
+     * Read the contents of this record into memory and return a record that
+     * reads from the copy, so the copy remains readable after this record
+     * has been closed. Must be invoked before any data of this record has
+     * been read. Afterwards, this record is considered consumed.
+     *
+     * @return copy of this record
+     * @throws JournalException if an error occurs
+     */
+    ReadRecord copy() throws JournalException {
+        if (consumed) {
+            throw new IllegalStateException("Record already consumed.");
+        }
+        consumed = true;
+
+        try {
+            byte[] data;
+            if (length != 0) {
+                data = new byte[length];
+                rawIn.readFully(data);
+            } else {
+                data = IOUtils.toByteArray(rawIn);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            return new ReadRecord(journalId, producerId, revision, in,
+                    data.length, nsResolver, resolver);
+        } catch (IOException e) {
+            String msg = "I/O error while copying record.";
+            throw new JournalException(msg, e);
+        }
+    }
+
+    /**
+     * Determine the format of this record before the first read and prepare
+     * the data input accordingly. Records in the original format are read
+     * as they are.
+     *
+     * @throws JournalException if an error occurs
+     */
+    private void checkFormat() throws JournalException {
+        if (consumed) {
+            return;
+        }
+        consumed = true;
+
+        try {
+            PushbackInputStream in = new PushbackInputStream(rawIn);
+            int b = in.read();
+            if (b != COMPACT_FORMAT) {
+                if (b != -1) {
+                    in.unread(b);
+                }
+                dataIn = new DataInputStream(in);
+                return;
+            }
+            compact = true;
+            int compression = in.read();
+            if (compression == COMPRESSION_NONE) {
+                dataIn = new DataInputStream(in);
+            } else if (compression == COMPRESSION_DEFLATE) {
+                if (length != 0) {
+                    // do not let the decompressor read beyond this record
+                    compressedIn = new BoundedInputStream(in, length - 2);
+                    dataIn = new DataInputStream(new InflaterInputStream(compressedIn));
+                } else {
+                    dataIn = new DataInputStream(new InflaterInputStream(in));
+                }
+            } else {
+                String msg = "Unknown record compression: " + compression;
+                throw new JournalException(msg);
+            }
+        } catch (IOException e) {
+            String msg = "I/O error while reading record format.";
+            throw new JournalException(msg, e);
         }
     }
 
@@ -209,7 +310,7 @@ public class ReadRecord extends AbstractRecord {
     private void skip(long n) throws IOException {
         long skiplen = n;
         while (skiplen > 0) {
-            long skipped = dataIn.skip(skiplen);
+            long skipped = rawIn.skip(skiplen);
             if (skipped <= 0) {
                 break;
             }
@@ -264,4 +365,81 @@ public class ReadRecord extends AbstractRecord {
         String msg = "Record has been opened read-only.";
         return new JournalException(msg);
     }
+
+    /**
+     * Input stream that reads at most a given number of bytes from the
+     * underlying stream and does not close it.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+
+        /**
+         * Number of bytes that may still be read.
+         */
+        private long remaining;
+
+        /**
+         * Create a new instance of this class.
+         *
+         * @param in underlying input stream
+         * @param length number of bytes that may be read
+         */
+        public BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        public void close() {
+            // the underlying stream is shared with other records
+        }
+
+        /**
+         * Skip the bytes that have not been read.
+         *
+         * @throws IOException if less bytes could be skipped
+         */
+        void skipRemaining() throws IOException {
+            while (remaining > 0) {
+                if (skip(remaining) <= 0) {
+                    String msg = "Unable to skip " + remaining + " remaining bytes.";
+                    throw new IOException(msg);
+                }
+            }
+        }
+    }
 }
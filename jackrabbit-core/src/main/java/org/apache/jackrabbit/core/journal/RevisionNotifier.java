@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Announces new journal revisions to the other cluster nodes and listens for
+ * their announcements. Announcements are sent as small UDP datagrams to a
+ * multicast group. A datagram only contains the identifier of the sending
+ * journal and does not carry the record itself, the receiving nodes still
+ * read the records from the journal. Datagrams may get lost, therefore
+ * notification does not replace the periodic synchronization of a cluster
+ * node, but only shortens the time until a change becomes visible.
+ */
+public class RevisionNotifier implements Runnable {
+
+    /**
+     * Listener that is notified when another journal announces a new
+     * revision.
+     */
+    public interface Listener {
+
+        /**
+         * Called when another journal announced a new revision.
+         */
+        void revisionChanged();
+    }
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(RevisionNotifier.class);
+
+    /**
+     * Maximum size of a received datagram.
+     */
+    private static final int MAX_PACKET_SIZE = 512;
+
+    /**
+     * Encoding of the journal identifier in a datagram.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Identifier of the local journal.
+     */
+    private final String journalId;
+
+    /**
+     * Multicast group.
+     */
+    private final InetAddress group;
+
+    /**
+     * Port of the multicast group.
+     */
+    private final int port;
+
+    /**
+     * The listener to notify.
+     */
+    private final Listener listener;
+
+    /**
+     * Socket used to send and receive announcements.
+     */
+    private MulticastSocket socket;
+
+    /**
+     * Flag indicating whether this notifier has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Create a new instance of this class.
+     *
+     * @param journalId identifier of the local journal
+     * @param group multicast group
+     * @param port port of the multicast group
+     * @param listener listener to notify
+     */
+    public RevisionNotifier(String journalId, InetAddress group, int port,
+                            Listener listener) {
+        this.journalId = journalId;
+        this.group = group;
+        this.port = port;
+        this.listener = listener;
+    }
+
+    /**
+     * Join the multicast group and start listening for announcements.
+     *
+     * @throws IOException if the multicast group cannot be joined
+     */
+    public void start() throws IOException {
+        socket = new MulticastSocket(port);
+        socket.joinGroup(group);
+
+        Thread t = new Thread(this, "RevisionNotifier-" + journalId);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Announce a new revision of the local journal. Errors are logged and
+     * otherwise ignored, the other nodes will see the revision on their next
+     * periodic synchronization.
+     */
+    public void announce() {
+        if (closed) {
+            return;
+        }
+        try {
+            byte[] data = journalId.getBytes(ENCODING);
+            socket.send(new DatagramPacket(data, data.length, group, port));
+        } catch (IOException e) {
+            String msg = "Unable to announce new revision: " + e.getMessage();
+            log.warn(msg);
+        }
+    }
+
+    /**
+     * Receive announcements until this notifier is closed.
+     */
+    public void run() {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                if (!journalId.equals(getJournalId(packet))) {
+                    listener.revisionChanged();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    String msg = "Error while receiving announcement: " + e.getMessage();
+                    log.warn(msg);
+                }
+            }
+        }
+    }
+
+    /**
+     * Leave the multicast group and close the socket.
+     */
+    public void close() {
+        closed = true;
+        try {
+            socket.leaveGroup(group);
+        } catch (IOException e) {
+            String msg = "Error while leaving multicast group: " + e.getMessage();
+            log.warn(msg);
+        }
+        socket.close();
+    }
+
+    /**
+     * Return the identifier of the journal that sent a datagram.
+     *
+     * @param packet datagram received
+     * @return journal identifier
+     * @throws UnsupportedEncodingException if the encoding is not supported
+     */
+    private static String getJournalId(DatagramPacket packet)
+            throws UnsupportedEncodingException {
+        return new String(packet.getData(), packet.getOffset(),
+                packet.getLength(), ENCODING);
+    }
+}
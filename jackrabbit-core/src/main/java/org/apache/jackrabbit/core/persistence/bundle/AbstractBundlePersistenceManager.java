@@ -20,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
 import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.state.CacheManager;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -31,26 +32,40 @@ import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.NodeId;
 import org.apache.jackrabbit.core.PropertyId;
 import org.apache.jackrabbit.core.NamespaceRegistryImpl;
+import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
 import org.apache.jackrabbit.core.nodetype.PropDefId;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.util.StringIndex;
+import org.apache.jackrabbit.core.persistence.bundle.util.ChildNodePages;
 import org.apache.jackrabbit.core.persistence.bundle.util.NodePropBundle;
 import org.apache.jackrabbit.core.persistence.bundle.util.BundleCache;
 import org.apache.jackrabbit.core.persistence.bundle.util.LRUNodeIdCache;
 import org.apache.jackrabbit.core.persistence.bundle.util.HashMapIndex;
 import org.apache.jackrabbit.core.persistence.bundle.util.BundleBinding;
+import org.apache.jackrabbit.core.persistence.bundle.util.SerializedBundleCache;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jcr.PropertyType;
+import javax.jcr.nodetype.NoSuchNodeTypeException;
 
 /**
  * The <code>AbstractBundlePersistenceManager</code> acts as base for all
@@ -75,13 +90,40 @@ import javax.jcr.PropertyType;
  * because a lot of {@link #exists(NodeId)} calls are issued that would result
  * in a useless SQL execution if the desired bundle does not exist.
  * <p/>
+ * Optionally, a {@link SerializedBundleCache} keeps serialized bundles outside
+ * of the java heap as a second level below the {@link BundleCache}. Bundles
+ * evicted from the first level can then be deserialized from memory instead
+ * of being read from the underlying system again.
+ * <p/>
+ * Read operations do not synchronize on this persistence manager. A bundle
+ * that is found in the cache is returned without acquiring the monitor of the
+ * persistence manager, access to the bundle itself is synchronized on the
+ * bundle instance. Bundles that are not cached are loaded concurrently by
+ * the subclass and are only put to the cache if no change log was stored
+ * in the meantime. Write operations are still serialized.
+ * <p/>
+ * Several bundles can be loaded in advance using {@link #prefetch(Collection)}.
+ * Subclasses may override {@link #loadBundles(Collection)} to read them with
+ * a single request to the underlying system.
+ * <p/>
+ * If a {@link #setChildNodeEntriesPageSize(String) page size} is configured,
+ * the child node entries of nodes with many children are stored in separate
+ * pages (see {@link ChildNodePages}). Adding or removing a child node then
+ * only rewrites a single page instead of the whole list of child node
+ * entries. This is only done for nodes whose primary type does not have
+ * orderable child nodes.
+ * <p/>
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/>
+ * <li>&lt;param name="{@link #setBundleCachePolicy(String) bundleCachePolicy}" value="lru"/>
+ * <li>&lt;param name="{@link #setSerializedBundleCacheSize(String) serializedBundleCacheSize}" value="0"/>
+ * <li>&lt;param name="{@link #setChildNodeEntriesPageSize(String) childNodeEntriesPageSize}" value="0"/>
  * </ul>
  */
 public abstract class AbstractBundlePersistenceManager implements
-    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager {
+    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager,
+    PrefetchingPersistenceManager {
 
     /** the default logger */
     private static Logger log = LoggerFactory.getLogger(AbstractBundlePersistenceManager.class);
@@ -107,6 +149,9 @@ public abstract class AbstractBundlePersistenceManager implements
     /** the cache of loaded bundles */
     private BundleCache bundles;
 
+    /** the cache of serialized bundles or <code>null</code> if disabled */
+    private SerializedBundleCache serializedBundles;
+
     /** the cache of non-existent bundles */
     private LRUNodeIdCache missing;
 
@@ -125,6 +170,23 @@ public abstract class AbstractBundlePersistenceManager implements
     /** default size of the bundle cache */
     private long bundleCacheSize = 8 * 1024 * 1024;
 
+    /** the eviction policy of the bundle cache */
+    private String bundleCachePolicy = BundleCache.POLICY_LRU;
+
+    /** size of the serialized bundle cache, disabled by default */
+    private long serializedBundleCacheSize = 0;
+
+    /** number of child node entries per page, paging is disabled by default */
+    private int childNodeEntriesPageSize = 0;
+
+    /**
+     * Incremented whenever a change log is stored or an external update is
+     * processed. Bundles that are loaded concurrently to a modification are
+     * not put into the caches, because they might be outdated. Guarded by
+     * the monitor of this persistence manager.
+     */
+    private long modCount = 0;
+
     /**
      * Returns the size of the bundle cache in megabytes.
      * @return the size of the bundle cache in megabytes.
@@ -134,8 +196,9 @@ public abstract class AbstractBundlePersistenceManager implements
     }
 
     /**
-     * Sets the size of the bundle cache in megabytes.
-     * the default is 8.
+     * Sets the initial size of the bundle cache in megabytes.
+     * the default is 8. The bundle cache is registered with the global
+     * {@link CacheManager}, which adapts its size afterwards.
      *
      * @param bundleCacheSize the bundle cache size in megabytes.
      */
@@ -143,6 +206,89 @@ public abstract class AbstractBundlePersistenceManager implements
         this.bundleCacheSize = Long.parseLong(bundleCacheSize) * 1024 * 1024;
     }
 
+    /**
+     * Returns the eviction policy of the bundle cache.
+     * @return the eviction policy of the bundle cache.
+     */
+    public String getBundleCachePolicy() {
+        return bundleCachePolicy;
+    }
+
+    /**
+     * Sets the eviction policy of the bundle cache. Either <code>lru</code>
+     * (the default), <code>2q</code> for a scan resistant policy that keeps
+     * frequently used bundles when many bundles are read once, or the name
+     * of a class that implements
+     * {@link org.apache.jackrabbit.core.persistence.bundle.util.BundleCachePolicy}.
+     *
+     * @param bundleCachePolicy the eviction policy.
+     */
+    public void setBundleCachePolicy(String bundleCachePolicy) {
+        this.bundleCachePolicy = bundleCachePolicy;
+    }
+
+    /**
+     * Returns the size of the serialized bundle cache in megabytes.
+     * @return the size of the serialized bundle cache in megabytes.
+     */
+    public String getSerializedBundleCacheSize() {
+        return String.valueOf(serializedBundleCacheSize / (1024 * 1024));
+    }
+
+    /**
+     * Sets the size of the serialized bundle cache in megabytes. The memory
+     * is allocated outside of the java heap when the persistence manager is
+     * initialized, the JVM option <code>-XX:MaxDirectMemorySize</code> must
+     * allow for it. The default is 0, which disables the cache.
+     *
+     * @param serializedBundleCacheSize the cache size in megabytes.
+     */
+    public void setSerializedBundleCacheSize(String serializedBundleCacheSize) {
+        this.serializedBundleCacheSize =
+            Long.parseLong(serializedBundleCacheSize) * 1024 * 1024;
+    }
+
+    /**
+     * Returns the number of child node entries per page.
+     * @return the page size or <code>0</code> if paging is disabled.
+     */
+    public String getChildNodeEntriesPageSize() {
+        return String.valueOf(childNodeEntriesPageSize);
+    }
+
+    /**
+     * Sets the number of child node entries per page. Nodes with more child
+     * nodes than this store their child node entries in separate pages,
+     * unless their primary type has orderable child nodes. The order of
+     * child nodes with different names is not preserved for such nodes.
+     * The default is 0, which disables paging.
+     *
+     * @param childNodeEntriesPageSize the page size.
+     */
+    public void setChildNodeEntriesPageSize(String childNodeEntriesPageSize) {
+        this.childNodeEntriesPageSize = Integer.parseInt(childNodeEntriesPageSize);
+    }
+
+    /**
+     * Returns the cache of serialized bundles of this persistence manager.
+     *
+     * @return the serialized bundle cache or <code>null</code> if disabled.
+     */
+    public SerializedBundleCache getSerializedBundleCache() {
+        return serializedBundles;
+    }
+
+    /**
+     * Returns the bundle cache of this persistence manager. The hit, miss
+     * and eviction counts of the cache can be used to tune the
+     * {@link #setBundleCacheSize(String) bundle cache size} of a workspace.
+     *
+     * @return the bundle cache.
+     */
+    public BundleCache getBundleCache() {
+        return bundles;
+    }
+
     /**
      * Creates the folder path for the given node id that is suitable for
      * storing states in a filesystem.
@@ -292,22 +438,23 @@ public abstract class AbstractBundlePersistenceManager implements
      * {@inheritDoc}
      */
     public synchronized void onExternalUpdate(ChangeLog changes) {
+        modCount++;
         Iterator iter = changes.modifiedStates();
         while (iter.hasNext()) {
             ItemState state = (ItemState) iter.next();
             if (state.isNode()) {
-                bundles.remove((NodeId) state.getId());
+                invalidateBundle((NodeId) state.getId());
             } else {
-                bundles.remove(state.getParentId());
+                invalidateBundle(state.getParentId());
             }
         }
         iter = changes.deletedStates();
         while (iter.hasNext()) {
             ItemState state = (ItemState) iter.next();
             if (state.isNode()) {
-                bundles.remove((NodeId) state.getId());
+                invalidateBundle((NodeId) state.getId());
             } else {
-                bundles.remove(state.getParentId());
+                invalidateBundle(state.getParentId());
             }
         }
         iter = changes.addedStates();
@@ -321,6 +468,90 @@ public abstract class AbstractBundlePersistenceManager implements
         }
     }
 
+    //--------------------------------------< PrefetchingPersistenceManager >---
+
+    /**
+     * {@inheritDoc}
+     *
+     * Bundles that are neither cached nor known to be missing are loaded
+     * using {@link #loadBundles(Collection)} and put to the bundle cache.
+     */
+    public void prefetch(Collection ids) throws ItemStateException {
+        // take the snapshot before anything is read, so that a store that
+        // completes during the reads is detected below
+        long count;
+        synchronized (this) {
+            count = modCount;
+        }
+        List toLoad = new ArrayList();
+        Map loaded = new HashMap();
+        Iterator iter = ids.iterator();
+        while (iter.hasNext()) {
+            NodeId id = (NodeId) iter.next();
+            if (missing.contains(id) || bundles.contains(id)) {
+                continue;
+            }
+            NodePropBundle bundle = readSerializedBundle(id);
+            if (bundle != null) {
+                loaded.put(id, bundle);
+            } else {
+                toLoad.add(id);
+            }
+        }
+        if (toLoad.isEmpty() && loaded.isEmpty()) {
+            return;
+        }
+        Map data = new HashMap();
+        if (!toLoad.isEmpty()) {
+            Map result = loadBundles(toLoad);
+            iter = result.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry entry = (Map.Entry) iter.next();
+                NodePropBundle bundle = loadChildPages((NodePropBundle) entry.getValue());
+                if (bundle == null) {
+                    iter.remove();
+                    continue;
+                }
+                entry.setValue(bundle);
+                if (serializedBundles != null) {
+                    byte[] bytes = serializeBundle(bundle);
+                    if (bytes != null) {
+                        data.put(bundle.getId(), bytes);
+                    }
+                }
+            }
+            loaded.putAll(result);
+        }
+        iter = loaded.values().iterator();
+        while (iter.hasNext()) {
+            ((NodePropBundle) iter.next()).markOld();
+        }
+        synchronized (this) {
+            if (count != modCount) {
+                // concurrently modified, do not cache possibly stale data
+                return;
+            }
+            iter = loaded.values().iterator();
+            while (iter.hasNext()) {
+                NodePropBundle bundle = (NodePropBundle) iter.next();
+                if (!bundles.contains(bundle.getId())) {
+                    bundles.put(bundle);
+                    byte[] bytes = (byte[]) data.get(bundle.getId());
+                    if (bytes != null) {
+                        serializedBundles.put(bundle.getId(), bytes);
+                    }
+                }
+            }
+            iter = toLoad.iterator();
+            while (iter.hasNext()) {
+                NodeId id = (NodeId) iter.next();
+                if (!loaded.containsKey(id)) {
+                    missing.put(id);
+                }
+            }
+        }
+    }
+
     //----------------------------------------------------------------< spi >---
 
     /**
@@ -334,6 +565,30 @@ public abstract class AbstractBundlePersistenceManager implements
     protected abstract NodePropBundle loadBundle(NodeId id)
             throws ItemStateException;
 
+    /**
+     * Loads several bundles from the underlying system. This implementation
+     * loads the bundles one by one using {@link #loadBundle(NodeId)}.
+     * Subclasses should override this method if they are able to read
+     * several bundles with a single request.
+     *
+     * @param ids the node ids of the bundles
+     * @return a map from node id to the loaded bundle. Bundles that do not
+     *         exist are not contained in the map.
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    protected Map loadBundles(Collection ids) throws ItemStateException {
+        Map bundles = new HashMap();
+        Iterator iter = ids.iterator();
+        while (iter.hasNext()) {
+            NodeId id = (NodeId) iter.next();
+            NodePropBundle bundle = loadBundle(id);
+            if (bundle != null) {
+                bundles.put(id, bundle);
+            }
+        }
+        return bundles;
+    }
+
     /**
      * Checks if a bundle exists in the underlying system.
      *
@@ -404,7 +659,13 @@ public abstract class AbstractBundlePersistenceManager implements
     public void init(PMContext context) throws Exception {
         this.context = context;
         // init bundle cache
-        bundles = new BundleCache(bundleCacheSize);
+        bundles = new BundleCache(bundleCacheSize, bundleCachePolicy);
+        CacheManager cacheMgr = CacheManager.getInstance();
+        cacheMgr.add(bundles, bundleCacheSize);
+        bundles.setAccessListener(cacheMgr);
+        if (serializedBundleCacheSize > 0) {
+            serializedBundles = new SerializedBundleCache(serializedBundleCacheSize);
+        }
         missing = new LRUNodeIdCache();
 
         // init property definitions
@@ -425,13 +686,15 @@ public abstract class AbstractBundlePersistenceManager implements
      *
      * Loads the state via the appropriate NodePropBundle.
      */
-    public synchronized NodeState load(NodeId id)
+    public NodeState load(NodeId id)
             throws NoSuchItemStateException, ItemStateException {
-        NodePropBundle bundle = getBundle(id);
+        NodePropBundle bundle = getNodeBundle(id);
         if (bundle == null) {
             throw new NoSuchItemStateException(id.toString());
         }
-        return bundle.createNodeState(this);
+        synchronized (bundle) {
+            return bundle.createNodeState(this);
+        }
     }
 
     /**
@@ -439,40 +702,42 @@ public abstract class AbstractBundlePersistenceManager implements
      *
      * Loads the state via the appropriate NodePropBundle.
      */
-    public synchronized PropertyState load(PropertyId id)
+    public PropertyState load(PropertyId id)
             throws NoSuchItemStateException, ItemStateException {
-        NodePropBundle bundle = getBundle(id.getParentId());
+        NodePropBundle bundle = getNodeBundle(id.getParentId());
         if (bundle == null) {
             throw new NoSuchItemStateException(id.toString());
         }
-        PropertyState state = bundle.createPropertyState(this, id.getName());
-        if (state == null) {
-            // check if autocreated property state
-            if (id.getName().equals(NameConstants.JCR_UUID)) {
-                state = createNew(id);
-                state.setType(PropertyType.STRING);
-                state.setDefinitionId(idJcrUUID);
-                state.setMultiValued(false);
-                state.setValues(new InternalValue[]{InternalValue.create(id.getParentId().getUUID().toString())});
-            } else if (id.getName().equals(NameConstants.JCR_PRIMARYTYPE)) {
-                state = createNew(id);
-                state.setType(PropertyType.NAME);
-                state.setDefinitionId(idJcrPrimaryType);
-                state.setMultiValued(false);
-                state.setValues(new InternalValue[]{InternalValue.create(bundle.getNodeTypeName())});
-            } else if (id.getName().equals(NameConstants.JCR_MIXINTYPES)) {
-                Set mixins = bundle.getMixinTypeNames();
-                state = createNew(id);
-                state.setType(PropertyType.NAME);
-                state.setDefinitionId(idJcrMixinTypes);
-                state.setMultiValued(true);
-                state.setValues(InternalValue.create((Name[]) mixins.toArray(new Name[mixins.size()])));
-            } else {
-                throw new NoSuchItemStateException(id.toString());
+        synchronized (bundle) {
+            PropertyState state = bundle.createPropertyState(this, id.getName());
+            if (state == null) {
+                // check if autocreated property state
+                if (id.getName().equals(NameConstants.JCR_UUID)) {
+                    state = createNew(id);
+                    state.setType(PropertyType.STRING);
+                    state.setDefinitionId(idJcrUUID);
+                    state.setMultiValued(false);
+                    state.setValues(new InternalValue[]{InternalValue.create(id.getParentId().getUUID().toString())});
+                } else if (id.getName().equals(NameConstants.JCR_PRIMARYTYPE)) {
+                    state = createNew(id);
+                    state.setType(PropertyType.NAME);
+                    state.setDefinitionId(idJcrPrimaryType);
+                    state.setMultiValued(false);
+                    state.setValues(new InternalValue[]{InternalValue.create(bundle.getNodeTypeName())});
+                } else if (id.getName().equals(NameConstants.JCR_MIXINTYPES)) {
+                    Set mixins = bundle.getMixinTypeNames();
+                    state = createNew(id);
+                    state.setType(PropertyType.NAME);
+                    state.setDefinitionId(idJcrMixinTypes);
+                    state.setMultiValued(true);
+                    state.setValues(InternalValue.create((Name[]) mixins.toArray(new Name[mixins.size()])));
+                } else {
+                    throw new NoSuchItemStateException(id.toString());
+                }
+                bundle.addProperty(state);
             }
-            bundle.addProperty(state);
+            return state;
         }
-        return state;
     }
 
     /**
@@ -480,9 +745,14 @@ public abstract class AbstractBundlePersistenceManager implements
      *
      * Loads the state via the appropriate NodePropBundle.
      */
-    public synchronized boolean exists(PropertyId id) throws ItemStateException {
-        NodePropBundle bundle = getBundle(id.getParentId());
-        return bundle != null && bundle.hasProperty(id.getName());
+    public boolean exists(PropertyId id) throws ItemStateException {
+        NodePropBundle bundle = getNodeBundle(id.getParentId());
+        if (bundle == null) {
+            return false;
+        }
+        synchronized (bundle) {
+            return bundle.hasProperty(id.getName());
+        }
     }
 
     /**
@@ -490,9 +760,9 @@ public abstract class AbstractBundlePersistenceManager implements
      *
      * Checks the existence via the appropriate NodePropBundle.
      */
-    public synchronized boolean exists(NodeId id) throws ItemStateException {
+    public boolean exists(NodeId id) throws ItemStateException {
         // anticipating a load followed by a exists
-        return getBundle(id) != null;
+        return getNodeBundle(id) != null;
     }
 
     /**
@@ -520,6 +790,7 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     public synchronized void store(ChangeLog changeLog)
             throws ItemStateException {
+        modCount++;
         // delete bundles
         HashSet deleted = new HashSet();
         Iterator iter = changeLog.deletedStates();
@@ -558,7 +829,9 @@ public abstract class AbstractBundlePersistenceManager implements
                     }
                     modified.put(nodeId, bundle);
                 }
-                bundle.update((NodeState) state);
+                synchronized (bundle) {
+                    bundle.update((NodeState) state);
+                }
             } else {
                 PropertyId id = (PropertyId) state.getId();
                 // skip redundant primaryType, mixinTypes and uuid properties
@@ -576,7 +849,9 @@ public abstract class AbstractBundlePersistenceManager implements
                     }
                     modified.put(nodeId, bundle);
                 }
-                bundle.addProperty((PropertyState) state);
+                synchronized (bundle) {
+                    bundle.addProperty((PropertyState) state);
+                }
             }
         }
         // add removed properties
@@ -603,7 +878,9 @@ public abstract class AbstractBundlePersistenceManager implements
                         }
                         modified.put(nodeId, bundle);
                     }
-                    bundle.removeProperty(id.getName());
+                    synchronized (bundle) {
+                        bundle.removeProperty(id.getName());
+                    }
                 }
             }
         }
@@ -630,7 +907,9 @@ public abstract class AbstractBundlePersistenceManager implements
                     }
                     modified.put(nodeId, bundle);
                 }
-                bundle.addProperty((PropertyState) state);
+                synchronized (bundle) {
+                    bundle.addProperty((PropertyState) state);
+                }
             }
         }
 
@@ -653,6 +932,41 @@ public abstract class AbstractBundlePersistenceManager implements
         }
     }
 
+    /**
+     * Gets the bundle of the node with the given id. Pages of child node
+     * entries are stored as bundles, but are not visible as nodes.
+     *
+     * @param id the id of the node.
+     * @return the bundle or <code>null</code> if the node does not exist
+     *
+     * @throws ItemStateException if an error occurs.
+     */
+    private NodePropBundle getNodeBundle(NodeId id) throws ItemStateException {
+        NodePropBundle bundle = getBundle(id);
+        if (bundle != null && ChildNodePages.isPage(bundle)) {
+            return null;
+        }
+        return bundle;
+    }
+
+    /**
+     * Checks if the bundle with the given id is a page of child node entries.
+     * Implementations use this method to exclude pages from
+     * {@link org.apache.jackrabbit.core.persistence.IterablePersistenceManager#getAllNodeIds
+     * getAllNodeIds}.
+     *
+     * @param id the id of a bundle.
+     * @return <code>true</code> if the bundle is a page.
+     * @throws ItemStateException if the bundle cannot be loaded.
+     */
+    protected boolean isChildNodePage(NodeId id) throws ItemStateException {
+        if (!ChildNodePages.isPageId(id)) {
+            return false;
+        }
+        NodePropBundle bundle = loadBundle(id);
+        return bundle != null && ChildNodePages.isPage(bundle);
+    }
+
     /**
      * Gets the bundle for the given node id.
      *
@@ -667,17 +981,126 @@ public abstract class AbstractBundlePersistenceManager implements
         }
         NodePropBundle bundle = bundles.get(id);
         if (bundle == null) {
-            bundle = loadBundle(id);
+            // waits for a store in progress. the bundle is then loaded
+            // without holding the monitor.
+            long count;
+            synchronized (this) {
+                count = modCount;
+            }
+            byte[] data = null;
+            bundle = readSerializedBundle(id);
+            if (bundle == null) {
+                bundle = loadChildPages(loadBundle(id));
+                if (bundle != null && serializedBundles != null) {
+                    data = serializeBundle(bundle);
+                }
+            }
             if (bundle != null) {
                 bundle.markOld();
-                bundles.put(bundle);
-            } else {
-                missing.put(id);
+            }
+            synchronized (this) {
+                if (count != modCount) {
+                    // concurrently modified, do not cache possibly stale data
+                    return bundle;
+                }
+                if (bundle != null) {
+                    // the miss is already counted by the lookup above
+                    NodePropBundle cached = bundles.putIfAbsent(bundle);
+                    if (cached != null) {
+                        // loaded concurrently by another thread
+                        return cached;
+                    }
+                    if (data != null) {
+                        serializedBundles.put(id, data);
+                    }
+                } else {
+                    missing.put(id);
+                }
             }
         }
         return bundle;
     }
 
+    /**
+     * Reads a bundle from the serialized bundle cache.
+     *
+     * @param id the id of the bundle
+     * @return the bundle or <code>null</code> if the bundle is not cached.
+     */
+    private NodePropBundle readSerializedBundle(NodeId id) {
+        if (serializedBundles == null) {
+            return null;
+        }
+        byte[] data = serializedBundles.get(id);
+        if (data == null) {
+            return null;
+        }
+        try {
+            DataInputStream din = new DataInputStream(new ByteArrayInputStream(data));
+            NodePropBundle bundle = getBinding().readBundle(din, id);
+            bundle.setSize(data.length);
+            return bundle;
+        } catch (IOException e) {
+            log.warn("unable to read serialized bundle " + id + ": " + e);
+            serializedBundles.remove(id);
+            return null;
+        }
+    }
+
+    /**
+     * Serializes a bundle for the serialized bundle cache. Bundles with
+     * values in the blob store are not serialized, because reading them
+     * requires access to the blob store. Neither are bundles with paged
+     * child node entries.
+     *
+     * @param bundle the bundle to serialize
+     * @return the serialized bundle or <code>null</code>
+     */
+    private byte[] serializeBundle(NodePropBundle bundle) {
+        synchronized (bundle) {
+            if (bundle.getChildPageCount() > 0) {
+                // the child node entries are not part of the serialized form
+                return null;
+            }
+            Iterator iter = bundle.getPropertyEntries().iterator();
+            while (iter.hasNext()) {
+                NodePropBundle.PropertyEntry entry =
+                    (NodePropBundle.PropertyEntry) iter.next();
+                if (entry.getType() != PropertyType.BINARY) {
+                    continue;
+                }
+                InternalValue[] values = entry.getValues();
+                for (int i = 0; values != null && i < values.length; i++) {
+                    if (entry.getBlobId(i) != null) {
+                        return null;
+                    }
+                }
+            }
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                DataOutputStream dout = new DataOutputStream(out);
+                getBinding().writeBundle(dout, bundle);
+                dout.close();
+                return out.toByteArray();
+            } catch (IOException e) {
+                log.warn("unable to serialize bundle " + bundle.getId() + ": " + e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes the bundle with the given id from the bundle caches.
+     *
+     * @param id the id of the bundle
+     */
+    private void invalidateBundle(NodeId id) {
+        bundles.remove(id);
+        if (serializedBundles != null) {
+            serializedBundles.remove(id);
+        }
+    }
+
     /**
      * Deletes the bundle
      *
@@ -686,8 +1109,14 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     private void deleteBundle(NodePropBundle bundle) throws ItemStateException {
         destroyBundle(bundle);
-        bundle.removeAllProperties();
-        bundles.remove(bundle.getId());
+        synchronized (bundle) {
+            bundle.removeAllProperties();
+            destroyChildPages(bundle, 0, bundle.getChildPageCount());
+            bundle.setChildPageCount(0);
+            bundle.setChildPageChecksums(null);
+            bundle.setChildPageSizes(null);
+        }
+        invalidateBundle(bundle.getId());
         missing.put(bundle.getId());
     }
 
@@ -698,11 +1127,19 @@ public abstract class AbstractBundlePersistenceManager implements
      * @throws ItemStateException if an error occurs
      */
     private void putBundle(NodePropBundle bundle) throws ItemStateException {
-        storeBundle(bundle);
-        bundle.markOld();
+        synchronized (bundle) {
+            int oldCount = bundle.getChildPageCount();
+            storeChildPages(bundle);
+            storeBundle(bundle);
+            destroyChildPages(bundle, bundle.getChildPageCount(), oldCount);
+            bundle.markOld();
+        }
         log.debug("stored bundle " + bundle.getId());
 
         missing.remove(bundle.getId());
+        if (serializedBundles != null) {
+            serializedBundles.remove(bundle.getId());
+        }
         // only put to cache if already exists. this is to ensure proper overwrite
         // and not creating big contention during bulk loads
         if (bundles.contains(bundle.getId())) {
@@ -710,6 +1147,142 @@ public abstract class AbstractBundlePersistenceManager implements
         }
     }
 
+    /**
+     * Loads the child node entries of a bundle that are stored in pages. The
+     * bundle is read again together with its pages while holding the monitor
+     * of this persistence manager, otherwise a concurrent store could modify
+     * the pages after the bundle was read.
+     *
+     * @param bundle a bundle read from the underlying system or
+     *               <code>null</code>
+     * @return the bundle with all child node entries, or <code>null</code>
+     *         if the bundle does not exist (anymore).
+     * @throws ItemStateException if a page cannot be loaded
+     */
+    private NodePropBundle loadChildPages(NodePropBundle bundle)
+            throws ItemStateException {
+        if (bundle == null || bundle.getChildPageCount() == 0) {
+            return bundle;
+        }
+        synchronized (this) {
+            bundle = loadBundle(bundle.getId());
+            if (bundle == null || bundle.getChildPageCount() == 0) {
+                return bundle;
+            }
+            int count = bundle.getChildPageCount();
+            List ids = new ArrayList(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(ChildNodePages.getPageId(bundle.getId(), i));
+            }
+            Map pages = loadBundles(ids);
+            int[] checksums = new int[count];
+            long[] sizes = new long[count];
+            for (int i = 0; i < count; i++) {
+                NodePropBundle page = (NodePropBundle) pages.get(ids.get(i));
+                if (page == null) {
+                    String msg = "child node page " + i + " of node "
+                        + bundle.getId() + " does not exist";
+                    log.error(msg);
+                    throw new ItemStateException(msg);
+                }
+                bundle.getChildNodeEntries().addAll(page.getChildNodeEntries());
+                checksums[i] = ChildNodePages.checksum(page.getChildNodeEntries());
+                sizes[i] = page.getDataSize();
+            }
+            bundle.setChildPageChecksums(checksums);
+            bundle.setChildPageSizes(sizes);
+            return bundle;
+        }
+    }
+
+    /**
+     * Stores the modified pages of child node entries of the given bundle
+     * and updates its number of pages. Only the pages whose entries changed
+     * since the bundle was loaded or stored are written, unless the number
+     * of pages changes.
+     *
+     * @param bundle the bundle that is about to be stored
+     * @throws ItemStateException if an error occurs
+     */
+    private void storeChildPages(NodePropBundle bundle)
+            throws ItemStateException {
+        List entries = bundle.getChildNodeEntries();
+        int oldCount = bundle.getChildPageCount();
+        int newCount = 0;
+        if (childNodeEntriesPageSize > 0
+                && (oldCount > 0 || entries.size() > childNodeEntriesPageSize)
+                && !hasOrderableChildNodes(bundle)) {
+            newCount = ChildNodePages.getPageCount(
+                    oldCount, entries.size(), childNodeEntriesPageSize);
+        }
+        if (newCount == 0) {
+            bundle.setChildPageCount(0);
+            bundle.setChildPageChecksums(null);
+            bundle.setChildPageSizes(null);
+            return;
+        }
+        int[] oldChecksums = bundle.getChildPageChecksums();
+        long[] oldSizes = bundle.getChildPageSizes();
+        int[] checksums = new int[newCount];
+        long[] sizes = new long[newCount];
+        List[] pages = ChildNodePages.split(entries, newCount);
+        for (int i = 0; i < newCount; i++) {
+            checksums[i] = ChildNodePages.checksum(pages[i]);
+            if (newCount == oldCount && oldChecksums != null && oldSizes != null
+                    && oldChecksums[i] == checksums[i]) {
+                sizes[i] = oldSizes[i];
+                continue;
+            }
+            NodePropBundle page = ChildNodePages.createPage(
+                    getBinding(), bundle, i, pages[i]);
+            if (!bundle.isNew() && i < oldCount) {
+                page.markOld();
+            }
+            storeBundle(page);
+            sizes[i] = page.getDataSize();
+        }
+        bundle.setChildPageCount(newCount);
+        bundle.setChildPageChecksums(checksums);
+        bundle.setChildPageSizes(sizes);
+    }
+
+    /**
+     * Deletes the child node entry pages <code>from</code> (inclusive) to
+     * <code>to</code> (exclusive) of the given bundle.
+     *
+     * @param bundle the bundle
+     * @param from index of the first page to delete
+     * @param to index after the last page to delete
+     * @throws ItemStateException if an error occurs
+     */
+    private void destroyChildPages(NodePropBundle bundle, int from, int to)
+            throws ItemStateException {
+        for (int i = from; i < to; i++) {
+            destroyBundle(ChildNodePages.createPage(
+                    getBinding(), bundle, i, Collections.EMPTY_LIST));
+        }
+    }
+
+    /**
+     * Checks if the primary type of the given bundle has orderable child
+     * nodes. Returns <code>true</code> if the node type is not known. The
+     * child node entries of such nodes are never stored in pages.
+     *
+     * @param bundle the bundle
+     * @return whether the child nodes of the bundle are orderable
+     */
+    protected boolean hasOrderableChildNodes(NodePropBundle bundle) {
+        NodeTypeRegistry ntReg = context.getNodeTypeRegistry();
+        if (ntReg == null || bundle.getNodeTypeName() == null) {
+            return true;
+        }
+        try {
+            return ntReg.getNodeTypeDef(bundle.getNodeTypeName()).hasOrderableChildNodes();
+        } catch (NoSuchNodeTypeException e) {
+            return true;
+        }
+    }
+
     /**
      * This implementation does nothing.
      *
@@ -719,12 +1292,12 @@ public abstract class AbstractBundlePersistenceManager implements
     }
 
     /**
-     * Evicts the bundle with <code>id</code> from the bundle cache.
+     * Evicts the bundle with <code>id</code> from the bundle caches.
      *
      * @param id the id of the bundle.
      */
     protected void evictBundle(NodeId id) {
-        bundles.remove(id);
+        invalidateBundle(id);
     }
 
 }
@@ -35,8 +35,10 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.jcr.RepositoryException;
@@ -50,7 +52,9 @@ import org.apache.jackrabbit.core.fs.FileSystemResource;
 import org.apache.jackrabbit.core.fs.local.LocalFileSystem;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.bundle.util.BundleBinding;
+import org.apache.jackrabbit.core.persistence.bundle.util.ChildNodePages;
 import org.apache.jackrabbit.core.persistence.bundle.util.ConnectionRecoveryManager;
+import org.apache.jackrabbit.core.persistence.bundle.util.ConnectionRecoveryManagerPool;
 import org.apache.jackrabbit.core.persistence.bundle.util.DbNameIndex;
 import org.apache.jackrabbit.core.persistence.bundle.util.ErrorHandling;
 import org.apache.jackrabbit.core.persistence.bundle.util.NodePropBundle;
@@ -86,6 +90,7 @@ import org.slf4j.LoggerFactory;
  * <li>&lt;param name="{@link #setSchemaObjectPrefix(String) schemaObjectPrefix}" value=""/>
  * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/>
  * <li>&lt;param name="{@link #setBlockOnConnectionLoss(String) blockOnConnectionLoss}" value="false"/>
+ * <li>&lt;param name="{@link #setReadConnections(String) readConnections}" value="0"/>
  * </ul>
  */
 public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager {
@@ -103,6 +108,9 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
     /** storage model modifier: longlong keys */
     public static final int SM_LONGLONG_KEYS = 2;
 
+    /** the maximum number of bundles that are read with a single statement */
+    protected static final int BUNDLE_BATCH_SIZE = 32;
+
     /** flag indicating if this manager was initialized */
     protected boolean initialized = false;
 
@@ -144,10 +152,23 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
      */
     protected ConnectionRecoveryManager connectionManager;
 
+    /**
+     * the number of additional connections used for concurrent bundle reads.
+     * if zero, bundles are read through the {@link #connectionManager}.
+     */
+    protected int readConnections = 0;
+
+    /**
+     * the pool of connections for concurrent bundle reads or <code>null</code>
+     * if bundles are read through the {@link #connectionManager}.
+     */
+    protected ConnectionRecoveryManagerPool readConnectionPool;
+
     // SQL statements for bundle management
     protected String bundleInsertSQL;
     protected String bundleUpdateSQL;
     protected String bundleSelectSQL;
+    protected String bundleSelectBatchSQL;
     protected String bundleDeleteSQL;
     protected String bundleSelectAllIdsFromSQL;
     protected String bundleSelectAllIdsSQL;
@@ -392,6 +413,32 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
         return Boolean.toString(blockOnConnectionLoss);
     }
 
+    /**
+     * Returns the number of connections used for concurrent bundle reads.
+     *
+     * @return the number of read connections.
+     */
+    public String getReadConnections() {
+        return String.valueOf(readConnections);
+    }
+
+    /**
+     * Sets the number of additional database connections that are used to
+     * load bundles concurrently. Each connection has its own set of prepared
+     * statements. If set to <code>0</code> (the default) all bundles are read
+     * through the single connection that is also used for writing and bundle
+     * cache misses are serialized.
+     * <p/>
+     * This setting is ignored if binaries are stored in the database blob
+     * store, i.e. if neither a data store nor
+     * {@link #setExternalBLOBs(boolean) external BLOBs} are used.
+     *
+     * @param readConnections the number of read connections.
+     */
+    public void setReadConnections(String readConnections) {
+        this.readConnections = Integer.parseInt(readConnections);
+    }
+
     /**
      * Returns <code>true</code> if the blobs are stored in the DB.
      * @return <code>true</code> if the blobs are stored in the DB.
@@ -557,6 +604,16 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
 
         connectionManager = new ConnectionRecoveryManager(blockOnConnectionLoss,
                 getDriver(), getUrl(), getUser(), getPassword());
+        if (readConnections > 0 && useDbBlobStore() && context.getDataStore() == null) {
+            // binaries are read from the shared connection while a bundle
+            // is deserialized
+            log.warn("readConnections is ignored when binaries are stored"
+                    + " in the database blob store.");
+        } else if (readConnections > 0) {
+            readConnectionPool = new ConnectionRecoveryManagerPool(
+                    blockOnConnectionLoss, getDriver(), getUrl(), getUser(),
+                    getPassword(), readConnections);
+        }
 
         // make sure schemaObjectPrefix consists of legal name characters only
         prepareSchemaObjectPrefix();
@@ -691,6 +748,9 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
                                           boolean fix, Collection modifications) {
         //log.info(name + ": checking bundle '" + id + "'");
 
+        // the children of a child node page belong to the parent of the page
+        NodeId expectedParentId = bundle.isChildPage() ? bundle.getParentId() : id;
+
         // look at the node's children
         Collection missingChildren = new ArrayList();
         Iterator iter = bundle.getChildNodeEntries().iterator();
@@ -718,8 +778,8 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
                     NodeId cp = child.getParentId();
                     if (cp == null) {
                         log.error("ChildNode has invalid parent uuid: <null>");
-                    } else if (!cp.equals(id)) {
-                        log.error("ChildNode has invalid parent uuid: '" + cp + "' (instead of '" + id + "')");
+                    } else if (!cp.equals(expectedParentId)) {
+                        log.error("ChildNode has invalid parent uuid: '" + cp + "' (instead of '" + expectedParentId + "')");
                     }
                 }
             } catch (ItemStateException e) {
@@ -875,6 +935,9 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
                             NodePropBundle.ChildNodeEntry entry = (NodePropBundle.ChildNodeEntry) iter.next();
                             uuidList.add(entry.getId().getUUID());
                         }
+                        for (int p = 0; p < bundle.getChildPageCount(); p++) {
+                            uuidList.add(ChildNodePages.getPageId(id, p).getUUID());
+                        }
                     }
 
                     count++;
@@ -950,6 +1013,10 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
             if (nameIndex instanceof DbNameIndex) {
                 ((DbNameIndex) nameIndex).close();
             }
+            if (readConnectionPool != null) {
+                readConnectionPool.close();
+                readConnectionPool = null;
+            }
             connectionManager.close();
             // close blob store
             blobStore.close();
@@ -1031,9 +1098,42 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
 
     /**
      * {@inheritDoc}
+     *
+     * Pages of child node entries are stored as bundles but are not
+     * returned. If a batch only contains pages, the next batch is read.
      */
     public synchronized NodeIdIterator getAllNodeIds(NodeId bigger, int maxCount)
             throws ItemStateException, RepositoryException {
+        ArrayList result = new ArrayList();
+        for (;;) {
+            ArrayList ids = getAllBundleIds(bigger, maxCount);
+            Iterator iter = ids.iterator();
+            while (iter.hasNext()) {
+                UUID uuid = (UUID) iter.next();
+                if (!isChildNodePage(new NodeId(uuid))) {
+                    result.add(uuid);
+                }
+            }
+            if (maxCount == 0 || !result.isEmpty() || ids.isEmpty()) {
+                return new ListNodeIdIterator(result);
+            }
+            bigger = new NodeId((UUID) ids.get(ids.size() - 1));
+        }
+    }
+
+    /**
+     * Returns the uuids of the stored bundles, including the pages of child
+     * node entries.
+     *
+     * @param bigger the lower limit, or <code>null</code> for no limit.
+     * @param maxCount the maximum number of uuids to return, or 0 for no
+     *                 limit.
+     * @return the list of {@link UUID}s.
+     * @throws ItemStateException if an error occurs while reading the ids.
+     * @throws RepositoryException if a repository exception occurs.
+     */
+    private ArrayList getAllBundleIds(NodeId bigger, int maxCount)
+            throws ItemStateException, RepositoryException {
         ResultSet rs = null;
         try {
             UUID lowUuid;
@@ -1075,7 +1175,7 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
                 }
                 result.add(current);
             }
-            return new ListNodeIdIterator(result);
+            return result;
         } catch (SQLException e) {
             String msg = "getAllNodeIds failed.";
             log.error(msg, e);
@@ -1087,10 +1187,161 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
 
     /**
      * {@inheritDoc}
+     *
+     * If {@link #setReadConnections(String) read connections} are configured,
+     * the bundle is loaded through a pooled connection without synchronizing
+     * on this persistence manager.
+     */
+    protected NodePropBundle loadBundle(NodeId id)
+            throws ItemStateException {
+        if (readConnectionPool == null) {
+            return loadBundle(id, false);
+        }
+        ConnectionRecoveryManager conMgr = acquireReadConnection();
+        try {
+            return loadBundle(conMgr, id, false);
+        } finally {
+            readConnectionPool.release(conMgr);
+        }
+    }
+
+    /**
+     * Acquires a connection from the {@link #readConnectionPool}.
+     *
+     * @return a connection manager for reading bundles.
+     * @throws ItemStateException if no connection can be acquired.
+     */
+    protected ConnectionRecoveryManager acquireReadConnection()
+            throws ItemStateException {
+        try {
+            return readConnectionPool.acquire();
+        } catch (RepositoryException e) {
+            String msg = "failed to acquire read connection";
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation reads the bundles in batches of
+     * {@link #BUNDLE_BATCH_SIZE} with a single statement per batch.
+     */
+    protected Map loadBundles(Collection ids) throws ItemStateException {
+        if (readConnectionPool == null) {
+            synchronized (this) {
+                return loadBundles(connectionManager, ids);
+            }
+        }
+        ConnectionRecoveryManager conMgr = acquireReadConnection();
+        try {
+            return loadBundles(conMgr, ids);
+        } finally {
+            readConnectionPool.release(conMgr);
+        }
+    }
+
+    /**
+     * Loads several bundles using the given connection manager. Callers need
+     * to make sure that the connection manager is not used concurrently.
+     *
+     * @param conMgr the connection manager to read the bundles from
+     * @param ids the node ids of the bundles
+     * @return a map from node id to the loaded bundle. Bundles that do not
+     *         exist are not contained in the map.
+     * @throws ItemStateException if an error while loading occurs.
      */
-    protected synchronized NodePropBundle loadBundle(NodeId id)
+    protected Map loadBundles(ConnectionRecoveryManager conMgr, Collection ids)
             throws ItemStateException {
-        return loadBundle(id, false);
+        Map bundles = new HashMap();
+        List batch = new ArrayList(BUNDLE_BATCH_SIZE);
+        Iterator iter = ids.iterator();
+        while (iter.hasNext()) {
+            batch.add(iter.next());
+            if (batch.size() == BUNDLE_BATCH_SIZE || !iter.hasNext()) {
+                if (batch.size() == 1) {
+                    NodeId id = (NodeId) batch.get(0);
+                    NodePropBundle bundle = loadBundle(conMgr, id, false);
+                    if (bundle != null) {
+                        bundles.put(id, bundle);
+                    }
+                } else {
+                    loadBundleBatch(conMgr, batch, bundles);
+                }
+                batch.clear();
+            }
+        }
+        return bundles;
+    }
+
+    /**
+     * Loads a batch of at most {@link #BUNDLE_BATCH_SIZE} bundles with a
+     * single statement. If the batch is smaller, the last id is repeated so
+     * that the same prepared statement can be used for all batches.
+     *
+     * @param conMgr the connection manager to read the bundles from
+     * @param batch the node ids of the bundles
+     * @param bundles the map to put the loaded bundles to
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    private void loadBundleBatch(ConnectionRecoveryManager conMgr,
+                                 List batch, Map bundles)
+            throws ItemStateException {
+        ResultSet rs = null;
+        try {
+            List params = new ArrayList();
+            for (int i = 0; i < BUNDLE_BATCH_SIZE; i++) {
+                NodeId id = (NodeId) batch.get(Math.min(i, batch.size() - 1));
+                Object[] key = getKey(id.getUUID());
+                for (int j = 0; j < key.length; j++) {
+                    params.add(key[j]);
+                }
+            }
+            Statement stmt = conMgr.executeStmt(bundleSelectBatchSQL, params.toArray());
+            rs = stmt.getResultSet();
+            while (rs.next()) {
+                UUID uuid;
+                int column;
+                if (getStorageModel() == SM_BINARY_KEYS) {
+                    uuid = new UUID(rs.getBytes(1));
+                    column = 2;
+                } else {
+                    uuid = new UUID(rs.getLong(1), rs.getLong(2));
+                    column = 3;
+                }
+                NodeId id = new NodeId(uuid);
+                if (!bundles.containsKey(id)) {
+                    bundles.put(id, readBundle(id, rs, column));
+                }
+            }
+        } catch (Exception e) {
+            String msg = "failed to read bundles: " + batch + ": " + e;
+            log.error(msg);
+            throw new ItemStateException(msg, e);
+        } finally {
+            closeResultSet(rs);
+        }
+    }
+
+    /**
+     * Reads the bundle data from the given column of the current row of the
+     * result set.
+     *
+     * @param id the node id of the bundle
+     * @param rs the result set positioned on the row of the bundle
+     * @param column the index of the column that contains the bundle data
+     * @return the bundle
+     * @throws SQLException if an SQL error occurs
+     * @throws IOException if the bundle cannot be read
+     */
+    protected NodePropBundle readBundle(NodeId id, ResultSet rs, int column)
+            throws SQLException, IOException {
+        byte[] bytes = getBytes(rs.getBlob(column));
+        DataInputStream din = new DataInputStream(new ByteArrayInputStream(bytes));
+        NodePropBundle bundle = binding.readBundle(din, id);
+        bundle.setSize(bytes.length);
+        return bundle;
     }
 
     /**
@@ -1130,9 +1381,28 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
      */
     protected synchronized NodePropBundle loadBundle(NodeId id, boolean checkBeforeLoading)
             throws ItemStateException {
+        return loadBundle(connectionManager, id, checkBeforeLoading);
+    }
+
+    /**
+     * Loads a bundle using the given connection manager and optionally
+     * performs a check on the bundle first. Callers need to make sure that
+     * the connection manager is not used concurrently.
+     *
+     * @param conMgr the connection manager to read the bundle from
+     * @param id the node id of the bundle
+     * @param checkBeforeLoading check the bundle before loading it and log
+     *                           detailed information about it (slower)
+     * @return the loaded bundle or <code>null</code> if the bundle does not
+     *         exist.
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    protected NodePropBundle loadBundle(ConnectionRecoveryManager conMgr,
+                                        NodeId id, boolean checkBeforeLoading)
+            throws ItemStateException {
         ResultSet rs = null;
         try {
-            Statement stmt = connectionManager.executeStmt(bundleSelectSQL, getKey(id.getUUID()));
+            Statement stmt = conMgr.executeStmt(bundleSelectSQL, getKey(id.getUUID()));
             rs = stmt.getResultSet();
             if (!rs.next()) {
                 return null;
@@ -1166,10 +1436,35 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
     /**
      * {@inheritDoc}
      */
-    protected synchronized boolean existsBundle(NodeId id) throws ItemStateException {
+    protected boolean existsBundle(NodeId id) throws ItemStateException {
+        if (readConnectionPool == null) {
+            synchronized (this) {
+                return existsBundle(connectionManager, id);
+            }
+        }
+        ConnectionRecoveryManager conMgr = acquireReadConnection();
+        try {
+            return existsBundle(conMgr, id);
+        } finally {
+            readConnectionPool.release(conMgr);
+        }
+    }
+
+    /**
+     * Checks if a bundle exists using the given connection manager. Callers
+     * need to make sure that the connection manager is not used concurrently.
+     *
+     * @param conMgr the connection manager to use
+     * @param id the node id of the bundle
+     * @return <code>true</code> if the bundle exists;
+     *         <code>false</code> otherwise.
+     * @throws ItemStateException if an error while checking occurs.
+     */
+    protected boolean existsBundle(ConnectionRecoveryManager conMgr, NodeId id)
+            throws ItemStateException {
         ResultSet rs = null;
         try {
-            Statement stmt = connectionManager.executeStmt(bundleSelectSQL, getKey(id.getUUID()));
+            Statement stmt = conMgr.executeStmt(bundleSelectSQL, getKey(id.getUUID()));
             rs = stmt.getResultSet();
             // a bundle exists, if the result has at least one entry
             return rs.next();
@@ -1414,6 +1709,12 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
             bundleInsertSQL = "insert into " + schemaObjectPrefix + "BUNDLE (BUNDLE_DATA, NODE_ID) values (?, ?)";
             bundleUpdateSQL = "update " + schemaObjectPrefix + "BUNDLE set BUNDLE_DATA = ? where NODE_ID = ?";
             bundleSelectSQL = "select BUNDLE_DATA from " + schemaObjectPrefix + "BUNDLE where NODE_ID = ?";
+            StringBuffer batch = new StringBuffer("select NODE_ID, BUNDLE_DATA from ");
+            batch.append(schemaObjectPrefix).append("BUNDLE where NODE_ID in (?");
+            for (int i = 1; i < BUNDLE_BATCH_SIZE; i++) {
+                batch.append(", ?");
+            }
+            bundleSelectBatchSQL = batch.append(")").toString();
             bundleDeleteSQL = "delete from " + schemaObjectPrefix + "BUNDLE where NODE_ID = ?";
 
             nodeReferenceInsertSQL = "insert into " + schemaObjectPrefix + "REFS (REFS_DATA, NODE_ID) values (?, ?)";
@@ -1427,6 +1728,12 @@ public class BundleDbPersistenceManager extends AbstractBundlePersistenceManager
             bundleInsertSQL = "insert into " + schemaObjectPrefix + "BUNDLE (BUNDLE_DATA, NODE_ID_HI, NODE_ID_LO) values (?, ?, ?)";
             bundleUpdateSQL = "update " + schemaObjectPrefix + "BUNDLE set BUNDLE_DATA = ? where NODE_ID_HI = ? and NODE_ID_LO = ?";
             bundleSelectSQL = "select BUNDLE_DATA from " + schemaObjectPrefix + "BUNDLE where NODE_ID_HI = ? and NODE_ID_LO = ?";
+            StringBuffer batch = new StringBuffer("select NODE_ID_HI, NODE_ID_LO, BUNDLE_DATA from ");
+            batch.append(schemaObjectPrefix).append("BUNDLE where (NODE_ID_HI = ? and NODE_ID_LO = ?)");
+            for (int i = 1; i < BUNDLE_BATCH_SIZE; i++) {
+                batch.append(" or (NODE_ID_HI = ? and NODE_ID_LO = ?)");
+            }
+            bundleSelectBatchSQL = batch.toString();
             bundleDeleteSQL = "delete from " + schemaObjectPrefix + "BUNDLE where NODE_ID_HI = ? and NODE_ID_LO = ?";
 
             nodeReferenceInsertSQL =
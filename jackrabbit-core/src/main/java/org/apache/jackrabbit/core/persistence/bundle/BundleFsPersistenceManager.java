@@ -542,7 +542,7 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
     }
 
     private void getListRecursive(ArrayList list, String path, UUID bigger,
-            int maxCount) throws FileSystemException {
+            int maxCount) throws FileSystemException, ItemStateException {
         if (maxCount > 0 && list.size() >= maxCount) {
             return;
         }
@@ -558,6 +558,9 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
                 continue;
             }
             NodeId n = new NodeId(u);
+            if (isChildNodePage(n)) {
+                continue;
+            }
             list.add(n);
             if (maxCount > 0 && list.size() >= maxCount) {
                 return;
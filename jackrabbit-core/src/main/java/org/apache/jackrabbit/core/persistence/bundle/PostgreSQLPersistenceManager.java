@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.persistence.bundle;
 
 import org.apache.jackrabbit.core.NodeId;
 import org.apache.jackrabbit.core.persistence.PMContext;
+import org.apache.jackrabbit.core.persistence.bundle.util.ConnectionRecoveryManager;
 import org.apache.jackrabbit.core.persistence.bundle.util.DbNameIndex;
 import org.apache.jackrabbit.core.persistence.bundle.util.NodePropBundle;
 import org.apache.jackrabbit.core.persistence.bundle.util.PostgreSQLNameIndex;
@@ -27,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -88,10 +90,20 @@ public class PostgreSQLPersistenceManager extends BundleDbPersistenceManager {
         return SM_LONGLONG_KEYS;
     }
 
-    protected synchronized NodePropBundle loadBundle(NodeId id)
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation streams the bundle from the result set instead of
+     * reading it into a byte array first.
+     */
+    protected NodePropBundle loadBundle(ConnectionRecoveryManager conMgr,
+                                        NodeId id, boolean checkBeforeLoading)
             throws ItemStateException {
+        if (checkBeforeLoading) {
+            return super.loadBundle(conMgr, id, true);
+        }
         try {
-            Statement stmt = connectionManager.executeStmt(bundleSelectSQL, getKey(id.getUUID()));
+            Statement stmt = conMgr.executeStmt(bundleSelectSQL, getKey(id.getUUID()));
             ResultSet rs = stmt.getResultSet();
             try {
                 if (rs.next()) {
@@ -118,4 +130,24 @@ public class PostgreSQLPersistenceManager extends BundleDbPersistenceManager {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation streams the bundle from the result set instead of
+     * reading it as a blob.
+     */
+    protected NodePropBundle readBundle(NodeId id, ResultSet rs, int column)
+            throws SQLException, IOException {
+        InputStream input = rs.getBinaryStream(column);
+        try {
+            TrackingInputStream cin = new TrackingInputStream(input);
+            DataInputStream din = new DataInputStream(cin);
+            NodePropBundle bundle = binding.readBundle(din, id);
+            bundle.setSize(cin.getPosition());
+            return bundle;
+        } finally {
+            input.close();
+        }
+    }
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import java.util.Collection;
+
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * Interface that is used by the shared item state manager to load a set of
+ * node states in advance, e.g. before the child nodes of a node are
+ * iterated. Persistence managers that implement this interface can load
+ * several nodes with a single request to the underlying system.
+ */
+public interface PrefetchingPersistenceManager {
+
+    /**
+     * Loads the nodes with the given ids into the caches of the persistence
+     * manager. Subsequent calls to
+     * {@link org.apache.jackrabbit.core.persistence.PersistenceManager#load(org.apache.jackrabbit.core.NodeId)}
+     * for these ids can then be served without accessing the underlying
+     * system. Ids of nodes that do not exist are ignored.
+     *
+     * @param ids the {@link org.apache.jackrabbit.core.NodeId}s of the nodes
+     *            to load.
+     * @throws ItemStateException if an error occurs while loading the nodes.
+     */
+    void prefetch(Collection ids) throws ItemStateException;
+
+}
@@ -30,6 +30,7 @@ import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.nodetype.NodeDefId;
 import org.apache.jackrabbit.core.nodetype.PropDefId;
 import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.NameFactory;
 import org.apache.jackrabbit.uuid.UUID;
 import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
@@ -38,8 +39,11 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import javax.jcr.PropertyType;
@@ -47,12 +51,27 @@ import javax.jcr.RepositoryException;
 
 /**
  * This Class implements efficient serialization methods for item states.
+ * <p/>
+ * Bundles are written in the compact format of {@link #VERSION_3}. Bundles
+ * written in an older format can still be read and are converted to the
+ * current format the next time they are stored.
  */
 public class BundleBinding extends ItemStateBinding {
 
     private static final int BINARY_IN_BLOB_STORE = -1;
     private static final int BINARY_IN_DATA_STORE = -2;
 
+    /**
+     * Flag of the compact format indicating a referenceable node.
+     */
+    private static final int FLAG_REFERENCEABLE = 0x01;
+
+    /**
+     * Flag of the compact format indicating that the child node entries are
+     * stored in separate pages.
+     */
+    private static final int FLAG_CHILD_PAGES = 0x02;
+
     /**
      * default logger
      */
@@ -92,6 +111,10 @@ public class BundleBinding extends ItemStateBinding {
         int version = (index >> 24) & 0xff;
         index &= 0x00ffffff;
         String uri = nsIndex.indexToString(index);
+        if (version >= VERSION_3) {
+            readCompactBundle(in, bundle, uri);
+            return bundle;
+        }
         String local = nameIndex.indexToString(in.readInt());
         Name nodeTypeName = NameFactoryImpl.getInstance().create(uri, local);
 
@@ -160,6 +183,87 @@ public class BundleBinding extends ItemStateBinding {
         return bundle;
     }
 
+    /**
+     * Deserializes the remainder of a bundle in the compact format of
+     * {@link #VERSION_3}, i.e. everything after the namespace index of the
+     * primary type.
+     *
+     * @param in the input stream
+     * @param bundle the bundle to read into
+     * @param uri the namespace uri of the primary type
+     * @throws IOException if an I/O error occurs.
+     */
+    private void readCompactBundle(DataInputStream in, NodePropBundle bundle,
+                                   String uri) throws IOException {
+        NameFactory factory = NameFactoryImpl.getInstance();
+
+        // primaryType
+        String local = nameIndex.indexToString(readVarInt(in));
+        bundle.setNodeTypeName(factory.create(uri, local));
+
+        // parentUUID
+        bundle.setParentId(readID(in));
+
+        // definitionId
+        bundle.setNodeDefId(NodeDefId.valueOf(readString(in)));
+
+        // mixin types
+        int count = readVarInt(in);
+        Set mixinTypeNames = new HashSet();
+        for (int i = 0; i < count; i++) {
+            mixinTypeNames.add(readCompactIndexedQName(in));
+        }
+        bundle.setMixinTypeNames(mixinTypeNames);
+
+        // properties
+        count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            PropertyId pId = new PropertyId(bundle.getId(), readCompactIndexedQName(in));
+            bundle.addProperty(readCompactPropertyEntry(in, pId));
+        }
+
+        // referenceable flag and child node pages
+        int flags = in.readUnsignedByte();
+        bundle.setReferenceable((flags & FLAG_REFERENCEABLE) != 0);
+        if ((flags & FLAG_CHILD_PAGES) != 0) {
+            bundle.setChildPageCount(readVarInt(in));
+        }
+
+        // child nodes, names and uuids are prefix compressed
+        // against the previous entry
+        count = readVarInt(in);
+        String prevLocal = "";
+        byte[] uuid = new byte[16];
+        for (int i = 0; i < count; i++) {
+            String childUri = nsIndex.indexToString(readVarInt(in));
+            int prefix = readVarInt(in);
+            if (prefix > prevLocal.length()) {
+                throw new IOException("invalid child node name prefix: " + prefix);
+            }
+            local = prevLocal.substring(0, prefix) + readString(in);
+            int shared = in.readUnsignedByte();
+            if (shared > uuid.length) {
+                throw new IOException("invalid child node id prefix: " + shared);
+            }
+            in.readFully(uuid, shared, uuid.length - shared);
+            bundle.addChildNodeEntry(factory.create(childUri, local),
+                    new NodeId(new UUID(uuid)));
+            prevLocal = local;
+        }
+
+        // modcount
+        bundle.setModCount((short) readVarInt(in));
+
+        // shared set (list of parent uuids)
+        count = readVarInt(in);
+        Set sharedSet = new HashSet();
+        for (int i = 0; i < count; i++) {
+            in.readFully(uuid);
+            sharedSet.add(new NodeId(new UUID(uuid)));
+        }
+        bundle.setSharedSet(sharedSet);
+    }
+
     /**
      * Checks a <code>NodePropBundle</code> from a data input stream.
      *
@@ -178,10 +282,14 @@ public class BundleBinding extends ItemStateBinding {
             version = (index >> 24) & 0xff;
             index &= 0x00ffffff;
             String uri = nsIndex.indexToString(index);
+
+            log.debug("Serialzation Version: " + version);
+            if (version >= VERSION_3) {
+                return checkCompactBundle(in, uri);
+            }
             String local = nameIndex.indexToString(in.readInt());
             Name nodeTypeName = NameFactoryImpl.getInstance().create(uri, local);
 
-            log.debug("Serialzation Version: " + version);
             log.debug("NodeTypeName: " + nodeTypeName);
         } catch (IOException e) {
             log.error("Error while reading NodeTypeName: " + e);
@@ -256,6 +364,68 @@ public class BundleBinding extends ItemStateBinding {
         return true;
     }
 
+    /**
+     * Checks the remainder of a bundle in the compact format of
+     * {@link #VERSION_3}.
+     *
+     * @param in the input stream
+     * @param uri the namespace uri of the primary type
+     * @return <code>true</code> if the data is valid;
+     *         <code>false</code> otherwise.
+     */
+    private boolean checkCompactBundle(DataInputStream in, String uri) {
+        String section = "NodeTypeName";
+        try {
+            String local = nameIndex.indexToString(readVarInt(in));
+            log.debug("NodeTypeName: " + NameFactoryImpl.getInstance().create(uri, local));
+            section = "ParentUUID";
+            log.debug("ParentUUID: " + readID(in));
+            section = "DefinitionId";
+            log.debug("DefinitionId: " + readString(in));
+            section = "MixinTypes";
+            int count = readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                log.debug("MixinTypeName: " + readCompactIndexedQName(in));
+            }
+            section = "property names";
+            count = readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                log.debug("PropertyName: " + readCompactIndexedQName(in));
+                if (!checkCompactPropertyState(in)) {
+                    return false;
+                }
+            }
+            section = "flags";
+            int flags = in.readUnsignedByte();
+            log.debug("hasUUID: " + ((flags & FLAG_REFERENCEABLE) != 0));
+            if ((flags & FLAG_CHILD_PAGES) != 0) {
+                log.debug("child node pages: " + readVarInt(in));
+            }
+            section = "child node entry";
+            count = readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                int ns = readVarInt(in);
+                int prefix = readVarInt(in);
+                String suffix = readString(in);
+                int shared = in.readUnsignedByte();
+                if (shared > 16) {
+                    throw new IOException("invalid child node id prefix: " + shared);
+                }
+                in.readFully(new byte[16 - shared]);
+                log.debug("ChildNodentry: " + ns + ":" + prefix + ":" + suffix);
+            }
+            section = "mod count";
+            log.debug("modCount: " + readVarInt(in));
+            section = "shared set";
+            count = readVarInt(in);
+            in.readFully(new byte[count * 16]);
+        } catch (IOException e) {
+            log.error("Error while reading " + section + ": " + e);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Serializes a <code>NodePropBundle</code> to a data output stream
      *
@@ -269,26 +439,27 @@ public class BundleBinding extends ItemStateBinding {
 
         // primaryType and version
         out.writeInt((VERSION_CURRENT << 24) | nsIndex.stringToIndex(bundle.getNodeTypeName().getNamespaceURI()));
-        out.writeInt(nameIndex.stringToIndex(bundle.getNodeTypeName().getLocalName()));
+        writeVarInt(out, nameIndex.stringToIndex(bundle.getNodeTypeName().getLocalName()));
 
         // parentUUID
         writeID(out, bundle.getParentId());
 
         // definitionId
-        out.writeUTF(bundle.getNodeDefId().toString());
+        writeString(out, bundle.getNodeDefId().toString());
 
         // mixin types
-        Iterator iter = bundle.getMixinTypeNames().iterator();
+        Set mixinTypeNames = bundle.getMixinTypeNames();
+        writeVarInt(out, mixinTypeNames.size());
+        Iterator iter = mixinTypeNames.iterator();
         while (iter.hasNext()) {
-            writeIndexedQName(out, (Name) iter.next());
+            writeCompactIndexedQName(out, (Name) iter.next());
         }
-        writeIndexedQName(out, null);
 
-        // properties
+        // properties, skip redundant primaryType, mixinTypes and uuid properties
+        List entries = new ArrayList();
         iter = bundle.getPropertyNames().iterator();
         while (iter.hasNext()) {
             Name pName = (Name) iter.next();
-            // skip redundant primaryType, mixinTypes and uuid properties
             if (pName.equals(NameConstants.JCR_PRIMARYTYPE)
                 || pName.equals(NameConstants.JCR_MIXINTYPES)
                 || pName.equals(NameConstants.JCR_UUID)) {
@@ -298,40 +469,77 @@ public class BundleBinding extends ItemStateBinding {
             if (pState == null) {
                 log.error("PropertyState missing in bundle: " + pName);
             } else {
-                writeIndexedQName(out, pName);
-                writeState(out, pState);
+                entries.add(pState);
             }
         }
-        writeIndexedQName(out, null);
+        writeVarInt(out, entries.size());
+        iter = entries.iterator();
+        while (iter.hasNext()) {
+            NodePropBundle.PropertyEntry pState = (NodePropBundle.PropertyEntry) iter.next();
+            writeCompactIndexedQName(out, pState.getName());
+            writeState(out, pState);
+        }
 
-        // write uuid flag
-        out.writeBoolean(bundle.isReferenceable());
+        // write uuid flag and the number of child node pages
+        int flags = bundle.isReferenceable() ? FLAG_REFERENCEABLE : 0;
+        if (bundle.getChildPageCount() > 0) {
+            flags |= FLAG_CHILD_PAGES;
+        }
+        out.writeByte(flags);
+        if (bundle.getChildPageCount() > 0) {
+            writeVarInt(out, bundle.getChildPageCount());
+        }
 
-        // child nodes (list of uuid/name pairs)
-        iter = bundle.getChildNodeEntries().iterator();
+        // child nodes, names and uuids are prefix compressed
+        // against the previous entry. paged entries are stored separately
+        List childNodeEntries = bundle.getChildPageCount() > 0
+            ? Collections.EMPTY_LIST : bundle.getChildNodeEntries();
+        writeVarInt(out, childNodeEntries.size());
+        String prevLocal = "";
+        byte[] prevUuid = new byte[16];
+        iter = childNodeEntries.iterator();
         while (iter.hasNext()) {
             NodePropBundle.ChildNodeEntry entry = (NodePropBundle.ChildNodeEntry) iter.next();
-            writeID(out, entry.getId());  // uuid
-            writeQName(out, entry.getName());   // name
+            String local = entry.getName().getLocalName();
+            int prefix = 0;
+            int max = Math.min(local.length(), prevLocal.length());
+            while (prefix < max && local.charAt(prefix) == prevLocal.charAt(prefix)) {
+                prefix++;
+            }
+            writeVarInt(out, nsIndex.stringToIndex(entry.getName().getNamespaceURI()));
+            writeVarInt(out, prefix);
+            writeString(out, local.substring(prefix));
+
+            byte[] uuid = entry.getId().getUUID().getRawBytes();
+            int shared = 0;
+            while (shared < uuid.length && uuid[shared] == prevUuid[shared]) {
+                shared++;
+            }
+            out.writeByte(shared);
+            out.write(uuid, shared, uuid.length - shared);
+
+            prevLocal = local;
+            prevUuid = uuid;
         }
-        writeID(out, null);
 
         // write mod count
-        writeModCount(out, bundle.getModCount());
+        writeVarInt(out, bundle.getModCount() & 0xffff);
 
         // write shared set
-        iter = bundle.getSharedSet().iterator();
+        Set sharedSet = bundle.getSharedSet();
+        writeVarInt(out, sharedSet.size());
+        iter = sharedSet.iterator();
         while (iter.hasNext()) {
-            writeID(out, (NodeId) iter.next());
+            out.write(((NodeId) iter.next()).getUUID().getRawBytes());
         }
-        writeID(out, null);
 
         // set size of bundle
         bundle.setSize(out.size() - size);
     }
 
     /**
-     * Deserializes a <code>PropertyState</code> from the data input stream.
+     * Deserializes a <code>PropertyState</code> from the data input stream
+     * in the format used before {@link #VERSION_3}.
      *
      * @param in the input stream
      * @param id the property id for the new property entry
@@ -364,22 +572,7 @@ public class BundleBinding extends ItemStateBinding {
                         val = InternalValue.create(dataStore, in.readUTF());
                     } else if (size == BINARY_IN_BLOB_STORE) {
                         blobIds[i] = in.readUTF();
-                        try {
-                            if (blobStore instanceof ResourceBasedBLOBStore) {
-                                val = InternalValue.create(((ResourceBasedBLOBStore) blobStore).getResource(blobIds[i]));
-                            } else {
-                                val = InternalValue.create(blobStore.get(blobIds[i]));
-                            }
-                        } catch (IOException e) {
-                            if (errorHandling.ignoreMissingBlobs()) {
-                                log.warn("Ignoring error while reading blob-resource: " + e);
-                                val = InternalValue.create(new byte[0]);
-                            } else {
-                                throw e;
-                            }
-                        } catch (Exception e) {
-                            throw new IOException("Unable to create property value: " + e.toString());
-                        }
+                        val = readBlob(blobIds[i]);
                     } else {
                         // short values into memory
                         byte[] data = new byte[size];
@@ -419,7 +612,165 @@ public class BundleBinding extends ItemStateBinding {
     }
 
     /**
-     * Checks a <code>PropertyState</code> from the data input stream.
+     * Deserializes a <code>PropertyState</code> in the compact format of
+     * {@link #VERSION_3} from the data input stream.
+     *
+     * @param in the input stream
+     * @param id the property id for the new property entry
+     * @return the property entry
+     * @throws IOException if an I/O error occurs.
+     */
+    private NodePropBundle.PropertyEntry readCompactPropertyEntry(
+            DataInputStream in, PropertyId id) throws IOException {
+        NodePropBundle.PropertyEntry entry = new NodePropBundle.PropertyEntry(id);
+        // type and modcount
+        int type = readVarInt(in);
+        entry.setModCount((short) ((type >>> 4) & 0x0ffff));
+        type &= 0x0f;
+        entry.setType(type);
+
+        // multiValued
+        entry.setMultiValued(in.readBoolean());
+        // definitionId
+        entry.setPropDefId(PropDefId.valueOf(readString(in)));
+        // values
+        int count = readVarInt(in);
+        InternalValue[] values = new InternalValue[count];
+        String[] blobIds = new String[count];
+        for (int i = 0; i < count; i++) {
+            InternalValue val;
+            switch (type) {
+                case PropertyType.BINARY:
+                    int size = readSignedVarInt(in);
+                    if (size == BINARY_IN_DATA_STORE) {
+                        val = InternalValue.create(dataStore, in.readUTF());
+                    } else if (size == BINARY_IN_BLOB_STORE) {
+                        blobIds[i] = in.readUTF();
+                        val = readBlob(blobIds[i]);
+                    } else {
+                        // short values into memory
+                        byte[] data = new byte[size];
+                        in.readFully(data);
+                        val = InternalValue.create(data);
+                    }
+                    break;
+                case PropertyType.DOUBLE:
+                    val = InternalValue.create(in.readDouble());
+                    break;
+                case PropertyType.LONG:
+                    val = InternalValue.create(readSignedVarLong(in));
+                    break;
+                case PropertyType.BOOLEAN:
+                    val = InternalValue.create(in.readBoolean());
+                    break;
+                case PropertyType.NAME:
+                    val = InternalValue.create(readCompactIndexedQName(in));
+                    break;
+                case PropertyType.REFERENCE:
+                    byte[] uuid = new byte[16];
+                    in.readFully(uuid);
+                    val = InternalValue.create(new UUID(uuid));
+                    break;
+                default:
+                    val = InternalValue.valueOf(readString(in), type);
+            }
+            values[i] = val;
+        }
+        entry.setValues(values);
+        entry.setBlobIds(blobIds);
+
+        return entry;
+    }
+
+    /**
+     * Creates a binary value for a blob in the blob store.
+     *
+     * @param blobId the id of the blob
+     * @return the value
+     * @throws IOException if the blob cannot be read.
+     */
+    private InternalValue readBlob(String blobId) throws IOException {
+        try {
+            if (blobStore instanceof ResourceBasedBLOBStore) {
+                return InternalValue.create(((ResourceBasedBLOBStore) blobStore).getResource(blobId));
+            } else {
+                return InternalValue.create(blobStore.get(blobId));
+            }
+        } catch (IOException e) {
+            if (errorHandling.ignoreMissingBlobs()) {
+                log.warn("Ignoring error while reading blob-resource: " + e);
+                return InternalValue.create(new byte[0]);
+            } else {
+                throw e;
+            }
+        } catch (Exception e) {
+            throw new IOException("Unable to create property value: " + e.toString());
+        }
+    }
+
+    /**
+     * Checks a <code>PropertyState</code> in the compact format of
+     * {@link #VERSION_3} from the data input stream.
+     *
+     * @param in the input stream
+     * @return <code>true</code> if the data is valid;
+     *         <code>false</code> otherwise.
+     */
+    private boolean checkCompactPropertyState(DataInputStream in) {
+        try {
+            int type = readVarInt(in);
+            log.debug("  ModCount: " + ((type >>> 4) & 0x0ffff));
+            type &= 0x0f;
+            log.debug("  PropertyType: " + PropertyType.nameFromValue(type));
+            log.debug("  MultiValued: " + in.readBoolean());
+            log.debug("  DefinitionId: " + readString(in));
+            int count = readVarInt(in);
+            log.debug("  num values: " + count);
+            for (int i = 0; i < count; i++) {
+                switch (type) {
+                    case PropertyType.BINARY:
+                        int size = readSignedVarInt(in);
+                        if (size == BINARY_IN_DATA_STORE || size == BINARY_IN_BLOB_STORE) {
+                            log.debug("  blobid: " + in.readUTF());
+                        } else {
+                            in.readFully(new byte[size]);
+                            log.debug("  binary: " + size + " bytes");
+                        }
+                        break;
+                    case PropertyType.DOUBLE:
+                        log.debug("  double: " + in.readDouble());
+                        break;
+                    case PropertyType.LONG:
+                        log.debug("  long: " + readSignedVarLong(in));
+                        break;
+                    case PropertyType.BOOLEAN:
+                        log.debug("  boolean: " + in.readBoolean());
+                        break;
+                    case PropertyType.NAME:
+                        log.debug("  name: " + readCompactIndexedQName(in));
+                        break;
+                    case PropertyType.REFERENCE:
+                        in.readFully(new byte[16]);
+                        break;
+                    default:
+                        String s = readString(in);
+                        // truncate log output
+                        if (s.length() > 80) {
+                            s = s.substring(0, 80) + "...";
+                        }
+                        log.debug("  string: " + s);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error while reading property state: " + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks a <code>PropertyState</code> from the data input stream in the
+     * format used before {@link #VERSION_3}.
      *
      * @param in the input stream
      * @return <code>true</code> if the data is valid;
@@ -579,7 +930,8 @@ public class BundleBinding extends ItemStateBinding {
 
 
     /**
-     * Serializes a <code>PropertyState</code> to the data output stream
+     * Serializes a <code>PropertyState</code> to the data output stream in
+     * the compact format of {@link #VERSION_3}.
      *
      * @param out the output stream
      * @param state the property entry to store
@@ -588,14 +940,14 @@ public class BundleBinding extends ItemStateBinding {
     public void writeState(DataOutputStream out, NodePropBundle.PropertyEntry state)
             throws IOException {
         // type & mod count
-        out.writeInt(state.getType() | (state.getModCount() << 16));
+        writeVarInt(out, state.getType() | ((state.getModCount() & 0xffff) << 4));
         // multiValued
         out.writeBoolean(state.isMultiValued());
         // definitionId
-        out.writeUTF(state.getPropDefId().toString());
+        writeString(out, state.getPropDefId().toString());
         // values
         InternalValue[] values = state.getValues();
-        out.writeInt(values.length); // count
+        writeVarInt(out, values.length); // count
         for (int i = 0; i < values.length; i++) {
             InternalValue val = values[i];
             switch (state.getType()) {
@@ -605,7 +957,7 @@ public class BundleBinding extends ItemStateBinding {
                         if (blobVal.isSmall()) {
                             writeSmallBinary(out, blobVal, state, i);
                         } else {
-                            out.writeInt(BINARY_IN_DATA_STORE);
+                            writeSignedVarInt(out, BINARY_IN_DATA_STORE);
                             try {
                                 val.store(dataStore);
                             } catch (RepositoryException e) {
@@ -624,11 +976,11 @@ public class BundleBinding extends ItemStateBinding {
                     if (size < 0) {
                         log.warn("Blob has negative size. Potential loss of data. "
                                 + "id={} idx={}", state.getId(), String.valueOf(i));
-                        out.writeInt(0);
+                        writeSignedVarInt(out, 0);
                         values[i] = InternalValue.create(new byte[0]);
                         blobVal.discard();
                     } else if (size > minBlobSize) {
-                        out.writeInt(BINARY_IN_BLOB_STORE);
+                        writeSignedVarInt(out, BINARY_IN_BLOB_STORE);
                         String blobId = state.getBlobId(i);
                         if (blobId == null) {
                             try {
@@ -676,23 +1028,21 @@ public class BundleBinding extends ItemStateBinding {
                     out.writeDouble(val.getDouble());
                     break;
                 case PropertyType.LONG:
-                    out.writeLong(val.getLong());
+                    writeSignedVarLong(out, val.getLong());
                     break;
                 case PropertyType.BOOLEAN:
                     out.writeBoolean(val.getBoolean());
                     break;
                 case PropertyType.NAME:
-                    writeQName(out, val.getQName());
+                    writeCompactIndexedQName(out, val.getQName());
                     break;
                 case PropertyType.REFERENCE:
-                    writeUUID(out, val.getUUID());
+                    out.write(val.getUUID().getRawBytes());
                     break;
                 default:
                     // because writeUTF(String) has a size limit of 64k,
                     // we're using write(byte[]) instead
-                    byte[] bytes = val.toString().getBytes("UTF-8");
-                    out.writeInt(bytes.length); // length of byte[]
-                    out.write(bytes);   // byte[]
+                    writeString(out, val.toString());
             }
         }
     }
@@ -710,7 +1060,7 @@ public class BundleBinding extends ItemStateBinding {
      */
     private byte[] writeSmallBinary(DataOutputStream out, BLOBFileValue blobVal, NodePropBundle.PropertyEntry state, int i) throws IOException {
         int size = (int) blobVal.getLength();
-        out.writeInt(size);
+        writeSignedVarInt(out, size);
         byte[] data = new byte[size];
         try {
             DataInputStream in =
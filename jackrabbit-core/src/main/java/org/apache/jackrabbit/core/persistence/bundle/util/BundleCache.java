@@ -16,15 +16,40 @@
  */
 package org.apache.jackrabbit.core.persistence.bundle.util;
 
-import org.apache.commons.collections.map.LinkedMap;
 import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.core.state.Cache;
+import org.apache.jackrabbit.core.state.CacheAccessListener;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
 /**
- * This Class implements a simple cache for nodeprop bundles
+ * This Class implements a simple cache for nodeprop bundles. The cache is
+ * thread-safe.
+ * <p/>
+ * The cache is divided into a fixed number of segments that are selected by
+ * the hash code of the node id. Each segment is guarded by its own lock and
+ * uses an own instance of the configured {@link BundleCachePolicy}, which
+ * allows concurrent access to bundles in different segments. The maximum
+ * size of the cache is divided evenly among the segments. A bundle that is
+ * larger than the share of its segment is still cached and replaces the
+ * other bundles of that segment.
+ * <p/>
+ * The following eviction policies are available:
+ * <ul>
+ * <li><code>lru</code>: evicts the least recently used bundles
+ *     ({@link LRUBundleCachePolicy}, the default)
+ * <li><code>2q</code>: a scan resistant policy that protects frequently
+ *     used bundles ({@link TwoQueueBundleCachePolicy})
+ * <li>the fully qualified name of a class that implements
+ *     {@link BundleCachePolicy}
+ * </ul>
+ * <p/>
+ * The cache implements the {@link Cache} interface, so that its size can be
+ * managed by the {@link org.apache.jackrabbit.core.state.CacheManager}.
+ * If the size is reduced, bundles are evicted on the next put to the
+ * affected segments.
  */
-public class BundleCache {
+public class BundleCache implements Cache {
 
     /**
      * the default logger
@@ -32,9 +57,19 @@ public class BundleCache {
     private static Logger log = LoggerFactory.getLogger(BundleCache.class);
 
     /**
-     * the current memory usage of this cache
+     * name of the least recently used eviction policy
      */
-    private long curSize = 0;
+    public static final String POLICY_LRU = "lru";
+
+    /**
+     * name of the 2Q eviction policy
+     */
+    public static final String POLICY_2Q = "2q";
+
+    /**
+     * the number of segments
+     */
+    private static final int NUM_SEGMENTS = 16;
 
     /**
      * the maximum chache size
@@ -42,27 +77,71 @@ public class BundleCache {
     private long maxSize;
 
     /**
-     * the number of cache hits
+     * the segments of this cache
+     */
+    private final Segment[] segments = new Segment[NUM_SEGMENTS];
+
+    /**
+     * the number of accesses at the last {@link #resetAccessCount()}
      */
-    private long hits = 0;
+    private long accessBase;
 
     /**
-     * the number of cache misses
+     * the number of misses at the last {@link #resetAccessCount()}
      */
-    private long misses = 0;
+    private long missBase;
 
     /**
-     * a map of the cache entries
+     * the cache access listener or <code>null</code>
      */
-    private LinkedMap bundles = new LinkedMap();
+    private CacheAccessListener accessListener;
 
     /**
-     * Creates a new BundleCache
+     * Creates a new BundleCache that evicts the least recently used bundles.
      *
      * @param maxSize the maximum size of this cache in bytes.
      */
     public BundleCache(long maxSize) {
-        this.maxSize = maxSize;
+        this(maxSize, POLICY_LRU);
+    }
+
+    /**
+     * Creates a new BundleCache with the given eviction policy.
+     *
+     * @param maxSize the maximum size of this cache in bytes.
+     * @param policy the name of the eviction policy, see the class comment.
+     * @throws IllegalArgumentException if the policy is unknown.
+     */
+    public BundleCache(long maxSize, String policy)
+            throws IllegalArgumentException {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(createPolicy(policy));
+        }
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Creates an eviction policy instance.
+     *
+     * @param policy the name of the eviction policy
+     * @return a new policy instance
+     * @throws IllegalArgumentException if the policy is unknown.
+     */
+    private static BundleCachePolicy createPolicy(String policy)
+            throws IllegalArgumentException {
+        if (policy == null || POLICY_LRU.equalsIgnoreCase(policy)) {
+            return new LRUBundleCachePolicy();
+        } else if (POLICY_2Q.equalsIgnoreCase(policy)) {
+            return new TwoQueueBundleCachePolicy();
+        }
+        try {
+            return (BundleCachePolicy) Class.forName(policy).newInstance();
+        } catch (Exception e) {
+            IllegalArgumentException iae = new IllegalArgumentException(
+                    "Invalid bundle cache policy: " + policy);
+            iae.initCause(e);
+            throw iae;
+        }
     }
 
     /**
@@ -70,7 +149,7 @@ public class BundleCache {
      *
      * @return the maximum cache size in bytes.
      */
-    public long getMaxSize() {
+    public synchronized long getMaxSize() {
         return maxSize;
     }
 
@@ -79,8 +158,26 @@ public class BundleCache {
      *
      * @param maxSize the maximum cache size in bytes.
      */
-    public void setMaxSize(long maxSize) {
+    public synchronized void setMaxSize(long maxSize) {
         this.maxSize = maxSize;
+        long segmentSize = maxSize / segments.length;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                segments[i].policy.setMaxSize(segmentSize);
+            }
+        }
+    }
+
+    /**
+     * Returns the segment responsible for the given id.
+     *
+     * @param id the id of a bundle
+     * @return the segment
+     */
+    private Segment getSegment(NodeId id) {
+        int h = id.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
     }
 
     /**
@@ -91,22 +188,34 @@ public class BundleCache {
      * @return the cached bundle or <code>null</code>
      */
     public NodePropBundle get(NodeId id) {
-        Entry entry = (Entry) bundles.remove(id);
-        if (entry != null) {
-            // at end
-            bundles.put(id, entry);
-            hits++;
-        } else {
-            misses++;
+        Segment segment = getSegment(id);
+        NodePropBundle bundle;
+        long accesses;
+        synchronized (segment) {
+            bundle = segment.policy.get(id);
+            if (bundle != null) {
+                segment.hits++;
+            } else {
+                segment.misses++;
+            }
+            accesses = segment.hits + segment.misses;
+        }
+        CacheAccessListener listener = accessListener;
+        if (listener != null
+                && accesses % CacheAccessListener.ACCESS_INTERVAL == 0) {
+            listener.cacheAccessed();
         }
-        if (log.isInfoEnabled() && (hits + misses) % 10000 == 0) {
-            long c = curSize / 1024;
-            long m = maxSize / 1024;
-            long a = bundles.size() > 0 ? curSize / bundles.size() : 0;
-            log.info("num=" + bundles.size() + " mem=" + c + "k max=" + m + "k avg=" + a
-                    + " hits=" + hits + " miss=" + misses);
+        if (log.isInfoEnabled() && accesses % (10000 / NUM_SEGMENTS) == 0
+                && segment == segments[0]) {
+            long c = getCurrentSize() / 1024;
+            long m = getMaxSize() / 1024;
+            int n = getCount();
+            long a = n > 0 ? c * 1024 / n : 0;
+            log.info("num=" + n + " mem=" + c + "k max=" + m + "k avg=" + a
+                    + " hits=" + getHits() + " miss=" + getMisses()
+                    + " evicted=" + getEvictions());
         }
-        return entry == null ? null : entry.bundle;
+        return bundle;
     }
 
     /**
@@ -117,20 +226,29 @@ public class BundleCache {
      * @param bundle the bunlde to put to the cache
      */
     public void put(NodePropBundle bundle) {
-        Entry entry = (Entry) bundles.remove(bundle.getId());
-        if (entry == null) {
-            entry = new Entry(bundle, bundle.getSize());
-        } else {
-            curSize -= entry.size;
-            entry.bundle = bundle;
-            entry.size = bundle.getSize();
+        Segment segment = getSegment(bundle.getId());
+        synchronized (segment) {
+            segment.evictions += segment.policy.put(bundle);
         }
-        bundles.put(bundle.getId(), entry);
-        curSize += entry.size;
-        // now limit size of cache
-        while (curSize > maxSize) {
-            entry = (Entry) bundles.remove(0);
-            curSize -= entry.size;
+    }
+
+    /**
+     * Puts a bundle to the cache unless a bundle with the same id is already
+     * cached. Unlike {@link #get(NodeId)} this method is not counted as a
+     * cache hit or miss.
+     *
+     * @param bundle the bundle to put to the cache
+     * @return the bundle that is already cached or <code>null</code> if
+     *         <code>bundle</code> was put to the cache.
+     */
+    public NodePropBundle putIfAbsent(NodePropBundle bundle) {
+        Segment segment = getSegment(bundle.getId());
+        synchronized (segment) {
+            NodePropBundle cached = segment.policy.get(bundle.getId());
+            if (cached == null) {
+                segment.evictions += segment.policy.put(bundle);
+            }
+            return cached;
         }
     }
 
@@ -142,7 +260,10 @@ public class BundleCache {
      *         <code>false</code> otherwise.
      */
     public boolean contains(NodeId id) {
-        return bundles.containsKey(id);
+        Segment segment = getSegment(id);
+        synchronized (segment) {
+            return segment.policy.contains(id);
+        }
     }
 
     /**
@@ -153,12 +274,9 @@ public class BundleCache {
      *         was not cached.
      */
     public NodePropBundle remove(NodeId id) {
-        Entry entry = (Entry) bundles.remove(id);
-        if (entry != null) {
-            curSize -= entry.size;
-            return entry.bundle;
-        } else {
-            return null;
+        Segment segment = getSegment(id);
+        synchronized (segment) {
+            return segment.policy.remove(id);
         }
     }
 
@@ -166,36 +284,187 @@ public class BundleCache {
      * Clears this cache and removes all bundles.
      */
     public void clear() {
-        bundles.clear();
-        curSize = 0;
-        hits = 0;
-        misses = 0;
+        for (int i = 0; i < segments.length; i++) {
+            Segment segment = segments[i];
+            synchronized (segment) {
+                segment.policy.clear();
+                segment.hits = 0;
+                segment.misses = 0;
+                segment.evictions = 0;
+            }
+        }
+        synchronized (this) {
+            accessBase = 0;
+            missBase = 0;
+        }
+    }
+
+    //--------------------------------------------------------------< Cache >---
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxMemorySize(long size) {
+        setMaxSize(size);
     }
 
     /**
-     * Internal class that holds the bundles.
+     * {@inheritDoc}
      */
-    private static final class Entry {
+    public long getMaxMemorySize() {
+        return getMaxSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMemoryUsed() {
+        return getCurrentSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getAccessCount() {
+        return getHits() + getMisses() - accessBase;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getMissCount() {
+        return getMisses() - missBase;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void resetAccessCount() {
+        missBase = getMisses();
+        accessBase = getHits() + missBase;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setAccessListener(CacheAccessListener listener) {
+        this.accessListener = listener;
+    }
+
+    //---------------------------------------------------------< statistics >---
+
+    /**
+     * Returns the number of cached bundles.
+     *
+     * @return the number of cached bundles.
+     */
+    public int getCount() {
+        int count = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                count += segments[i].policy.getCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the current memory usage of this cache in bytes.
+     *
+     * @return the current memory usage in bytes.
+     */
+    public long getCurrentSize() {
+        long size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                size += segments[i].policy.getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of cache hits since the cache was created or
+     * cleared.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        long hits = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                hits += segments[i].hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of cache misses since the cache was created or
+     * cleared.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                misses += segments[i].misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Returns the number of bundles evicted since the cache was created or
+     * cleared. Bundles that are explicitly {@link #remove(NodeId) removed}
+     * are not counted.
+     *
+     * @return the number of evicted bundles.
+     */
+    public long getEvictions() {
+        long evictions = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                evictions += segments[i].evictions;
+            }
+        }
+        return evictions;
+    }
+
+    /**
+     * A segment of the cache. Access to the fields of a segment must be
+     * synchronized on the segment.
+     */
+    private static final class Segment {
+
+        /**
+         * the eviction policy that holds the bundles of this segment
+         */
+        private final BundleCachePolicy policy;
+
+        /**
+         * the number of cache hits
+         */
+        private long hits = 0;
 
         /**
-         * the cached bundle
+         * the number of cache misses
          */
-        private NodePropBundle bundle;
+        private long misses = 0;
 
         /**
-         * the memory usage of the bundle in bytes
+         * the number of evicted bundles
          */
-        private long size;
+        private long evictions = 0;
 
         /**
-         * Creates a new entry.
+         * Creates a new segment.
          *
-         * @param bundle the bundle to cache
-         * @param size the size of the bundle
+         * @param policy the eviction policy of this segment
          */
-        public Entry(NodePropBundle bundle, long size) {
-            this.bundle = bundle;
-            this.size = size;
+        public Segment(BundleCachePolicy policy) {
+            this.policy = policy;
         }
     }
 
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import org.apache.jackrabbit.core.NodeId;
+
+/**
+ * An eviction policy for one segment of the {@link BundleCache}. A policy
+ * holds the cached bundles and decides which bundles are removed when the
+ * memory used by the cached bundles exceeds the maximum size.
+ * <p/>
+ * Implementations need not be thread-safe, the {@link BundleCache}
+ * synchronizes all access to a policy. Implementations must provide a public
+ * default constructor.
+ */
+public interface BundleCachePolicy {
+
+    /**
+     * Returns the maximum memory usage in bytes.
+     *
+     * @return the maximum memory usage in bytes.
+     */
+    long getMaxSize();
+
+    /**
+     * Sets the maximum memory usage in bytes. Bundles are evicted on the
+     * next {@link #put(NodePropBundle)} if the new limit is exceeded.
+     *
+     * @param maxSize the maximum memory usage in bytes.
+     */
+    void setMaxSize(long maxSize);
+
+    /**
+     * Returns the cached bundle with the given id and records the access.
+     *
+     * @param id the id of the bundle
+     * @return the cached bundle or <code>null</code>
+     */
+    NodePropBundle get(NodeId id);
+
+    /**
+     * Checks if the bundle with the given id is cached without recording an
+     * access.
+     *
+     * @param id the id of the bundle
+     * @return <code>true</code> if the bundle is cached;
+     *         <code>false</code> otherwise.
+     */
+    boolean contains(NodeId id);
+
+    /**
+     * Puts a bundle to the cache, replacing a cached bundle with the same id
+     * and evicts other bundles until the maximum size is satisfied. The
+     * bundle that is put is never evicted by this call, so a bundle that is
+     * larger than the maximum size on its own is still cached.
+     *
+     * @param bundle the bundle to cache
+     * @return the number of evicted bundles
+     */
+    int put(NodePropBundle bundle);
+
+    /**
+     * Removes a bundle.
+     *
+     * @param id the id of the bundle
+     * @return the removed bundle or <code>null</code> if it was not cached.
+     */
+    NodePropBundle remove(NodeId id);
+
+    /**
+     * Removes all bundles.
+     */
+    void clear();
+
+    /**
+     * Returns the number of cached bundles.
+     *
+     * @return the number of cached bundles.
+     */
+    int getCount();
+
+    /**
+     * Returns the current memory usage in bytes.
+     *
+     * @return the current memory usage in bytes.
+     */
+    long getSize();
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.uuid.UUID;
+
+/**
+ * Utility methods for storing the child node entries of a bundle with many
+ * child nodes in separate pages.
+ * <p/>
+ * The child node entries are distributed to the pages by the hash code of
+ * their name. All same-name siblings are therefore stored in the same page
+ * and keep their relative order, but the order of child nodes with different
+ * names is not preserved. Pages are only used for nodes whose primary type
+ * does not have orderable child nodes.
+ * <p/>
+ * Each page is stored as a separate bundle of type {@link #PAGE_TYPE_NAME}.
+ * Its parent id is the id of the node that owns the child node entries and
+ * its id is derived from the id of that node and the index of the page.
+ */
+public final class ChildNodePages {
+
+    /**
+     * The node type name of a child node page bundle.
+     */
+    public static final Name PAGE_TYPE_NAME = NameFactoryImpl.getInstance().create(
+            Name.NS_REP_URI, "ChildNodePage");
+
+    /**
+     * The fill ratio of the pages after the number of pages changed is
+     * <code>1 / FILL_FACTOR</code>.
+     */
+    private static final int FILL_FACTOR = 2;
+
+    /**
+     * Private constructor, this class only provides static methods.
+     */
+    private ChildNodePages() {
+    }
+
+    /**
+     * Returns the id of the page bundle with the given index.
+     *
+     * @param parentId the id of the node that owns the child node entries
+     * @param index the index of the page
+     * @return the id of the page bundle
+     */
+    public static NodeId getPageId(NodeId parentId, int index) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            md.update(parentId.getUUID().getRawBytes());
+            md.update((byte) (index >>> 24));
+            md.update((byte) (index >>> 16));
+            md.update((byte) (index >>> 8));
+            md.update((byte) index);
+            byte[] raw = md.digest();
+            // name based uuid (version 3), IETF variant
+            raw[6] = (byte) ((raw[6] & 0x0f) | 0x30);
+            raw[8] = (byte) ((raw[8] & 0x3f) | 0x80);
+            return new NodeId(new UUID(raw));
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always available
+            throw new InternalError(e.toString());
+        }
+    }
+
+    /**
+     * Checks if the given id may be the id of a page bundle. Page ids are
+     * name based uuids, while the ids of nodes are random uuids unless they
+     * were imported. Use {@link #isPage(NodePropBundle)} to be sure.
+     *
+     * @param id a node id
+     * @return <code>false</code> if the id is not the id of a page bundle
+     */
+    public static boolean isPageId(NodeId id) {
+        return ((id.getUUID().getMostSignificantBits() >>> 12) & 0xf) == 3;
+    }
+
+    /**
+     * Checks if the given bundle is a page of child node entries.
+     *
+     * @param bundle a bundle
+     * @return <code>true</code> if the bundle is a page
+     */
+    public static boolean isPage(NodePropBundle bundle) {
+        return PAGE_TYPE_NAME.equals(bundle.getNodeTypeName());
+    }
+
+    /**
+     * Returns the number of pages for the given number of child node entries.
+     * The number of pages only changes if the pages become too full or too
+     * empty. Returns <code>0</code> if the entries should be stored inline in
+     * the bundle.
+     *
+     * @param current the current number of pages
+     * @param size the number of child node entries
+     * @param pageSize the configured page size, <code>0</code> if paging is
+     *                 disabled
+     * @return the number of pages
+     */
+    public static int getPageCount(int current, int size, int pageSize) {
+        if (pageSize <= 0) {
+            return 0;
+        }
+        if (current == 0) {
+            return size > pageSize ? pages(size, pageSize) : 0;
+        }
+        if (size < pageSize / FILL_FACTOR) {
+            return 0;
+        }
+        long capacity = (long) current * pageSize;
+        if (size > capacity || size < capacity / (4 * FILL_FACTOR)) {
+            return pages(size, pageSize);
+        }
+        return current;
+    }
+
+    /**
+     * Returns the index of the page that holds child node entries with the
+     * given name. The hash code is calculated here, because the result must
+     * not change between releases.
+     *
+     * @param name the name of a child node entry
+     * @param pageCount the number of pages
+     * @return the index of the page
+     */
+    public static int getPage(Name name, int pageCount) {
+        int hash = name.getNamespaceURI().hashCode() * 31
+                + name.getLocalName().hashCode();
+        return (hash & 0x7fffffff) % pageCount;
+    }
+
+    /**
+     * Distributes the given child node entries to the given number of pages.
+     *
+     * @param entries the {@link NodePropBundle.ChildNodeEntry}s
+     * @param pageCount the number of pages
+     * @return a list of entries for each page
+     */
+    public static List[] split(List entries, int pageCount) {
+        List[] pages = new List[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pages[i] = new ArrayList();
+        }
+        Iterator iter = entries.iterator();
+        while (iter.hasNext()) {
+            NodePropBundle.ChildNodeEntry entry =
+                (NodePropBundle.ChildNodeEntry) iter.next();
+            pages[getPage(entry.getName(), pageCount)].add(entry);
+        }
+        return pages;
+    }
+
+    /**
+     * Calculates a checksum of the given child node entries, which is used
+     * to detect modified pages.
+     *
+     * @param entries the {@link NodePropBundle.ChildNodeEntry}s of a page
+     * @return the checksum
+     */
+    public static int checksum(List entries) {
+        int sum = 1;
+        Iterator iter = entries.iterator();
+        while (iter.hasNext()) {
+            NodePropBundle.ChildNodeEntry entry =
+                (NodePropBundle.ChildNodeEntry) iter.next();
+            sum = 31 * sum + entry.getName().hashCode();
+            sum = 31 * sum + entry.getId().hashCode();
+        }
+        return sum;
+    }
+
+    /**
+     * Creates the bundle for a page of child node entries.
+     *
+     * @param binding the bundle binding
+     * @param parent the bundle that owns the child node entries
+     * @param index the index of the page
+     * @param entries the {@link NodePropBundle.ChildNodeEntry}s of the page
+     * @return the page bundle
+     */
+    public static NodePropBundle createPage(BundleBinding binding,
+                                            NodePropBundle parent,
+                                            int index, List entries) {
+        NodePropBundle page = new NodePropBundle(
+                binding, getPageId(parent.getId(), index));
+        page.setParentId(parent.getId());
+        page.setNodeTypeName(PAGE_TYPE_NAME);
+        page.setNodeDefId(parent.getNodeDefId());
+        page.setMixinTypeNames(Collections.EMPTY_SET);
+        page.setSharedSet(new HashSet());
+        Iterator iter = entries.iterator();
+        while (iter.hasNext()) {
+            NodePropBundle.ChildNodeEntry entry =
+                (NodePropBundle.ChildNodeEntry) iter.next();
+            page.addChildNodeEntry(entry.getName(), entry.getId());
+        }
+        return page;
+    }
+
+    /**
+     * Returns the number of pages for the given number of entries, such that
+     * the pages are filled to <code>1 / FILL_FACTOR</code>.
+     *
+     * @param size the number of child node entries
+     * @param pageSize the page size
+     * @return the number of pages
+     */
+    private static int pages(int size, int pageSize) {
+        return (int) (((long) size * FILL_FACTOR + pageSize - 1) / pageSize);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import javax.jcr.RepositoryException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of {@link ConnectionRecoveryManager}s. Each manager owns a
+ * separate database connection and its own set of prepared statements, which
+ * allows a persistence manager to execute read statements concurrently.
+ * <p/>
+ * Connections are created lazily up to the maximum size of the pool. If all
+ * connections are in use, {@link #acquire()} blocks until a connection is
+ * {@link #release(ConnectionRecoveryManager) released}.
+ */
+public class ConnectionRecoveryManagerPool {
+
+    /**
+     * The default logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(ConnectionRecoveryManagerPool.class);
+
+    /**
+     * Whether the managers block until a lost connection is recovered.
+     */
+    private final boolean block;
+
+    /**
+     * The database driver.
+     */
+    private final String driver;
+
+    /**
+     * The database URL.
+     */
+    private final String url;
+
+    /**
+     * The database user.
+     */
+    private final String user;
+
+    /**
+     * The database password.
+     */
+    private final String password;
+
+    /**
+     * The maximum number of connections in this pool.
+     */
+    private final int maxSize;
+
+    /**
+     * The connection managers currently not in use.
+     */
+    private final LinkedList idle = new LinkedList();
+
+    /**
+     * The number of connection managers created by this pool.
+     */
+    private int size = 0;
+
+    /**
+     * Indicates whether this pool has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param block whether the managers should block until a lost connection
+     *              can be recovered
+     * @param driver the driver to use for the connections
+     * @param url the url to use for the connections
+     * @param user the user to use for the connections
+     * @param password the password to use for the connections
+     * @param maxSize the maximum number of connections
+     */
+    public ConnectionRecoveryManagerPool(boolean block, String driver,
+                                         String url, String user,
+                                         String password, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.block = block;
+        this.driver = driver;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a connection manager that is exclusively used by the caller
+     * until it is released again.
+     *
+     * @return a connection manager.
+     * @throws RepositoryException if the pool is closed, the thread is
+     *          interrupted or a new connection cannot be created.
+     */
+    public ConnectionRecoveryManager acquire() throws RepositoryException {
+        synchronized (this) {
+            while (!closed && idle.isEmpty() && size >= maxSize) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RepositoryException(
+                            "interrupted while waiting for a connection", e);
+                }
+            }
+            if (closed) {
+                throw new RepositoryException("connection pool is closed");
+            }
+            if (!idle.isEmpty()) {
+                return (ConnectionRecoveryManager) idle.removeFirst();
+            }
+            size++;
+        }
+        // create the connection without holding the monitor
+        boolean success = false;
+        try {
+            ConnectionRecoveryManager conMgr = new ConnectionRecoveryManager(
+                    block, driver, url, user, password);
+            success = true;
+            log.debug("created pooled connection");
+            return conMgr;
+        } finally {
+            if (!success) {
+                synchronized (this) {
+                    size--;
+                    notify();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the given connection manager to this pool.
+     *
+     * @param conMgr a connection manager obtained from {@link #acquire()}.
+     */
+    public void release(ConnectionRecoveryManager conMgr) {
+        synchronized (this) {
+            if (!closed) {
+                idle.addLast(conMgr);
+                notify();
+                return;
+            }
+            size--;
+        }
+        conMgr.close();
+    }
+
+    /**
+     * Closes all idle connections of this pool. Connections that are
+     * currently in use are closed when they are released.
+     */
+    public void close() {
+        LinkedList toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new LinkedList(idle);
+            size -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        for (Iterator it = toClose.iterator(); it.hasNext(); ) {
+            ((ConnectionRecoveryManager) it.next()).close();
+        }
+    }
+}
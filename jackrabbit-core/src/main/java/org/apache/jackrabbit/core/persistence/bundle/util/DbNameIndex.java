@@ -28,8 +28,8 @@ import org.apache.jackrabbit.core.util.StringIndex;
  * Implements a {@link StringIndex} that stores and retrieves the names from a
  * table in a database.
  * <p/>
- * Note that this class is not threadsafe by itself. it needs to be synchronized
- * by the using application.
+ * The lookup methods are synchronized, because bundles may be read
+ * concurrently by the owning persistence manager.
  * <p/>
  * Due to a bug with oracle that treats empty strings a null values
  * (see JCR-815), all empty strings are replaced by a ' '. since names never
@@ -88,7 +88,7 @@ public class DbNameIndex implements StringIndex {
     /**
      * {@inheritDoc}
      */
-    public int stringToIndex(String string) {
+    public synchronized int stringToIndex(String string) {
         // check cache
         Integer index = (Integer) string2Index.get(string);
         if (index == null) {
@@ -109,7 +109,7 @@ public class DbNameIndex implements StringIndex {
     /**
      * {@inheritDoc}
      */
-    public String indexToString(int idx) throws IllegalArgumentException {
+    public synchronized String indexToString(int idx) throws IllegalArgumentException {
         // check cache
         Integer index = new Integer(idx);
         String s = (String) index2String.get(index);
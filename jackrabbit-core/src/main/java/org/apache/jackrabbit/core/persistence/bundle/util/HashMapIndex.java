@@ -32,8 +32,8 @@ import org.apache.jackrabbit.core.util.StringIndex;
  * Implements a {@link StringIndex} that is based on a hashmap and persists
  * the names as property file.
  * <p/>
- * Please note that this class is not synchronized and the calls need to ensure
- * thread safeness.
+ * The lookup methods are synchronized, because bundles may be read
+ * concurrently by the owning persistence manager.
  */
 public class HashMapIndex implements StringIndex {
 
@@ -126,7 +126,7 @@ public class HashMapIndex implements StringIndex {
      * This implementation reloads the table from the resource if a lookup fails
      * and if the resource was modified since.
      */
-    public int stringToIndex(String nsUri) {
+    public synchronized int stringToIndex(String nsUri) {
         Integer idx = (Integer) stringToIndex.get(nsUri);
         if (idx == null) {
             try {
@@ -160,7 +160,7 @@ public class HashMapIndex implements StringIndex {
      * This implementation reloads the table from the resource if a lookup fails
      * and if the resource was modified since.
      */
-    public String indexToString(int i) {
+    public synchronized String indexToString(int i) {
         Integer idx = new Integer(i);
         String s = (String) indexToString.get(idx);
         if (s == null) {
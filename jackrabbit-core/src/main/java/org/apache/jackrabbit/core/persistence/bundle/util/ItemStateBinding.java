@@ -55,10 +55,18 @@ public class ItemStateBinding {
      */
     public static final int VERSION_2 = 2;
 
+    /**
+     * serialization version 3: bundles are written in a compact format with
+     * variable length integers, prefix compressed child node entries and
+     * indexed names for name values. The format of item states and node
+     * references is the same as in version 2.
+     */
+    public static final int VERSION_3 = 3;
+
     /**
      * current version
      */
-    public static final int VERSION_CURRENT = VERSION_2;
+    public static final int VERSION_CURRENT = VERSION_3;
 
     /**
      * the namespace index
@@ -439,6 +447,153 @@ public class ItemStateBinding {
         }
     }
 
+    /**
+     * Deserializes an indexed Name that was written by
+     * {@link #writeCompactIndexedQName(DataOutputStream, Name)}.
+     * @param in the input stream
+     * @return the qname
+     * @throws IOException in an I/O error occurs.
+     */
+    public Name readCompactIndexedQName(DataInputStream in) throws IOException {
+        String uri = nsIndex.indexToString(readVarInt(in));
+        String local = nameIndex.indexToString(readVarInt(in));
+        return NameFactoryImpl.getInstance().create(uri, local);
+    }
+
+    /**
+     * Serializes a non-null indexed Name using variable length integers for
+     * the namespace and name index.
+     * @param out the output stream
+     * @param name the name
+     * @throws IOException in an I/O error occurs.
+     */
+    public void writeCompactIndexedQName(DataOutputStream out, Name name)
+            throws IOException {
+        writeVarInt(out, nsIndex.stringToIndex(name.getNamespaceURI()));
+        writeVarInt(out, nameIndex.stringToIndex(name.getLocalName()));
+    }
+
+    /**
+     * Deserializes a non-negative integer that was written by
+     * {@link #writeVarInt(DataOutputStream, int)}.
+     * @param in the input stream
+     * @return the integer
+     * @throws IOException in an I/O error occurs.
+     */
+    public int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed variable length integer");
+    }
+
+    /**
+     * Serializes an integer using 7 bits per byte. The high bit of each byte
+     * is set if more bytes follow. Small non-negative values only need a
+     * single byte, negative values always need five bytes.
+     * @param out the output stream
+     * @param value the integer
+     * @throws IOException in an I/O error occurs.
+     */
+    public void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Deserializes an integer that was written by
+     * {@link #writeSignedVarInt(DataOutputStream, int)}.
+     * @param in the input stream
+     * @return the integer
+     * @throws IOException in an I/O error occurs.
+     */
+    public int readSignedVarInt(DataInputStream in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Serializes an integer with a small absolute value using the zig-zag
+     * encoding, so that small negative values only need a single byte.
+     * @param out the output stream
+     * @param value the integer
+     * @throws IOException in an I/O error occurs.
+     */
+    public void writeSignedVarInt(DataOutputStream out, int value)
+            throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Deserializes a long that was written by
+     * {@link #writeSignedVarLong(DataOutputStream, long)}.
+     * @param in the input stream
+     * @return the long
+     * @throws IOException in an I/O error occurs.
+     */
+    public long readSignedVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= ((long) (b & 0x7f)) << shift;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+        }
+        throw new IOException("malformed variable length long");
+    }
+
+    /**
+     * Serializes a long with a small absolute value using the zig-zag
+     * encoding and 7 bits per byte.
+     * @param out the output stream
+     * @param value the long
+     * @throws IOException in an I/O error occurs.
+     */
+    public void writeSignedVarLong(DataOutputStream out, long value)
+            throws IOException {
+        value = (value << 1) ^ (value >> 63);
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Deserializes a string that was written by
+     * {@link #writeString(DataOutputStream, String)}.
+     * @param in the input stream
+     * @return the string
+     * @throws IOException in an I/O error occurs.
+     */
+    public String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Serializes a string of arbitrary length as UTF-8 bytes prefixed by
+     * their number.
+     * @param out the output stream
+     * @param s the string
+     * @throws IOException in an I/O error occurs.
+     */
+    public void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
     /**
      * Serializes a PropertyId
      * @param out the output stream
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import org.apache.commons.collections.map.LinkedMap;
+import org.apache.jackrabbit.core.NodeId;
+
+/**
+ * Evicts the least recently used bundles.
+ */
+public class LRUBundleCachePolicy implements BundleCachePolicy {
+
+    /**
+     * the current memory usage
+     */
+    private long curSize = 0;
+
+    /**
+     * the maximum memory usage
+     */
+    private long maxSize = 0;
+
+    /**
+     * the cache entries in access order, eldest first
+     */
+    private final LinkedMap bundles = new LinkedMap();
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NodePropBundle get(NodeId id) {
+        Entry entry = (Entry) bundles.remove(id);
+        if (entry == null) {
+            return null;
+        }
+        // at end
+        bundles.put(id, entry);
+        return entry.bundle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(NodeId id) {
+        return bundles.containsKey(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int put(NodePropBundle bundle) {
+        Entry entry = (Entry) bundles.remove(bundle.getId());
+        if (entry == null) {
+            entry = new Entry(bundle);
+        } else {
+            curSize -= entry.size;
+            entry.bundle = bundle;
+            entry.size = bundle.getSize();
+        }
+        bundles.put(bundle.getId(), entry);
+        curSize += entry.size;
+        // now limit size of cache, but keep the new bundle (at end) even
+        // if it is larger than the maximum size on its own
+        int evicted = 0;
+        while (curSize > maxSize && bundles.size() > 1) {
+            entry = (Entry) bundles.remove(0);
+            curSize -= entry.size;
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NodePropBundle remove(NodeId id) {
+        Entry entry = (Entry) bundles.remove(id);
+        if (entry == null) {
+            return null;
+        }
+        curSize -= entry.size;
+        return entry.bundle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        bundles.clear();
+        curSize = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCount() {
+        return bundles.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSize() {
+        return curSize;
+    }
+
+    /**
+     * Internal class that holds the bundles.
+     */
+    private static final class Entry {
+
+        /**
+         * the cached bundle
+         */
+        private NodePropBundle bundle;
+
+        /**
+         * the memory usage of the bundle in bytes
+         */
+        private long size;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param bundle the bundle to cache
+         */
+        public Entry(NodePropBundle bundle) {
+            this.bundle = bundle;
+            this.size = bundle.getSize();
+        }
+    }
+}
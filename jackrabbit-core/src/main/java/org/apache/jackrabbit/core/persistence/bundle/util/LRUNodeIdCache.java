@@ -22,7 +22,7 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
 /**
- * Implements a LRU NodeId cache.
+ * Implements a thread-safe LRU NodeId cache.
  */
 public class LRUNodeIdCache {
 
@@ -58,7 +58,7 @@ public class LRUNodeIdCache {
      * @return <code>true</code> if the id is cached;
      *         <code>false</code> otherwise.
      */
-    public boolean contains(NodeId id) {
+    public synchronized boolean contains(NodeId id) {
         Object o = missing.remove(id);
         if (o == null) {
             misses++;
@@ -76,7 +76,7 @@ public class LRUNodeIdCache {
      * Puts the given id to this cache.
      * @param id the id to put.
      */
-    public void put(NodeId id) {
+    public synchronized void put(NodeId id) {
         if (!missing.containsKey(id)) {
             if (missing.size() == maxSize) {
                 missing.remove(0);
@@ -91,14 +91,14 @@ public class LRUNodeIdCache {
      * @return <code>true</code> if the id was cached;
      *         <code>false</code> otherwise.
      */
-    public boolean remove(NodeId id) {
+    public synchronized boolean remove(NodeId id) {
         return missing.remove(id) != null;
     }
 
     /**
      * Clears this cache.
      */
-    public void clear() {
+    public synchronized void clear() {
         missing.clear();
     }
 
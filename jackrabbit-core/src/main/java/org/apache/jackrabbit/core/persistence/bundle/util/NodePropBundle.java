@@ -116,6 +116,24 @@ public class NodePropBundle {
      */
     private Set sharedSet;
 
+    /**
+     * The number of pages the child node entries are stored in, or
+     * <code>0</code> if they are stored inline.
+     */
+    private int childPageCount = 0;
+
+    /**
+     * The checksums of the child node entry pages as last loaded or stored.
+     * Not serialized.
+     */
+    private int[] childPageChecksums;
+
+    /**
+     * The data sizes of the child node entry pages as last loaded or stored.
+     * Not serialized.
+     */
+    private long[] childPageSizes;
+
     /**
      * Creates a "new" bundle with the given id
      * @param binding the bundle binding
@@ -450,6 +468,70 @@ public class NodePropBundle {
         this.sharedSet = sharedSet;
     }
 
+    /**
+     * Returns the number of pages the child node entries of this bundle are
+     * stored in.
+     * @return the number of pages or <code>0</code> if the child node
+     *         entries are stored inline.
+     * @see ChildNodePages
+     */
+    public int getChildPageCount() {
+        return childPageCount;
+    }
+
+    /**
+     * Sets the number of pages the child node entries are stored in.
+     * @param childPageCount the number of pages
+     */
+    public void setChildPageCount(int childPageCount) {
+        this.childPageCount = childPageCount;
+    }
+
+    /**
+     * Returns the checksums of the child node entry pages as they were last
+     * loaded or stored.
+     * @return the checksums or <code>null</code>
+     */
+    public int[] getChildPageChecksums() {
+        return childPageChecksums;
+    }
+
+    /**
+     * Sets the checksums of the child node entry pages.
+     * @param childPageChecksums the checksums
+     */
+    public void setChildPageChecksums(int[] childPageChecksums) {
+        this.childPageChecksums = childPageChecksums;
+    }
+
+    /**
+     * Returns the data sizes of the child node entry pages as they were last
+     * loaded or stored.
+     * @return the data sizes or <code>null</code>
+     */
+    public long[] getChildPageSizes() {
+        return childPageSizes;
+    }
+
+    /**
+     * Sets the data sizes of the child node entry pages. They are added to
+     * the {@link #getSize() size} of this bundle.
+     * @param childPageSizes the data sizes
+     */
+    public void setChildPageSizes(long[] childPageSizes) {
+        this.childPageSizes = childPageSizes;
+    }
+
+    /**
+     * Checks if this bundle is a page of child node entries of another
+     * bundle.
+     * @return <code>true</code> if this bundle is a child node page;
+     *         <code>false</code> otherwise.
+     */
+    public boolean isChildPage() {
+        return ChildNodePages.PAGE_TYPE_NAME.equals(nodeTypeName);
+    }
+
     /**
      * Returns the approx. size of this bundle.
      * @return the approx. size of this bundle.
@@ -471,7 +553,22 @@ public class NodePropBundle {
         //      + string: 20 + length
         //  + parentId: 160
         //  + id: 160
-        return 500 + size + 300 * (childNodeEntries.size() + properties.size() + 3);
+        long pagesSize = 0;
+        if (childPageSizes != null) {
+            for (int i = 0; i < childPageSizes.length; i++) {
+                pagesSize += childPageSizes[i];
+            }
+        }
+        return 500 + size + pagesSize
+                + 300 * (childNodeEntries.size() + properties.size() + 3);
+    }
+
+    /**
+     * Returns the data size of this bundle as set by {@link #setSize(long)}.
+     * @return the data size
+     */
+    public long getDataSize() {
+        return size;
     }
 
     /**
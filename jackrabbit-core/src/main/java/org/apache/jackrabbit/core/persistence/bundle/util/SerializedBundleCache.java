@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import java.nio.ByteBuffer;
+
+import org.apache.commons.collections.map.LinkedMap;
+import org.apache.jackrabbit.core.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache for serialized bundles that keeps the data outside of the java
+ * heap in direct {@link ByteBuffer}s. It is used as a second level below
+ * the {@link BundleCache}, so that a large working set can be kept in memory
+ * without increasing the heap size and the garbage collection pauses.
+ * <p/>
+ * The cache is divided into segments that are selected by the hash code of
+ * the node id. Each segment is guarded by its own lock and uses its buffer
+ * as a ring: bundles are appended at the current write position and the
+ * oldest bundles are evicted when their space is needed again. Removed
+ * bundles only free their space when the write position passes them.
+ */
+public class SerializedBundleCache {
+
+    /**
+     * the default logger
+     */
+    private static Logger log = LoggerFactory.getLogger(SerializedBundleCache.class);
+
+    /**
+     * the number of segments
+     */
+    private static final int NUM_SEGMENTS = 16;
+
+    /**
+     * the segments of this cache
+     */
+    private final Segment[] segments = new Segment[NUM_SEGMENTS];
+
+    /**
+     * Creates a new cache and allocates the direct buffers.
+     *
+     * @param maxSize the size of the cache in bytes.
+     */
+    public SerializedBundleCache(long maxSize) {
+        long segmentSize = Math.min(maxSize / NUM_SEGMENTS, Integer.MAX_VALUE);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment((int) segmentSize);
+        }
+        log.info("allocated " + (segmentSize * NUM_SEGMENTS / 1024)
+                + "k for serialized bundles");
+    }
+
+    /**
+     * Returns the segment responsible for the given id.
+     *
+     * @param id the id of a bundle
+     * @return the segment
+     */
+    private Segment getSegment(NodeId id) {
+        int h = id.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * Returns a copy of the serialized bundle with the given id.
+     *
+     * @param id the id of the bundle
+     * @return the serialized bundle or <code>null</code> if not cached.
+     */
+    public byte[] get(NodeId id) {
+        return getSegment(id).get(id);
+    }
+
+    /**
+     * Puts a serialized bundle to the cache. Bundles that do not fit into a
+     * segment are ignored.
+     *
+     * @param id the id of the bundle
+     * @param data the serialized bundle
+     */
+    public void put(NodeId id, byte[] data) {
+        getSegment(id).put(id, data);
+    }
+
+    /**
+     * Removes a serialized bundle from the cache.
+     *
+     * @param id the id of the bundle
+     */
+    public void remove(NodeId id) {
+        getSegment(id).remove(id);
+    }
+
+    /**
+     * Removes all bundles from the cache.
+     */
+    public void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached bundles.
+     *
+     * @return the number of cached bundles.
+     */
+    public int getCount() {
+        int count = 0;
+        for (int i = 0; i < segments.length; i++) {
+            count += segments[i].getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return the number of cache hits.
+     */
+    public long getHits() {
+        long hits = 0;
+        for (int i = 0; i < segments.length; i++) {
+            hits += segments[i].getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return the number of cache misses.
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (int i = 0; i < segments.length; i++) {
+            misses += segments[i].getMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * A segment of the cache.
+     */
+    private static final class Segment {
+
+        /**
+         * the buffer that holds the serialized bundles
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * the cached entries in the order they were written, eldest first
+         */
+        private final LinkedMap entries = new LinkedMap();
+
+        /**
+         * the position where the next bundle is written
+         */
+        private int writePos = 0;
+
+        /**
+         * the number of cache hits, guarded by this segment
+         */
+        private long hits = 0;
+
+        /**
+         * the number of cache misses, guarded by this segment
+         */
+        private long misses = 0;
+
+        /**
+         * Creates a new segment.
+         *
+         * @param size the size of the buffer in bytes
+         */
+        public Segment(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+
+        public synchronized byte[] get(NodeId id) {
+            Entry entry = (Entry) entries.get(id);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            byte[] data = new byte[entry.length];
+            buffer.position(entry.offset);
+            buffer.get(data);
+            return data;
+        }
+
+        public synchronized void put(NodeId id, byte[] data) {
+            entries.remove(id);
+            int capacity = buffer.capacity();
+            if (data.length > capacity) {
+                return;
+            }
+            if (writePos + data.length > capacity) {
+                // wrap around, evict the entries at the end of the buffer
+                while (!entries.isEmpty()
+                        && ((Entry) entries.getValue(0)).offset >= writePos) {
+                    entries.remove(0);
+                }
+                writePos = 0;
+            }
+            int end = writePos + data.length;
+            while (!entries.isEmpty()) {
+                Entry eldest = (Entry) entries.getValue(0);
+                if (eldest.offset < end && eldest.offset + eldest.length > writePos) {
+                    entries.remove(0);
+                } else {
+                    break;
+                }
+            }
+            buffer.position(writePos);
+            buffer.put(data);
+            entries.put(id, new Entry(writePos, data.length));
+            writePos = end;
+        }
+
+        public synchronized void remove(NodeId id) {
+            entries.remove(id);
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+            writePos = 0;
+            hits = 0;
+            misses = 0;
+        }
+
+        public synchronized int getCount() {
+            return entries.size();
+        }
+
+        public synchronized long getHits() {
+            return hits;
+        }
+
+        public synchronized long getMisses() {
+            return misses;
+        }
+    }
+
+    /**
+     * The location of a serialized bundle in the buffer of a segment.
+     */
+    private static final class Entry {
+
+        /**
+         * the offset in the buffer
+         */
+        private final int offset;
+
+        /**
+         * the length of the serialized bundle
+         */
+        private final int length;
+
+        public Entry(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import org.apache.commons.collections.map.LinkedMap;
+import org.apache.jackrabbit.core.NodeId;
+
+/**
+ * A scan resistant eviction policy based on the 2Q algorithm by Johnson and
+ * Shasha. Bundles are first put into a FIFO queue that may use up to a
+ * quarter of the memory. Bundles evicted from this queue are remembered by
+ * their id in a "ghost" queue. Only bundles that are put to the cache again
+ * while their id is in the ghost queue enter the main LRU queue. A single
+ * traversal over many bundles therefore only replaces the bundles in the
+ * FIFO queue and does not evict the frequently used bundles.
+ */
+public class TwoQueueBundleCachePolicy implements BundleCachePolicy {
+
+    /**
+     * the percentage of the memory used by the FIFO queue
+     */
+    private static final int IN_PERCENT = 25;
+
+    /**
+     * the minimum number of ids kept in the ghost queue
+     */
+    private static final int MIN_GHOSTS = 16;
+
+    /**
+     * the maximum memory usage
+     */
+    private long maxSize = 0;
+
+    /**
+     * the memory usage of the bundles in the FIFO queue
+     */
+    private long inSize = 0;
+
+    /**
+     * the memory usage of the bundles in the main queue
+     */
+    private long mainSize = 0;
+
+    /**
+     * the bundles that were put once, eldest first
+     */
+    private final LinkedMap in = new LinkedMap();
+
+    /**
+     * the ids of the bundles recently evicted from the FIFO queue
+     */
+    private final LinkedMap ghosts = new LinkedMap();
+
+    /**
+     * the frequently used bundles in access order, eldest first
+     */
+    private final LinkedMap main = new LinkedMap();
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NodePropBundle get(NodeId id) {
+        Entry entry = (Entry) main.remove(id);
+        if (entry != null) {
+            // at end
+            main.put(id, entry);
+            return entry.bundle;
+        }
+        // an access does not change the position in the FIFO queue
+        entry = (Entry) in.get(id);
+        return entry == null ? null : entry.bundle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(NodeId id) {
+        return main.containsKey(id) || in.containsKey(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int put(NodePropBundle bundle) {
+        NodeId id = bundle.getId();
+        Entry entry = (Entry) main.remove(id);
+        if (entry != null) {
+            mainSize += entry.update(bundle);
+            main.put(id, entry);
+        } else {
+            entry = (Entry) in.get(id);
+            if (entry != null) {
+                inSize += entry.update(bundle);
+            } else if (ghosts.remove(id) != null) {
+                // seen recently, promote to main queue
+                entry = new Entry(bundle);
+                main.put(id, entry);
+                mainSize += entry.size;
+            } else {
+                entry = new Entry(bundle);
+                in.put(id, entry);
+                inSize += entry.size;
+            }
+        }
+        return evict(id);
+    }
+
+    /**
+     * Evicts bundles until the maximum size is satisfied. The bundle with
+     * the given id is never evicted, even if it is larger than the maximum
+     * size on its own.
+     *
+     * @param keep the id of the bundle that was just put
+     * @return the number of evicted bundles.
+     */
+    private int evict(NodeId keep) {
+        int evicted = 0;
+        long maxInSize = maxSize * IN_PERCENT / 100;
+        while (inSize + mainSize > maxSize && in.size() + main.size() > 1) {
+            boolean fromIn = !in.isEmpty() && (inSize > maxInSize || main.isEmpty());
+            LinkedMap queue = fromIn ? in : main;
+            NodeId id = (NodeId) queue.firstKey();
+            if (id.equals(keep)) {
+                if (queue.size() > 1) {
+                    id = (NodeId) queue.get(1);
+                } else {
+                    fromIn = !fromIn;
+                    queue = fromIn ? in : main;
+                    id = (NodeId) queue.firstKey();
+                }
+            }
+            Entry entry = (Entry) queue.remove(id);
+            if (fromIn) {
+                inSize -= entry.size;
+                ghosts.put(id, id);
+            } else {
+                mainSize -= entry.size;
+            }
+            evicted++;
+        }
+        // remember about as many evicted ids as there are cached bundles
+        int maxGhosts = Math.max(MIN_GHOSTS, in.size() + main.size());
+        while (ghosts.size() > maxGhosts) {
+            ghosts.remove(0);
+        }
+        return evicted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NodePropBundle remove(NodeId id) {
+        Entry entry = (Entry) main.remove(id);
+        if (entry != null) {
+            mainSize -= entry.size;
+            return entry.bundle;
+        }
+        entry = (Entry) in.remove(id);
+        if (entry != null) {
+            inSize -= entry.size;
+            return entry.bundle;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+        in.clear();
+        ghosts.clear();
+        main.clear();
+        inSize = 0;
+        mainSize = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCount() {
+        return in.size() + main.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSize() {
+        return inSize + mainSize;
+    }
+
+    /**
+     * Internal class that holds the bundles.
+     */
+    private static final class Entry {
+
+        /**
+         * the cached bundle
+         */
+        private NodePropBundle bundle;
+
+        /**
+         * the memory usage of the bundle in bytes
+         */
+        private long size;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param bundle the bundle to cache
+         */
+        public Entry(NodePropBundle bundle) {
+            this.bundle = bundle;
+            this.size = bundle.getSize();
+        }
+
+        /**
+         * Replaces the bundle of this entry.
+         *
+         * @param bundle the new bundle
+         * @return the difference in memory usage
+         */
+        public long update(NodePropBundle bundle) {
+            long oldSize = size;
+            this.bundle = bundle;
+            this.size = bundle.getSize();
+            return size - oldSize;
+        }
+    }
+}
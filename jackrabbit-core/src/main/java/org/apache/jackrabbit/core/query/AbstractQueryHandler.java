@@ -20,6 +20,7 @@ import org.apache.jackrabbit.core.NodeIdIterator;
 import org.apache.jackrabbit.core.state.NodeStateIterator;
 
 import javax.jcr.RepositoryException;
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -96,6 +97,20 @@ public abstract class AbstractQueryHandler implements QueryHandler {
         }
     }
 
+    /**
+     * Copies a consistent snapshot of the index of this query handler to a
+     * directory, from which the index can be restored. This default
+     * implementation does not support snapshots and does nothing.
+     *
+     * @param target the directory to copy the index to.
+     * @return <code>true</code> if the snapshot has been copied;
+     *         <code>false</code> if snapshots are not supported.
+     * @throws IOException if an error occurs while copying the index.
+     */
+    public boolean snapshot(File target) throws IOException {
+        return false;
+    }
+
     /**
      * @return the {@link OnWorkspaceInconsistency} handler.
      */
@@ -51,4 +51,12 @@ public interface ExecutableQuery {
      */
     void bindValue(Name varName, Value value)
         throws IllegalArgumentException, RepositoryException;
+
+    /**
+     * Returns the names of the bind variables in this query.
+     *
+     * @return the names of the bind variables in this query.
+     * @throws RepositoryException if an error occurs.
+     */
+    Name[] getBindVariableNames() throws RepositoryException;
 }
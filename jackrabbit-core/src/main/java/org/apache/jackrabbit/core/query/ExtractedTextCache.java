@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.DataStore;
+import org.apache.jackrabbit.core.data.DataStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <code>ExtractedTextCache</code> keeps the text extracted from binaries in
+ * the data store, so that the same binary is not extracted again when it is
+ * indexed for another node, e.g. a copy or a frozen node of a version.
+ * <p/>
+ * The text is stored compressed in one file per data store record, content
+ * type and encoding. Because the data store identifies a record by its
+ * content, an entry never becomes invalid. Entries of records that no longer
+ * exist in the data store are removed by {@link #purge(DataStore)}, which is
+ * called by the data store garbage collector.
+ */
+public class ExtractedTextCache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ExtractedTextCache.class);
+
+    /**
+     * UTF-8 encoding.
+     */
+    private static final String ENCODING_UTF8 = "UTF-8";
+
+    /**
+     * Separates the data identifier from the rest of the key.
+     */
+    private static final char KEY_SEPARATOR = '-';
+
+    /**
+     * The directory where the cache files are stored.
+     */
+    private final File directory;
+
+    /**
+     * Creates a new cache in the given directory.
+     *
+     * @param directory the directory where the cache files are stored. The
+     *                  directory is created if it does not exist.
+     */
+    public ExtractedTextCache(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    /**
+     * Returns the key for the text of the given binary.
+     *
+     * @param id       the identifier of the data store record.
+     * @param type     the mime type of the binary.
+     * @param encoding the encoding of the binary or <code>null</code>.
+     * @return the key for the extracted text.
+     */
+    public static String createKey(DataIdentifier id, String type, String encoding) {
+        String params = type + ";" + encoding;
+        return id.toString() + KEY_SEPARATOR + Integer.toHexString(params.hashCode());
+    }
+
+    /**
+     * Returns a reader for the cached text with the given key.
+     *
+     * @param key the key of the text.
+     * @return a reader for the text or <code>null</code> if the text is not
+     *         cached.
+     */
+    public Reader get(String key) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return new InputStreamReader(new GZIPInputStream(
+                    new FileInputStream(file)), ENCODING_UTF8);
+        } catch (IOException e) {
+            log.warn("Unable to read extracted text " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the text with the given key is cached.
+     *
+     * @param key the key of the text.
+     * @return <code>true</code> if the text is cached.
+     */
+    public boolean contains(String key) {
+        return getFile(key).exists();
+    }
+
+    /**
+     * Stores the text with the given key.
+     *
+     * @param key  the key of the text.
+     * @param text the extracted text.
+     */
+    public void put(String key, String text) {
+        File file = getFile(key);
+        if (file.exists()) {
+            return;
+        }
+        File dir = file.getParentFile();
+        File temp = null;
+        Writer out = null;
+        try {
+            dir.mkdirs();
+            temp = File.createTempFile("text", ".tmp", dir);
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(temp)),
+                    ENCODING_UTF8));
+            out.write(text);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file) && !file.exists()) {
+                log.warn("Unable to store extracted text " + file);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to store extracted text " + file + ": " + e);
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (temp != null && temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Removes the text of all binaries that are no longer in the data store.
+     *
+     * @param store the data store.
+     * @return the number of removed entries.
+     * @throws DataStoreException if the identifiers of the data store cannot
+     *                            be read.
+     */
+    public int purge(DataStore store) throws DataStoreException {
+        Set identifiers = new HashSet();
+        for (Iterator it = store.getAllIdentifiers(); it.hasNext(); ) {
+            identifiers.add(it.next().toString());
+        }
+        int count = 0;
+        File[] dirs = directory.listFiles();
+        for (int i = 0; dirs != null && i < dirs.length; i++) {
+            File[] files = dirs[i].listFiles();
+            for (int j = 0; files != null && j < files.length; j++) {
+                String name = files[j].getName();
+                int idx = name.lastIndexOf(KEY_SEPARATOR);
+                if (idx == -1 || name.endsWith(".tmp")) {
+                    continue;
+                }
+                if (!identifiers.contains(name.substring(0, idx))) {
+                    if (files[j].delete()) {
+                        count++;
+                    }
+                }
+            }
+            dirs[i].delete(); // only succeeds if empty
+        }
+        log.debug("Removed {} extracted texts", new Integer(count));
+        return count;
+    }
+
+    /**
+     * @param key the key of a text.
+     * @return the file for the text with the given key.
+     */
+    private File getFile(String key) {
+        String prefix = key.length() > 2 ? key.substring(0, 2) : "00";
+        return new File(new File(directory, prefix), key);
+    }
+}
@@ -75,6 +75,11 @@ public class QueryHandlerContext {
      */
     private final NodeId excludedNodeId;
 
+    /**
+     * The cache of extracted text or <code>null</code> if none.
+     */
+    private final ExtractedTextCache textCache;
+
     /**
      * Creates a new context instance.
      *
@@ -101,6 +106,39 @@ public class QueryHandlerContext {
                                NamespaceRegistryImpl nsRegistry,
                                QueryHandler parentHandler,
                                NodeId excludedNodeId) {
+        this(fs, stateMgr, pm, rootId, ntRegistry, nsRegistry,
+                parentHandler, excludedNodeId, null);
+    }
+
+    /**
+     * Creates a new context instance.
+     *
+     * @param fs               a {@link FileSystem} this <code>QueryHandler</code>
+     *                         may use to store its index. If no
+     *                         <code>FileSystem</code> has been configured
+     *                         <code>fs</code> is <code>null</code>.
+     * @param stateMgr         provides persistent item states.
+     * @param pm               the underlying persistence manager.
+     * @param rootId           the id of the root node.
+     * @param ntRegistry       the node type registry.
+     * @param nsRegistry       the namespace registry.
+     * @param parentHandler    the parent query handler or <code>null</code> it
+     *                         there is no parent handler.
+     * @param excludedNodeId   id of the node that should be excluded from
+     *                         indexing. Any descendant of that node is also
+     *                         excluded from indexing.
+     * @param textCache        the cache of text extracted from binaries in
+     *                         the data store or <code>null</code> if none.
+     */
+    public QueryHandlerContext(FileSystem fs,
+                               ItemStateManager stateMgr,
+                               PersistenceManager pm,
+                               NodeId rootId,
+                               NodeTypeRegistry ntRegistry,
+                               NamespaceRegistryImpl nsRegistry,
+                               QueryHandler parentHandler,
+                               NodeId excludedNodeId,
+                               ExtractedTextCache textCache) {
         this.fs = fs;
         this.stateMgr = stateMgr;
         this.pm = pm;
@@ -110,6 +148,7 @@ public class QueryHandlerContext {
         propRegistry = new PropertyTypeRegistry(ntRegistry);
         this.parentHandler = parentHandler;
         this.excludedNodeId = excludedNodeId;
+        this.textCache = textCache;
         ntRegistry.addListener(propRegistry);
     }
 
@@ -193,6 +232,16 @@ public class QueryHandlerContext {
         return excludedNodeId;
     }
 
+    /**
+     * Returns the cache of text extracted from binaries in the data store.
+     *
+     * @return the text cache or <code>null</code> if the repository does not
+     *         use a data store.
+     */
+    public ExtractedTextCache getExtractedTextCache() {
+        return textCache;
+    }
+
     /**
      * Destroys this context and releases resources.
      */
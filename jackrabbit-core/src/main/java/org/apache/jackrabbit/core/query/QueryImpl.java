@@ -16,15 +16,18 @@
  */
 package org.apache.jackrabbit.core.query;
 
+import org.apache.jackrabbit.api.jsr283.query.PreparedQuery;
 import org.apache.jackrabbit.core.ItemManager;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.spi.commons.conversion.NameException;
+import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jcr.ItemExistsException;
 import javax.jcr.ItemNotFoundException;
+import javax.jcr.NamespaceException;
 import javax.jcr.Node;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
@@ -43,7 +46,7 @@ import java.text.NumberFormat;
 /**
  * Provides the default implementation for a JCR query.
  */
-public class QueryImpl extends AbstractQueryImpl {
+public class QueryImpl extends AbstractQueryImpl implements PreparedQuery {
 
     /**
      * The logger instance for this class
@@ -266,6 +269,26 @@ public class QueryImpl extends AbstractQueryImpl {
         }
     }
 
+    /**
+     * Returns the names of the bind variables in this query.
+     *
+     * @return the names of the bind variables in this query.
+     * @throws RepositoryException if an error occurs.
+     */
+    public String[] getBindVariableNames() throws RepositoryException {
+        checkInitialized();
+        Name[] names = query.getBindVariableNames();
+        String[] jcrNames = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            try {
+                jcrNames[i] = session.getJCRName(names[i]);
+            } catch (NamespaceException e) {
+                throw new RepositoryException(e.getMessage(), e);
+            }
+        }
+        return jcrNames;
+    }
+
     /**
      * Sets the maximum size of the result set.
      *
@@ -35,6 +35,7 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.util.BitSet;
+import java.util.Collection;
 import java.util.Iterator;
 
 /**
@@ -71,6 +72,10 @@ abstract class AbstractIndex {
     /** The underlying Directory where the index is stored */
     private Directory directory;
 
+    /** Keeps the files of the last commit while a snapshot is taken */
+    private final SnapshotDeletionPolicy deletionPolicy =
+            new SnapshotDeletionPolicy();
+
     /** Analyzer we use to tokenize text */
     private Analyzer analyzer;
 
@@ -142,7 +147,7 @@ abstract class AbstractIndex {
         this.isExisting = IndexReader.indexExists(directory);
 
         if (!isExisting) {
-            indexWriter = new IndexWriter(directory, analyzer);
+            indexWriter = new IndexWriter(directory, true, analyzer, deletionPolicy);
             // immediately close, now that index has been created
             indexWriter.close();
             indexWriter = null;
@@ -245,7 +250,8 @@ abstract class AbstractIndex {
             indexWriter = null;
         }
         if (indexReader == null) {
-            indexReader = new CommittableIndexReader(IndexReader.open(getDirectory()));
+            indexReader = new CommittableIndexReader(
+                    IndexReader.open(getDirectory(), deletionPolicy));
         }
         return indexReader;
     }
@@ -315,7 +321,7 @@ abstract class AbstractIndex {
             indexReader = null;
         }
         if (indexWriter == null) {
-            indexWriter = new IndexWriter(getDirectory(), analyzer);
+            indexWriter = new IndexWriter(getDirectory(), true, analyzer, deletionPolicy);
             indexWriter.setSimilarity(similarity);
             // since lucene 2.0 setMaxBuffereDocs is equivalent to previous minMergeDocs attribute
             indexWriter.setMaxBufferedDocs(minMergeDocs);
@@ -364,6 +370,30 @@ abstract class AbstractIndex {
         }
     }
 
+    /**
+     * Commits all pending changes and returns the names of the files of the
+     * last commit. These files are not deleted until {@link #releaseSnapshot()}
+     * is called, even if this index is modified in the meantime. Only one
+     * snapshot may be taken at a time.
+     *
+     * @return the names of the files in the directory of this index.
+     * @throws IOException if an error occurs while commiting changes.
+     */
+    synchronized Collection snapshot() throws IOException {
+        commit();
+        // an index writer initializes the deletion policy with the commits
+        // in the directory, including those written by a copyIndex()
+        getIndexWriter();
+        return deletionPolicy.snapshot();
+    }
+
+    /**
+     * Allows the deletion of the files returned by {@link #snapshot()} again.
+     */
+    synchronized void releaseSnapshot() {
+        deletionPolicy.release();
+    }
+
     /**
      * Closes this index, releasing all held resources.
      */
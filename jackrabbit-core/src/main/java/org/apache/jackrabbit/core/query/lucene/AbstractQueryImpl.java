@@ -137,6 +137,13 @@ public abstract class AbstractQueryImpl implements ExecutableQuery {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Name[] getBindVariableNames() {
+        return (Name[]) variableNames.toArray(new Name[variableNames.size()]);
+    }
+
     /**
      * Adds a name to the set of variables.
      *
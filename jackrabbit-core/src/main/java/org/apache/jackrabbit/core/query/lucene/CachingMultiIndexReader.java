@@ -60,6 +60,12 @@ public final class CachingMultiIndexReader
      */
     private int refCount = 1;
 
+    /**
+     * The cached descendants of context documents in this reader.
+     */
+    private final DescendantDocsCache descendantDocs =
+            new DescendantDocsCache(this, this);
+
     /**
      * Creates a new <code>CachingMultiIndexReader</code> based on sub readers.
      *
@@ -111,6 +117,13 @@ public final class CachingMultiIndexReader
         return id.applyOffset(starts[i]);
     }
 
+    /**
+     * @return the cached descendants of context documents in this reader.
+     */
+    DescendantDocsCache getDescendantDocsCache() {
+        return descendantDocs;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -167,6 +180,7 @@ public final class CachingMultiIndexReader
      * {@inheritDoc}
      */
     protected synchronized void doClose() throws IOException {
+        descendantDocs.dispose();
         for (int i = 0; i < subReaders.length; i++) {
             subReaders[i].release();
         }
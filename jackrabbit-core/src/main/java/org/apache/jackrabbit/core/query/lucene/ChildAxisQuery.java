@@ -42,11 +42,10 @@ import org.apache.lucene.search.Weight;
 import org.apache.lucene.search.Sort;
 
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Implements a lucene <code>Query</code> which returns the child nodes of the
@@ -417,33 +416,32 @@ class ChildAxisQuery extends Query implements JackrabbitQuery {
             if (hits == null) {
 
                 // collect all context nodes
-                Map uuids = new HashMap();
-                final Hits contextHits = new AdaptingHits();
+                final BitSet contextHits = new BitSet();
                 contextScorer.score(new HitCollector() {
                     public void collect(int doc, float score) {
                         contextHits.set(doc);
                     }
                 });
 
-                // read the uuids of the context nodes
-                for (int i = contextHits.next(); i > -1; i = contextHits.next()) {
-                    String uuid = reader.document(i, FieldSelectors.UUID).get(FieldNames.UUID);
-                    uuids.put(new Integer(i), uuid);
-                }
-
                 // collect all children of the context nodes
                 Hits childrenHits = new AdaptingHits();
-                if (nameTestScorer != null) {
+                if (contextHits.isEmpty()) {
+                    // no context nodes, no children
+                } else if (nameTestScorer != null) {
+                    // the parent is checked against the context nodes
+                    // without reading the documents
                     Hits nameHits = new ScorerHits(nameTestScorer);
                     for (int h = nameHits.next(); h > -1; h = nameHits.next()) {
-                        if (uuids.containsKey(new Integer(hResolver.getParent(h)))) {
+                        int parent = hResolver.getParent(h);
+                        if (parent >= 0 && contextHits.get(parent)) {
                             childrenHits.set(h);
                         }
                     }
                 } else {
-                    // get child node entries for each hit
-                    for (Iterator it = uuids.values().iterator(); it.hasNext(); ) {
-                        String uuid = (String) it.next();
+                    // get child node entries for each context node
+                    for (int i = contextHits.nextSetBit(0); i >= 0;
+                            i = contextHits.nextSetBit(i + 1)) {
+                        String uuid = reader.document(i, FieldSelectors.UUID).get(FieldNames.UUID);
                         NodeId id = new NodeId(UUID.fromString(uuid));
                         try {
                             NodeState state = (NodeState) itemMgr.getItemState(id);
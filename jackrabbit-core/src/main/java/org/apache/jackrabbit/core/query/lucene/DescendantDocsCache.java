@@ -0,0 +1,377 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.apache.jackrabbit.core.state.Cache;
+import org.apache.jackrabbit.core.state.CacheAccessListener;
+import org.apache.jackrabbit.core.state.CacheManager;
+import org.apache.lucene.index.IndexReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>DescendantDocsCache</code> caches the documents that are descendants
+ * of a context document, as a <code>BitSet</code> over the document numbers
+ * of an index reader. This turns a path constraint into a bitset lookup
+ * instead of walking the parents of every candidate document.
+ * <p/>
+ * A cache belongs to exactly one index reader and therefore becomes
+ * obsolete together with the reader when the index changes. The reader
+ * {@link #dispose() disposes} the cache when it is closed. Per segment
+ * caching is not possible, because moving a node only re-indexes the moved
+ * node: the documents of its descendants stay unchanged in their segments
+ * but are no longer descendants of the same ancestors.
+ * <p/>
+ * Computing the descendants of a document reads the parent of every
+ * document once. To avoid this cost for a context that is used only once,
+ * the descendants are computed on the second request for the same context,
+ * or when the caller would visit all documents anyway.
+ * <p/>
+ * The memory of the cached bitsets is limited. The cache registers with the
+ * {@link CacheManager} when it stores its first bitset, which then adjusts
+ * the limit together with the other caches. The least recently used
+ * bitsets are evicted first.
+ */
+final class DescendantDocsCache implements Cache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(DescendantDocsCache.class);
+
+    /**
+     * The maximum number of context documents that were requested once.
+     */
+    private static final int MAX_REQUESTED = 128;
+
+    /**
+     * The memory limit of a cache until the cache manager sets it.
+     */
+    private static final long DEFAULT_MAX_MEMORY = 1024 * 1024;
+
+    /**
+     * The estimated memory usage of a cache entry in bytes in addition to
+     * the bits of the bitset.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * The document is not yet known to be a descendant or not.
+     */
+    private static final byte UNKNOWN = 0;
+
+    /**
+     * The document is a descendant of the context document.
+     */
+    private static final byte DESCENDANT = 1;
+
+    /**
+     * The document is not a descendant of the context document.
+     */
+    private static final byte OTHER = 2;
+
+    /**
+     * The reader of this cache.
+     */
+    private final IndexReader reader;
+
+    /**
+     * The hierarchy resolver of the reader.
+     */
+    private final HierarchyResolver resolver;
+
+    /**
+     * The cached descendants, from the least to the most recently used.
+     * Key=Integer (context document), value=BitSet.
+     */
+    private final Map descendants = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The context documents that were requested once but whose descendants
+     * were not yet computed.
+     * Key=Integer (context document), value=Boolean.TRUE.
+     */
+    private final Map requested = new LRUMap(MAX_REQUESTED);
+
+    /**
+     * The memory limit in bytes.
+     */
+    private long maxMemory = DEFAULT_MAX_MEMORY;
+
+    /**
+     * The estimated memory used by the cached bitsets in bytes.
+     */
+    private long memoryUsed;
+
+    /**
+     * Number of accesses since the last {@link #resetAccessCount()}.
+     */
+    private long accessCount;
+
+    /**
+     * Number of misses since the last {@link #resetAccessCount()}.
+     */
+    private long missCount;
+
+    /**
+     * The cache access listener or <code>null</code>.
+     */
+    private CacheAccessListener accessListener;
+
+    /**
+     * Set to <code>true</code> when this cache is registered with the cache
+     * manager.
+     */
+    private boolean registered = false;
+
+    /**
+     * Set to <code>true</code> when this cache is disposed.
+     */
+    private boolean disposed = false;
+
+    /**
+     * Creates a new cache for the given reader.
+     *
+     * @param reader   the index reader.
+     * @param resolver the hierarchy resolver of <code>reader</code>.
+     */
+    DescendantDocsCache(IndexReader reader, HierarchyResolver resolver) {
+        this.reader = reader;
+        this.resolver = resolver;
+    }
+
+    /**
+     * Returns the documents that are descendants of <code>doc</code>,
+     * <code>doc</code> itself excluded. The returned bitset must not be
+     * modified.
+     *
+     * @param doc     the context document.
+     * @param compute whether the descendants should be computed on the
+     *                first request for <code>doc</code>.
+     * @return the descendants or <code>null</code> if they are not computed
+     *         yet.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    BitSet getDescendants(int doc, boolean compute) throws IOException {
+        Integer key = new Integer(doc);
+        BitSet bits;
+        synchronized (this) {
+            bits = (BitSet) descendants.get(key);
+            accessCount++;
+            if (bits == null) {
+                missCount++;
+            }
+        }
+        if (accessCount % CacheAccessListener.ACCESS_INTERVAL == 0) {
+            CacheAccessListener listener = accessListener;
+            if (listener != null) {
+                listener.cacheAccessed();
+            }
+        }
+        if (bits != null) {
+            return bits;
+        }
+        synchronized (this) {
+            if (!compute && requested.put(key, Boolean.TRUE) == null) {
+                // first request
+                return null;
+            }
+        }
+        // compute outside of the monitor, concurrent requests compute the
+        // same result
+        bits = computeDescendants(doc);
+        boolean register;
+        synchronized (this) {
+            requested.remove(key);
+            if (disposed || getSize(bits) > maxMemory) {
+                return bits;
+            }
+            Object previous = descendants.put(key, bits);
+            if (previous != null) {
+                memoryUsed -= getSize((BitSet) previous);
+            }
+            memoryUsed += getSize(bits);
+            evict();
+            register = !registered;
+            registered = true;
+        }
+        if (register) {
+            CacheManager cacheMgr = CacheManager.getInstance();
+            cacheMgr.add(this);
+            setAccessListener(cacheMgr);
+        }
+        return bits;
+    }
+
+    /**
+     * Removes all cached descendants and unregisters this cache from the
+     * cache manager. Descendants that are computed later are not cached
+     * anymore.
+     */
+    void dispose() {
+        synchronized (this) {
+            disposed = true;
+            descendants.clear();
+            requested.clear();
+            memoryUsed = 0;
+            if (!registered) {
+                return;
+            }
+        }
+        CacheManager.getInstance().remove(this);
+    }
+
+    //--------------------------------------------------------------< Cache >
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void setMaxMemorySize(long size) {
+        maxMemory = size;
+        evict();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getMaxMemorySize() {
+        return maxMemory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAccessCount() {
+        return accessCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void resetAccessCount() {
+        accessCount = 0;
+        missCount = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setAccessListener(CacheAccessListener listener) {
+        this.accessListener = listener;
+    }
+
+    //------------------------------------------------------------< internal >
+
+    /**
+     * Evicts the least recently used bitsets until the memory limit is met.
+     * Must be called while holding the monitor of this cache.
+     */
+    private void evict() {
+        Iterator it = descendants.values().iterator();
+        while (memoryUsed > maxMemory && it.hasNext()) {
+            memoryUsed -= getSize((BitSet) it.next());
+            it.remove();
+        }
+    }
+
+    /**
+     * @param bits a bitset.
+     * @return the estimated memory used by a cache entry for the bitset.
+     */
+    private static long getSize(BitSet bits) {
+        return bits.size() / 8 + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Computes the descendants of a document. Each document takes the state
+     * of its nearest ancestor with a known state, which is remembered for all
+     * documents on the way.
+     *
+     * @param doc the context document.
+     * @return the descendants of <code>doc</code>.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private BitSet computeDescendants(int doc) throws IOException {
+        long time = System.currentTimeMillis();
+        int maxDoc = reader.maxDoc();
+        byte[] states = new byte[maxDoc];
+        states[doc] = DESCENDANT;
+        int[] chain = new int[16];
+        for (int n = 0; n < maxDoc; n++) {
+            if (states[n] != UNKNOWN || reader.isDeleted(n)) {
+                continue;
+            }
+            int length = 0;
+            int d = n;
+            byte state;
+            for (;;) {
+                if (length == chain.length) {
+                    int[] tmp = new int[length * 2];
+                    System.arraycopy(chain, 0, tmp, 0, length);
+                    chain = tmp;
+                }
+                chain[length++] = d;
+                int parent = resolver.getParent(d);
+                if (parent < 0 || length > maxDoc) {
+                    // reached the root or hierarchy not resolvable
+                    state = OTHER;
+                    break;
+                } else if (states[parent] != UNKNOWN) {
+                    state = states[parent];
+                    break;
+                }
+                d = parent;
+            }
+            for (int i = 0; i < length; i++) {
+                states[chain[i]] = state;
+            }
+        }
+        BitSet bits = new BitSet(maxDoc);
+        for (int n = 0; n < maxDoc; n++) {
+            if (states[n] == DESCENDANT && n != doc) {
+                bits.set(n);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("computed {} descendants in {} ms",
+                    new Integer(bits.cardinality()),
+                    new Long(System.currentTimeMillis() - time));
+        }
+        return bits;
+    }
+}
@@ -43,6 +43,13 @@ import java.util.Iterator;
  */
 class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
 
+    /**
+     * The maximum number of context nodes for which the cached descendants
+     * are used. For more context nodes the ancestors of each candidate are
+     * checked instead.
+     */
+    private static final int MAX_CACHED_CONTEXT_NODES = 8;
+
     /**
      * The context query
      */
@@ -368,7 +375,12 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
             contextScorer = contextQuery.weight(searcher).scorer(reader);
             subScorer = subQuery.weight(searcher).scorer(reader);
             HierarchyResolver resolver = (HierarchyResolver) reader;
-            return new DescendantSelfAxisScorer(searcher.getSimilarity(), reader, resolver);
+            DescendantDocsCache cache = null;
+            if (reader instanceof JackrabbitIndexReader) {
+                cache = ((JackrabbitIndexReader) reader).getDescendantDocsCache();
+            }
+            return new DescendantSelfAxisScorer(
+                    searcher.getSimilarity(), reader, resolver, cache);
         }
 
         /**
@@ -406,18 +418,39 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
          */
         private int[] ancestorDocs = new int[2];
 
+        /**
+         * The cached descendants of the reader or <code>null</code> if not
+         * available.
+         */
+        private final DescendantDocsCache cache;
+
+        /**
+         * The descendants of the context hits or <code>null</code> if the
+         * ancestors of each candidate are checked.
+         */
+        private BitSet descendants;
+
+        /**
+         * The last valid document returned by this scorer.
+         */
+        private int lastDoc = -1;
+
         /**
          * Creates a new <code>DescendantSelfAxisScorer</code>.
          *
          * @param similarity the <code>Similarity</code> instance to use.
          * @param reader     for index access.
          * @param hResolver  the hierarchy resolver of <code>reader</code>.
+         * @param cache      the cached descendants of <code>reader</code> or
+         *                   <code>null</code> if not available.
          */
         protected DescendantSelfAxisScorer(Similarity similarity,
                                            IndexReader reader,
-                                           HierarchyResolver hResolver) {
+                                           HierarchyResolver hResolver,
+                                           DescendantDocsCache cache) {
             super(similarity);
             this.hResolver = hResolver;
+            this.cache = cache;
             // todo reuse BitSets?
             this.contextHits = new BitSet(reader.maxDoc());
         }
@@ -427,20 +460,14 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
          */
         public boolean next() throws IOException {
             collectContextHits();
-            if (!subScorer.next() || contextHits.isEmpty()) {
+            if (contextHits.isEmpty()) {
                 return false;
             }
-            int nextDoc = subScorer.doc();
-            while (nextDoc > -1) {
-
-                if (isValid(nextDoc)) {
-                    return true;
-                }
-
-                // try next
-                nextDoc = subScorer.next() ? subScorer.doc() : -1;
+            if (descendants != null) {
+                int target = nextCandidate(lastDoc + 1);
+                return target != -1 && subScorer.skipTo(target) && findValid();
             }
-            return false;
+            return subScorer.next() && findValid();
         }
 
         /**
@@ -461,18 +488,62 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
          * {@inheritDoc}
          */
         public boolean skipTo(int target) throws IOException {
-            boolean match = subScorer.skipTo(target);
-            if (match) {
-                collectContextHits();
-                if (isValid(subScorer.doc())) {
+            collectContextHits();
+            if (contextHits.isEmpty()) {
+                return false;
+            }
+            if (descendants != null) {
+                target = nextCandidate(target);
+                if (target == -1) {
+                    return false;
+                }
+            }
+            return subScorer.skipTo(target) && findValid();
+        }
+
+        /**
+         * Moves the sub scorer from its current document to the next valid
+         * document.
+         *
+         * @return <code>true</code> if the sub scorer is on a valid document;
+         *         <code>false</code> if there are no more valid documents.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        private boolean findValid() throws IOException {
+            for (;;) {
+                int doc = subScorer.doc();
+                if (isValid(doc)) {
+                    lastDoc = doc;
                     return true;
-                } else {
-                    // find next valid
-                    return next();
                 }
-            } else {
-                return false;
+                if (descendants != null) {
+                    // skip directly to the next descendant
+                    int target = nextCandidate(doc + 1);
+                    if (target == -1 || !subScorer.skipTo(target)) {
+                        return false;
+                    }
+                } else if (!subScorer.next()) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Returns the first document at or after <code>doc</code> that may
+         * match according to {@link #descendants} and the context hits.
+         *
+         * @param doc a document number.
+         * @return the next candidate or <code>-1</code> if there is none.
+         */
+        private int nextCandidate(int doc) {
+            int next = descendants.nextSetBit(doc);
+            if (minLevels == 0) {
+                int self = contextHits.nextSetBit(doc);
+                if (next == -1 || (self != -1 && self < next)) {
+                    next = self;
+                }
             }
+            return next;
         }
 
         private void collectContextHits() throws IOException {
@@ -483,9 +554,45 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
                     }
                 }); // find all
                 contextHitsCalculated = true;
+                initDescendants();
             }
         }
 
+        /**
+         * Uses the cached descendants of the context hits if there are only
+         * a few context hits. The descendants are computed right away if the
+         * sub query matches all nodes, because then every document is checked
+         * anyway.
+         *
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        private void initDescendants() throws IOException {
+            if (cache == null || minLevels > 1 || contextHits.isEmpty()
+                    || contextHits.cardinality() > MAX_CACHED_CONTEXT_NODES) {
+                return;
+            }
+            BitSet bits = null;
+            boolean shared = true;
+            for (int doc = contextHits.nextSetBit(0); doc >= 0;
+                    doc = contextHits.nextSetBit(doc + 1)) {
+                BitSet d = cache.getDescendants(doc, subQueryMatchesAll());
+                if (d == null) {
+                    return;
+                }
+                if (bits == null) {
+                    bits = d;
+                } else {
+                    if (shared) {
+                        // cached bitsets must not be modified
+                        bits = (BitSet) bits.clone();
+                        shared = false;
+                    }
+                    bits.or(d);
+                }
+            }
+            descendants = bits;
+        }
+
         /**
          * @throws UnsupportedOperationException this implementation always
          *                                       throws an <code>UnsupportedOperationException</code>.
@@ -509,6 +616,10 @@ class DescendantSelfAxisQuery extends Query implements JackrabbitQuery {
                 return true;
             }
 
+            if (descendants != null) {
+                return descendants.get(doc);
+            }
+
             // check if doc is a descendant of one of the context nodes
             int parentDoc = hResolver.getParent(doc);
 
@@ -17,14 +17,20 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import org.apache.commons.collections.map.LRUMap;
+import org.apache.jackrabbit.core.state.Cache;
+import org.apache.jackrabbit.core.state.CacheAccessListener;
 import org.apache.jackrabbit.uuid.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Implements a Document number cache with a fixed size and a LRU strategy.
+ * Implements a Document number cache with a LRU strategy.
+ * <p/>
+ * The cache implements the {@link Cache} interface, so that its size can be
+ * managed by the {@link org.apache.jackrabbit.core.state.CacheManager}. The
+ * memory used is estimated using {@link #ENTRY_SIZE} bytes per entry.
  */
-final class DocNumberCache {
+final class DocNumberCache implements Cache {
 
     /**
      * Logger instance for this class.
@@ -47,10 +53,44 @@ final class DocNumberCache {
     private static final int CACHE_SEGMENTS_MASK = CACHE_SEGMENTS - 1;
 
     /**
-     * LRU Maps where key=uuid value=reader;docNumber
+     * The minimum number of entries per segment.
+     */
+    private static final int MIN_SEGMENT_SIZE = 0x40;
+
+    /**
+     * The estimated memory usage of a cache entry in bytes, including the
+     * uuid key and the overhead of the map.
+     */
+    static final int ENTRY_SIZE = 128;
+
+    /**
+     * LRU Maps where key=uuid value=reader;docNumber. An element of this
+     * array may only be accessed while holding the according lock in
+     * {@link #locks}, because the maps are replaced when the cache is
+     * resized.
      */
     private final LRUMap[] docNumbers = new LRUMap[CACHE_SEGMENTS];
 
+    /**
+     * The locks for the cache segments.
+     */
+    private final Object[] locks = new Object[CACHE_SEGMENTS];
+
+    /**
+     * Number of accesses since the last {@link #resetAccessCount()}.
+     */
+    private long accessCount;
+
+    /**
+     * Number of misses since the last {@link #resetAccessCount()}.
+     */
+    private long missCount;
+
+    /**
+     * The cache access listener or <code>null</code>.
+     */
+    private CacheAccessListener accessListener;
+
     /**
      * Timestamp of the last cache statistics log.
      */
@@ -73,13 +113,10 @@ final class DocNumberCache {
      * @param size the cache limit.
      */
     DocNumberCache(int size) {
-        size = size / CACHE_SEGMENTS;
-        if (size < 0x40) {
-            // minimum size is 0x40 * 0x10 = 1024
-            size = 0x40;
-        }
+        size = getSegmentSize(size);
         for (int i = 0; i < docNumbers.length; i++) {
             docNumbers[i] = new LRUMap(size);
+            locks[i] = new Object();
         }
     }
 
@@ -93,9 +130,10 @@ final class DocNumberCache {
      * @param n the document number.
      */
     void put(String uuid, CachingIndexReader reader, int n) {
-        LRUMap cacheSegment = docNumbers[getSegmentIndex(uuid.charAt(0))];
+        int index = getSegmentIndex(uuid.charAt(0));
         UUID key = UUID.fromString(uuid);
-        synchronized (cacheSegment) {
+        synchronized (locks[index]) {
+            LRUMap cacheSegment = docNumbers[index];
             Entry e = (Entry) cacheSegment.get(key);
             if (e != null) {
                 // existing entry
@@ -127,15 +165,25 @@ final class DocNumberCache {
      * @return cache entry or <code>null</code>.
      */
     Entry get(String uuid) {
-        LRUMap cacheSegment = docNumbers[getSegmentIndex(uuid.charAt(0))];
+        int index = getSegmentIndex(uuid.charAt(0));
         // uuid may be invalid
         if (uuid.length() != UUID.UUID_FORMATTED_LENGTH) {
             return null;
         }
         UUID key = UUID.fromString(uuid);
         Entry entry;
-        synchronized (cacheSegment) {
-            entry = (Entry) cacheSegment.get(key);
+        synchronized (locks[index]) {
+            entry = (Entry) docNumbers[index].get(key);
+        }
+        accessCount++;
+        if (entry == null) {
+            missCount++;
+        }
+        if (accessCount % CacheAccessListener.ACCESS_INTERVAL == 0) {
+            CacheAccessListener listener = accessListener;
+            if (listener != null) {
+                listener.cacheAccessed();
+            }
         }
         if (log.isInfoEnabled()) {
             accesses++;
@@ -149,12 +197,8 @@ final class DocNumberCache {
                     ratio -= misses * 100L / accesses;
                 }
                 StringBuffer statistics = new StringBuffer();
-                int inUse = 0;
-                for (int i = 0; i < docNumbers.length; i++) {
-                    inUse += docNumbers[i].size();
-                }
-                statistics.append("size=").append(inUse);
-                statistics.append("/").append(docNumbers[0].maxSize() * CACHE_SEGMENTS);
+                statistics.append("size=").append(getSize());
+                statistics.append("/").append(getMaxSize());
                 statistics.append(", #accesses=").append(accesses);
                 statistics.append(", #hits=").append((accesses - misses));
                 statistics.append(", #misses=").append(misses);
@@ -168,6 +212,120 @@ final class DocNumberCache {
         return entry;
     }
 
+    //--------------------------------------------------------------< Cache >
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Converts the memory size into a number of entries and replaces the
+     * segments with new maps of the according size. The most recently used
+     * entries are kept.
+     */
+    public void setMaxMemorySize(long size) {
+        int segmentSize = getSegmentSize(
+                (int) Math.min(Integer.MAX_VALUE, size / ENTRY_SIZE));
+        for (int i = 0; i < docNumbers.length; i++) {
+            synchronized (locks[i]) {
+                LRUMap current = docNumbers[i];
+                if (current.maxSize() != segmentSize) {
+                    // the iteration order of a LRUMap is from least to most
+                    // recently used: if the new map is smaller, the least
+                    // recently used entries are evicted
+                    LRUMap resized = new LRUMap(segmentSize);
+                    resized.putAll(current);
+                    docNumbers[i] = resized;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMaxMemorySize() {
+        return (long) getMaxSize() * ENTRY_SIZE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMemoryUsed() {
+        return (long) getSize() * ENTRY_SIZE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getAccessCount() {
+        return accessCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void resetAccessCount() {
+        accessCount = 0;
+        missCount = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setAccessListener(CacheAccessListener listener) {
+        this.accessListener = listener;
+    }
+
+    //------------------------------------------------------------< internal >
+
+    /**
+     * @return the number of entries in this cache.
+     */
+    private int getSize() {
+        int size = 0;
+        for (int i = 0; i < docNumbers.length; i++) {
+            synchronized (locks[i]) {
+                size += docNumbers[i].size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the maximum number of entries in this cache.
+     */
+    private int getMaxSize() {
+        int size = 0;
+        for (int i = 0; i < docNumbers.length; i++) {
+            synchronized (locks[i]) {
+                size += docNumbers[i].maxSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the size of a segment for a cache with the given number of
+     * entries.
+     *
+     * @param size the number of entries of the cache.
+     * @return the number of entries of a segment.
+     */
+    private static int getSegmentSize(int size) {
+        size = size / CACHE_SEGMENTS;
+        if (size < MIN_SEGMENT_SIZE) {
+            // minimum size is 0x40 * 0x10 = 1024
+            size = MIN_SEGMENT_SIZE;
+        }
+        return size;
+    }
+
     /**
      * Returns the segment index for character c.
      */
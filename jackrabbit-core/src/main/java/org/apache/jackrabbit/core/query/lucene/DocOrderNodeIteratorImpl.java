@@ -52,6 +52,9 @@ class DocOrderNodeIteratorImpl implements ScoreNodeIterator {
      */
     private final int selectorIndex;
 
+    /** The execution record of the query or <code>null</code>. */
+    private final QueryStatistics.Execution execution;
+
     /**
      * Creates a <code>DocOrderNodeIteratorImpl</code> that orders the nodes in
      * <code>scoreNodes</code> in document order.
@@ -62,13 +65,18 @@ class DocOrderNodeIteratorImpl implements ScoreNodeIterator {
      *                      value. <code>List&lt;ScoreNode[]></code>
      * @param selectorIndex apply document order on the score nodes with this
      *                      selectorIndex.
+     * @param execution     the execution record of the query, which is told
+     *                      about the time spent loading the nodes, or
+     *                      <code>null</code>.
      */
     DocOrderNodeIteratorImpl(ItemManager itemMgr,
                              List scoreNodes,
-                             int selectorIndex) {
+                             int selectorIndex,
+                             QueryStatistics.Execution execution) {
         this.itemMgr = itemMgr;
         this.scoreNodes = scoreNodes;
         this.selectorIndex = selectorIndex;
+        this.execution = execution;
     }
 
     /**
@@ -283,8 +291,13 @@ class DocOrderNodeIteratorImpl implements ScoreNodeIterator {
 
         } while (invalidIDs.size() > 0);
 
+        time = System.currentTimeMillis() - time;
         if (log.isDebugEnabled()) {
-            log.debug("" + nodes.length + " node(s) ordered in " + (System.currentTimeMillis() - time) + " ms");
+            log.debug("" + nodes.length + " node(s) ordered in " + time + " ms");
+        }
+        if (execution != null) {
+            // ordering loads the nodes
+            execution.loaded(time, nodes.length);
         }
         orderedNodes = new NodeIteratorImpl(itemMgr, nodes, selectorIndex);
     }
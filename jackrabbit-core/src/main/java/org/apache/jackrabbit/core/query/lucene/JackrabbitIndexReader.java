@@ -86,6 +86,19 @@ public final class JackrabbitIndexReader
         return resolver.getParent(n);
     }
 
+    /**
+     * Returns the cached descendants of context documents in this reader.
+     *
+     * @return the cache or <code>null</code> if the underlying reader does
+     *         not provide one.
+     */
+    DescendantDocsCache getDescendantDocsCache() {
+        if (in instanceof CachingMultiIndexReader) {
+            return ((CachingMultiIndexReader) in).getDescendantDocsCache();
+        }
+        return null;
+    }
+
     //-------------------------< MultiIndexReader >-----------------------------
 
     /**
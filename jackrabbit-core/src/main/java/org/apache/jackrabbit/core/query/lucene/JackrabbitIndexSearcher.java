@@ -16,20 +16,51 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.HitCollector;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.index.IndexReader;
 import org.apache.jackrabbit.core.SessionImpl;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 
 /**
  * <code>JackrabbitIndexSearcher</code> implements an index searcher with
  * jackrabbit specific optimizations.
+ * <p/>
+ * If the searcher has an executor, queries that only consist of term, phrase
+ * and boolean queries are scored in parallel on partitions of the index. A
+ * partition consists of one or more consecutive index segments.
  */
 public class JackrabbitIndexSearcher extends IndexSearcher {
 
+    /**
+     * The minimum number of documents in a partition that is searched in
+     * parallel. Smaller segments are combined with their neighbours.
+     */
+    private static final int MIN_PARTITION_SIZE = 10000;
+
+    /**
+     * Set while the current thread searches a partition. Searches issued on
+     * such a thread are not split again, otherwise they would wait for
+     * executor threads that are busy with the outer search.
+     */
+    private static final ThreadLocal PARTITION_SEARCH = new ThreadLocal();
+
     /**
      * The session that executes the query.
      */
@@ -40,6 +71,18 @@ public class JackrabbitIndexSearcher extends IndexSearcher {
      */
     private final IndexReader reader;
 
+    /**
+     * The filter applied to the results of {@link #execute(Query, Sort)} or
+     * <code>null</code> if none.
+     */
+    private final Filter filter;
+
+    /**
+     * The executor for parallel searches or <code>null</code> if queries are
+     * scored by the calling thread only.
+     */
+    private final DynamicPooledExecutor executor;
+
     /**
      * Creates a new jackrabbit index searcher.
      *
@@ -47,13 +90,47 @@ public class JackrabbitIndexSearcher extends IndexSearcher {
      * @param r the index reader.
      */
     public JackrabbitIndexSearcher(SessionImpl s, IndexReader r) {
+        this(s, r, null);
+    }
+
+    /**
+     * Creates a new jackrabbit index searcher, which applies a filter to the
+     * results of {@link #execute(Query, Sort)}.
+     *
+     * @param s the session that executes the query.
+     * @param r the index reader.
+     * @param f the filter or <code>null</code> if none.
+     */
+    public JackrabbitIndexSearcher(SessionImpl s, IndexReader r, Filter f) {
+        this(s, r, f, null);
+    }
+
+    /**
+     * Creates a new jackrabbit index searcher, which applies a filter to the
+     * results of {@link #execute(Query, Sort)} and searches the segments of
+     * the index in parallel using the given executor.
+     *
+     * @param s the session that executes the query.
+     * @param r the index reader.
+     * @param f the filter or <code>null</code> if none.
+     * @param e the executor for parallel searches or <code>null</code> to
+     *          search with the calling thread only.
+     */
+    public JackrabbitIndexSearcher(SessionImpl s,
+                                   IndexReader r,
+                                   Filter f,
+                                   DynamicPooledExecutor e) {
         super(r);
         this.session = s;
         this.reader = r;
+        this.filter = f;
+        this.executor = e;
     }
 
     /**
-     * Executes the query and returns the hits that match the query.
+     * Executes the query and returns the hits that match the query. If this
+     * searcher has a filter, it is applied to the hits, unless the query is
+     * a {@link JackrabbitQuery} that evaluates itself.
      *
      * @param query the query to execute.
      * @param sort  the sort criteria.
@@ -61,8 +138,47 @@ public class JackrabbitIndexSearcher extends IndexSearcher {
      * @throws IOException if an error occurs while executing the query.
      */
     public MultiColumnQueryHits execute(Query query, Sort sort) throws IOException {
-        return new QueryHitsAdapter(evaluate(query, sort),
-                QueryImpl.DEFAULT_SELECTOR_NAME);
+        return execute(query, sort, 0);
+    }
+
+    /**
+     * Executes the query and returns the hits that match the query. If this
+     * searcher has a filter, it is applied to the hits, unless the query is
+     * a {@link JackrabbitQuery} that evaluates itself.
+     * <p/>
+     * If <code>maxHits</code> is greater than zero, only the top
+     * <code>maxHits</code> hits according to <code>sort</code> are collected
+     * initially. The returned hits still report the total number of matches
+     * and collect more hits on demand.
+     *
+     * @param query   the query to execute.
+     * @param sort    the sort criteria.
+     * @param maxHits the number of hits the caller expects to consume or
+     *                <code>0</code> if unknown.
+     * @return the query hits.
+     * @throws IOException if an error occurs while executing the query.
+     */
+    public MultiColumnQueryHits execute(Query query, Sort sort, int maxHits)
+            throws IOException {
+        QueryHits hits;
+        if (filter == null && maxHits <= 0) {
+            hits = evaluate(query, sort);
+        } else {
+            query = query.rewrite(reader);
+            hits = null;
+            if (query instanceof JackrabbitQuery) {
+                hits = ((JackrabbitQuery) query).execute(this, session, sort);
+            }
+            if (hits == null) {
+                if (maxHits > 0) {
+                    hits = new TopFieldDocsQueryHits(
+                            this, reader, query, filter, sort, maxHits);
+                } else {
+                    hits = new LuceneQueryHits(search(query, filter, sort), reader);
+                }
+            }
+        }
+        return new QueryHitsAdapter(hits, QueryImpl.DEFAULT_SELECTOR_NAME);
     }
 
     /**
@@ -84,4 +200,235 @@ public class JackrabbitIndexSearcher extends IndexSearcher {
         }
         return hits;
     }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * If this searcher has an executor, the index consists of more than one
+     * partition and the query can be scored per document, the partitions
+     * are searched in parallel. The hits are passed to <code>results</code>
+     * in document order with the calling thread, exactly as a sequential
+     * search would.
+     */
+    public void search(Weight weight, Filter filter, HitCollector results)
+            throws IOException {
+        int[] starts = null;
+        if (executor != null && PARTITION_SEARCH.get() == null
+                && isPartitionable(weight.getQuery())) {
+            starts = getPartitionStarts();
+        }
+        if (starts == null) {
+            super.search(weight, filter, results);
+            return;
+        }
+
+        BitSet bits = null;
+        if (filter != null) {
+            bits = filter.bits(reader);
+        }
+        PartitionSearch[] searches = new PartitionSearch[starts.length - 1];
+        for (int i = 0; i < searches.length; i++) {
+            searches[i] = new PartitionSearch(
+                    weight, bits, starts[i], starts[i + 1]);
+        }
+        DynamicPooledExecutor.Result[] r = executor.executeAndWait(searches);
+        for (int i = 0; i < r.length; i++) {
+            InvocationTargetException e = r[i].getException();
+            if (e != null) {
+                Throwable t = e.getCause();
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                } else if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                } else {
+                    IOException ex = new IOException(t.getMessage());
+                    ex.initCause(t);
+                    throw ex;
+                }
+            }
+        }
+        for (int i = 0; i < searches.length; i++) {
+            searches[i].collect(results);
+        }
+    }
+
+    //-----------------------------< internal >---------------------------------
+
+    /**
+     * Returns <code>true</code> if the given query only consists of queries
+     * whose scorers work per document. Other jackrabbit queries compute
+     * their matches for the whole index, which would be repeated for every
+     * partition.
+     *
+     * @param query the rewritten query.
+     * @return <code>true</code> if the query can be searched in partitions.
+     */
+    private static boolean isPartitionable(Query query) {
+        if (query instanceof BooleanQuery) {
+            BooleanClause[] clauses = ((BooleanQuery) query).getClauses();
+            for (int i = 0; i < clauses.length; i++) {
+                if (!isPartitionable(clauses[i].getQuery())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return query instanceof TermQuery
+                || query instanceof PhraseQuery
+                || query instanceof MultiPhraseQuery
+                || query instanceof SpanQuery;
+    }
+
+    /**
+     * Returns the document numbers where the partitions of the index start.
+     * The last element is {@link IndexReader#maxDoc()}.
+     *
+     * @return the partition starts or <code>null</code> if the index has
+     *         less than two partitions.
+     */
+    private int[] getPartitionStarts() {
+        List segments = new ArrayList();
+        collectSegments(reader, segments);
+        List starts = new ArrayList();
+        int start = 0;
+        int size = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            size += ((IndexReader) segments.get(i)).maxDoc();
+            if (size >= MIN_PARTITION_SIZE) {
+                starts.add(new Integer(start));
+                start += size;
+                size = 0;
+            }
+        }
+        if (starts.size() < 2) {
+            return null;
+        }
+        // small trailing segments belong to the last partition
+        int[] result = new int[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            result[i] = ((Integer) starts.get(i)).intValue();
+        }
+        result[starts.size()] = reader.maxDoc();
+        return result;
+    }
+
+    /**
+     * Adds the segments of the given index reader to <code>segments</code>
+     * in document number order.
+     *
+     * @param r        an index reader.
+     * @param segments where the segments are added.
+     */
+    private static void collectSegments(IndexReader r, List segments) {
+        if (r instanceof MultiIndexReader) {
+            IndexReader[] readers = ((MultiIndexReader) r).getIndexReaders();
+            for (int i = 0; i < readers.length; i++) {
+                collectSegments(readers[i], segments);
+            }
+        } else {
+            segments.add(r);
+        }
+    }
+
+    /**
+     * Scores the documents of one partition and keeps the hits until they
+     * are passed to the hit collector of the search.
+     */
+    private final class PartitionSearch implements DynamicPooledExecutor.Command {
+
+        /**
+         * The weight of the query.
+         */
+        private final Weight weight;
+
+        /**
+         * The documents that pass the filter or <code>null</code> if all do.
+         */
+        private final BitSet bits;
+
+        /**
+         * The first document of the partition.
+         */
+        private final int start;
+
+        /**
+         * The first document after the partition.
+         */
+        private final int end;
+
+        /**
+         * The document numbers of the hits.
+         */
+        private int[] docs = new int[16];
+
+        /**
+         * The scores of the hits.
+         */
+        private float[] scores = new float[16];
+
+        /**
+         * The number of hits.
+         */
+        private int size = 0;
+
+        private PartitionSearch(Weight weight, BitSet bits, int start, int end) {
+            this.weight = weight;
+            this.bits = bits;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Scores the documents of the partition.
+         *
+         * @return <code>null</code>.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        public Object call() throws IOException {
+            Object previous = PARTITION_SEARCH.get();
+            PARTITION_SEARCH.set(Boolean.TRUE);
+            try {
+                Scorer scorer = weight.scorer(reader);
+                if (scorer == null || !scorer.skipTo(start)) {
+                    return null;
+                }
+                do {
+                    int doc = scorer.doc();
+                    if (doc >= end) {
+                        break;
+                    }
+                    if (bits == null || bits.get(doc)) {
+                        add(doc, scorer.score());
+                    }
+                } while (scorer.next());
+                return null;
+            } finally {
+                PARTITION_SEARCH.set(previous);
+            }
+        }
+
+        /**
+         * Passes the hits of this partition to <code>results</code>.
+         *
+         * @param results the hit collector of the search.
+         */
+        private void collect(HitCollector results) {
+            for (int i = 0; i < size; i++) {
+                results.collect(docs[i], scores[i]);
+            }
+        }
+
+        private void add(int doc, float score) {
+            if (size == docs.length) {
+                int[] d = new int[size * 2];
+                System.arraycopy(docs, 0, d, 0, size);
+                docs = d;
+                float[] s = new float[size * 2];
+                System.arraycopy(scores, 0, s, 0, size);
+                scores = s;
+            }
+            docs[size] = doc;
+            scores[size++] = score;
+        }
+    }
 }
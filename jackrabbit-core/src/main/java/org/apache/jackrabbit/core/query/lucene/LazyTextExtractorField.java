@@ -20,6 +20,7 @@ import org.apache.lucene.document.AbstractField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.query.ExtractedTextCache;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 
@@ -56,6 +57,16 @@ public class LazyTextExtractorField extends AbstractField {
      */
     private String extract;
 
+    /**
+     * The cache where the extract is stored or <code>null</code> if none.
+     */
+    private final ExtractedTextCache cache;
+
+    /**
+     * The key of the extract in the {@link #cache}.
+     */
+    private final String key;
+
     /**
      * Creates a new <code>LazyTextExtractorField</code> with the given
      * <code>name</code>.
@@ -71,11 +82,36 @@ public class LazyTextExtractorField extends AbstractField {
                                   Reader reader,
                                   boolean store,
                                   boolean withOffsets) {
+        this(name, reader, store, withOffsets, null, null);
+    }
+
+    /**
+     * Creates a new <code>LazyTextExtractorField</code> with the given
+     * <code>name</code>, which stores the extract in a cache once it has
+     * been completely read from the reader.
+     *
+     * @param name the name of the field.
+     * @param reader the reader where to obtain the string from.
+     * @param store when set <code>true</code> the string value is stored in the
+     *          index.
+     * @param withOffsets when set <code>true</code> a term vector with offsets
+     *          is written into the index.
+     * @param cache the cache for the extract or <code>null</code> if none.
+     * @param key the key of the extract in the cache.
+     */
+    public LazyTextExtractorField(String name,
+                                  Reader reader,
+                                  boolean store,
+                                  boolean withOffsets,
+                                  ExtractedTextCache cache,
+                                  String key) {
         super(name,
                 store ? Field.Store.YES : Field.Store.NO,
                 Field.Index.TOKENIZED,
                 withOffsets ? Field.TermVector.WITH_OFFSETS : Field.TermVector.NO);
         this.reader = reader;
+        this.cache = cache;
+        this.key = key;
     }
 
     /**
@@ -86,10 +122,12 @@ public class LazyTextExtractorField extends AbstractField {
             StringBuffer textExtract = new StringBuffer();
             char[] buffer = new char[1024];
             int len;
+            boolean complete = false;
             try {
                 while ((len = reader.read(buffer)) > -1) {
                     textExtract.append(buffer, 0, len);
                 }
+                complete = true;
             } catch (IOException e) {
                 log.warn("Exception reading value for field: "
                         + e.getMessage());
@@ -98,6 +136,9 @@ public class LazyTextExtractorField extends AbstractField {
                 IOUtils.closeQuietly(reader);
             }
             extract = textExtract.toString();
+            if (cache != null && complete && isTextExtracted()) {
+                cache.put(key, extract);
+            }
         }
         return extract;
     }
@@ -134,6 +175,17 @@ public class LazyTextExtractorField extends AbstractField {
         return true;
     }
 
+    /**
+     * @return <code>false</code> if the text extractor of the underlying
+     *         reader failed and the reader returned an empty text instead.
+     */
+    private boolean isTextExtracted() {
+        if (reader instanceof TextExtractorReader) {
+            return ((TextExtractorReader) reader).isTextExtracted();
+        }
+        return true;
+    }
+
     /**
      * Disposes this field and closes the underlying reader.
      *
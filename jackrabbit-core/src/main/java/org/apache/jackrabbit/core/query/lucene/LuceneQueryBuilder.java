@@ -19,12 +19,15 @@ package org.apache.jackrabbit.core.query.lucene;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.jcr.NamespaceException;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
+import javax.jcr.Value;
 import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.NodeTypeIterator;
 import javax.jcr.nodetype.NodeTypeManager;
@@ -139,6 +142,11 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
      */
     private final IndexFormatVersion indexFormatVersion;
 
+    /**
+     * Maps bind variable names to their values.
+     */
+    private final Map bindVariableValues;
+
     /**
      * Exceptions thrown during tree translation
      */
@@ -159,6 +167,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
      * @param synonymProvider    the synonym provider or <code>null</code> if
      *                           node is configured.
      * @param indexFormatVersion the index format version for the lucene query.
+     * @param bindVariableValues the values of the bind variables.
      */
     private LuceneQueryBuilder(QueryRootNode root,
                                SessionImpl session,
@@ -168,7 +177,8 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                                Analyzer analyzer,
                                PropertyTypeRegistry propReg,
                                SynonymProvider synonymProvider,
-                               IndexFormatVersion indexFormatVersion) {
+                               IndexFormatVersion indexFormatVersion,
+                               Map bindVariableValues) {
         this.root = root;
         this.session = session;
         this.sharedItemMgr = sharedItemMgr;
@@ -178,6 +188,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
         this.propRegistry = propReg;
         this.synonymProvider = synonymProvider;
         this.indexFormatVersion = indexFormatVersion;
+        this.bindVariableValues = bindVariableValues;
 
         this.resolver = NamePathResolverImpl.create(nsMappings);
     }
@@ -209,11 +220,47 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                                     SynonymProvider synonymProvider,
                                     IndexFormatVersion indexFormatVersion)
             throws RepositoryException {
+        return createQuery(root, session, sharedItemMgr, nsMappings, analyzer,
+                propReg, synonymProvider, indexFormatVersion,
+                Collections.EMPTY_MAP);
+    }
+
+    /**
+     * Creates a lucene {@link org.apache.lucene.search.Query} tree from an
+     * abstract query tree with bind variables.
+     *
+     * @param root            the root node of the abstract query tree.
+     * @param session         of the user executing the query.
+     * @param sharedItemMgr   the shared item state manager of the workspace.
+     * @param nsMappings      namespace resolver for internal prefixes.
+     * @param analyzer        for parsing the query statement of the contains
+     *                        function.
+     * @param propReg         the property type registry to lookup type
+     *                        information.
+     * @param synonymProvider the synonym provider or <code>null</code> if node
+     *                        is configured.
+     * @param indexFormatVersion  the index format version to be used
+     * @param bindVariableValues  maps the names of the bind variables in the
+     *                            query tree to their values.
+     * @return the lucene query tree.
+     * @throws RepositoryException if an error occurs during the translation.
+     */
+    public static Query createQuery(QueryRootNode root,
+                                    SessionImpl session,
+                                    ItemStateManager sharedItemMgr,
+                                    NamespaceMappings nsMappings,
+                                    Analyzer analyzer,
+                                    PropertyTypeRegistry propReg,
+                                    SynonymProvider synonymProvider,
+                                    IndexFormatVersion indexFormatVersion,
+                                    Map bindVariableValues)
+            throws RepositoryException {
         HierarchyManager hmgr = new HierarchyManagerImpl(
                 RepositoryImpl.ROOT_NODE_ID, sharedItemMgr);
         LuceneQueryBuilder builder = new LuceneQueryBuilder(
                 root, session, sharedItemMgr, hmgr, nsMappings,
-                analyzer, propReg, synonymProvider, indexFormatVersion);
+                analyzer, propReg, synonymProvider, indexFormatVersion,
+                bindVariableValues);
 
         Query q = builder.createLuceneQuery();
         if (builder.exceptions.size() > 0) {
@@ -617,6 +664,16 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
     }
 
     public Object visit(RelationQueryNode node, Object data) throws RepositoryException {
+        if (node.getBindVariableName() != null) {
+            Value value = (Value) bindVariableValues.get(node.getBindVariableName());
+            if (value == null) {
+                exceptions.add(new InvalidQueryException("No value bound to variable $"
+                        + session.getJCRName(node.getBindVariableName())));
+                return data;
+            }
+            // the query tree may be shared, bind the value to a copy
+            node = node.bindValue(value);
+        }
         Query query;
         String[] stringValues = new String[1];
         switch (node.getValueType()) {
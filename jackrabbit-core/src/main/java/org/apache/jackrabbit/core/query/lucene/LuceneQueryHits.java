@@ -68,8 +68,9 @@ public class LuceneQueryHits extends AbstractQueryHits {
         if (++hitIndex >= hits.length()) {
             return null;
         }
-        String uuid = reader.document(id(hitIndex), FieldSelectors.UUID).get(FieldNames.UUID);
-        return new ScoreNode(NodeId.valueOf(uuid), hits.score(hitIndex));
+        int doc = id(hitIndex);
+        String uuid = reader.document(doc, FieldSelectors.UUID).get(FieldNames.UUID);
+        return new ScoreNode(NodeId.valueOf(uuid), hits.score(hitIndex), doc);
     }
 
     /**
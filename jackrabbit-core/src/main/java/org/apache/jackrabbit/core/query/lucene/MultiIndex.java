@@ -19,6 +19,7 @@ package org.apache.jackrabbit.core.query.lucene;
 import org.apache.jackrabbit.core.NodeId;
 import org.apache.jackrabbit.core.fs.FileSystemException;
 import org.apache.jackrabbit.core.fs.local.LocalFileSystem;
+import org.apache.jackrabbit.core.state.CacheManager;
 import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.ItemStateManager;
 import org.apache.jackrabbit.core.state.NoSuchItemStateException;
@@ -35,13 +36,21 @@ import org.slf4j.LoggerFactory;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.store.RAMDirectory;
 import org.apache.commons.collections.iterators.EmptyIterator;
+import org.apache.commons.io.FileUtils;
+
+import EDU.oswego.cs.dl.util.concurrent.BoundedBuffer;
 
 import javax.jcr.RepositoryException;
 import java.io.IOException;
 import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Arrays;
@@ -109,6 +118,17 @@ public class MultiIndex {
      */
     private final Set deletable = new HashSet();
 
+    /**
+     * Names of index directories that are copied by a snapshot and must not
+     * be deleted until the copy is complete. Guarded by {@link #deletable}.
+     */
+    private final Set snapshotIndexes = new HashSet();
+
+    /**
+     * Only one snapshot of this multi index is taken at a time.
+     */
+    private final Object snapshotLock = new Object();
+
     /**
      * List of open persistent indexes. This list may also contain an open
      * PersistentIndex owned by the IndexMerger daemon. Such an index is not
@@ -137,6 +157,12 @@ public class MultiIndex {
      */
     private VolatileIndex volatileIndex;
 
+    /**
+     * A previous volatile index that is currently copied to disk by a
+     * background thread, or <code>null</code> if there is none.
+     */
+    private PendingVolatileCommit pendingCommit;
+
     /**
      * Flag indicating whether an update operation is in progress.
      */
@@ -238,6 +264,9 @@ public class MultiIndex {
         this.indexDir = indexDir;
         this.handler = handler;
         this.cache = new DocNumberCache(handler.getCacheSize());
+        CacheManager cacheMgr = CacheManager.getInstance();
+        cacheMgr.add(cache, cache.getMaxMemorySize());
+        cache.setAccessListener(cacheMgr);
         this.redoLog = new RedoLog(new File(indexDir, REDO_LOG));
         this.excludedIDs = new HashSet(excludedIDs);
         this.nsMappings = mapping;
@@ -348,7 +377,7 @@ public class MultiIndex {
      * @throws IOException if an error occurs while reading from the index.
      */
     int numDocs() throws IOException {
-        if (indexNames.size() == 0) {
+        if (indexNames.size() == 0 && pendingCommit == null) {
             return volatileIndex.getNumDocuments();
         } else {
             CachingMultiIndexReader reader = getIndexReader();
@@ -370,6 +399,13 @@ public class MultiIndex {
     /**
      * Creates an initial index by traversing the node hierarchy starting at the
      * node with <code>rootId</code>.
+     * <p/>
+     * If {@link SearchIndex#getInitialIndexingThreads()} is greater than one,
+     * the hierarchy is still traversed by the calling thread, but the
+     * documents are created by a pool of worker threads. Each worker writes
+     * to its own index segment. The segments are added to this multi index
+     * when the traversal is complete and later merged by the
+     * {@link IndexMerger}.
      *
      * @param stateMgr the item state manager.
      * @param rootId   the id of the node from where to start.
@@ -386,7 +422,20 @@ public class MultiIndex {
                 // traverse and index workspace
                 executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
                 NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
-                createIndex(rootState, rootPath, stateMgr);
+                int numThreads = handler.getInitialIndexingThreads();
+                if (numThreads > 1) {
+                    log.info("Creating initial index with " + numThreads + " threads");
+                    InitialIndexWorkers workers = new InitialIndexWorkers(numThreads);
+                    boolean success = false;
+                    try {
+                        createIndex(rootState, rootPath, stateMgr, workers);
+                        success = true;
+                    } finally {
+                        workers.finish(success);
+                    }
+                } else {
+                    createIndex(rootState, rootPath, stateMgr, null);
+                }
                 executeAndLog(new Commit(getTransactionId()));
                 scheduleFlushTask();
             } catch (Exception e) {
@@ -438,6 +487,8 @@ public class MultiIndex {
             // flush whole index when volatile index has been commited.
             if (flush) {
                 flush();
+            } else if (pendingCommit != null && pendingCommit.isCopied()) {
+                commitPendingIndex();
             }
         } finally {
             synchronized (updateMonitor) {
@@ -487,6 +538,9 @@ public class MultiIndex {
             Term idTerm = new Term(FieldNames.UUID, uuid.toString());
             executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
             num = volatileIndex.removeDocument(idTerm);
+            if (pendingCommit != null) {
+                num += pendingCommit.removeDocument(idTerm);
+            }
             if (num > 0) {
                 redoLog.append(new DeleteNode(getTransactionId(), uuid));
             }
@@ -718,6 +772,9 @@ public class MultiIndex {
                         readerList.add(pIdx.getReadOnlyIndexReader());
                     }
                 }
+                if (pendingCommit != null) {
+                    readerList.add(pendingCommit.getReadOnlyIndexReader());
+                }
                 readerList.add(volatileIndex.getReadOnlyIndexReader());
                 ReadOnlyIndexReader[] readers =
                         (ReadOnlyIndexReader[]) readerList.toArray(new ReadOnlyIndexReader[readerList.size()]);
@@ -859,22 +916,12 @@ public class MultiIndex {
         synchronized (this) {
             // commit volatile index
             executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
+            if (pendingCommit != null) {
+                registerPendingCommit();
+            }
             commitVolatileIndex();
 
-            // commit persistent indexes
-            for (int i = indexes.size() - 1; i >= 0; i--) {
-                PersistentIndex index = (PersistentIndex) indexes.get(i);
-                // only commit indexes we own
-                // index merger also places PersistentIndex instances in indexes,
-                // but does not make them public by registering the name in indexNames
-                if (indexNames.contains(index.getName())) {
-                    index.commit();
-                    // check if index still contains documents
-                    if (index.getNumDocuments() == 0) {
-                        executeAndLog(new DeleteIndex(getTransactionId(), index.getName()));
-                    }
-                }
-            }
+            commitPersistentIndexes();
             executeAndLog(new Commit(getTransactionId()));
 
             indexNames.write(indexDir);
@@ -889,6 +936,67 @@ public class MultiIndex {
         attemptDelete();
     }
 
+    /**
+     * Copies a consistent state of this <code>MultiIndex</code> to a
+     * directory. The index is flushed first. Modifications are only blocked
+     * while the small files in the index directory are copied and the files
+     * of the persistent indexes are captured. Lucene never changes these
+     * files, they are protected from deletion and copied without blocking
+     * modifications. The redo log is not copied, it is empty after the flush.
+     *
+     * @param target the directory to copy this index to.
+     * @throws IOException if an error occurs while copying the index.
+     */
+    void snapshot(File target) throws IOException {
+        synchronized (snapshotLock) {
+            Map snapshots = new HashMap();
+            try {
+                synchronized (this) {
+                    flush();
+
+                    target.mkdirs();
+                    File[] files = indexDir.listFiles();
+                    for (int i = 0; i < files.length; i++) {
+                        if (files[i].isFile()
+                                && !files[i].getName().equals(REDO_LOG)
+                                && !files[i].getName().equals("deletable")) {
+                            FileUtils.copyFileToDirectory(files[i], target);
+                        }
+                    }
+                    for (int i = 0; i < indexes.size(); i++) {
+                        PersistentIndex index = (PersistentIndex) indexes.get(i);
+                        if (indexNames.contains(index.getName())) {
+                            snapshots.put(index, index.snapshot());
+                            synchronized (deletable) {
+                                snapshotIndexes.add(index.getName());
+                            }
+                        }
+                    }
+                }
+
+                for (Iterator it = snapshots.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry entry = (Map.Entry) it.next();
+                    String name = ((PersistentIndex) entry.getKey()).getName();
+                    File dir = new File(target, name);
+                    dir.mkdirs();
+                    Collection names = (Collection) entry.getValue();
+                    for (Iterator n = names.iterator(); n.hasNext(); ) {
+                        File file = new File(new File(indexDir, name), (String) n.next());
+                        FileUtils.copyFileToDirectory(file, dir);
+                    }
+                }
+            } finally {
+                for (Iterator it = snapshots.keySet().iterator(); it.hasNext(); ) {
+                    ((PersistentIndex) it.next()).releaseSnapshot();
+                }
+                synchronized (deletable) {
+                    snapshotIndexes.clear();
+                }
+                attemptDelete();
+            }
+        }
+    }
+
     /**
      * Releases the {@link #multiReader} and sets it <code>null</code>. If the
      * reader is already <code>null</code> this method does nothing. When this
@@ -992,6 +1100,16 @@ public class MultiIndex {
      */
     private boolean checkVolatileCommit() throws IOException {
         if (volatileIndex.getNumDocuments() >= handler.getMinMergeDocs()) {
+            if (handler.getBackgroundVolatileCommit() && !reindexing) {
+                // only one volatile index is copied in the background at a
+                // time. if the previous copy is still running the writer
+                // has to wait for it.
+                if (pendingCommit != null) {
+                    registerPendingCommit();
+                }
+                commitVolatileIndexInBackground();
+                return false;
+            }
             commitVolatileIndex();
             return true;
         }
@@ -1031,25 +1149,133 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Hands the volatile index over to a background thread, which copies it
+     * to a new persistent index, and creates a new volatile index. The new
+     * persistent index is neither logged nor registered with this multi index
+     * until {@link #registerPendingCommit()} is called. Until then the redo
+     * log still contains the added nodes of the volatile index and recovery
+     * after a crash simply adds them again.
+     *
+     * @throws IOException if the volatile index cannot be handed over.
+     */
+    private void commitVolatileIndexInBackground() throws IOException {
+        PersistentIndex target = getOrCreateIndex(null);
+        pendingCommit = new PendingVolatileCommit(volatileIndex, target,
+                handler.getTextAnalyzer(), handler.getSimilarity());
+        resetVolatileIndex();
+        pendingCommit.start();
+        log.debug("Copying in-memory index to " + target.getName()
+                + " in background.");
+    }
+
+    /**
+     * Waits until the pending volatile index is copied to disk and adds the
+     * copy to the active indexes. This method must be called within a
+     * transaction. No {@link VolatileCommit} is logged, the redo log still
+     * contains the {@link AddNode} actions of the copied nodes. Recovery after
+     * a crash therefore does not use the copy: it undoes the logged
+     * {@link CreateIndex}, which deletes the copy, and replays the
+     * {@link AddNode} actions into the volatile index.
+     *
+     * @throws IOException if the pending volatile index cannot be committed.
+     */
+    private void registerPendingCommit() throws IOException {
+        PendingVolatileCommit commit = pendingCommit;
+        commit.commit();
+        executeAndLog(new CreateIndex(getTransactionId(), commit.getIndexName()));
+        executeAndLog(new AddIndex(getTransactionId(), commit.getIndexName()));
+        pendingCommit = null;
+        commit.release();
+    }
+
+    /**
+     * Registers the pending volatile index that has been copied to disk and
+     * persists all changes except the ones in the current volatile index.
+     * Because the redo log is reset, the nodes in the current volatile index
+     * are logged again in a new transaction.
+     *
+     * @throws IOException if an error occurs while committing the index.
+     */
+    private void commitPendingIndex() throws IOException {
+        executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
+        registerPendingCommit();
+        commitPersistentIndexes();
+        executeAndLog(new Commit(getTransactionId()));
+
+        indexNames.write(indexDir);
+
+        // reset redo log and add the nodes in the volatile index again
+        redoLog.clear();
+        ReadOnlyIndexReader reader = volatileIndex.getReadOnlyIndexReader();
+        try {
+            redoLog.append(new Start(Action.INTERNAL_TRANSACTION));
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (!reader.isDeleted(i)) {
+                    Document doc = reader.document(i, FieldSelectors.UUID);
+                    UUID uuid = UUID.fromString(doc.get(FieldNames.UUID));
+                    redoLog.append(new AddNode(Action.INTERNAL_TRANSACTION, uuid));
+                }
+            }
+            redoLog.append(new Commit(Action.INTERNAL_TRANSACTION));
+            redoLog.flush();
+        } finally {
+            reader.release();
+        }
+
+        // delete obsolete indexes
+        attemptDelete();
+    }
+
+    /**
+     * Commits the persistent indexes owned by this multi index and deletes
+     * the ones that do not contain documents anymore.
+     *
+     * @throws IOException if an error occurs while committing an index.
+     */
+    private void commitPersistentIndexes() throws IOException {
+        for (int i = indexes.size() - 1; i >= 0; i--) {
+            PersistentIndex index = (PersistentIndex) indexes.get(i);
+            // only commit indexes we own
+            // index merger also places PersistentIndex instances in indexes,
+            // but does not make them public by registering the name in indexNames
+            if (indexNames.contains(index.getName())) {
+                index.commit();
+                // check if index still contains documents
+                if (index.getNumDocuments() == 0) {
+                    executeAndLog(new DeleteIndex(getTransactionId(), index.getName()));
+                }
+            }
+        }
+    }
+
     /**
      * Recursively creates an index starting with the NodeState
      * <code>node</code>.
      *
      * @param node     the current NodeState.
      * @param stateMgr the shared item state manager.
+     * @param workers  the workers that create the documents, or
+     *                 <code>null</code> if the documents should be created
+     *                 by the calling thread.
      * @throws IOException         if an error occurs while writing to the
      *                             index.
      * @throws ItemStateException  if an node state cannot be found.
      * @throws RepositoryException if any other error occurs
      */
-    private void createIndex(NodeState node, Path path, ItemStateManager stateMgr)
+    private void createIndex(NodeState node, Path path, ItemStateManager stateMgr,
+                             InitialIndexWorkers workers)
             throws IOException, ItemStateException, RepositoryException {
         NodeId id = node.getNodeId();
         if (excludedIDs.contains(id)) {
             return;
         }
-        executeAndLog(new AddNode(getTransactionId(), id.getUUID()));
-        checkVolatileCommit();
+        if (workers != null) {
+            workers.add(node);
+        } else {
+            executeAndLog(new AddNode(getTransactionId(), id.getUUID()));
+            checkVolatileCommit();
+        }
         List children = node.getChildNodeEntries();
         for (Iterator it = children.iterator(); it.hasNext();) {
             ChildNodeEntry child = (ChildNodeEntry) it.next();
@@ -1063,7 +1289,7 @@ public class MultiIndex {
                         e, handler, path, node, child);
             }
             if (childState != null) {
-                createIndex(childState, childPath, stateMgr);
+                createIndex(childState, childPath, stateMgr, workers);
             }
         }
     }
@@ -1071,10 +1297,14 @@ public class MultiIndex {
     /**
      * Attempts to delete all files recorded in {@link #deletable}.
      */
-    private void attemptDelete() {
+    void attemptDelete() {
         synchronized (deletable) {
             for (Iterator it = deletable.iterator(); it.hasNext(); ) {
                 String indexName = (String) it.next();
+                if (snapshotIndexes.contains(indexName)) {
+                    // still copied by a snapshot
+                    continue;
+                }
                 File dir = new File(indexDir, indexName);
                 if (deleteIndex(dir)) {
                     it.remove();
@@ -1205,6 +1435,479 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Creates the documents of the initial index with a number of worker
+     * threads. The traversing thread passes the node states in batches to
+     * the workers. Each worker adds the documents to its own persistent
+     * index, which is created in the current transaction and added to this
+     * multi index when all workers are finished.
+     */
+    private final class InitialIndexWorkers {
+
+        /**
+         * Marks the end of the batches.
+         */
+        private final Object end = new Object();
+
+        /**
+         * The batches of node states to index.
+         */
+        private final BoundedBuffer batches;
+
+        /**
+         * The worker threads.
+         */
+        private final Thread[] threads;
+
+        /**
+         * The index segments, one for each worker.
+         */
+        private final PersistentIndex[] segments;
+
+        /**
+         * The number of node states per batch.
+         */
+        private final int batchSize;
+
+        /**
+         * The current batch.
+         */
+        private List batch;
+
+        /**
+         * The first exception thrown by a worker.
+         */
+        private Throwable exception;
+
+        /**
+         * Creates the index segments and starts the workers.
+         *
+         * @param numThreads the number of worker threads.
+         * @throws IOException if an index segment cannot be created.
+         */
+        InitialIndexWorkers(int numThreads) throws IOException {
+            batches = new BoundedBuffer(2 * numThreads);
+            batchSize = Math.max(1, handler.getMinMergeDocs());
+            batch = new ArrayList(batchSize);
+            threads = new Thread[numThreads];
+            segments = new PersistentIndex[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                CreateIndex create = new CreateIndex(getTransactionId(), null);
+                executeAndLog(create);
+                segments[i] = getOrCreateIndex(create.getIndexName());
+            }
+            for (int i = 0; i < numThreads; i++) {
+                final PersistentIndex segment = segments[i];
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        work(segment);
+                    }
+                }, "InitialIndexWorker-" + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+
+        /**
+         * Adds a node state to the current batch and hands the batch over to
+         * the workers when it is full.
+         *
+         * @param node the node state to index.
+         * @throws IOException if a worker failed or the calling thread is
+         *                     interrupted.
+         */
+        void add(NodeState node) throws IOException {
+            batch.add(node);
+            if (batch.size() >= batchSize) {
+                checkException();
+                put(batch);
+                batch = new ArrayList(batchSize);
+            }
+        }
+
+        /**
+         * Waits for the workers to index the remaining batches and adds the
+         * index segments to this multi index. If the traversal failed, the
+         * workers are stopped and the segments are left to the redo log,
+         * which deletes them because the transaction is never committed.
+         *
+         * @param success whether the traversal completed successfully.
+         * @throws IOException if a worker failed or the segments cannot be
+         *                     added.
+         */
+        void finish(boolean success) throws IOException {
+            if (success && !batch.isEmpty()) {
+                put(batch);
+            }
+            batch = null;
+            if (!success) {
+                setException(new IOException("Initial index creation aborted"));
+            }
+            for (int i = 0; i < threads.length; i++) {
+                put(end);
+            }
+            boolean interrupted = false;
+            for (int i = 0; i < threads.length; i++) {
+                for (;;) {
+                    try {
+                        threads[i].join();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (!success) {
+                return;
+            }
+            checkException();
+            for (int i = 0; i < segments.length; i++) {
+                executeAndLog(new AddIndex(getTransactionId(), segments[i].getName()));
+            }
+        }
+
+        /**
+         * Indexes the batches until the end marker is taken. After an
+         * exception the remaining batches are discarded, so that the
+         * traversing thread never blocks on a full buffer.
+         *
+         * @param segment the index segment of this worker.
+         */
+        private void work(PersistentIndex segment) {
+            for (;;) {
+                Object next;
+                try {
+                    next = batches.take();
+                } catch (InterruptedException e) {
+                    setException(e);
+                    continue;
+                }
+                if (next == end) {
+                    break;
+                }
+                if (getException() != null) {
+                    continue;
+                }
+                try {
+                    List nodes = (List) next;
+                    List docs = new ArrayList(nodes.size());
+                    for (Iterator it = nodes.iterator(); it.hasNext(); ) {
+                        NodeState node = (NodeState) it.next();
+                        try {
+                            docs.add(createDocument(node));
+                        } catch (RepositoryException e) {
+                            // node does not exist anymore
+                            log.debug(e.getMessage());
+                        }
+                    }
+                    segment.addDocuments(
+                            (Document[]) docs.toArray(new Document[docs.size()]));
+                } catch (Throwable t) {
+                    setException(t);
+                }
+            }
+            try {
+                if (getException() == null) {
+                    segment.commit();
+                }
+            } catch (Throwable t) {
+                setException(t);
+            }
+        }
+
+        /**
+         * Hands an object over to the workers.
+         *
+         * @param obj a batch or the end marker.
+         * @throws IOException if the calling thread is interrupted.
+         */
+        private void put(Object obj) throws IOException {
+            try {
+                batches.put(obj);
+            } catch (InterruptedException e) {
+                throw Util.createIOException(e);
+            }
+        }
+
+        private synchronized Throwable getException() {
+            return exception;
+        }
+
+        private synchronized void setException(Throwable t) {
+            if (exception == null) {
+                exception = t;
+            } else {
+                log.warn("Exception while creating initial index", t);
+            }
+        }
+
+        /**
+         * @throws IOException if a worker failed.
+         */
+        private void checkException() throws IOException {
+            Throwable t = getException();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            } else if (t != null) {
+                throw Util.createIOException(t);
+            }
+        }
+    }
+
+    /**
+     * A volatile index that is copied to a persistent index by a background
+     * thread. The volatile index is not modified anymore once it is handed
+     * over: the background thread optimizes a private copy of it, so the
+     * readers on the volatile index stay valid while queries use them.
+     * Documents deleted in the meantime are masked in the readers returned
+     * by this class and deleted in the persistent index after the copy is
+     * finished.
+     */
+    private static final class PendingVolatileCommit implements Runnable {
+
+        /**
+         * The volatile index to copy.
+         */
+        private final VolatileIndex index;
+
+        /**
+         * The persistent index where the volatile index is copied to.
+         */
+        private final PersistentIndex target;
+
+        /**
+         * The analyzer of the private copy.
+         */
+        private final Analyzer analyzer;
+
+        /**
+         * The similarity of the private copy.
+         */
+        private final Similarity similarity;
+
+        /**
+         * Snapshot reader on the volatile index taken at hand over.
+         */
+        private final ReadOnlyIndexReader snapshot;
+
+        /**
+         * The deleted documents in {@link #snapshot}.
+         */
+        private final BitSet deleted;
+
+        /**
+         * <code>Term</code>s of the documents deleted after hand over.
+         */
+        private final List deletedTerms = new ArrayList();
+
+        /**
+         * The most recent reader reflecting {@link #deleted} or
+         * <code>null</code> if it must be created again.
+         */
+        private ReadOnlyIndexReader reader;
+
+        /**
+         * The version of the deleted documents.
+         */
+        private long deletedDocsVersion = 0;
+
+        /**
+         * Set to <code>true</code> when the background copy is finished.
+         */
+        private boolean copied = false;
+
+        /**
+         * The exception thrown by the background copy or <code>null</code>.
+         */
+        private Throwable exception;
+
+        /**
+         * Creates a new pending commit of <code>index</code> to
+         * <code>target</code>. All changes of <code>index</code> are
+         * committed to its directory.
+         *
+         * @param index      the volatile index to copy.
+         * @param target     the persistent index to copy to.
+         * @param analyzer   the analyzer of the index.
+         * @param similarity the similarity of the index.
+         * @throws IOException if a snapshot of the volatile index cannot be
+         *                     taken.
+         */
+        PendingVolatileCommit(VolatileIndex index, PersistentIndex target,
+                              Analyzer analyzer, Similarity similarity)
+                throws IOException {
+            this.index = index;
+            this.target = target;
+            this.analyzer = analyzer;
+            this.similarity = similarity;
+            index.commit();
+            this.snapshot = index.getReadOnlyIndexReader();
+            this.deleted = new BitSet(snapshot.maxDoc());
+            for (int i = 0; i < snapshot.maxDoc(); i++) {
+                if (snapshot.isDeleted(i)) {
+                    deleted.set(i);
+                }
+            }
+        }
+
+        /**
+         * Starts the background copy.
+         */
+        void start() {
+            Thread t = new Thread(this, "VolatileIndexCommit-" + target.getName());
+            t.setDaemon(true);
+            t.start();
+        }
+
+        /**
+         * Copies the volatile index to the persistent index.
+         */
+        public void run() {
+            Throwable t = null;
+            try {
+                long time = System.currentTimeMillis();
+                copy();
+                time = System.currentTimeMillis() - time;
+                log.debug("Copied in-memory index to " + target.getName()
+                        + " in " + time + "ms.");
+            } catch (Throwable e) {
+                t = e;
+            }
+            synchronized (this) {
+                exception = t;
+                copied = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Copies a private copy of the volatile index to the persistent
+         * index. Unlike {@link PersistentIndex#copyIndex(AbstractIndex)} on
+         * the volatile index itself, this leaves the files of the volatile
+         * index untouched.
+         *
+         * @throws IOException if an error occurs while copying the index.
+         */
+        private void copy() throws IOException {
+            RAMDirectory dir;
+            synchronized (index) {
+                dir = new RAMDirectory(index.getDirectory());
+            }
+            AbstractIndex copy = new AbstractIndex(
+                    analyzer, similarity, dir, null, null) {};
+            try {
+                target.copyIndex(copy);
+            } finally {
+                copy.close();
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the background copy is finished.
+         */
+        synchronized boolean isCopied() {
+            return copied;
+        }
+
+        /**
+         * @return the name of the persistent index.
+         */
+        String getIndexName() {
+            return target.getName();
+        }
+
+        /**
+         * Deletes the documents that match <code>idTerm</code>.
+         *
+         * @param idTerm the uuid term of the documents to delete.
+         * @return the number of deleted documents.
+         * @throws IOException if an error occurs while reading the index.
+         */
+        int removeDocument(Term idTerm) throws IOException {
+            int num = 0;
+            TermDocs tDocs = snapshot.getBase().termDocs(idTerm);
+            try {
+                while (tDocs.next()) {
+                    if (!deleted.get(tDocs.doc())) {
+                        deleted.set(tDocs.doc());
+                        num++;
+                    }
+                }
+            } finally {
+                tDocs.close();
+            }
+            if (num > 0) {
+                deletedTerms.add(idTerm);
+                deletedDocsVersion++;
+                if (reader != null) {
+                    reader.release();
+                    reader = null;
+                }
+            }
+            return num;
+        }
+
+        /**
+         * Returns a read-only reader on the volatile index that reflects the
+         * deletions since hand over. The caller must release the reader.
+         *
+         * @return a read-only index reader.
+         */
+        ReadOnlyIndexReader getReadOnlyIndexReader() {
+            if (reader == null) {
+                reader = new ReadOnlyIndexReader(snapshot.getBase(),
+                        (BitSet) deleted.clone(), deletedDocsVersion);
+            }
+            reader.acquire();
+            return reader;
+        }
+
+        /**
+         * Waits for the background copy, applies the deletions since hand
+         * over and commits the persistent index. If the background copy
+         * failed it is repeated on the calling thread.
+         *
+         * @throws IOException if the persistent index cannot be written.
+         */
+        void commit() throws IOException {
+            synchronized (this) {
+                while (!copied) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted while waiting for volatile index commit");
+                    }
+                }
+            }
+            if (exception != null) {
+                log.warn("Background commit of volatile index failed, retrying: "
+                        + exception);
+                copy();
+                exception = null;
+            }
+            for (Iterator it = deletedTerms.iterator(); it.hasNext();) {
+                target.removeDocument((Term) it.next());
+            }
+            target.commit();
+        }
+
+        /**
+         * Releases the readers on the volatile index.
+         *
+         * @throws IOException if an error occurs while releasing a reader.
+         */
+        void release() throws IOException {
+            if (reader != null) {
+                reader.release();
+                reader = null;
+            }
+            snapshot.release();
+        }
+    }
+
     //------------------------< Actions >---------------------------------------
 
     /**
@@ -1684,6 +2387,12 @@ public class MultiIndex {
                 PersistentIndex idx = index.getOrCreateIndex(indexName);
                 idx.close();
                 index.deleteIndex(idx);
+                // recovery may replay this action, which must then create
+                // an empty index and not open the dirty one again
+                index.attemptDelete();
+                if (index.hasIndex(indexName)) {
+                    throw new IOException("Unable to delete dirty index: " + indexName);
+                }
             }
         }
 
@@ -1841,6 +2550,9 @@ public class MultiIndex {
             // if the document cannot be deleted from the volatile index
             // delete it from one of the persistent indexes.
             int num = index.volatileIndex.removeDocument(idTerm);
+            if (num == 0 && index.pendingCommit != null) {
+                num = index.pendingCommit.removeDocument(idTerm);
+            }
             if (num == 0) {
                 for (int i = index.indexes.size() - 1; i >= 0; i--) {
                     // only look in registered indexes
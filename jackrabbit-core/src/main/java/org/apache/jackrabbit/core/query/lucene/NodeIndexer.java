@@ -24,6 +24,8 @@ import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.PropertyState;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.query.ExtractedTextCache;
 import org.apache.jackrabbit.core.value.BLOBFileValue;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.extractor.TextExtractor;
@@ -102,6 +104,11 @@ public class NodeIndexer {
      */
     protected boolean supportHighlighting = false;
 
+    /**
+     * The cache of extracted text or <code>null</code> if none.
+     */
+    protected ExtractedTextCache textCache;
+
     /**
      * Indicates index format for this node indexer.
      */
@@ -168,6 +175,15 @@ public class NodeIndexer {
         this.indexingConfig = config;
     }
 
+    /**
+     * Sets the cache of text extracted from binaries in the data store.
+     *
+     * @param cache the text cache or <code>null</code> if none.
+     */
+    public void setExtractedTextCache(ExtractedTextCache cache) {
+        this.textCache = cache;
+    }
+
     /**
      * Creates a lucene Document.
      *
@@ -413,10 +429,21 @@ public class NodeIndexer {
                     encoding = encodingValue.getString();
                 }
 
-                InputStream stream =
-                        ((BLOBFileValue) internalValue).getStream();
+                BLOBFileValue blob = (BLOBFileValue) internalValue;
+                DataIdentifier id = blob.getDataIdentifier();
+                String key = null;
+                if (textCache != null && id != null) {
+                    key = ExtractedTextCache.createKey(id, type, encoding);
+                    Reader cached = textCache.get(key);
+                    if (cached != null) {
+                        // text of this binary has been extracted before
+                        doc.add(createFulltextField(cached));
+                        return;
+                    }
+                }
+                InputStream stream = blob.getStream();
                 Reader reader = extractor.extractText(stream, type, encoding);
-                doc.add(createFulltextField(reader));
+                doc.add(createFulltextField(reader, key));
             }
         } catch (Throwable t) {
             // TODO: How to recover from a transient indexing failure?
@@ -760,10 +787,26 @@ public class NodeIndexer {
      * @return a lucene field.
      */
     protected Fieldable createFulltextField(Reader value) {
+        return createFulltextField(value, null);
+    }
+
+    /**
+     * Creates a fulltext field for the reader <code>value</code>, which
+     * stores the text in the {@link #textCache} once it has been read.
+     *
+     * @param value the reader value.
+     * @param key   the key of the text in the text cache or <code>null</code>
+     *              if the text is not cached.
+     * @return a lucene field.
+     */
+    protected Fieldable createFulltextField(Reader value, String key) {
+        ExtractedTextCache cache = key != null ? textCache : null;
         if (supportHighlighting) {
-            return new LazyTextExtractorField(FieldNames.FULLTEXT, value, true, true);
+            return new LazyTextExtractorField(FieldNames.FULLTEXT, value,
+                    true, true, cache, key);
         } else {
-            return new LazyTextExtractorField(FieldNames.FULLTEXT, value, false, false);
+            return new LazyTextExtractorField(FieldNames.FULLTEXT, value,
+                    false, false, cache, key);
         }
     }
 
@@ -17,38 +17,32 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import org.apache.jackrabbit.extractor.TextExtractor;
-import org.slf4j.LoggerFactory;
-import org.slf4j.Logger;
 
 import java.io.Reader;
 import java.io.InputStream;
 import java.io.IOException;
 
-import EDU.oswego.cs.dl.util.concurrent.PooledExecutor;
-import EDU.oswego.cs.dl.util.concurrent.Channel;
-import EDU.oswego.cs.dl.util.concurrent.SynchronousChannel;
-import EDU.oswego.cs.dl.util.concurrent.BoundedLinkedQueue;
-
 /**
  * <code>PooledTextExtractor</code> implements a text extractor that extracts
  * the text using a pool of background threads.
+ * <p/>
+ * The number of threads that extract text of the same content type is
+ * limited, so that a large number of expensive binaries of one type does not
+ * delay the text extraction of other binaries. If the back log is full, the
+ * text extraction is deferred to the indexing queue instead of running it
+ * with the indexing thread.
  */
 public class PooledTextExtractor implements TextExtractor {
 
-    /**
-     * The logger instance for this class.
-     */
-    private static final Logger log = LoggerFactory.getLogger(PooledTextExtractor.class);
-
     /**
      * The actual text extractor.
      */
     private final TextExtractor extractor;
 
     /**
-     * The pooled executor.
+     * The queue of text extractor jobs.
      */
-    private final PooledExecutor executor;
+    private final TextExtractorQueue queue;
 
     /**
      * The timeout for the {@link TextExtractorReader}.
@@ -70,26 +64,32 @@ public class PooledTextExtractor implements TextExtractor {
                                int poolSize,
                                int backLog,
                                long timeout) {
+        this(extractor, poolSize, backLog, timeout, poolSize);
+    }
+
+    /**
+     * Returns a pooled text extractor based on <code>extractor</code>.
+     *
+     * @param extractor         the actual text extractor.
+     * @param poolSize          the pool size.
+     * @param backLog           size of the back log queue.
+     * @param timeout           the timeout in milliseconds until text
+     *                          extraction is put into the indexing queue and
+     *                          the fulltext index for the node is later
+     *                          updated when the text extractor finished its
+     *                          work.
+     * @param maxThreadsPerType the maximum number of threads that extract
+     *                          text of the same content type at the same
+     *                          time.
+     */
+    public PooledTextExtractor(TextExtractor extractor,
+                               int poolSize,
+                               int backLog,
+                               long timeout,
+                               int maxThreadsPerType) {
         this.extractor = extractor;
         this.timout = timeout;
-        Channel c;
-        if (backLog <= 0) {
-            c = new SynchronousChannel();
-        } else {
-            c = new BoundedLinkedQueue(backLog);
-        }
-        this.executor = new PooledExecutor(c, poolSize);
-        this.executor.setMinimumPoolSize(poolSize);
-        this.executor.setBlockedExecutionHandler(
-                new PooledExecutor.BlockedExecutionHandler() {
-            public boolean blockedAction(Runnable command) {
-                // execute with current thread and log message
-                log.info("Extractor pool busy, running command with "
-                        + "current thread: {}", command.toString());
-                command.run();
-                return true;
-            }
-        });
+        this.queue = new TextExtractorQueue(poolSize, backLog, maxThreadsPerType);
     }
 
 
@@ -109,7 +109,7 @@ public class PooledTextExtractor implements TextExtractor {
                               String type,
                               String encoding) throws IOException {
         TextExtractorJob job = new TextExtractorJob(extractor, stream, type, encoding);
-        return new TextExtractorReader(job, executor, timout);
+        return new TextExtractorReader(job, queue, timout);
     }
 
     /**
@@ -117,16 +117,6 @@ public class PooledTextExtractor implements TextExtractor {
      * running text extractor tasks and cleans up the pending queue (back log).
      */
     public void shutdown() {
-        executor.shutdownNow();
-        boolean interrupted;
-        do {
-            try {
-                executor.awaitTerminationAfterShutdown();
-                interrupted = false;
-            } catch (InterruptedException e) {
-                interrupted = true;
-            }
-        } while (interrupted);
-        executor.drain();
+        queue.shutdown();
     }
 }
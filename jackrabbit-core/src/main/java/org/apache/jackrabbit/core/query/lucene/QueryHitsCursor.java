@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * <code>QueryHitsCursor</code> keeps the hits of a query open between two
+ * fetches of a {@link QueryResultImpl}, so that the next page of results can
+ * be read without executing the query again. The hits hold a snapshot of the
+ * index reader, therefore a cursor is closed by its {@link QueryHitsCursors}
+ * when it was not used for a while or when the session opens too many
+ * cursors.
+ */
+final class QueryHitsCursor {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(QueryHitsCursor.class);
+
+    /**
+     * The cursors this cursor belongs to.
+     */
+    private final QueryHitsCursors cursors;
+
+    /**
+     * The session that executed the query.
+     */
+    private final SessionImpl session;
+
+    /**
+     * The open query hits.
+     */
+    private final MultiColumnQueryHits hits;
+
+    /**
+     * Time when this cursor was last released.
+     */
+    private long lastAccess = System.currentTimeMillis();
+
+    /**
+     * Whether the hits are currently read.
+     */
+    private boolean inUse = false;
+
+    /**
+     * Whether this cursor is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new cursor.
+     *
+     * @param cursors the cursors this cursor belongs to.
+     * @param session the session that executed the query.
+     * @param hits    the open query hits.
+     */
+    QueryHitsCursor(QueryHitsCursors cursors,
+                    SessionImpl session,
+                    MultiColumnQueryHits hits) {
+        this.cursors = cursors;
+        this.session = session;
+        this.hits = hits;
+    }
+
+    /**
+     * @return the session that executed the query.
+     */
+    SessionImpl getSession() {
+        return session;
+    }
+
+    /**
+     * Returns the query hits and marks this cursor as used until
+     * {@link #release()} is called.
+     *
+     * @return the query hits or <code>null</code> if this cursor is closed.
+     */
+    MultiColumnQueryHits acquire() {
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            inUse = true;
+        }
+        cursors.used(this);
+        return hits;
+    }
+
+    /**
+     * Marks this cursor as unused. If the cursor was closed while it was in
+     * use, the hits are closed now.
+     */
+    void release() {
+        synchronized (this) {
+            inUse = false;
+            lastAccess = System.currentTimeMillis();
+            if (!closed) {
+                return;
+            }
+        }
+        closeHits();
+    }
+
+    /**
+     * Returns <code>true</code> if this cursor is not in use and was not used
+     * since <code>time</code>.
+     *
+     * @param time a point in time.
+     * @return whether the cursor expired.
+     */
+    synchronized boolean isExpired(long time) {
+        return !inUse && lastAccess < time;
+    }
+
+    /**
+     * Closes this cursor. The hits are closed right away unless the cursor
+     * is in use, in which case they are closed on {@link #release()}.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (inUse) {
+                return;
+            }
+        }
+        closeHits();
+    }
+
+    /**
+     * Closes the hits and removes this cursor from its cursors.
+     */
+    private void closeHits() {
+        cursors.remove(this);
+        try {
+            hits.close();
+        } catch (IOException e) {
+            log.warn("Unable to close query result: " + e);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.SessionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+
+/**
+ * <code>QueryHitsCursors</code> keeps track of the {@link QueryHitsCursor}s
+ * of a search index. The number of open cursors per session is limited:
+ * if a session opens more cursors, its least recently used cursor is closed.
+ * Cursors that are not used within the configured timeout are closed by a
+ * background task, and the cursors of a session are closed when the session
+ * logs out.
+ * <p/>
+ * A session is not thread-safe, therefore this class registers itself as
+ * listener of a session only on the thread that opens a cursor and never
+ * removes the registration from the timer thread.
+ */
+class QueryHitsCursors implements SessionListener {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(QueryHitsCursors.class);
+
+    /**
+     * Timer that closes expired cursors.
+     */
+    private static final Timer TIMER = new Timer(true);
+
+    /**
+     * The maximum number of open cursors per session.
+     */
+    private final int maxCursorsPerSession;
+
+    /**
+     * The time in milliseconds after which an unused cursor is closed.
+     */
+    private final long timeout;
+
+    /**
+     * The open cursors, ordered from least to most recently used.
+     * Key=SessionImpl, value=LinkedList of QueryHitsCursor. A session stays
+     * in this map while it is registered with this listener, even if all its
+     * cursors are closed. The weak keys release sessions that are never
+     * logged out once their last cursor is closed.
+     */
+    private final Map cursors = new WeakHashMap();
+
+    /**
+     * Whether these cursors are closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * The task that closes expired cursors.
+     */
+    private final TimerTask expiryTask = new TimerTask() {
+        public void run() {
+            closeExpired();
+        }
+    };
+
+    /**
+     * Creates a new set of cursors.
+     *
+     * @param maxCursorsPerSession the maximum number of open cursors per
+     *                             session. If zero, no cursors are opened.
+     * @param timeout              the time in milliseconds after which an
+     *                             unused cursor is closed.
+     */
+    QueryHitsCursors(int maxCursorsPerSession, long timeout) {
+        this.maxCursorsPerSession = maxCursorsPerSession;
+        this.timeout = timeout;
+        if (maxCursorsPerSession > 0) {
+            long period = Math.max(timeout / 2, 100);
+            TIMER.schedule(expiryTask, period, period);
+        }
+    }
+
+    /**
+     * Opens a cursor on the given hits. If the session has reached the
+     * maximum number of open cursors, its least recently used cursor is
+     * closed.
+     *
+     * @param session the session that executed the query.
+     * @param hits    the open query hits.
+     * @return the cursor or <code>null</code> if cursors are disabled or
+     *         closed. In
+     *         that case the caller is responsible for closing the hits.
+     */
+    QueryHitsCursor open(SessionImpl session, MultiColumnQueryHits hits) {
+        if (maxCursorsPerSession <= 0) {
+            return null;
+        }
+        QueryHitsCursor cursor = new QueryHitsCursor(this, session, hits);
+        QueryHitsCursor evicted = null;
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            LinkedList list = (LinkedList) cursors.get(session);
+            if (list == null) {
+                list = new LinkedList();
+                cursors.put(session, list);
+                session.addListener(this);
+            }
+            if (list.size() >= maxCursorsPerSession) {
+                evicted = (QueryHitsCursor) list.removeFirst();
+            }
+            list.addLast(cursor);
+        }
+        if (evicted != null) {
+            log.debug("Closing least recently used query cursor");
+            evicted.close();
+        }
+        return cursor;
+    }
+
+    /**
+     * Closes all open cursors and stops the expiry task.
+     */
+    void close() {
+        expiryTask.cancel();
+        List all = new ArrayList();
+        synchronized (this) {
+            closed = true;
+            for (Iterator it = cursors.values().iterator(); it.hasNext(); ) {
+                all.addAll((List) it.next());
+            }
+        }
+        closeAll(all);
+    }
+
+    /**
+     * Marks a cursor as most recently used.
+     *
+     * @param cursor the cursor.
+     */
+    synchronized void used(QueryHitsCursor cursor) {
+        LinkedList list = (LinkedList) cursors.get(cursor.getSession());
+        if (list != null && list.remove(cursor)) {
+            list.addLast(cursor);
+        }
+    }
+
+    /**
+     * Removes a closed cursor. This method may be called on the timer thread
+     * and therefore does not touch the session.
+     *
+     * @param cursor the cursor.
+     */
+    synchronized void remove(QueryHitsCursor cursor) {
+        LinkedList list = (LinkedList) cursors.get(cursor.getSession());
+        if (list != null) {
+            list.remove(cursor);
+        }
+    }
+
+    /**
+     * @return the number of open cursors.
+     */
+    synchronized int getOpenCursorCount() {
+        int count = 0;
+        for (Iterator it = cursors.values().iterator(); it.hasNext(); ) {
+            count += ((List) it.next()).size();
+        }
+        return count;
+    }
+
+    /**
+     * Closes the cursors that were not used within the timeout.
+     */
+    void closeExpired() {
+        long time = System.currentTimeMillis() - timeout;
+        List expired = new ArrayList();
+        synchronized (this) {
+            for (Iterator it = cursors.values().iterator(); it.hasNext(); ) {
+                List list = (List) it.next();
+                for (Iterator c = list.iterator(); c.hasNext(); ) {
+                    QueryHitsCursor cursor = (QueryHitsCursor) c.next();
+                    if (cursor.isExpired(time)) {
+                        expired.add(cursor);
+                    }
+                }
+            }
+        }
+        if (!expired.isEmpty()) {
+            log.debug("Closing {} expired query cursors", new Integer(expired.size()));
+        }
+        closeAll(expired);
+    }
+
+    //----------------------------------------------------< SessionListener >
+
+    /**
+     * {@inheritDoc}
+     */
+    public void loggingOut(SessionImpl session) {
+    }
+
+    /**
+     * Closes the cursors of the session.
+     *
+     * @param session the session that logged out.
+     */
+    public void loggedOut(SessionImpl session) {
+        List list;
+        synchronized (this) {
+            list = (List) cursors.remove(session);
+            if (list == null) {
+                return;
+            }
+            list = new ArrayList(list);
+        }
+        closeAll(list);
+    }
+
+    /**
+     * Closes the given cursors.
+     *
+     * @param list the cursors to close.
+     */
+    private static void closeAll(List list) {
+        for (Iterator it = list.iterator(); it.hasNext(); ) {
+            ((QueryHitsCursor) it.next()).close();
+        }
+    }
+}
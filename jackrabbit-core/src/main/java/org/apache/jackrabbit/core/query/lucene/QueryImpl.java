@@ -41,6 +41,8 @@ import org.apache.jackrabbit.spi.commons.query.OrderQueryNode;
 import org.apache.jackrabbit.spi.commons.query.QueryNodeFactory;
 import org.apache.jackrabbit.spi.commons.query.QueryParser;
 import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
+import org.apache.jackrabbit.spi.commons.query.RelationQueryNode;
+import org.apache.jackrabbit.spi.commons.query.TraversingQueryNodeVisitor;
 import org.apache.lucene.search.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +68,22 @@ public class QueryImpl extends AbstractQueryImpl {
      */
     protected final QueryRootNode root;
 
+    /**
+     * The statement of this query or <code>null</code> if unknown.
+     */
+    private String statement;
+
+    /**
+     * The language of the statement.
+     */
+    private String language;
+
+    /**
+     * The time in milliseconds spent parsing the statement, which is not yet
+     * reported to the query statistics.
+     */
+    private long parseTime;
+
     /**
      * Creates a new query instance from a query string.
      *
@@ -86,10 +104,30 @@ public class QueryImpl extends AbstractQueryImpl {
                      String statement,
                      String language,
                      QueryNodeFactory factory) throws InvalidQueryException {
-        super(session, itemMgr, index, propReg);
         // parse query according to language
         // build query tree using the passed factory
-        this.root = QueryParser.parse(statement, language, session, factory);
+        this(session, itemMgr, index, propReg,
+                QueryParser.parse(statement, language, session, factory));
+    }
+
+    /**
+     * Creates a new query instance from a parsed query tree. The tree is not
+     * modified by this query and may therefore be shared with other queries.
+     *
+     * @param session the session of the user executing this query.
+     * @param itemMgr the item manager of the session executing this query.
+     * @param index   the search index.
+     * @param propReg the property type registry.
+     * @param root    the root node of the query tree.
+     */
+    public QueryImpl(SessionImpl session,
+                     ItemManager itemMgr,
+                     SearchIndex index,
+                     PropertyTypeRegistry propReg,
+                     QueryRootNode root) {
+        super(session, itemMgr, index, propReg);
+        this.root = root;
+        extractBindVariableNames();
     }
 
     /**
@@ -105,12 +143,24 @@ public class QueryImpl extends AbstractQueryImpl {
             log.debug("Executing query: \n" + root.dump());
         }
 
+        QueryStatistics.Execution execution = null;
+        QueryStatistics statistics = index.getQueryStatistics();
+        if (statistics != null && statement != null) {
+            execution = statistics.start(language, statement);
+        }
+        long time = System.currentTimeMillis();
+
         // build lucene query
         Query query = LuceneQueryBuilder.createQuery(root, session,
                 index.getContext().getItemStateManager(),
                 index.getNamespaceMappings(), index.getTextAnalyzer(),
                 propReg, index.getSynonymProvider(),
-                index.getIndexFormatVersion());
+                index.getIndexFormatVersion(), getBindVariableValues());
+
+        if (execution != null) {
+            execution.parsed(parseTime + System.currentTimeMillis() - time);
+            parseTime = 0;
+        }
 
         OrderQueryNode orderNode = root.getOrderNode();
 
@@ -131,7 +181,21 @@ public class QueryImpl extends AbstractQueryImpl {
                 session, session.getAccessManager(),
                 this, query, new SpellSuggestion(index.getSpellChecker(), root),
                 getSelectProperties(), orderProperties, ascSpecs,
-                getRespectDocumentOrder(), offset, limit);
+                getRespectDocumentOrder(), offset, limit, execution);
+    }
+
+    /**
+     * Sets the statement of this query, which is used to aggregate the
+     * {@link QueryStatistics}.
+     *
+     * @param statement the query statement.
+     * @param language  the language of the statement.
+     * @param parseTime the time in milliseconds spent parsing the statement.
+     */
+    void setStatement(String statement, String language, long parseTime) {
+        this.statement = statement;
+        this.language = language;
+        this.parseTime = parseTime;
     }
 
     /**
@@ -200,4 +264,26 @@ public class QueryImpl extends AbstractQueryImpl {
     public Name[] getSelectorNames() {
         return new Name[]{DEFAULT_SELECTOR_NAME};
     }
+
+    //--------------------------< internal >------------------------------------
+
+    /**
+     * Adds the bind variables of the relations in the query tree to the set
+     * of known variable names.
+     */
+    private void extractBindVariableNames() {
+        try {
+            root.accept(new TraversingQueryNodeVisitor() {
+                public Object visit(RelationQueryNode node, Object data)
+                        throws RepositoryException {
+                    if (node.getBindVariableName() != null) {
+                        addVariableName(node.getBindVariableName());
+                    }
+                    return super.visit(node, data);
+                }
+            }, null);
+        } catch (RepositoryException e) {
+            // will never happen
+        }
+    }
 }
@@ -138,6 +138,18 @@ public class QueryResultImpl implements QueryResult {
      */
     private final long limit;
 
+    /**
+     * The cursor that keeps the query hits open between two calls to
+     * {@link #getResults(long)} or <code>null</code> if there is none.
+     */
+    private QueryHitsCursor cursor;
+
+    /**
+     * The execution record of the query or <code>null</code> if the query
+     * statistics are disabled.
+     */
+    private final QueryStatistics.Execution execution;
+
     /**
      * Creates a new query result.
      *
@@ -174,6 +186,51 @@ public class QueryResultImpl implements QueryResult {
                            boolean documentOrder,
                            long offset,
                            long limit) throws RepositoryException {
+        this(index, itemMgr, session, accessMgr, queryImpl, query,
+                spellSuggestion, selectProps, orderProps, orderSpecs,
+                documentOrder, offset, limit, null);
+    }
+
+    /**
+     * Creates a new query result that reports to the query statistics.
+     *
+     * @param index           the search index where the query is executed.
+     * @param itemMgr         the item manager of the session executing the
+     *                        query.
+     * @param session         the session executing the query.
+     * @param accessMgr       the access manager of the session executiong the
+     *                        query.
+     * @param queryImpl       the query instance which created this query
+     *                        result.
+     * @param query           the lucene query to execute on the index.
+     * @param spellSuggestion the spell suggestion or <code>null</code> if none
+     *                        is available.
+     * @param selectProps     the select properties of the query.
+     * @param orderProps      the names of the order properties.
+     * @param orderSpecs      the order specs, one for each order property
+     *                        name.
+     * @param documentOrder   if <code>true</code> the result is returned in
+     *                        document order.
+     * @param limit           the maximum result size
+     * @param offset          the offset in the total result set
+     * @param execution       the execution record of the query or
+     *                        <code>null</code>.
+     */
+    QueryResultImpl(SearchIndex index,
+                    ItemManager itemMgr,
+                    SessionImpl session,
+                    AccessManager accessMgr,
+                    AbstractQueryImpl queryImpl,
+                    Query query,
+                    SpellSuggestion spellSuggestion,
+                    Name[] selectProps,
+                    Name[] orderProps,
+                    boolean[] orderSpecs,
+                    boolean documentOrder,
+                    long offset,
+                    long limit,
+                    QueryStatistics.Execution execution)
+            throws RepositoryException {
         this.index = index;
         this.itemMgr = itemMgr;
         this.session = session;
@@ -187,6 +244,7 @@ public class QueryResultImpl implements QueryResult {
         this.docOrder = orderProps.length == 0 && documentOrder;
         this.offset = offset;
         this.limit = limit;
+        this.execution = execution;
         // if document order is requested get all results right away
         getResults(docOrder ? Integer.MAX_VALUE : index.getResultFetchSize());
     }
@@ -239,8 +297,12 @@ public class QueryResultImpl implements QueryResult {
      * @throws IOException if an error occurs while executing the query.
      */
     protected MultiColumnQueryHits executeQuery() throws IOException {
+        int maxHits = 0;
+        if (limit > 0 && offset + limit <= Integer.MAX_VALUE) {
+            maxHits = (int) (offset + limit);
+        }
         return index.executeQuery(session, queryImpl,
-                query, orderProps, orderSpecs);
+                query, orderProps, orderSpecs, maxHits);
     }
 
     //--------------------------------< internal >------------------------------
@@ -252,7 +314,7 @@ public class QueryResultImpl implements QueryResult {
      */
     private ScoreNodeIterator getNodeIterator() {
         if (docOrder) {
-            return new DocOrderNodeIteratorImpl(itemMgr, resultNodes, 0);
+            return new DocOrderNodeIteratorImpl(itemMgr, resultNodes, 0, execution);
         } else {
             return new LazyScoreNodeIterator(0);
         }
@@ -285,38 +347,73 @@ public class QueryResultImpl implements QueryResult {
             return;
         }
 
-        // execute it
         MultiColumnQueryHits result = null;
+        boolean keepOpen = false;
         try {
+            if (cursor != null) {
+                // continue with the hits of the previous fetch
+                result = cursor.acquire();
+                if (result == null) {
+                    log.debug("query cursor closed, executing query again");
+                    cursor = null;
+                }
+            }
+
             long time = System.currentTimeMillis();
-            result = executeQuery();
-            log.debug("query executed in {} ms",
-                    new Long(System.currentTimeMillis() - time));
+            if (result == null) {
+                // execute it
+                result = executeQuery();
+                time = System.currentTimeMillis() - time;
+                log.debug("query executed in {} ms", new Long(time));
+                if (execution != null) {
+                    execution.searched(time);
+                }
 
-            if (resultNodes.isEmpty() && offset > 0) {
-                // collect result offset into dummy list
-                collectScoreNodes(result, new ArrayList(), offset);
-            } else {
-                int start = resultNodes.size() + invalid + (int) offset;
-                result.skip(start);
+                if (resultNodes.isEmpty() && offset > 0) {
+                    // collect result offset into dummy list
+                    collectScoreNodes(result, new ArrayList(), offset);
+                } else {
+                    int start = resultNodes.size() + invalid + (int) offset;
+                    result.skip(start);
+                }
             }
 
             time = System.currentTimeMillis();
+            int denied = invalid + getDeniedCount(result);
             collectScoreNodes(result, resultNodes, maxResultSize);
-            log.debug("retrieved ScoreNodes in {} ms",
-                    new Long(System.currentTimeMillis() - time));
+            time = System.currentTimeMillis() - time;
+            log.debug("retrieved ScoreNodes in {} ms", new Long(time));
 
             // update numResults
             numResults = result.getSize();
+
+            if (execution != null) {
+                denied = invalid + getDeniedCount(result) - denied;
+                execution.collected(time, numResults, denied);
+            }
+
+            // keep the hits open if there may be more results to fetch
+            keepOpen = limit <= 0 && resultNodes.size() >= maxResultSize;
         } catch (IOException e) {
             log.error("Exception while executing query: ", e);
             // todo throw?
         } finally {
             if (result != null) {
-                try {
-                    result.close();
-                } catch (IOException e) {
-                    log.warn("Unable to close query result: " + e);
+                if (cursor == null && keepOpen) {
+                    cursor = index.openCursor(session, result);
+                }
+                if (cursor != null) {
+                    cursor.release();
+                    if (!keepOpen) {
+                        cursor.close();
+                        cursor = null;
+                    }
+                } else {
+                    try {
+                        result.close();
+                    } catch (IOException e) {
+                        log.warn("Unable to close query result: " + e);
+                    }
                 }
             }
         }
@@ -352,6 +449,20 @@ public class QueryResultImpl implements QueryResult {
         }
     }
 
+    /**
+     * Returns the number of hits that were removed by <code>hits</code>,
+     * because the session is known not to be allowed to read them.
+     *
+     * @param hits the raw hits.
+     * @return the number of removed hits.
+     */
+    private static int getDeniedCount(MultiColumnQueryHits hits) {
+        if (hits instanceof ReadAccessQueryHits) {
+            return ((ReadAccessQueryHits) hits).getDeniedCount();
+        }
+        return 0;
+    }
+
     /**
      * Checks if access is granted to all <code>nodes</code>.
      *
@@ -569,8 +680,12 @@ public class QueryResultImpl implements QueryResult {
                     }
                 }
                 ScoreNode[] sn = (ScoreNode[]) resultNodes.get(nextPos);
+                long time = System.currentTimeMillis();
                 try {
                     next = (NodeImpl) itemMgr.getItem(sn[selectorIndex].getNodeId());
+                    if (execution != null) {
+                        execution.loaded(System.currentTimeMillis() - time, 1);
+                    }
                 } catch (RepositoryException e) {
                     log.warn("Exception retrieving Node with UUID: "
                             + sn[selectorIndex].getNodeId() + ": " + e.toString());
@@ -0,0 +1,477 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.apache.jackrabbit.core.util.ManagementUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>QueryStatistics</code> collects execution statistics about the
+ * queries of a search index. The statistics are aggregated per statement,
+ * after the literals in the statement have been replaced with
+ * <code>?</code>, so that queries that only differ in their values are
+ * counted together. Statistics are kept for a bounded number of statements;
+ * the least recently executed statement is dropped first.
+ * <p/>
+ * The time of a query is split into the following phases:
+ * <ul>
+ * <li>parse: parsing the statement and building the Lucene query</li>
+ * <li>search: opening the index and executing the Lucene query</li>
+ * <li>collect: reading the hits and checking access</li>
+ * <li>load: loading the result nodes</li>
+ * </ul>
+ * A query that takes at least the slow query threshold is logged once at
+ * INFO level, together with the time of each phase.
+ */
+public class QueryStatistics implements QueryStatisticsMBean {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(QueryStatistics.class);
+
+    /**
+     * The prefix of the name under which the statistics are registered in
+     * JMX. The quoted path of the search index is appended.
+     */
+    public static final String OBJECT_NAME_PREFIX =
+            "org.apache.jackrabbit:type=QueryStatistics,index=";
+
+    /**
+     * Matches string and numeric literals in XPath and SQL statements.
+     */
+    private static final Pattern LITERALS = Pattern.compile(
+            "'(?:[^']|'')*'|\"(?:[^\"]|\"\")*\""
+            + "|(?<![\\w:.$-])\\d+(?:\\.\\d+)?(?:[eE][+-]?\\d+)?");
+
+    /**
+     * Matches whitespace sequences.
+     */
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Orders statement statistics by descending total time.
+     */
+    private static final Comparator BY_TOTAL_TIME = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            long t1 = ((StatementStatistics) o1).totalTime;
+            long t2 = ((StatementStatistics) o2).totalTime;
+            return t1 > t2 ? -1 : (t1 < t2 ? 1 : 0);
+        }
+    };
+
+    /**
+     * The statistics per normalized statement.
+     * Key=language + ":" + normalized statement, value=StatementStatistics.
+     */
+    private final LRUMap statements;
+
+    /**
+     * The time in milliseconds after which a query is logged as slow query.
+     */
+    private volatile long slowQueryThreshold;
+
+    /**
+     * The number of executed queries.
+     */
+    private long queryCount;
+
+    /**
+     * The time spent on all queries.
+     */
+    private long totalTime;
+
+    /**
+     * The number of slow queries.
+     */
+    private long slowQueryCount;
+
+    /**
+     * The name under which this instance is registered in JMX or
+     * <code>null</code> if it is not registered.
+     */
+    private Object objectName;
+
+    /**
+     * Creates new query statistics.
+     *
+     * @param maxStatements      the maximum number of statements for which
+     *                           statistics are kept.
+     * @param slowQueryThreshold the time in milliseconds after which a query
+     *                           is logged as slow query, zero to disable the
+     *                           slow query log.
+     */
+    public QueryStatistics(int maxStatements, long slowQueryThreshold) {
+        this.statements = new LRUMap(maxStatements);
+        this.slowQueryThreshold = slowQueryThreshold;
+    }
+
+    /**
+     * Starts recording the execution of a query.
+     *
+     * @param language  the language of the statement.
+     * @param statement the query statement.
+     * @return the execution record of the query.
+     */
+    Execution start(String language, String statement) {
+        String key = language + ":" + normalize(statement);
+        StatementStatistics stats;
+        synchronized (this) {
+            queryCount++;
+            stats = (StatementStatistics) statements.get(key);
+            if (stats == null) {
+                stats = new StatementStatistics(key);
+                statements.put(key, stats);
+            }
+        }
+        synchronized (stats) {
+            stats.count++;
+        }
+        return new Execution(stats, language, statement);
+    }
+
+    /**
+     * Replaces the literals in a statement with <code>?</code> and collapses
+     * whitespace.
+     *
+     * @param statement a query statement.
+     * @return the normalized statement.
+     */
+    static String normalize(String statement) {
+        String s = LITERALS.matcher(statement).replaceAll("?");
+        return WHITESPACE.matcher(s).replaceAll(" ").trim();
+    }
+
+    //----------------------------------------------< QueryStatisticsMBean >---
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getSlowQueryCount() {
+        return slowQueryCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSlowQueryThreshold(long threshold) {
+        slowQueryThreshold = Math.max(threshold, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getStatementCount() {
+        return statements.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] listTopQueries(int max) {
+        List list;
+        synchronized (this) {
+            list = new ArrayList(statements.values());
+        }
+        for (int i = 0; i < list.size(); i++) {
+            // take a consistent copy of each entry before sorting
+            StatementStatistics stats = (StatementStatistics) list.get(i);
+            synchronized (stats) {
+                list.set(i, stats.copy());
+            }
+        }
+        Collections.sort(list, BY_TOTAL_TIME);
+        int size = Math.max(0, Math.min(max, list.size()));
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = list.get(i).toString();
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void reset() {
+        statements.clear();
+        queryCount = 0;
+        totalTime = 0;
+        slowQueryCount = 0;
+    }
+
+    //---------------------------------------------------------------< JMX >---
+
+    /**
+     * Registers these statistics with the platform MBean server.
+     *
+     * @param indexPath the path of the search index.
+     */
+    void registerMBean(String indexPath) {
+        try {
+            objectName = ManagementUtil.registerMBean(
+                    this, OBJECT_NAME_PREFIX + ManagementUtil.quote(indexPath));
+        } catch (Throwable e) {
+            log.debug("Query statistics are not exported through JMX: " + e);
+        }
+    }
+
+    /**
+     * Unregisters these statistics from the platform MBean server.
+     */
+    void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementUtil.unregisterMBean(objectName);
+        } catch (Throwable e) {
+            log.debug("Unable to unregister query statistics: " + e);
+        }
+        objectName = null;
+    }
+
+    //-------------------------------------------------------< internal >---
+
+    /**
+     * Adds time spent on a query.
+     *
+     * @param time the time in milliseconds.
+     */
+    private synchronized void addTime(long time) {
+        totalTime += time;
+    }
+
+    /**
+     * Counts a slow query.
+     */
+    private synchronized void addSlowQuery() {
+        slowQueryCount++;
+    }
+
+    /**
+     * The execution record of a single query. The phases of a query are
+     * reported as they happen, because the result nodes of a query are
+     * fetched and loaded lazily.
+     */
+    final class Execution {
+
+        private final StatementStatistics stats;
+
+        private final String language;
+
+        private final String statement;
+
+        private long parseTime;
+
+        private long searchTime;
+
+        private long collectTime;
+
+        private long loadTime;
+
+        private int hits;
+
+        private int denied;
+
+        private int loaded;
+
+        private boolean slow = false;
+
+        private Execution(StatementStatistics stats,
+                          String language,
+                          String statement) {
+            this.stats = stats;
+            this.language = language;
+            this.statement = statement;
+        }
+
+        /**
+         * Reports the time spent parsing the statement and building the
+         * Lucene query.
+         *
+         * @param time the time in milliseconds.
+         */
+        synchronized void parsed(long time) {
+            parseTime += time;
+            synchronized (stats) {
+                stats.parseTime += time;
+            }
+            update(time);
+        }
+
+        /**
+         * Reports the time spent executing the query on the index.
+         *
+         * @param time the time in milliseconds.
+         */
+        synchronized void searched(long time) {
+            searchTime += time;
+            synchronized (stats) {
+                stats.searchTime += time;
+            }
+            update(time);
+        }
+
+        /**
+         * Reports the time spent reading hits and checking access.
+         *
+         * @param time   the time in milliseconds.
+         * @param hits   the number of hits of the query, including the ones
+         *               the session is not allowed to read.
+         * @param denied the number of additional hits that were removed
+         *               because the session is not allowed to read them.
+         */
+        synchronized void collected(long time, int hits, int denied) {
+            collectTime += time;
+            int newHits = Math.max(hits - this.hits, 0);
+            this.hits += newHits;
+            this.denied += denied;
+            synchronized (stats) {
+                stats.collectTime += time;
+                stats.hits += newHits;
+                stats.denied += denied;
+            }
+            update(time);
+        }
+
+        /**
+         * Reports the time spent loading result nodes.
+         *
+         * @param time  the time in milliseconds.
+         * @param nodes the number of loaded nodes.
+         */
+        synchronized void loaded(long time, int nodes) {
+            loadTime += time;
+            loaded += nodes;
+            synchronized (stats) {
+                stats.loadTime += time;
+            }
+            update(time);
+        }
+
+        /**
+         * Adds time to the totals and logs this query once it is slow.
+         *
+         * @param time the time in milliseconds that was just reported.
+         */
+        private void update(long time) {
+            long total = parseTime + searchTime + collectTime + loadTime;
+            synchronized (stats) {
+                stats.totalTime += time;
+                stats.maxTime = Math.max(stats.maxTime, total);
+            }
+            addTime(time);
+            long threshold = slowQueryThreshold;
+            if (!slow && threshold > 0 && total >= threshold) {
+                slow = true;
+                synchronized (stats) {
+                    stats.slowCount++;
+                }
+                addSlowQuery();
+                log.info("Slow query (" + total + " ms, parse=" + parseTime
+                        + " ms, search=" + searchTime + " ms, collect="
+                        + collectTime + " ms, load=" + loadTime + " ms, hits="
+                        + hits + ", denied=" + denied + ", loaded=" + loaded
+                        + "): [" + language + "] " + statement);
+            }
+        }
+    }
+
+    /**
+     * The aggregated statistics of a normalized statement.
+     */
+    private static final class StatementStatistics {
+
+        private final String key;
+
+        private long count;
+
+        private long slowCount;
+
+        private long totalTime;
+
+        private long maxTime;
+
+        private long parseTime;
+
+        private long searchTime;
+
+        private long collectTime;
+
+        private long loadTime;
+
+        private long hits;
+
+        private long denied;
+
+        private StatementStatistics(String key) {
+            this.key = key;
+        }
+
+        private StatementStatistics copy() {
+            StatementStatistics copy = new StatementStatistics(key);
+            copy.count = count;
+            copy.slowCount = slowCount;
+            copy.totalTime = totalTime;
+            copy.maxTime = maxTime;
+            copy.parseTime = parseTime;
+            copy.searchTime = searchTime;
+            copy.collectTime = collectTime;
+            copy.loadTime = loadTime;
+            copy.hits = hits;
+            copy.denied = denied;
+            return copy;
+        }
+
+        public String toString() {
+            return "count=" + count + ", slow=" + slowCount
+                    + ", total=" + totalTime + " ms, max=" + maxTime
+                    + " ms, parse=" + parseTime + " ms, search=" + searchTime
+                    + " ms, collect=" + collectTime + " ms, load=" + loadTime
+                    + " ms, hits=" + hits + ", denied=" + denied + ": " + key;
+        }
+    }
+}
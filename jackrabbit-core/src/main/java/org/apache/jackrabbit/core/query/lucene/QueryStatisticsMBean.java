@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * The management interface of the {@link QueryStatistics} of a search index.
+ * The statistics of each search index are registered as a standard MBean
+ * with the platform MBean server, if available.
+ */
+public interface QueryStatisticsMBean {
+
+    /**
+     * Returns the number of queries executed since the statistics were
+     * created or reset.
+     *
+     * @return the number of queries
+     */
+    long getQueryCount();
+
+    /**
+     * Returns the time spent executing queries and loading their result
+     * nodes since the statistics were created or reset.
+     *
+     * @return the time in milliseconds
+     */
+    long getTotalTime();
+
+    /**
+     * Returns the number of queries that took at least the slow query
+     * threshold.
+     *
+     * @return the number of slow queries
+     */
+    long getSlowQueryCount();
+
+    /**
+     * Returns the time after which a query is logged as slow query.
+     *
+     * @return the threshold in milliseconds, zero if slow queries are not
+     *         logged
+     */
+    long getSlowQueryThreshold();
+
+    /**
+     * Sets the time after which a query is logged as slow query.
+     *
+     * @param threshold the threshold in milliseconds, zero to disable the
+     *                  slow query log
+     */
+    void setSlowQueryThreshold(long threshold);
+
+    /**
+     * Returns the number of distinct statements for which statistics are
+     * currently kept.
+     *
+     * @return the number of statements
+     */
+    int getStatementCount();
+
+    /**
+     * Returns one line of statistics for each of the most expensive
+     * statements, ordered by the total time spent on the statement. A line
+     * contains the number of executions, the total and maximum time, the
+     * time spent parsing, searching, collecting hits and loading nodes, the
+     * number of hits and of hits that were removed by access checks, and the
+     * statement with its literals replaced by <code>?</code>.
+     *
+     * @param max the maximum number of statements to return
+     * @return the statistics of the statements
+     */
+    String[] listTopQueries(int max);
+
+    /**
+     * Clears all statistics.
+     */
+    void reset();
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.security.AccessManager;
+import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
+import org.apache.jackrabbit.core.security.authorization.Permission;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+
+import javax.jcr.RepositoryException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <code>ReadAccessFilter</code> tells which documents of an index reader a
+ * session is known not to be allowed to read. It is computed from the paths
+ * where the READ permission may change (see
+ * {@link org.apache.jackrabbit.core.security.authorization.HierarchicalReadPermissions})
+ * and the hierarchy of the documents: a document inherits the READ
+ * permission of its nearest ancestor-or-self at such a path.
+ * <p/>
+ * Only the permissions at these paths are evaluated upfront. The permission
+ * of any other document is determined when it is first asked for, by walking
+ * up its ancestors, and then remembered for the documents on the way. The
+ * cost is therefore proportional to the hits that are actually read, not to
+ * the size of the index. At most {@link #MAX_STATES} of these permissions are
+ * remembered, the least recently used are discarded first.
+ * <p/>
+ * Documents that are access control items or whose hierarchy cannot be
+ * resolved are never reported as denied. The filter only allows to skip hits
+ * early, the READ permission of the remaining hits must still be checked
+ * with the access manager.
+ */
+final class ReadAccessFilter {
+
+    /**
+     * The READ permission is granted.
+     */
+    private static final Byte GRANTED = new Byte((byte) 1);
+
+    /**
+     * The READ permission is denied.
+     */
+    private static final Byte DENIED = new Byte((byte) 2);
+
+    /**
+     * The READ permission must be checked for each node.
+     */
+    private static final Byte UNCERTAIN = new Byte((byte) 3);
+
+    /**
+     * The maximum number of remembered permissions of documents that are
+     * not at one of the paths.
+     */
+    static final int MAX_STATES = 4096;
+
+    /**
+     * The paths this filter was computed from.
+     */
+    private final Path[] roots;
+
+    /**
+     * The sub readers of the index reader this filter was computed for.
+     */
+    private final WeakReference[] readers;
+
+    /**
+     * The READ permission of the documents at the paths and of the access
+     * control items.
+     * Key=Integer (document number), value=Byte (permission).
+     */
+    private final Map rootStates = new HashMap();
+
+    /**
+     * The most recently used READ permissions of other documents.
+     * Key=Integer (document number), value=Byte (permission).
+     */
+    private final Map states = new LRUMap(MAX_STATES);
+
+    /**
+     * Computes the READ permission for the documents at <code>roots</code>.
+     *
+     * @param session     the session that executes the query.
+     * @param reader      the index reader.
+     * @param roots       the paths where the READ permission may change.
+     * @param nsMappings  the namespace mappings of the index.
+     * @throws IOException if an error occurs while reading from the index.
+     * @throws RepositoryException if the READ permission cannot be evaluated.
+     */
+    ReadAccessFilter(SessionImpl session,
+                     JackrabbitIndexReader reader,
+                     Path[] roots,
+                     NamespaceMappings nsMappings)
+            throws IOException, RepositoryException {
+        this.roots = roots;
+        IndexReader[] subReaders = reader.getIndexReaders();
+        this.readers = new WeakReference[subReaders.length];
+        for (int i = 0; i < subReaders.length; i++) {
+            readers[i] = new WeakReference(subReaders[i]);
+        }
+
+        // permission at the roots
+        AccessManager accessMgr = session.getAccessManager();
+        for (int i = 0; i < roots.length; i++) {
+            NodeId id = session.getHierarchyManager().resolveNodePath(roots[i]);
+            if (id == null) {
+                continue;
+            }
+            Byte state = accessMgr.isGranted(roots[i], Permission.READ) ? GRANTED : DENIED;
+            setState(reader, new Term(FieldNames.UUID, id.getUUID().toString()), state);
+        }
+        // access control items are evaluated separately
+        try {
+            String policy = nsMappings.translatePropertyName(AccessControlConstants.N_POLICY);
+            setState(reader, new Term(FieldNames.LABEL, policy), UNCERTAIN);
+        } catch (IllegalNameException e) {
+            throw Util.createIOException(e);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if this filter was computed for the given
+     * paths and the same sub readers as <code>reader</code>, in which case
+     * the document numbers are the same.
+     *
+     * @param reader the index reader.
+     * @param roots  the paths where the READ permission may change.
+     * @return whether this filter can be used for <code>reader</code>.
+     */
+    boolean isValid(JackrabbitIndexReader reader, Path[] roots) {
+        if (this.roots != roots) {
+            return false;
+        }
+        IndexReader[] subReaders = reader.getIndexReaders();
+        if (subReaders.length != readers.length) {
+            return false;
+        }
+        for (int i = 0; i < subReaders.length; i++) {
+            if (readers[i].get() != subReaders[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param reader the index reader this filter was computed for.
+     * @param doc    a document number or <code>-1</code>.
+     * @return <code>true</code> if the READ permission is known to be denied
+     *         on the document.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    synchronized boolean isDenied(JackrabbitIndexReader reader, int doc)
+            throws IOException {
+        if (doc < 0) {
+            return false;
+        }
+        int maxDoc = reader.maxDoc();
+        int[] chain = new int[16];
+        int length = 0;
+        int n = doc;
+        Byte state = getState(n);
+        while (state == null) {
+            if (length == chain.length) {
+                int[] tmp = new int[length * 2];
+                System.arraycopy(chain, 0, tmp, 0, length);
+                chain = tmp;
+            }
+            chain[length++] = n;
+            int parent = reader.getParent(n);
+            if (parent < 0 || length > maxDoc) {
+                // hierarchy not resolvable
+                state = UNCERTAIN;
+            } else {
+                state = getState(parent);
+                n = parent;
+            }
+        }
+        // inherit the state of the nearest ancestor with a known state
+        for (int i = 0; i < length; i++) {
+            states.put(new Integer(chain[i]), state);
+        }
+        return state == DENIED;
+    }
+
+    /**
+     * @param doc a document number.
+     * @return the known state of the document or <code>null</code>.
+     */
+    private Byte getState(int doc) {
+        Integer key = new Integer(doc);
+        Byte state = (Byte) rootStates.get(key);
+        if (state == null) {
+            state = (Byte) states.get(key);
+        }
+        return state;
+    }
+
+    /**
+     * Sets the state of the documents that contain <code>term</code>.
+     *
+     * @param reader the index reader.
+     * @param term   the term.
+     * @param state  the state to set.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private void setState(IndexReader reader, Term term, Byte state)
+            throws IOException {
+        TermDocs tDocs = reader.termDocs(term);
+        try {
+            while (tDocs.next()) {
+                rootStates.put(new Integer(tDocs.doc()), state);
+            }
+        } finally {
+            tDocs.close();
+        }
+    }
+}
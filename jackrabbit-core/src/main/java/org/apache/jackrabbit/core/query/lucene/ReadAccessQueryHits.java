@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+
+/**
+ * <code>ReadAccessQueryHits</code> removes the hits that contain a node, which
+ * the session is known not to be allowed to read. The READ permission of the
+ * remaining hits is not known and must still be checked.
+ */
+class ReadAccessQueryHits extends FilterMultiColumnQueryHits {
+
+    /**
+     * The READ permission of the documents in the index reader the query was
+     * executed on or <code>null</code> if not known.
+     */
+    private final ReadAccessFilter filter;
+
+    /**
+     * The index reader the query was executed on.
+     */
+    private final JackrabbitIndexReader reader;
+
+    /**
+     * The number of hits removed so far, because a node is known not to be
+     * readable.
+     */
+    private int deniedCount = 0;
+
+    /**
+     * Creates a new <code>ReadAccessQueryHits</code>.
+     *
+     * @param hits   the underlying query hits.
+     * @param filter the READ permission of the documents in the index reader
+     *               the query was executed on or <code>null</code> if not
+     *               known.
+     * @param reader the index reader the query was executed on or
+     *               <code>null</code> if <code>filter</code> is
+     *               <code>null</code>.
+     */
+    ReadAccessQueryHits(MultiColumnQueryHits hits,
+                        ReadAccessFilter filter,
+                        JackrabbitIndexReader reader) {
+        super(hits);
+        this.filter = filter;
+        this.reader = reader;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScoreNode[] nextScoreNodes() throws IOException {
+        ScoreNode[] nodes = super.nextScoreNodes();
+        while (nodes != null && isDenied(nodes)) {
+            deniedCount++;
+            nodes = super.nextScoreNodes();
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the number of hits removed so far, because a node is known not
+     *         to be readable.
+     */
+    int getDeniedCount() {
+        return deniedCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void skip(int n) throws IOException {
+        if (filter == null) {
+            super.skip(n);
+        } else {
+            while (n-- > 0 && nextScoreNodes() != null) {
+                // skip
+            }
+        }
+    }
+
+    /**
+     * @param nodes score nodes returned by the underlying query hits.
+     * @return <code>true</code> if any of the nodes is known not to be
+     *         readable.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private boolean isDenied(ScoreNode[] nodes) throws IOException {
+        if (filter == null) {
+            return false;
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] != null && filter.isDenied(reader, nodes[i].getDoc())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -35,14 +35,33 @@ final class ScoreNode {
     private final float score;
 
     /**
-     * Creates a new <code>ScoreNode</code>.
+     * The document number of the node in the index reader the query was
+     * executed on or <code>-1</code> if unknown.
+     */
+    private final int doc;
+
+    /**
+     * Creates a new <code>ScoreNode</code> without a document number.
      *
      * @param id    the node id.
      * @param score the score value.
      */
     ScoreNode(NodeId id, float score) {
+        this(id, score, -1);
+    }
+
+    /**
+     * Creates a new <code>ScoreNode</code>.
+     *
+     * @param id    the node id.
+     * @param score the score value.
+     * @param doc   the document number of the node or <code>-1</code> if
+     *              unknown.
+     */
+    ScoreNode(NodeId id, float score, int doc) {
         this.id = id;
         this.score = score;
+        this.doc = doc;
     }
 
     /**
@@ -58,4 +77,12 @@ final class ScoreNode {
     public float getScore() {
         return score;
     }
+
+    /**
+     * @return the document number of the node in the index reader the query
+     *         was executed on or <code>-1</code> if unknown.
+     */
+    public int getDoc() {
+        return doc;
+    }
 }
@@ -28,6 +28,8 @@ import org.apache.jackrabbit.core.query.AbstractQueryHandler;
 import org.apache.jackrabbit.core.query.ExecutableQuery;
 import org.apache.jackrabbit.core.query.QueryHandler;
 import org.apache.jackrabbit.core.query.QueryHandlerContext;
+import org.apache.jackrabbit.core.security.AccessManager;
+import org.apache.jackrabbit.core.security.authorization.HierarchicalReadPermissions;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.NodeStateIterator;
 import org.apache.jackrabbit.core.state.ItemStateManager;
@@ -40,6 +42,8 @@ import org.apache.jackrabbit.spi.PathFactory;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.jackrabbit.spi.commons.query.DefaultQueryNodeFactory;
+import org.apache.jackrabbit.spi.commons.query.QueryParser;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
 import org.apache.jackrabbit.spi.commons.query.qom.QueryObjectModelTree;
 import org.apache.jackrabbit.uuid.UUID;
 import org.slf4j.Logger;
@@ -57,6 +61,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Fieldable;
 import org.apache.commons.collections.iterators.AbstractIteratorDecorator;
+import org.apache.commons.collections.map.LRUMap;
 import org.xml.sax.SAXException;
 import org.w3c.dom.Element;
 
@@ -77,6 +82,7 @@ import java.util.Set;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Implements a {@link org.apache.jackrabbit.core.query.QueryHandler} using
@@ -243,11 +249,29 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int extractorPoolSize = 2 * Runtime.getRuntime().availableProcessors();
 
+    /**
+     * The number of threads that create the documents when the initial index
+     * is created. A value of one creates the documents with the thread that
+     * traverses the workspace.
+     * <p/>
+     * Default value is: <code>1</code>.
+     */
+    private int initialIndexingThreads = 1;
+
     /**
      * extractorBackLog config parameter
      */
     private int extractorBackLog = DEFAULT_EXTRACTOR_BACK_LOG;
 
+    /**
+     * The maximum number of extractor threads that extract text of the same
+     * content type at the same time. A value of zero uses half of the
+     * extractor pool, but at least one thread.
+     * <p/>
+     * Default value is: <code>0</code>.
+     */
+    private int extractorPoolSizePerType = 0;
+
     /**
      * extractorTimeout config parameter
      */
@@ -298,6 +322,17 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private boolean autoRepair = true;
 
+    /**
+     * Creates the documents of an update and searches the index partitions
+     * of a query in parallel.
+     */
+    private static final DynamicPooledExecutor EXECUTOR = new DynamicPooledExecutor();
+
+    /**
+     * Orders the updates that enter {@link #updateNodes}.
+     */
+    private final UpdateOrder updateOrder = new UpdateOrder();
+
     /**
      * The uuid resolver cache size.
      * <p/>
@@ -312,6 +347,86 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int resultFetchSize = Integer.MAX_VALUE;
 
+    /**
+     * The maximum number of query results per session that keep their hits
+     * open between two fetches. A value of zero executes the query again for
+     * each fetch.
+     * <p/>
+     * Default value is: <code>10</code>.
+     */
+    private int maxOpenCursorsPerSession = 10;
+
+    /**
+     * The time in milliseconds after which the open hits of a query result
+     * are closed if they are not used.
+     * <p/>
+     * Default value is: <code>60000</code>.
+     */
+    private long cursorTimeout = 60 * 1000;
+
+    /**
+     * The open query hits, created on first use.
+     */
+    private QueryHitsCursors cursors;
+
+    /**
+     * The maximum number of parsed query statements that are cached. A value
+     * of zero disables the cache.
+     * <p/>
+     * Default value is: <code>100</code>.
+     */
+    private int parsedQueryCacheSize = 100;
+
+    /**
+     * The parsed query trees, created on first use.
+     * Key=language + ":" + statement, value=QueryRootNode.
+     */
+    private Map parsedQueries;
+
+    /**
+     * The maximum number of distinct statements for which execution
+     * statistics are kept. A value of zero disables the query statistics.
+     * <p/>
+     * Default value is: <code>1000</code>.
+     */
+    private int queryStatisticsSize = 1000;
+
+    /**
+     * The time in milliseconds after which a query is logged as slow query.
+     * A value of zero disables the slow query log.
+     * <p/>
+     * Default value is: <code>0</code>.
+     */
+    private long slowQueryThreshold = 0;
+
+    /**
+     * If set to <code>true</code> term, phrase and boolean queries are scored
+     * in parallel on the segments of the index.
+     * <p/>
+     * Default value is: <code>false</code>.
+     */
+    private boolean parallelSearch = false;
+
+    /**
+     * If set to <code>true</code> a full volatile index is written to disk by
+     * a background thread while a new volatile index takes further updates.
+     * <p/>
+     * Default value is: <code>false</code>.
+     */
+    private boolean backgroundVolatileCommit = false;
+
+    /**
+     * The execution statistics of the queries or <code>null</code> if
+     * disabled.
+     */
+    private QueryStatistics queryStatistics;
+
+    /**
+     * The last computed READ permissions of the sessions.
+     * Key=SessionImpl, value=ReadAccessFilter.
+     */
+    private final Map readAccessFilters = new WeakHashMap();
+
     /**
      * If set to <code>true</code> the fulltext field is stored and and a term
      * vector is created with offset information.
@@ -491,6 +606,12 @@ public class SearchIndex extends AbstractQueryHandler {
         // initialize spell checker
         spellChecker = createSpellChecker();
 
+        if (queryStatisticsSize > 0) {
+            queryStatistics = new QueryStatistics(
+                    queryStatisticsSize, slowQueryThreshold);
+            queryStatistics.registerMBean(indexDir.getAbsolutePath());
+        }
+
         log.info("Index initialized: {} Version: {}",
                 new Object[]{path, index.getIndexFormatVersion()});
         if (!index.getIndexFormatVersion().equals(getIndexFormatVersion())) {
@@ -524,6 +645,12 @@ public class SearchIndex extends AbstractQueryHandler {
      * This implementation forwards the call to
      * {@link MultiIndex#update(java.util.Iterator, java.util.Iterator)} and
      * transforms the two iterators to the required types.
+     * <p/>
+     * The documents are created in parallel before the index is locked, so
+     * that concurrent updates only serialize while the documents are added
+     * to the index. Updates are applied to the index in the order in which
+     * they entered this method, which guarantees that the index reflects
+     * the latest state of a node that is modified by concurrent updates.
      *
      * @param remove uuids of nodes to remove.
      * @param add    NodeStates to add. Calls to <code>next()</code> on this
@@ -535,64 +662,115 @@ public class SearchIndex extends AbstractQueryHandler {
     public void updateNodes(NodeIdIterator remove, NodeStateIterator add)
             throws RepositoryException, IOException {
         checkOpen();
-        final Map aggregateRoots = new HashMap();
-        final Set removedNodeIds = new HashSet();
-        final Set addedNodeIds = new HashSet();
-        index.update(new AbstractIteratorDecorator(remove) {
-            public Object next() {
-                NodeId nodeId = (NodeId) super.next();
+        long ticket = updateOrder.nextTicket();
+        try {
+            final Map aggregateRoots = new HashMap();
+            final Set removedNodeIds = new HashSet();
+            final Set addedNodeIds = new HashSet();
+            List removedUUIDs = new ArrayList();
+            while (remove.hasNext()) {
+                NodeId nodeId = remove.nextNodeId();
                 removedNodeIds.add(nodeId);
-                return nodeId.getUUID();
+                removedUUIDs.add(nodeId.getUUID());
             }
-        }, new AbstractIteratorDecorator(add) {
-            public Object next() {
-                NodeState state = (NodeState) super.next();
-                if (state == null) {
-                    return null;
-                }
-                addedNodeIds.add(state.getNodeId());
-                removedNodeIds.remove(state.getNodeId());
-                Document doc = null;
-                try {
-                    doc = createDocument(state, getNamespaceMappings(),
-                            index.getIndexFormatVersion());
+            List addedStates = new ArrayList();
+            while (add.hasNext()) {
+                NodeState state = (NodeState) add.next();
+                if (state != null) {
+                    addedNodeIds.add(state.getNodeId());
+                    removedNodeIds.remove(state.getNodeId());
                     retrieveAggregateRoot(state, aggregateRoots);
-                } catch (RepositoryException e) {
-                    log.warn("Exception while creating document for node: "
-                            + state.getNodeId() + ": " + e.toString());
                 }
-                return doc;
+                addedStates.add(state);
             }
-        });
-
-        // remove any aggregateRoot nodes that are new
-        // and therefore already up-to-date
-        aggregateRoots.keySet().removeAll(addedNodeIds);
+            List docs = createDocuments(addedStates);
 
-        // based on removed NodeIds get affected aggregate root nodes
-        retrieveAggregateRoot(removedNodeIds, aggregateRoots);
+            try {
+                updateOrder.waitForTurn(ticket);
+            } catch (InterruptedException e) {
+                throw Util.createIOException(e);
+            }
+            index.update(removedUUIDs.iterator(), docs.iterator());
+
+            // remove any aggregateRoot nodes that are new
+            // and therefore already up-to-date
+            aggregateRoots.keySet().removeAll(addedNodeIds);
+
+            // based on removed NodeIds get affected aggregate root nodes
+            retrieveAggregateRoot(removedNodeIds, aggregateRoots);
+
+            // update aggregates if there are any affected
+            if (aggregateRoots.size() > 0) {
+                List aggregateDocs = createDocuments(
+                        new ArrayList(aggregateRoots.values()));
+                index.update(new AbstractIteratorDecorator(
+                        aggregateRoots.keySet().iterator()) {
+                    public Object next() {
+                        return ((NodeId) super.next()).getUUID();
+                    }
+                }, aggregateDocs.iterator());
+            }
+        } finally {
+            updateOrder.finish(ticket);
+        }
+    }
 
-        // update aggregates if there are any affected
-        if (aggregateRoots.size() > 0) {
-            index.update(new AbstractIteratorDecorator(
-                    aggregateRoots.keySet().iterator()) {
-                public Object next() {
-                    return ((NodeId) super.next()).getUUID();
-                }
-            }, new AbstractIteratorDecorator(aggregateRoots.values().iterator()) {
-                public Object next() {
-                    NodeState state = (NodeState) super.next();
+    /**
+     * Creates the documents for the given node states. The documents are
+     * created in parallel if there is more than one node state. The text
+     * extraction of the documents is started as well, so that the index
+     * does not wait for the text extractors while it is locked.
+     *
+     * @param states the node states, may contain <code>null</code>.
+     * @return the documents in the same order as the node states. The list
+     *         contains <code>null</code> for a node state that is
+     *         <code>null</code> or cannot be indexed.
+     */
+    private List createDocuments(List states) {
+        DynamicPooledExecutor.Command[] commands =
+                new DynamicPooledExecutor.Command[states.size()];
+        for (int i = 0; i < commands.length; i++) {
+            final NodeState state = (NodeState) states.get(i);
+            commands[i] = new DynamicPooledExecutor.Command() {
+                public Object call() throws Exception {
+                    if (state == null) {
+                        return null;
+                    }
                     try {
-                        return createDocument(state, getNamespaceMappings(),
+                        Document doc = createDocument(state,
+                                getNamespaceMappings(),
                                 index.getIndexFormatVersion());
+                        // starts the text extractors
+                        Util.isDocumentReady(doc);
+                        return doc;
                     } catch (RepositoryException e) {
                         log.warn("Exception while creating document for node: "
                                 + state.getNodeId() + ": " + e.toString());
+                        return null;
                     }
-                    return null;
                 }
-            });
+            };
         }
+        List docs = new ArrayList(commands.length);
+        if (commands.length == 1) {
+            // avoid the overhead of the executor for a single node
+            try {
+                docs.add(commands[0].call());
+            } catch (Exception e) {
+                log.warn("Exception while creating document", e);
+                docs.add(null);
+            }
+        } else {
+            DynamicPooledExecutor.Result[] results = EXECUTOR.executeAndWait(commands);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i].getException() != null) {
+                    log.warn("Exception while creating document",
+                            results[i].getException().getCause());
+                }
+                docs.add(results[i].get());
+            }
+        }
+        return docs;
     }
 
     /**
@@ -615,12 +793,55 @@ public class SearchIndex extends AbstractQueryHandler {
                                              String statement,
                                              String language)
             throws InvalidQueryException {
+        long time = System.currentTimeMillis();
         QueryImpl query = new QueryImpl(session, itemMgr, this,
-                getContext().getPropertyTypeRegistry(), statement, language, getQueryNodeFactory());
+                getContext().getPropertyTypeRegistry(),
+                parseQuery(session, statement, language));
+        query.setStatement(statement, language,
+                System.currentTimeMillis() - time);
         query.setRespectDocumentOrder(documentOrder);
         return query;
     }
 
+    /**
+     * Parses the given statement. The query trees of recently used
+     * statements are cached and shared between queries, which do not modify
+     * the tree. Statements of a session that remapped a namespace prefix are
+     * always parsed again, because the names in the statement may resolve
+     * differently.
+     *
+     * @param session   the session that creates the query.
+     * @param statement the query statement.
+     * @param language  the syntax of the query statement.
+     * @return the root node of the query tree.
+     * @throws InvalidQueryException if the statement is invalid.
+     */
+    protected QueryRootNode parseQuery(SessionImpl session,
+                                       String statement,
+                                       String language)
+            throws InvalidQueryException {
+        if (parsedQueryCacheSize <= 0 || session.hasLocalNamespaceMappings()) {
+            return QueryParser.parse(statement, language, session,
+                    getQueryNodeFactory());
+        }
+        String key = language + ":" + statement;
+        synchronized (this) {
+            if (parsedQueries == null) {
+                parsedQueries = new LRUMap(parsedQueryCacheSize);
+            }
+            QueryRootNode root = (QueryRootNode) parsedQueries.get(key);
+            if (root != null) {
+                return root;
+            }
+        }
+        QueryRootNode root = QueryParser.parse(statement, language, session,
+                getQueryNodeFactory());
+        synchronized (this) {
+            parsedQueries.put(key, root);
+        }
+        return root;
+    }
+
     /**
      * Creates a new query by specifying the query object model. If the query
      * object model is considered invalid for the implementing class, an
@@ -672,12 +893,31 @@ public class SearchIndex extends AbstractQueryHandler {
         if (spellChecker != null) {
             spellChecker.close();
         }
+        synchronized (this) {
+            if (cursors != null) {
+                cursors.close();
+            }
+        }
+        if (queryStatistics != null) {
+            queryStatistics.unregisterMBean();
+        }
         index.close();
         getContext().destroy();
         closed = true;
         log.info("Index closed: " + path);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * A search index configured with the directory as its <code>path</code>
+     * starts with the contents of the snapshot.
+     */
+    public boolean snapshot(File target) throws IOException {
+        index.snapshot(target);
+        return true;
+    }
+
     /**
      * Executes the query on the search index.
      * @param session the session that executes the query.
@@ -695,14 +935,56 @@ public class SearchIndex extends AbstractQueryHandler {
                                   Query query,
                                   Name[] orderProps,
                                   boolean[] orderSpecs) throws IOException {
+        return executeQuery(session, queryImpl, query, orderProps, orderSpecs, 0);
+    }
+
+    /**
+     * Executes the query on the search index. If <code>maxHits</code> is
+     * greater than zero, only the top <code>maxHits</code> hits are sorted
+     * initially, further hits are collected on demand.
+     *
+     * @param session the session that executes the query.
+     * @param queryImpl the query impl.
+     * @param query the lucene query.
+     * @param orderProps name of the properties for sort order.
+     * @param orderSpecs the order specs for the sort order properties.
+     * <code>true</code> indicates ascending order, <code>false</code> indicates
+     * descending.
+     * @param maxHits the number of hits the caller expects to consume or
+     * <code>0</code> if unknown.
+     * @return the query hits.
+     * @throws IOException if an error occurs while searching the index.
+     */
+    public MultiColumnQueryHits executeQuery(SessionImpl session,
+                                  AbstractQueryImpl queryImpl,
+                                  Query query,
+                                  Name[] orderProps,
+                                  boolean[] orderSpecs,
+                                  int maxHits) throws IOException {
         checkOpen();
 
         Sort sort = new Sort(createSortFields(orderProps, orderSpecs));
 
+        // determine the paths before the reader is opened, this may execute
+        // a query on its own
+        Path[] roots = getReadPermissionRoots(session);
+
         final IndexReader reader = getIndexReader(queryImpl.needsSystemTree());
-        JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(session, reader);
+        JackrabbitIndexReader jReader = null;
+        ReadAccessFilter filter = null;
+        if (reader instanceof JackrabbitIndexReader) {
+            jReader = (JackrabbitIndexReader) reader;
+            try {
+                filter = getReadAccessFilter(session, jReader, roots);
+            } catch (IOException e) {
+                Util.closeOrRelease(reader);
+                throw e;
+            }
+        }
+        JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                session, reader, null, parallelSearch ? EXECUTOR : null);
         searcher.setSimilarity(getSimilarity());
-        return new FilterMultiColumnQueryHits(searcher.execute(query, sort)) {
+        return new ReadAccessQueryHits(searcher.execute(query, sort, maxHits), filter, jReader) {
             public void close() throws IOException {
                 try {
                     super.close();
@@ -714,6 +996,84 @@ public class SearchIndex extends AbstractQueryHandler {
         };
     }
 
+    /**
+     * Returns the paths where the READ permission of the session may change.
+     *
+     * @param session the session that executes a query.
+     * @return the paths or <code>null</code> if the READ permission must be
+     *         checked for each node.
+     */
+    private Path[] getReadPermissionRoots(SessionImpl session) {
+        AccessManager accessMgr = session.getAccessManager();
+        if (accessMgr instanceof HierarchicalReadPermissions) {
+            try {
+                return ((HierarchicalReadPermissions) accessMgr).getReadPermissionRoots();
+            } catch (RepositoryException e) {
+                log.warn("Unable to determine read permissions, checking each node: " + e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the READ permission of the session for the documents of
+     * <code>reader</code>. The last computed filter of each session is
+     * reused as long as the index and the permissions do not change.
+     *
+     * @param session the session that executes a query.
+     * @param reader  the index reader used to execute the query.
+     * @param roots   the paths where the READ permission of the session may
+     *                change or <code>null</code>.
+     * @return the filter or <code>null</code> if the READ permission must be
+     *         checked for each node.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private ReadAccessFilter getReadAccessFilter(SessionImpl session,
+                                                 JackrabbitIndexReader reader,
+                                                 Path[] roots)
+            throws IOException {
+        if (roots == null) {
+            return null;
+        }
+        synchronized (readAccessFilters) {
+            ReadAccessFilter filter = (ReadAccessFilter) readAccessFilters.get(session);
+            if (filter != null && filter.isValid(reader, roots)) {
+                return filter;
+            }
+        }
+        ReadAccessFilter filter;
+        try {
+            filter = new ReadAccessFilter(session, reader, roots, nsMappings);
+        } catch (RepositoryException e) {
+            log.warn("Unable to determine read permissions, checking each node: " + e);
+            return null;
+        }
+        synchronized (readAccessFilters) {
+            readAccessFilters.put(session, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Keeps the given hits open, so that the next fetch of a query result
+     * can continue where the previous one stopped.
+     *
+     * @param session the session that executed the query.
+     * @param hits    the open hits.
+     * @return a cursor on the hits or <code>null</code> if open cursors are
+     *         disabled. In that case the caller must close the hits.
+     */
+    synchronized QueryHitsCursor openCursor(SessionImpl session,
+                                            MultiColumnQueryHits hits) {
+        if (closed) {
+            return null;
+        }
+        if (cursors == null) {
+            cursors = new QueryHitsCursors(maxOpenCursorsPerSession, cursorTimeout);
+        }
+        return cursors.open(session, hits);
+    }
+
     /**
      * Creates an excerpt provider for the given <code>query</code>.
      *
@@ -914,6 +1274,7 @@ public class SearchIndex extends AbstractQueryHandler {
         NodeIndexer indexer = new NodeIndexer(node,
                 getContext().getItemStateManager(), nsMappings, extractor);
         indexer.setSupportHighlighting(supportHighlighting);
+        indexer.setExtractedTextCache(getContext().getExtractedTextCache());
         indexer.setIndexingConfiguration(indexingConfig);
         indexer.setIndexFormatVersion(indexFormatVersion);
         Document doc = indexer.createDoc();
@@ -939,8 +1300,12 @@ public class SearchIndex extends AbstractQueryHandler {
         TextExtractor txtExtr = new JackrabbitTextExtractor(textFilterClasses);
         if (extractorPoolSize > 0) {
             // wrap with pool
+            int perType = extractorPoolSizePerType;
+            if (perType == 0) {
+                perType = Math.max(1, extractorPoolSize / 2);
+            }
             txtExtr = new PooledTextExtractor(txtExtr, extractorPoolSize,
-                    extractorBackLog, extractorTimeout);
+                    extractorBackLog, extractorTimeout, perType);
         }
         return txtExtr;
     }
@@ -1596,6 +1961,151 @@ public class SearchIndex extends AbstractQueryHandler {
         return resultFetchSize;
     }
 
+    /**
+     * Sets the maximum number of query results per session that keep their
+     * hits open between two fetches. If a session exceeds this number, the
+     * hits of its least recently used query result are closed.
+     *
+     * @param max the maximum number of open cursors per session, or zero to
+     *            execute the query again for each fetch.
+     */
+    public void setMaxOpenCursorsPerSession(int max) {
+        maxOpenCursorsPerSession = Math.max(max, 0);
+    }
+
+    /**
+     * @return the maximum number of query results per session that keep
+     *         their hits open between two fetches.
+     */
+    public int getMaxOpenCursorsPerSession() {
+        return maxOpenCursorsPerSession;
+    }
+
+    /**
+     * Sets the time in milliseconds after which the open hits of a query
+     * result are closed if they are not used.
+     *
+     * @param millis the cursor timeout in milliseconds.
+     */
+    public void setCursorTimeout(long millis) {
+        cursorTimeout = millis;
+    }
+
+    /**
+     * @return the time in milliseconds after which unused query hits are
+     *         closed.
+     */
+    public long getCursorTimeout() {
+        return cursorTimeout;
+    }
+
+    /**
+     * Sets the maximum number of parsed query statements that are cached.
+     *
+     * @param size the size of the cache, or zero to parse each statement
+     *             again.
+     */
+    public void setParsedQueryCacheSize(int size) {
+        parsedQueryCacheSize = Math.max(size, 0);
+    }
+
+    /**
+     * @return the maximum number of parsed query statements that are cached.
+     */
+    public int getParsedQueryCacheSize() {
+        return parsedQueryCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of distinct statements for which execution
+     * statistics are kept.
+     *
+     * @param size the number of statements, or zero to disable the query
+     *             statistics.
+     */
+    public void setQueryStatisticsSize(int size) {
+        queryStatisticsSize = Math.max(size, 0);
+    }
+
+    /**
+     * @return the maximum number of distinct statements for which execution
+     *         statistics are kept.
+     */
+    public int getQueryStatisticsSize() {
+        return queryStatisticsSize;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a query is logged as slow
+     * query. The threshold can also be changed at runtime through JMX.
+     *
+     * @param millis the threshold in milliseconds, or zero to disable the
+     *               slow query log.
+     */
+    public void setSlowQueryThreshold(long millis) {
+        slowQueryThreshold = Math.max(millis, 0);
+        if (queryStatistics != null) {
+            queryStatistics.setSlowQueryThreshold(slowQueryThreshold);
+        }
+    }
+
+    /**
+     * @return the time in milliseconds after which a query is logged as slow
+     *         query.
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * Enables or disables parallel search. If enabled, queries that consist
+     * of term, phrase and boolean queries score the segments of the index
+     * concurrently on a thread pool shared by all search indexes.
+     *
+     * @param b <code>true</code> to enable parallel search.
+     */
+    public void setParallelSearch(boolean b) {
+        parallelSearch = b;
+    }
+
+    /**
+     * @return <code>true</code> if parallel search is enabled.
+     */
+    public boolean getParallelSearch() {
+        return parallelSearch;
+    }
+
+    /**
+     * Enables or disables the background commit of the volatile index. If
+     * enabled, an update that fills up the volatile index hands it over to a
+     * background thread, which copies it to a new persistent index segment.
+     * Updates continue on a new volatile index and queries search both
+     * volatile indexes until the copy is registered with the index.
+     *
+     * @param b <code>true</code> to commit the volatile index in the
+     *          background.
+     */
+    public void setBackgroundVolatileCommit(boolean b) {
+        backgroundVolatileCommit = b;
+    }
+
+    /**
+     * @return <code>true</code> if the volatile index is committed in the
+     *         background.
+     */
+    public boolean getBackgroundVolatileCommit() {
+        return backgroundVolatileCommit;
+    }
+
+    /**
+     * Returns the execution statistics of the queries on this index.
+     *
+     * @return the query statistics or <code>null</code> if disabled.
+     */
+    public QueryStatistics getQueryStatistics() {
+        return queryStatistics;
+    }
+
     /**
      * The number of background threads for the extractor pool.
      *
@@ -1617,8 +2127,48 @@ public class SearchIndex extends AbstractQueryHandler {
     }
 
     /**
-     * The number of extractor jobs that are queued until a new job is executed
-     * with the current thread instead of using the thread pool.
+     * Sets the maximum number of extractor threads that extract text of the
+     * same content type at the same time.
+     *
+     * @param numThreads the number of threads, or zero to use half of the
+     *                   extractor pool.
+     */
+    public void setExtractorPoolSizePerType(int numThreads) {
+        extractorPoolSizePerType = Math.max(numThreads, 0);
+    }
+
+    /**
+     * @return the maximum number of extractor threads that extract text of
+     *         the same content type at the same time.
+     */
+    public int getExtractorPoolSizePerType() {
+        return extractorPoolSizePerType;
+    }
+
+    /**
+     * Sets the number of threads that create the documents when the initial
+     * index is created. Each thread writes to its own index segment.
+     *
+     * @param numThreads the number of threads.
+     */
+    public void setInitialIndexingThreads(int numThreads) {
+        if (numThreads < 1) {
+            numThreads = 1;
+        }
+        initialIndexingThreads = numThreads;
+    }
+
+    /**
+     * @return the number of threads that create the documents when the
+     *         initial index is created.
+     */
+    public int getInitialIndexingThreads() {
+        return initialIndexingThreads;
+    }
+
+    /**
+     * The number of extractor jobs that are queued until the text extraction
+     * of further nodes is deferred to the indexing queue.
      *
      * @param backLog size of the extractor job queue.
      */
@@ -38,27 +38,43 @@ import java.util.ArrayList;
 class SharedFieldCache {
 
     /**
-     * Expert: Stores term text values and document ordering data.
+     * Expert: Stores term text values and document ordering data. Instead of
+     * a term value per document, each document refers to the ordinal of its
+     * term value, which keeps only one string per distinct value in memory.
      */
     public static class StringIndex {
 
         /**
-         * All the term values, in natural order.
+         * All the term values, in natural order. The first entry is
+         * <code>null</code> and used by documents without a value.
          */
         public final String[] lookup;
 
         /**
-         * Terms indexed by document id.
+         * The index into {@link #lookup} of the term value of each
+         * document, indexed by document id. Comparing the ordinals of two
+         * documents is the same as comparing their term values.
          */
-        public final String[] terms;
+        public final int[] order;
 
         /**
          * Creates one of these objects
          */
-        public StringIndex(String[] terms, String[] lookup) {
-            this.terms = terms;
+        public StringIndex(int[] order, String[] lookup) {
+            this.order = order;
             this.lookup = lookup;
         }
+
+        /**
+         * Returns the term value of a document.
+         *
+         * @param doc the document id.
+         * @return the term value or <code>null</code> if the document does
+         *         not have a value.
+         */
+        public String getTerm(int doc) {
+            return lookup[order[doc]];
+        }
     }
 
     /**
@@ -83,14 +99,11 @@ class SharedFieldCache {
      * shared <code>field</code>.
      * <p/>
      * This method is an adapted version of: <code>FieldCacheImpl.getStringIndex()</code>
-     * The returned string index will <b>not</b> have a term lookup array!
-     * See {@link SharedFieldSortComparator} for more info.
      *
      * @param reader     the <code>IndexReader</code>.
      * @param field      name of the shared field.
      * @param prefix     the property name, will be used as term prefix.
      * @param comparator the sort comparator instance.
-     * @param includeLookup if <code>true</code> provides term lookup in StringIndex.
      * @return a StringIndex that contains the field values and order
      *         information.
      * @throws IOException if an error occurs while reading from the index.
@@ -98,8 +111,7 @@ class SharedFieldCache {
     public SharedFieldCache.StringIndex getStringIndex(IndexReader reader,
                                                  String field,
                                                  String prefix,
-                                                 SortComparator comparator,
-                                                 boolean includeLookup)
+                                                 SortComparator comparator)
             throws IOException {
 
         if (reader instanceof ReadOnlyIndexReader) {
@@ -109,20 +121,15 @@ class SharedFieldCache {
         field = field.intern();
         SharedFieldCache.StringIndex ret = lookup(reader, field, prefix, comparator);
         if (ret == null) {
-            final String[] retArray = new String[reader.maxDoc()];
-            List mterms = null;
-            if (includeLookup) {
-                mterms = new ArrayList();
-            }
+            final int[] retArray = new int[reader.maxDoc()];
+            List mterms = new ArrayList();
+            // documents without a term will have a term number = 0
+            // thus will be at the top, this needs to be in sync with
+            // the implementation of FieldDocSortedHitQueue
+            mterms.add(null);
             if (retArray.length > 0) {
                 TermDocs termDocs = reader.termDocs();
                 TermEnum termEnum = reader.terms(new Term(field, prefix));
-                // documents without a term will have a term number = 0
-                // thus will be at the top, this needs to be in sync with
-                // the implementation of FieldDocSortedHitQueue
-                if (includeLookup) {
-                    mterms.add(null); // for documents with term number 0
-                }
 
                 try {
                     if (termEnum.term() == null) {
@@ -134,14 +141,13 @@ class SharedFieldCache {
                             break;
                         }
 
-                        // store term text
-                        if (includeLookup) {
-                            mterms.add(term.text().substring(prefix.length()));
-                        }
+                        // store term text once and its number per document
+                        int t = mterms.size();
+                        mterms.add(term.text().substring(prefix.length()));
 
                         termDocs.seek(termEnum);
                         while (termDocs.next()) {
-                            retArray[termDocs.doc()] = term.text().substring(prefix.length());
+                            retArray[termDocs.doc()] = t;
                         }
                     } while (termEnum.next());
                 } finally {
@@ -149,10 +155,7 @@ class SharedFieldCache {
                     termEnum.close();
                 }
             }
-            String[] lookup = null;
-            if (includeLookup) {
-                lookup = (String[]) mterms.toArray(new String[mterms.size()]);
-            }
+            String[] lookup = (String[]) mterms.toArray(new String[mterms.size()]);
             SharedFieldCache.StringIndex value = new SharedFieldCache.StringIndex(retArray, lookup);
             store(reader, field, prefix, comparator, value);
             return value;
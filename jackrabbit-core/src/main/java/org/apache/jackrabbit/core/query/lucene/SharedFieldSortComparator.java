@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.jackrabbit.core.query.lucene.SharedFieldCache.StringIndex;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.ScoreDocComparator;
@@ -107,7 +106,7 @@ public class SharedFieldSortComparator extends SortComparator {
             maxDoc += r.maxDoc();
             indexes[i] = SharedFieldCache.INSTANCE.getStringIndex(r, field,
                     FieldNames.createNamedValue(propertyName, ""),
-                    SharedFieldSortComparator.this, createComparatorValues);
+                    SharedFieldSortComparator.this);
         }
         starts[readers.size()] = maxDoc;
 
@@ -117,8 +116,16 @@ public class SharedFieldSortComparator extends SortComparator {
                 int idx1 = readerIndex(i.doc);
                 int idx2 = readerIndex(j.doc);
 
-                String iTerm = indexes[idx1].terms[i.doc - starts[idx1]];
-                String jTerm = indexes[idx2].terms[j.doc - starts[idx2]];
+                if (idx1 == idx2) {
+                    // ordinals of the same reader are in term order
+                    int[] order = indexes[idx1].order;
+                    int o1 = order[i.doc - starts[idx1]];
+                    int o2 = order[j.doc - starts[idx1]];
+                    return o1 < o2 ? -1 : (o1 == o2 ? 0 : 1);
+                }
+
+                String iTerm = indexes[idx1].getTerm(i.doc - starts[idx1]);
+                String jTerm = indexes[idx2].getTerm(j.doc - starts[idx2]);
 
                 if (iTerm == jTerm) {
                     return 0;
@@ -141,8 +148,8 @@ public class SharedFieldSortComparator extends SortComparator {
              */
             public Comparable sortValue(final ScoreDoc i) {
                 if (createComparatorValues) {
-                    StringIndex index = indexes[readerIndex(i.doc)];
-                    return index.terms[i.doc];
+                    int idx = readerIndex(i.doc);
+                    return indexes[idx].getTerm(i.doc - starts[idx]);
                 } else {
                     // return dummy value
                     return "";
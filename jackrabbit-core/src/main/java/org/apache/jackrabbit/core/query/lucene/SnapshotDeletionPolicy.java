@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.lucene.index.IndexCommitPoint;
+import org.apache.lucene.index.IndexDeletionPolicy;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps only the last commit of an index, except for the commit captured by
+ * a snapshot, which is kept until the snapshot is released.
+ * <p/>
+ * Unlike the lucene <code>SnapshotDeletionPolicy</code> the snapshot is
+ * identified by the name of its segments file. An {@link AbstractIndex}
+ * alternates between index readers and writers, which create new commit
+ * point instances for the same commit.
+ */
+class SnapshotDeletionPolicy implements IndexDeletionPolicy {
+
+    /**
+     * The last commit of the index, <code>null</code> if not yet known.
+     */
+    private IndexCommitPoint lastCommit;
+
+    /**
+     * The name of the segments file of the snapshot, <code>null</code> if
+     * there is no snapshot.
+     */
+    private String snapshot;
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void onInit(List commits) {
+        onCommit(commits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void onCommit(List commits) {
+        int last = commits.size() - 1;
+        for (int i = 0; i < last; i++) {
+            IndexCommitPoint commit = (IndexCommitPoint) commits.get(i);
+            if (!commit.getSegmentsFileName().equals(snapshot)) {
+                commit.delete();
+            }
+        }
+        lastCommit = (IndexCommitPoint) commits.get(last);
+    }
+
+    /**
+     * Captures the last commit. Its files are not deleted until
+     * {@link #release()} is called.
+     *
+     * @return the names of the files of the last commit.
+     * @throws IOException if the file names cannot be read.
+     * @throws IllegalStateException if there is already a snapshot or the
+     *          last commit is not known yet.
+     */
+    synchronized Collection snapshot() throws IOException {
+        if (snapshot != null) {
+            throw new IllegalStateException("snapshot already taken");
+        }
+        if (lastCommit == null) {
+            throw new IllegalStateException("no commit");
+        }
+        snapshot = lastCommit.getSegmentsFileName();
+        return lastCommit.getFileNames();
+    }
+
+    /**
+     * Releases the snapshot. Its files are deleted with the next commit.
+     */
+    synchronized void release() {
+        snapshot = null;
+    }
+}
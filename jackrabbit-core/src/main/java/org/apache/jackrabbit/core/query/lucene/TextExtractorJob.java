@@ -63,6 +63,11 @@ public class TextExtractorJob extends FutureResult implements Runnable {
      */
     private final String type;
 
+    /**
+     * The stream of the binary property.
+     */
+    private final InputStream stream;
+
     /**
      * Set to <code>true</code> if this job timed out.
      */
@@ -88,6 +93,7 @@ public class TextExtractorJob extends FutureResult implements Runnable {
                             final String type,
                             final String encoding) {
         this.type = type;
+        this.stream = stream;
         this.cmd = setter(new Callable() {
             public Object call() throws Exception {
                 Reader r = extractor.extractText(stream, type, encoding);
@@ -155,6 +161,30 @@ public class TextExtractorJob extends FutureResult implements Runnable {
         }
     }
 
+    /**
+     * @return <code>true</code> if this job has been discarded.
+     */
+    boolean isDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * Cancels this job without extracting text. The stream of the binary
+     * property is closed and {@link #getReader(long)} returns
+     * <code>null</code>.
+     */
+    void cancel() {
+        IOUtils.closeQuietly(stream);
+        set(null);
+    }
+
+    /**
+     * @return the mime type of the resource to extract text from.
+     */
+    String getType() {
+        return type;
+    }
+
     /**
      * @return a String description for this job with the mime type.
      */
@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>TextExtractorQueue</code> runs {@link TextExtractorJob}s on a fixed
+ * number of background threads.
+ * <p/>
+ * Jobs are queued per content type. The queue remembers the average time
+ * it took to extract the text of each content type, and the queued job
+ * with the earliest expected completion, i.e. the time it was offered plus
+ * the average time of its type, runs next. Cheap documents therefore
+ * overtake expensive ones, while an expensive document is delayed at most
+ * by its own expected extraction time. A job does not run if its content
+ * type already occupies the maximum number of threads per type. A burst of
+ * expensive documents of one type therefore cannot occupy all threads and
+ * documents of other types are still extracted within the extractor
+ * timeout.
+ * <p/>
+ * When the back log is full, {@link #offer(TextExtractorJob)} rejects the
+ * job instead of running it with the calling thread. The document is then
+ * put into the indexing queue, which offers the job again later.
+ */
+class TextExtractorQueue {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(TextExtractorQueue.class);
+
+    /**
+     * The maximum number of queued jobs.
+     */
+    private final int backLog;
+
+    /**
+     * The maximum number of threads that extract text of the same content
+     * type at the same time.
+     */
+    private final int maxThreadsPerType;
+
+    /**
+     * The queued jobs. Key=content type, value=LinkedList of QueuedJob.
+     */
+    private final Map queues = new HashMap();
+
+    /**
+     * The number of threads that currently extract text per content type.
+     * Key=content type, value=int[1].
+     */
+    private final Map running = new HashMap();
+
+    /**
+     * The average time in milliseconds to extract the text of a content
+     * type. Key=content type, value=long[1].
+     */
+    private final Map averageTimes = new HashMap();
+
+    /**
+     * The background threads.
+     */
+    private final Thread[] workers;
+
+    /**
+     * The number of queued jobs.
+     */
+    private int size = 0;
+
+    /**
+     * Set to <code>true</code> when this queue is shut down.
+     */
+    private boolean shutdown = false;
+
+    /**
+     * Creates a new queue and starts its background threads.
+     *
+     * @param poolSize          the number of background threads.
+     * @param backLog           the maximum number of queued jobs.
+     * @param maxThreadsPerType the maximum number of threads that extract
+     *                          text of the same content type at the same
+     *                          time.
+     */
+    TextExtractorQueue(int poolSize, int backLog, int maxThreadsPerType) {
+        this.backLog = Math.max(backLog, 1);
+        this.maxThreadsPerType = Math.max(maxThreadsPerType, 1);
+        this.workers = new Thread[poolSize];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(), "TextExtractor-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues the job for execution by a background thread.
+     *
+     * @param job the text extractor job.
+     * @return <code>true</code> if the job was queued; <code>false</code> if
+     *         the back log is full or this queue is shut down.
+     */
+    synchronized boolean offer(TextExtractorJob job) {
+        if (shutdown) {
+            return false;
+        }
+        if (size >= backLog) {
+            log.debug("Extractor back log full, deferring {}", job);
+            return false;
+        }
+        String type = getType(job);
+        LinkedList queue = (LinkedList) queues.get(type);
+        if (queue == null) {
+            queue = new LinkedList();
+            queues.put(type, queue);
+        }
+        queue.addLast(new QueuedJob(
+                job, System.currentTimeMillis() + getAverageTime(type)));
+        size++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Shuts down this queue. Running jobs are interrupted and queued jobs
+     * are discarded.
+     */
+    void shutdown() {
+        List discarded = new ArrayList();
+        synchronized (this) {
+            shutdown = true;
+            for (Iterator it = queues.values().iterator(); it.hasNext(); ) {
+                discarded.addAll((LinkedList) it.next());
+            }
+            queues.clear();
+            size = 0;
+            notifyAll();
+        }
+        for (Iterator it = discarded.iterator(); it.hasNext(); ) {
+            ((QueuedJob) it.next()).job.cancel();
+        }
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].interrupt();
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < workers.length; i++) {
+            for (;;) {
+                try {
+                    workers[i].join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Waits for the next job that may run and removes it from the queue.
+     *
+     * @return the next job or <code>null</code> if this queue is shut down.
+     */
+    private synchronized TextExtractorJob take() {
+        for (;;) {
+            if (shutdown) {
+                return null;
+            }
+            LinkedList next = null;
+            long nextDue = Long.MAX_VALUE;
+            for (Iterator it = queues.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) it.next();
+                LinkedList queue = (LinkedList) entry.getValue();
+                QueuedJob head = (QueuedJob) queue.getFirst();
+                if (head.due < nextDue
+                        && getRunning(entry.getKey()) < maxThreadsPerType) {
+                    next = queue;
+                    nextDue = head.due;
+                }
+            }
+            if (next != null) {
+                TextExtractorJob job = ((QueuedJob) next.removeFirst()).job;
+                String type = getType(job);
+                if (next.isEmpty()) {
+                    queues.remove(type);
+                }
+                size--;
+                getRunningCounter(type)[0]++;
+                return job;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // shutdown is checked again
+            }
+        }
+    }
+
+    /**
+     * Called when a background thread finished the given job.
+     *
+     * @param job  the job.
+     * @param time the time in milliseconds it took to run the job or
+     *             <code>-1</code> if the job was discarded.
+     */
+    private synchronized void finished(TextExtractorJob job, long time) {
+        String type = getType(job);
+        if (time >= 0) {
+            long[] average = (long[]) averageTimes.get(type);
+            if (average == null) {
+                averageTimes.put(type, new long[] {time});
+            } else {
+                average[0] = (3 * average[0] + time) / 4;
+            }
+        }
+        int[] counter = getRunningCounter(type);
+        if (--counter[0] == 0) {
+            running.remove(type);
+        }
+        // jobs of this type may run again
+        notifyAll();
+    }
+
+    /**
+     * @param type a content type.
+     * @return the average time in milliseconds to extract text of the given
+     *         type or <code>0</code> if no text of this type was extracted
+     *         yet.
+     */
+    private long getAverageTime(String type) {
+        long[] average = (long[]) averageTimes.get(type);
+        return average == null ? 0 : average[0];
+    }
+
+    /**
+     * @param type a content type.
+     * @return the number of threads that currently extract text of the given
+     *         type.
+     */
+    private int getRunning(Object type) {
+        int[] counter = (int[]) running.get(type);
+        return counter == null ? 0 : counter[0];
+    }
+
+    /**
+     * @param type a content type.
+     * @return the counter of running jobs of the given type.
+     */
+    private int[] getRunningCounter(String type) {
+        int[] counter = (int[]) running.get(type);
+        if (counter == null) {
+            counter = new int[1];
+            running.put(type, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * @param job a text extractor job.
+     * @return the content type of the job, never <code>null</code>.
+     */
+    private static String getType(TextExtractorJob job) {
+        String type = job.getType();
+        return type == null ? "" : type;
+    }
+
+    /**
+     * A queued job with its expected completion time.
+     */
+    private static final class QueuedJob {
+
+        private final TextExtractorJob job;
+
+        private final long due;
+
+        private QueuedJob(TextExtractorJob job, long due) {
+            this.job = job;
+            this.due = due;
+        }
+    }
+
+    /**
+     * Runs the queued jobs until this queue is shut down.
+     */
+    private final class Worker implements Runnable {
+
+        public void run() {
+            TextExtractorJob job;
+            while ((job = take()) != null) {
+                long time = -1;
+                try {
+                    if (job.isDiscarded()) {
+                        job.cancel();
+                    } else {
+                        long start = System.currentTimeMillis();
+                        job.run();
+                        time = System.currentTimeMillis() - start;
+                    }
+                } catch (Throwable t) {
+                    log.warn("Exception in text extractor thread", t);
+                } finally {
+                    finished(job, time);
+                }
+            }
+        }
+    }
+}
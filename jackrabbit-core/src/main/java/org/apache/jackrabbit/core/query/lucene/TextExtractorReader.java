@@ -47,9 +47,9 @@ class TextExtractorReader extends Reader {
     private TextExtractorJob job;
 
     /**
-     * The pooled executor.
+     * The queue that runs the job in a background thread.
      */
-    private final Executor executor;
+    private final TextExtractorQueue queue;
 
     /**
      * The timeout in milliseconds to wait at most for the text extractor
@@ -63,17 +63,23 @@ class TextExtractorReader extends Reader {
      */
     private boolean jobStarted = false;
 
+    /**
+     * Set to <code>true</code> when the text extractor did not provide a
+     * reader and an empty text is returned instead.
+     */
+    private boolean failed = false;
+
     /**
      * Creates a new <code>TextExtractorReader</code> with the given
      * <code>job</code>.
      *
-     * @param job      the extractor job.
-     * @param executor the executor to use when text extraction is requested.
-     * @param timeout  the timeout to wait at most for the text extractor.
+     * @param job     the extractor job.
+     * @param queue   the queue that runs the job in a background thread.
+     * @param timeout the timeout to wait at most for the text extractor.
      */
-    TextExtractorReader(TextExtractorJob job, Executor executor, long timeout) {
+    TextExtractorReader(TextExtractorJob job, TextExtractorQueue queue, long timeout) {
         this.job = job;
-        this.executor = executor;
+        this.queue = queue;
         this.timeout = timeout;
     }
 
@@ -115,6 +121,7 @@ class TextExtractorReader extends Reader {
             if (extractedText == null) {
                 // exception occurred
                 extractedText = new StringReader("");
+                failed = true;
             }
         }
         return extractedText.read(cbuf, off, len);
@@ -126,13 +133,11 @@ class TextExtractorReader extends Reader {
      */
     public boolean isExtractorFinished() {
         if (!jobStarted) {
-            try {
-                executor.execute(job);
-                jobStarted = true;
-            } catch (InterruptedException e) {
-                // this thread is in interrupted state
+            if (!queue.offer(job)) {
+                // back log is full, try again later
                 return false;
             }
+            jobStarted = true;
             extractedText = job.getReader(timeout);
         } else {
             // job is already running, check for immediate result
@@ -142,8 +147,18 @@ class TextExtractorReader extends Reader {
         if (extractedText == null && job.getException() != null) {
             // exception occurred
             extractedText = new StringReader("");
+            failed = true;
         }
 
         return extractedText != null;
     }
+
+    /**
+     * @return <code>true</code> if the text extractor provided the text of
+     *         this reader; <code>false</code> if it failed or has not finished
+     *         yet.
+     */
+    boolean isTextExtracted() {
+        return extractedText != null && !failed;
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopFieldDocs;
+
+import java.io.IOException;
+
+/**
+ * <code>TopFieldDocsQueryHits</code> returns the first <code>n</code> hits
+ * of a sorted query, which are collected in a priority queue of size
+ * <code>n</code> while the query is executed. Memory use is therefore
+ * proportional to <code>n</code> rather than to the number of matches.
+ * <p/>
+ * If more than <code>n</code> hits are requested, e.g. because some of the
+ * first hits are not readable by the session, the query is executed again
+ * for twice as many hits.
+ */
+class TopFieldDocsQueryHits extends AbstractQueryHits {
+
+    /**
+     * The searcher that executes the query.
+     */
+    private final Searcher searcher;
+
+    /**
+     * The index reader of the searcher.
+     */
+    private final IndexReader reader;
+
+    /**
+     * The query to execute.
+     */
+    private final Query query;
+
+    /**
+     * The filter to apply or <code>null</code> if none.
+     */
+    private final Filter filter;
+
+    /**
+     * The sort criteria.
+     */
+    private final Sort sort;
+
+    /**
+     * The top hits collected so far.
+     */
+    private TopFieldDocs docs;
+
+    /**
+     * The factor to normalize the scores, as done by lucene
+     * <code>Hits</code>.
+     */
+    private float scoreNorm;
+
+    /**
+     * The index of the current hit. Initially invalid.
+     */
+    private int hitIndex = -1;
+
+    /**
+     * Executes the query and collects the first <code>n</code> hits.
+     *
+     * @param searcher the searcher.
+     * @param reader   the index reader of the searcher.
+     * @param query    the query to execute.
+     * @param filter   the filter to apply or <code>null</code> if none.
+     * @param sort     the sort criteria.
+     * @param n        the number of hits to collect initially.
+     * @throws IOException if an error occurs while executing the query.
+     */
+    TopFieldDocsQueryHits(Searcher searcher,
+                          IndexReader reader,
+                          Query query,
+                          Filter filter,
+                          Sort sort,
+                          int n) throws IOException {
+        this.searcher = searcher;
+        this.reader = reader;
+        this.query = query;
+        this.filter = filter;
+        this.sort = sort;
+        collect(Math.max(n, 1));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getSize() {
+        return docs.totalHits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScoreNode nextScoreNode() throws IOException {
+        if (++hitIndex >= docs.totalHits) {
+            return null;
+        }
+        if (hitIndex >= docs.scoreDocs.length) {
+            collect(Math.max(hitIndex + 1, docs.scoreDocs.length * 2));
+        }
+        ScoreDoc sd = docs.scoreDocs[hitIndex];
+        String uuid = reader.document(sd.doc, FieldSelectors.UUID).get(FieldNames.UUID);
+        return new ScoreNode(NodeId.valueOf(uuid), sd.score * scoreNorm, sd.doc);
+    }
+
+    /**
+     * Skips <code>n</code> hits.
+     *
+     * @param n the number of hits to skip.
+     */
+    public void skip(int n) {
+        hitIndex += n;
+    }
+
+    /**
+     * Executes the query and collects the first <code>n</code> hits.
+     *
+     * @param n the number of hits to collect.
+     * @throws IOException if an error occurs while executing the query.
+     */
+    private void collect(int n) throws IOException {
+        docs = searcher.search(query, filter, n, sort);
+        float maxScore = docs.getMaxScore();
+        scoreNorm = maxScore > 1.0f ? 1.0f / maxScore : 1.0f;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * <code>UpdateOrder</code> hands out tickets to concurrent index updates.
+ * The updates may prepare their documents in parallel, but apply them to
+ * the index in ticket order. This guarantees that the index reflects the
+ * latest state of a node that is modified by concurrent updates.
+ */
+class UpdateOrder {
+
+    /**
+     * The ticket of the next update.
+     */
+    private long nextTicket = 0;
+
+    /**
+     * The ticket of the update that may apply its changes to the index.
+     */
+    private long turn = 0;
+
+    /**
+     * @return the ticket of a new update.
+     */
+    synchronized long nextTicket() {
+        return nextTicket++;
+    }
+
+    /**
+     * Waits until all updates with a lower ticket are finished.
+     *
+     * @param ticket the ticket of the update.
+     * @throws InterruptedException if the thread is interrupted while
+     *                              waiting.
+     */
+    synchronized void waitForTurn(long ticket) throws InterruptedException {
+        while (turn < ticket) {
+            wait();
+        }
+    }
+
+    /**
+     * Lets the update with the next ticket apply its changes. Waits for the
+     * turn of the given ticket first, in case the update failed before it
+     * got its turn. The interrupted status of the thread is preserved.
+     *
+     * @param ticket the ticket of the finished update.
+     */
+    synchronized void finish(long ticket) {
+        boolean interrupted = false;
+        while (turn < ticket) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (turn == ticket) {
+            turn++;
+        }
+        notifyAll();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
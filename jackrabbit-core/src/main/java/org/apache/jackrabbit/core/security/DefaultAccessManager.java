@@ -26,6 +26,7 @@ import org.apache.jackrabbit.core.ItemId;
 import org.apache.jackrabbit.core.security.authorization.AccessControlEditor;
 import org.apache.jackrabbit.core.security.authorization.AccessControlProvider;
 import org.apache.jackrabbit.core.security.authorization.CompiledPermissions;
+import org.apache.jackrabbit.core.security.authorization.HierarchicalReadPermissions;
 import org.apache.jackrabbit.core.security.authorization.Permission;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeRegistry;
 import org.apache.jackrabbit.core.security.authorization.WorkspaceAccessManager;
@@ -72,7 +73,8 @@ import java.util.Arrays;
  * @see AccessManager
  * @see AccessControlManager
  */
-public class DefaultAccessManager extends AbstractAccessControlManager implements AccessManager {
+public class DefaultAccessManager extends AbstractAccessControlManager
+        implements AccessManager, HierarchicalReadPermissions {
 
     private static final Logger log = LoggerFactory.getLogger(DefaultAccessManager.class);
     private static final CompiledPermissions NO_PERMISSION = new CompiledPermissions() {
@@ -370,6 +372,24 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
         return editor.editAccessControlPolicies(principal);
     }
 
+    //---------------------------------------< HierarchicalReadPermissions >---
+    /**
+     * Returns <code>null</code> if READ permission is granted everywhere,
+     * because every single check is cheap in that case.
+     *
+     * @see HierarchicalReadPermissions#getReadPermissionRoots()
+     */
+    public Path[] getReadPermissionRoots() throws RepositoryException {
+        checkInitialized();
+        if (compiledPermissions.canReadAll()) {
+            return null;
+        } else if (compiledPermissions instanceof HierarchicalReadPermissions) {
+            return ((HierarchicalReadPermissions) compiledPermissions).getReadPermissionRoots();
+        } else {
+            return null;
+        }
+    }
+
     //---------------------------------------< AbstractAccessControlManager >---
     /**
      * @see AbstractAccessControlManager#checkInitialized()
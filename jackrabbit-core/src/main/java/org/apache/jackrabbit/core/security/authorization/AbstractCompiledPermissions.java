@@ -17,20 +17,48 @@
 package org.apache.jackrabbit.core.security.authorization;
 
 import org.apache.commons.collections.map.LRUMap;
+import org.apache.jackrabbit.core.state.Cache;
+import org.apache.jackrabbit.core.state.CacheAccessListener;
+import org.apache.jackrabbit.core.state.CacheManager;
 import org.apache.jackrabbit.spi.Path;
 
 import javax.jcr.RepositoryException;
 
 /**
  * <code>AbstractCompiledPermissions</code>...
+ * <p/>
+ * The results are kept in a LRU cache that is managed by the
+ * {@link CacheManager}. Its memory usage is estimated using
+ * {@link #ENTRY_SIZE} bytes per cached result.
  */
-public abstract class AbstractCompiledPermissions implements CompiledPermissions {
+public abstract class AbstractCompiledPermissions implements CompiledPermissions, Cache {
+
+    // initial number of cached results
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    // minimum number of cached results
+    private static final int MIN_CACHE_SIZE = 100;
+
+    // estimated memory used by a cached result including its path
+    static final int ENTRY_SIZE = 256;
+
+    // monitor guarding the cache, which is replaced if it is resized
+    private final Object monitor = new Object();
 
     // cache mapping a Path to a 'Result' containing permissions and privileges.
-    private final LRUMap cache;
+    private LRUMap cache;
+
+    private long accessCount;
+
+    private long missCount;
+
+    private CacheAccessListener accessListener;
 
     protected AbstractCompiledPermissions() {
-        cache = new LRUMap(1000);
+        cache = new LRUMap(DEFAULT_CACHE_SIZE);
+        CacheManager cacheMgr = CacheManager.getInstance();
+        cacheMgr.add(this);
+        setAccessListener(cacheMgr);
     }
 
     /**
@@ -40,12 +68,24 @@ public abstract class AbstractCompiledPermissions implements CompiledPermissions
      */
     public Result getResult(Path absPath) throws RepositoryException {
         Result result;
-        synchronized (cache) {
+        boolean notify;
+        synchronized (monitor) {
+            accessCount++;
             result = (Result) cache.get(absPath);
             if (result == null) {
+                missCount++;
                 result = buildResult(absPath);
                 cache.put(absPath, result);
             }
+            notify = accessCount % CacheAccessListener.ACCESS_INTERVAL == 0;
+        }
+        if (notify) {
+            // inform the listener outside of the monitor as it may resize
+            // other caches
+            CacheAccessListener listener = accessListener;
+            if (listener != null) {
+                listener.cacheAccessed();
+            }
         }
         return result;
     }
@@ -62,7 +102,7 @@ public abstract class AbstractCompiledPermissions implements CompiledPermissions
      *
      */
     protected void clearCache() {
-        synchronized (cache) {
+        synchronized (monitor) {
             cache.clear();
         }
     }
@@ -73,6 +113,10 @@ public abstract class AbstractCompiledPermissions implements CompiledPermissions
      */
     public void close() {
         clearCache();
+        CacheAccessListener listener = accessListener;
+        if (listener != null) {
+            listener.disposeCache(this);
+        }
     }
 
     /**
@@ -96,6 +140,78 @@ public abstract class AbstractCompiledPermissions implements CompiledPermissions
         return false;
     }
 
+    //--------------------------------------------------------------< Cache >---
+    /**
+     * Converts the memory size into a number of cached results. The most
+     * recently used results are kept if the cache shrinks.
+     *
+     * @see Cache#setMaxMemorySize(long)
+     */
+    public void setMaxMemorySize(long size) {
+        int maxSize = (int) Math.max(MIN_CACHE_SIZE,
+                Math.min(Integer.MAX_VALUE, size / ENTRY_SIZE));
+        synchronized (monitor) {
+            if (cache.maxSize() != maxSize) {
+                LRUMap resized = new LRUMap(maxSize);
+                resized.putAll(cache);
+                cache = resized;
+            }
+        }
+    }
+
+    /**
+     * @see Cache#getMaxMemorySize()
+     */
+    public long getMaxMemorySize() {
+        synchronized (monitor) {
+            return (long) cache.maxSize() * ENTRY_SIZE;
+        }
+    }
+
+    /**
+     * @see Cache#getMemoryUsed()
+     */
+    public long getMemoryUsed() {
+        synchronized (monitor) {
+            return (long) cache.size() * ENTRY_SIZE;
+        }
+    }
+
+    /**
+     * @see Cache#getAccessCount()
+     */
+    public long getAccessCount() {
+        synchronized (monitor) {
+            return accessCount;
+        }
+    }
+
+    /**
+     * @see Cache#getMissCount()
+     */
+    public long getMissCount() {
+        synchronized (monitor) {
+            return missCount;
+        }
+    }
+
+    /**
+     * @see Cache#resetAccessCount()
+     */
+    public void resetAccessCount() {
+        synchronized (monitor) {
+            accessCount = 0;
+            missCount = 0;
+        }
+    }
+
+    /**
+     * @see Cache#setAccessListener(CacheAccessListener)
+     */
+    public void setAccessListener(CacheAccessListener listener) {
+        accessListener = listener;
+    }
+
     //--------------------------------------------------------< inner class >---
     /**
      *
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization;
+
+import org.apache.jackrabbit.spi.Path;
+
+import javax.jcr.RepositoryException;
+
+/**
+ * <code>HierarchicalReadPermissions</code> is an optional interface for
+ * evaluations of READ permission that are inherited along the hierarchy.
+ * It allows to determine the READ permission for whole subtrees at once, for
+ * example when the nodes of a query result are filtered.
+ */
+public interface HierarchicalReadPermissions {
+
+    /**
+     * Returns the paths of the nodes where the READ permission may differ
+     * from the READ permission of the parent node. The root path is always
+     * contained. The READ permission of a node, which is not an access
+     * control item, equals the READ permission of its nearest
+     * ancestor-or-self that is contained in the returned array.
+     * <p/>
+     * Implementations return a new array whenever the permissions or the
+     * paths change, otherwise they may return the same array instance again.
+     * The paths may lag behind concurrent changes of the workspace, callers
+     * may therefore only use them to skip items that are known to be denied
+     * and must still check the READ permission of every item they expose.
+     *
+     * @return the paths where the READ permission may change or
+     *         <code>null</code> if the READ permission must be evaluated for
+     *         each item separately.
+     * @throws RepositoryException if an error occurs.
+     */
+    Path[] getReadPermissionRoots() throws RepositoryException;
+}
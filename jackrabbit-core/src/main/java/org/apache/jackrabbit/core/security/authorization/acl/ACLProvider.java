@@ -34,6 +34,7 @@ import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
 import org.apache.jackrabbit.core.security.authorization.AccessControlEditor;
 import org.apache.jackrabbit.core.security.authorization.AccessControlProvider;
 import org.apache.jackrabbit.core.security.authorization.CompiledPermissions;
+import org.apache.jackrabbit.core.security.authorization.HierarchicalReadPermissions;
 import org.apache.jackrabbit.core.security.authorization.Permission;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeRegistry;
 import org.apache.jackrabbit.core.security.authorization.UnmodifiableAccessControlList;
@@ -65,6 +66,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Arrays;
 
 /**
@@ -111,6 +113,24 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
      */
     private boolean initializedWithDefaults;
 
+    /**
+     * Number of nodes removed or moved in the workspace so far. The paths of
+     * the nodes where the READ permission may change are resolved again
+     * whenever this number changes.
+     */
+    private int hierarchyChanges = 0;
+
+    /**
+     * Counts the nodes removed or moved in the workspace.
+     */
+    private final SynchronousEventListener hierarchyListener = new SynchronousEventListener() {
+        public void onEvent(EventIterator events) {
+            synchronized (ACLProvider.this) {
+                hierarchyChanges++;
+            }
+        }
+    };
+
     //-------------------------------------------------< AccessControlUtils >---
     /**
      * @see AbstractAccessControlProvider#isAcItem(Path)
@@ -150,6 +170,21 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
         if (initializedWithDefaults && !isAccessControlled(root)) {
             initRootACL(session, systemEditor);
         }
+        // a move is reported as removal at the source path
+        observationMgr.addEventListener(hierarchyListener, Event.NODE_REMOVED,
+                session.getRootNode().getPath(), true, null, null, false);
+    }
+
+    /**
+     * @see AccessControlProvider#close()
+     */
+    public void close() {
+        try {
+            observationMgr.removeEventListener(hierarchyListener);
+        } catch (RepositoryException e) {
+            log.debug("Unable to unregister listener: ", e.getMessage());
+        }
+        super.close();
     }
 
     /**
@@ -329,11 +364,48 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
     /**
      *
      */
-    private class AclPermissions extends AbstractCompiledPermissions implements SynchronousEventListener {
+    private class AclPermissions extends AbstractCompiledPermissions
+            implements SynchronousEventListener, HierarchicalReadPermissions {
 
         private final List principalNames;
         private final String jcrReadPrivilegeName;
 
+        /**
+         * flag indicating that this instance is notified about ACL changes.
+         */
+        private final boolean listenToEvents;
+
+        /**
+         * the ids of the access controlled nodes found by a search, where the
+         * READ permission may change, or <code>null</code> if not yet
+         * searched.
+         */
+        private Set searchedRootIds;
+
+        /**
+         * the ids of the access controlled nodes whose ACL changed while this
+         * instance listened to events. they complement the search result,
+         * which may not yet reflect the latest changes of the index.
+         */
+        private final Set observedRootIds = new HashSet();
+
+        /**
+         * the paths of the nodes where the READ permission may change or
+         * <code>null</code> if they need to be resolved again.
+         */
+        private Path[] readPermissionRoots;
+
+        /**
+         * the number of hierarchy changes when {@link #readPermissionRoots}
+         * were resolved.
+         */
+        private int readPermissionRootsChanges;
+
+        /**
+         * incremented whenever the cached permissions are cleared.
+         */
+        private int generation = 0;
+
         /**
          * flag indicating that there is not 'deny READ'.
          * -> simplify {@link #grants(Path, int)} in case of permissions == READ
@@ -350,6 +422,7 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
                 principalNames.add(((Principal) it.next()).getName());
             }
             jcrReadPrivilegeName = session.getAccessControlManager().privilegeFromName(Privilege.JCR_READ).getName();
+            this.listenToEvents = listenToEvents;
 
             if (listenToEvents) {
                 /*
@@ -394,18 +467,7 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
                     stmt.append("//element(*,");
                     stmt.append(resolver.getJCRName(NT_REP_DENY_ACE));
                     stmt.append(")[(");
-
-                    // where the rep:principalName property exactly matches any of
-                    // the given principalsNames
-                    int i = 0;
-                    Iterator itr = principalnames.iterator();
-                    while (itr.hasNext()) {
-                        stmt.append("@").append(resolver.getJCRName(P_PRINCIPAL_NAME)).append(" eq ");
-                        stmt.append("'").append(itr.next().toString()).append("'");
-                        if (++i < principalnames.size()) {
-                            stmt.append(" or ");
-                        }
-                    }
+                    appendPrincipalConstraint(stmt, principalnames);
                     // AND rep:privileges contains the READ privilege
                     stmt.append(") and @");
                     stmt.append(resolver.getJCRName(P_PRIVILEGES));
@@ -423,6 +485,111 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
             return isReadAllowed;
         }
 
+        /**
+         * Appends a constraint to <code>stmt</code> that matches ACEs whose
+         * rep:principalName property exactly matches any of the given
+         * principal names.
+         *
+         * @param stmt           the XPath statement.
+         * @param principalnames the principal names.
+         * @throws RepositoryException if a name cannot be resolved.
+         */
+        private void appendPrincipalConstraint(StringBuffer stmt, Collection principalnames)
+                throws RepositoryException {
+            int i = 0;
+            Iterator itr = principalnames.iterator();
+            while (itr.hasNext()) {
+                stmt.append("@").append(resolver.getJCRName(P_PRINCIPAL_NAME)).append(" eq ");
+                stmt.append("'").append(itr.next().toString().replaceAll("'", "''")).append("'");
+                if (++i < principalnames.size()) {
+                    stmt.append(" or ");
+                }
+            }
+        }
+
+        /**
+         * Searches the access controlled nodes that have an ACE for any of
+         * the principals. The READ permission only changes at these nodes.
+         *
+         * @param principalnames the principal names.
+         * @return the ids of the access controlled nodes.
+         * @throws RepositoryException if the search fails.
+         */
+        private Set collectReadPermissionRoots(Collection principalnames)
+                throws RepositoryException {
+            Set ids = new HashSet();
+            boolean allowed;
+            synchronized (this) {
+                allowed = readAllowed;
+            }
+            if (!allowed && !principalnames.isEmpty()) {
+                QueryManager qm = session.getWorkspace().getQueryManager();
+                StringBuffer stmt = new StringBuffer("/jcr:root");
+                stmt.append("//element(*,");
+                stmt.append(resolver.getJCRName(NT_REP_ACE));
+                stmt.append(")[");
+                appendPrincipalConstraint(stmt, principalnames);
+                stmt.append("]");
+
+                Query q = qm.createQuery(stmt.toString(), Query.XPATH);
+                NodeIterator it = q.execute().getNodes();
+                while (it.hasNext()) {
+                    // ace node -> acl node -> access controlled node. the
+                    // nodes are loaded by id, a moved node is found anyway
+                    NodeImpl controlled = (NodeImpl) it.nextNode().getParent().getParent();
+                    ids.add(controlled.getNodeId());
+                }
+            }
+            return ids;
+        }
+
+        /**
+         * Resolves the current paths of the access controlled nodes. Nodes
+         * that do not exist anymore are ignored.
+         *
+         * @param ids the ids of the access controlled nodes.
+         * @return the paths of the access controlled nodes including the
+         *         root path.
+         * @throws RepositoryException if a path cannot be resolved.
+         */
+        private Path[] resolveReadPermissionRoots(Set ids)
+                throws RepositoryException {
+            Set paths = new HashSet();
+            paths.add(PathFactoryImpl.getInstance().getRootPath());
+            for (Iterator it = ids.iterator(); it.hasNext();) {
+                try {
+                    paths.add(session.getHierarchyManager().getPath((NodeId) it.next()));
+                } catch (ItemNotFoundException e) {
+                    // removed in the meantime
+                }
+            }
+            return (Path[]) paths.toArray(new Path[paths.size()]);
+        }
+
+        /**
+         * Remembers the access controlled node of the ACL item at
+         * <code>path</code>, whose ACL is being modified.
+         *
+         * @param path the path of an ACL or ACE node or of one of its
+         *             properties.
+         * @throws RepositoryException if the path cannot be resolved.
+         */
+        private void observeReadPermissionRoot(String path)
+                throws RepositoryException {
+            Path qPath = session.getQPath(path);
+            Path.Element[] elems = qPath.getElements();
+            for (int i = 1; i < elems.length; i++) {
+                if (N_POLICY.equals(elems[i].getName())) {
+                    Path controlled = qPath.getAncestor(elems.length - i);
+                    NodeId id = session.getHierarchyManager().resolveNodePath(controlled);
+                    if (id != null && observedRootIds.add(id)) {
+                        readPermissionRoots = null;
+                    }
+                    return;
+                }
+            }
+        }
+
         //------------------------------------< AbstractCompiledPermissions >---
         /**
          * @see AbstractCompiledPermissions#buildResult(Path)
@@ -537,6 +704,47 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
             }
         }
 
+        //------------------------------------< HierarchicalReadPermissions >---
+        /**
+         * @see HierarchicalReadPermissions#getReadPermissionRoots()
+         */
+        public Path[] getReadPermissionRoots() throws RepositoryException {
+            if (!listenToEvents) {
+                // unable to tell when the collected paths become stale
+                return null;
+            }
+            int changes;
+            synchronized (ACLProvider.this) {
+                changes = hierarchyChanges;
+            }
+            Set searched;
+            int gen;
+            synchronized (this) {
+                if (readPermissionRoots != null
+                        && readPermissionRootsChanges == changes) {
+                    return readPermissionRoots;
+                }
+                searched = searchedRootIds;
+                gen = generation;
+            }
+            if (searched == null) {
+                // search without holding the monitor, which is also used
+                // to process events
+                searched = collectReadPermissionRoots(principalNames);
+            }
+            synchronized (this) {
+                Set ids = new HashSet(searched);
+                ids.addAll(observedRootIds);
+                Path[] roots = resolveReadPermissionRoots(ids);
+                if (gen == generation) {
+                    searchedRootIds = searched;
+                    readPermissionRoots = roots;
+                    readPermissionRootsChanges = changes;
+                }
+                return roots;
+            }
+        }
+
         //--------------------------------------------------< EventListener >---
         /**
          * @see EventListener#onEvent(EventIterator)
@@ -545,10 +753,16 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
             // only invalidate cache if any of the events affects the
             // nodes defining permissions for principals compiled here.
             boolean clearCache = false;
-            while (events.hasNext() && !clearCache) {
+            while (events.hasNext()) {
                 try {
                     Event ev = events.nextEvent();
                     String path = ev.getPath();
+                    // the READ permission may change at the access controlled
+                    // node, whether or not the ACL is known to the index yet
+                    observeReadPermissionRoot(path);
+                    if (clearCache) {
+                        continue;
+                    }
                     switch (ev.getType()) {
                         case Event.NODE_ADDED:
                             // test if the new node is an ACE node that affects
@@ -609,6 +823,9 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
                 }
             }
             if (clearCache) {
+                searchedRootIds = null;
+                readPermissionRoots = null;
+                generation++;
                 clearCache();
             }
         }
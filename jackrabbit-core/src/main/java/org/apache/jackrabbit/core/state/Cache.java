@@ -20,6 +20,10 @@ package org.apache.jackrabbit.core.state;
  * A <code>Cache</code> object
  * A cache must call <code>CacheManager.getInstance().add(this)</code>
  * to take part in the dynamic memory distribution.
+ * <p/>
+ * Caches that count entries instead of bytes report an estimate of their
+ * memory usage and convert the memory limit set by the cache manager into
+ * an entry limit.
  */
 public interface Cache {
 
@@ -49,7 +53,16 @@ public interface Cache {
     long getAccessCount();
 
     /**
-     * Reset the access counter.
+     * Get the number of accesses that did not find the requested entry in
+     * the cache until resetAccessCount was called. The cache manager uses
+     * the misses of a full cache to estimate how much the cache would
+     * benefit from more memory.
+     * @return the count
+     */
+    long getMissCount();
+
+    /**
+     * Reset the access and miss counters.
      */
     void resetAccessCount();
 
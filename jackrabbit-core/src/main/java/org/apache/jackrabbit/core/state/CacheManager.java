@@ -18,8 +18,10 @@ package org.apache.jackrabbit.core.state;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.WeakHashMap;
 
+import org.apache.jackrabbit.core.util.ManagementUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,13 +36,53 @@ import org.slf4j.LoggerFactory;
  * distributing the memory in this way, there might be some unused memory (if
  * one or more caches did not use some of the allocated memory). This unused
  * memory is distributed evenly across the full caches.
- *
+ * <p/>
+ * In addition to the access count and used memory, a part of the memory is
+ * distributed according to the number of cache misses of the caches that
+ * were full. A miss in a full cache is an access that more memory could
+ * have turned into a hit, so this part moves memory to the caches that
+ * benefit most from it. To avoid oscillation, a full cache never loses
+ * more than half of its memory in one step.
+ * <p/>
+ * All caches of a JVM share a single memory budget: caches register with
+ * the {@link #getInstance() global instance}. The global instance is
+ * registered as a standard MBean under the name {@link #OBJECT_NAME} if the
+ * platform MBean server is available, which exports the limits as well as
+ * statistics about each cache. The limits of the global instance can be set
+ * with system properties, see {@link #getInstance()}. By default, 16 MB are
+ * distributed and a single cache gets at most 4 MB. A cache whose size is
+ * explicitly configured, like the bundle cache of a persistence manager, is
+ * registered with that size and never shrunk below it.
  */
-public class CacheManager implements CacheAccessListener {
+public class CacheManager implements CacheAccessListener, CacheManagerMBean {
 
     /** The logger instance. */
     private static Logger log = LoggerFactory.getLogger(CacheManager.class);
 
+    /** The name under which the global instance is registered in JMX. */
+    public static final String OBJECT_NAME = "org.apache.jackrabbit:type=CacheManager";
+
+    /**
+     * The system property that sets the maximum amount of memory in bytes
+     * the global instance distributes across the caches.
+     */
+    public static final String MAX_MEMORY_PROPERTY =
+            "org.apache.jackrabbit.cache.maxMemory";
+
+    /**
+     * The system property that sets the maximum memory in bytes the global
+     * instance assigns to a single cache.
+     */
+    public static final String MAX_MEMORY_PER_CACHE_PROPERTY =
+            "org.apache.jackrabbit.cache.maxMemoryPerCache";
+
+    /**
+     * The system property that sets the minimum memory in bytes the global
+     * instance assigns to a single cache.
+     */
+    public static final String MIN_MEMORY_PER_CACHE_PROPERTY =
+            "org.apache.jackrabbit.cache.minMemoryPerCache";
+
     /** The default maximum amount of memory to distribute across the caches. */
     private static final long DEFAULT_MAX_MEMORY = 16 * 1024 * 1024;
 
@@ -50,7 +92,13 @@ public class CacheManager implements CacheAccessListener {
     /** The default maximum memory per cache. */
     private static final long DEFAULT_MAX_MEMORY_PER_CACHE = 4 * 1024 * 1024;
 
-    /** The set of caches (weakly referenced). */
+    /** The global instance, created on first use. */
+    private static CacheManager instance;
+
+    /**
+     * The set of caches (weakly referenced), mapped to their
+     * {@link CacheStatistics}.
+     */
     private WeakHashMap caches = new WeakHashMap();
 
     /** The default minimum resize interval (in ms). */
@@ -71,9 +119,52 @@ public class CacheManager implements CacheAccessListener {
     /** The minimum resize interval time */
     private long minResizeInterval = DEFAULT_MIN_RESIZE_INTERVAL;
 
-        /** The last time the caches where resized. */
+    /** The last time the caches where resized. */
     private volatile long nextResize = System.currentTimeMillis() + DEFAULT_MIN_RESIZE_INTERVAL;
 
+    /**
+     * Returns the global cache manager. All caches that register with this
+     * instance share a single memory budget. When the instance is created,
+     * its limits are read from the system properties
+     * {@link #MAX_MEMORY_PROPERTY}, {@link #MAX_MEMORY_PER_CACHE_PROPERTY}
+     * and {@link #MIN_MEMORY_PER_CACHE_PROPERTY}, and it is registered with
+     * the platform MBean server.
+     *
+     * @return the global cache manager
+     */
+    public static synchronized CacheManager getInstance() {
+        if (instance == null) {
+            instance = new CacheManager();
+            instance.setMaxMemory(getLimit(
+                    MAX_MEMORY_PROPERTY, DEFAULT_MAX_MEMORY));
+            instance.setMaxMemoryPerCache(getLimit(
+                    MAX_MEMORY_PER_CACHE_PROPERTY, DEFAULT_MAX_MEMORY_PER_CACHE));
+            instance.setMinMemoryPerCache(getLimit(
+                    MIN_MEMORY_PER_CACHE_PROPERTY, DEFAULT_MIN_MEMORY_PER_CACHE));
+            instance.registerMBean();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the memory limit set by a system property.
+     *
+     * @param name the name of the system property
+     * @param defaultValue the limit if the property is not set or invalid
+     * @return the limit in bytes
+     */
+    private static long getLimit(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value for " + name + ": " + value
+                        + ", using " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
 
     public long getMaxMemory() {
         return maxMemory;
@@ -105,6 +196,9 @@ public class CacheManager implements CacheAccessListener {
 
     public void setMinResizeInterval(long minResizeInterval) {
         this.minResizeInterval = minResizeInterval;
+        // apply a shorter interval immediately
+        nextResize = Math.min(nextResize,
+                System.currentTimeMillis() + minResizeInterval);
     }
 
     /**
@@ -140,9 +234,12 @@ public class CacheManager implements CacheAccessListener {
         // so can't use size() / keySet() directly
         // only using the iterator guarantees that we don't get null references
         ArrayList list = new ArrayList();
+        ArrayList stats = new ArrayList();
         synchronized (caches) {
-            for (Iterator it = caches.keySet().iterator(); it.hasNext();) {
-                list.add(it.next());
+            for (Iterator it = caches.entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+                list.add(entry.getKey());
+                stats.add(entry.getValue());
             }
         }
         if (list.size() == 0) {
@@ -151,37 +248,51 @@ public class CacheManager implements CacheAccessListener {
         }
         CacheInfo[] infos = new CacheInfo[list.size()];
         for (int i = 0; i < list.size(); i++) {
-            infos[i] = new CacheInfo((Cache) list.get(i));
+            CacheStatistics s = (CacheStatistics) stats.get(i);
+            infos[i] = new CacheInfo((Cache) list.get(i), s.getConfiguredMemory());
+            s.update(infos[i]);
         }
-        // calculate the total access count and memory used
+        // calculate the total access count, memory used and the misses
+        // of the full caches
         long totalAccessCount = 0;
         long totalMemoryUsed = 0;
+        long totalBenefit = 0;
         for (int i = 0; i < infos.length; i++) {
             totalAccessCount += infos[i].getAccessCount();
             totalMemoryUsed += infos[i].getMemoryUsed();
+            totalBenefit += infos[i].getBenefit();
         }
-        // try to distribute the memory based on the access count
-        // and memory used (higher numbers - more memory)
+        // try to distribute the memory based on the access count,
+        // memory used and the benefit (higher numbers - more memory)
         // and find out how many caches are full
-        // 50% is distributed according to access count,
-        // and 50% according to memory used
-        double memoryPerAccess = (double) maxMemory / 2.
+        // a third is distributed according to access count, a third
+        // according to memory used and a third according to the misses
+        // of the full caches
+        double memoryPerAccess = (double) maxMemory / 3.
                 / Math.max(1., (double) totalAccessCount);
-        double memoryPerUsed = (double) maxMemory / 2.
+        double memoryPerUsed = (double) maxMemory / 3.
                 / Math.max(1., (double) totalMemoryUsed);
+        double memoryPerBenefit = (double) maxMemory / 3.
+                / Math.max(1., (double) totalBenefit);
         int fullCacheCount = 0;
         for (int i = 0; i < infos.length; i++) {
             CacheInfo info = infos[i];
             long mem = (long) (memoryPerAccess * info.getAccessCount());
             mem += (long) (memoryPerUsed * info.getMemoryUsed());
-            mem = Math.min(mem, maxMemoryPerCache);
+            mem += (long) (memoryPerBenefit * info.getBenefit());
+            // a cache may always use its configured size
+            long max = Math.max(maxMemoryPerCache, info.getConfiguredMemory());
+            mem = Math.min(mem, max);
             if (info.wasFull()) {
                 fullCacheCount++;
+                // don't shrink a full cache too quickly
+                mem = Math.max(mem, info.getMemory() / 2);
             } else {
                 mem = Math.min(mem, info.getMemoryUsed());
             }
-            mem = Math.min(mem, maxMemoryPerCache);
+            mem = Math.min(mem, max);
             mem = Math.max(mem, minMemoryPerCache);
+            mem = Math.max(mem, info.getConfiguredMemory());
             info.setMemory(mem);
         }
         // calculate the unused memory
@@ -189,13 +300,20 @@ public class CacheManager implements CacheAccessListener {
         for (int i = 0; i < infos.length; i++) {
             unusedMemory -= infos[i].getMemory();
         }
-        // distribute the remaining memory evenly across the full caches
+        // distribute the remaining memory across the full caches,
+        // according to the benefit if there were misses, evenly otherwise
         if (unusedMemory > 0 && fullCacheCount > 0) {
             for (int i = 0; i < infos.length; i++) {
                 CacheInfo info = infos[i];
                 if (info.wasFull()) {
-                    info.setMemory(info.getMemory() + unusedMemory
-                            / fullCacheCount);
+                    long extra;
+                    if (totalBenefit > 0) {
+                        extra = (long) ((double) unusedMemory
+                                * info.getBenefit() / totalBenefit);
+                    } else {
+                        extra = unusedMemory / fullCacheCount;
+                    }
+                    info.setMemory(info.getMemory() + extra);
                 }
             }
         }
@@ -206,6 +324,7 @@ public class CacheManager implements CacheAccessListener {
             if (log.isDebugEnabled()) {
                 log.debug(cache + " now:" + cache.getMaxMemorySize() + " used:"
                         + info.getMemoryUsed() + " access:" + info.getAccessCount()
+                        + " miss:" + info.getMissCount()
                         + " new:" + info.getMemory());
             }
             cache.setMaxMemorySize(info.getMemory());
@@ -219,8 +338,21 @@ public class CacheManager implements CacheAccessListener {
      * @param cache the cache to add
      */
     public void add(Cache cache) {
+        add(cache, 0);
+    }
+
+    /**
+     * Add a new cache with an explicitly configured size to the list. The
+     * cache is never shrunk below that size, and may grow beyond the
+     * maximum memory per cache up to that size.
+     * This call does not trigger recalculating the cache sizes.
+     *
+     * @param cache the cache to add
+     * @param configuredMemory the configured size of the cache in bytes
+     */
+    public void add(Cache cache, long configuredMemory) {
         synchronized (caches) {
-            caches.put(cache, null);
+            caches.put(cache, new CacheStatistics(configuredMemory));
         }
     }
 
@@ -246,20 +378,26 @@ public class CacheManager implements CacheAccessListener {
 
         private long accessCount;
 
+        private long missCount;
+
         private long memory;
 
         private long memoryUsed;
 
         private boolean wasFull;
 
-        CacheInfo(Cache cache) {
+        private long configuredMemory;
+
+        CacheInfo(Cache cache, long configuredMemory) {
             this.cache = cache;
+            this.configuredMemory = configuredMemory;
             // copy the data as this runs in a different thread
             // the exact values are not important, but it is important that the
             // values don't change
             this.memory = cache.getMaxMemorySize();
             this.memoryUsed = cache.getMemoryUsed();
             this.accessCount = cache.getAccessCount();
+            this.missCount = cache.getMissCount();
             // reset the access count, so that concurrent cache access is not lost
             cache.resetAccessCount();
             // if the memory used plus one large object is smaller than the
@@ -276,6 +414,21 @@ public class CacheManager implements CacheAccessListener {
             return accessCount;
         }
 
+        long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * Returns the misses of a full cache, which estimates how many
+         * accesses more memory would have turned into hits. A cache that
+         * is not full would not benefit from more memory.
+         *
+         * @return the benefit of more memory
+         */
+        long getBenefit() {
+            return wasFull ? missCount : 0;
+        }
+
         long getMemoryUsed() {
             return memoryUsed;
         }
@@ -288,6 +441,10 @@ public class CacheManager implements CacheAccessListener {
             return memory;
         }
 
+        long getConfiguredMemory() {
+            return configuredMemory;
+        }
+
         Cache getCache() {
             return cache;
         }
@@ -298,4 +455,129 @@ public class CacheManager implements CacheAccessListener {
         remove(cache);
     }
 
+    //-------------------------------------------------< CacheManagerMBean >---
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getCacheCount() {
+        synchronized (caches) {
+            return caches.size();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getMemoryUsed() {
+        Cache[] list = getCaches();
+        long used = 0;
+        for (int i = 0; i < list.length; i++) {
+            used += list[i].getMemoryUsed();
+        }
+        return used;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getCacheStatistics() {
+        ArrayList list = new ArrayList();
+        synchronized (caches) {
+            for (Iterator it = caches.entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+                list.add(entry.getKey());
+                list.add(entry.getValue());
+            }
+        }
+        String[] result = new String[list.size() / 2];
+        for (int i = 0; i < result.length; i++) {
+            Cache cache = (Cache) list.get(2 * i);
+            CacheStatistics stats = (CacheStatistics) list.get(2 * i + 1);
+            result[i] = stats.toString(cache);
+        }
+        return result;
+    }
+
+    /**
+     * Returns strong references to the registered caches.
+     *
+     * @return the registered caches
+     */
+    private Cache[] getCaches() {
+        synchronized (caches) {
+            ArrayList list = new ArrayList();
+            for (Iterator it = caches.keySet().iterator(); it.hasNext();) {
+                list.add(it.next());
+            }
+            return (Cache[]) list.toArray(new Cache[list.size()]);
+        }
+    }
+
+    /**
+     * Registers this cache manager with the platform MBean server.
+     */
+    private void registerMBean() {
+        try {
+            ManagementUtil.registerMBean(this, OBJECT_NAME);
+        } catch (Throwable e) {
+            log.debug("Cache statistics are not exported through JMX: " + e);
+        }
+    }
+
+    /**
+     * The cumulative statistics of a cache, updated each time the caches
+     * are resized.
+     */
+    private static class CacheStatistics {
+
+        private final long configuredMemory;
+
+        private long accessCount;
+
+        private long missCount;
+
+        private long lastAccessCount;
+
+        private long lastMissCount;
+
+        CacheStatistics(long configuredMemory) {
+            this.configuredMemory = configuredMemory;
+        }
+
+        long getConfiguredMemory() {
+            return configuredMemory;
+        }
+
+        synchronized void update(CacheInfo info) {
+            lastAccessCount = info.getAccessCount();
+            lastMissCount = info.getMissCount();
+            accessCount += lastAccessCount;
+            missCount += lastMissCount;
+        }
+
+        synchronized String toString(Cache cache) {
+            // include the accesses since the last resize
+            long accesses = accessCount + cache.getAccessCount();
+            long misses = missCount + cache.getMissCount();
+            StringBuffer buff = new StringBuffer();
+            buff.append(cache);
+            buff.append(" max=").append(cache.getMaxMemorySize());
+            buff.append(" used=").append(cache.getMemoryUsed());
+            buff.append(" accesses=").append(accesses);
+            buff.append(" misses=").append(misses);
+            buff.append(" hitRatio=").append(getHitRatio(accesses, misses));
+            buff.append("% lastHitRatio=").append(
+                    getHitRatio(lastAccessCount, lastMissCount)).append("%");
+            return buff.toString();
+        }
+
+        private static long getHitRatio(long accesses, long misses) {
+            if (accesses == 0) {
+                return 0;
+            }
+            return Math.max(0, accesses - misses) * 100 / accesses;
+        }
+    }
+
 }
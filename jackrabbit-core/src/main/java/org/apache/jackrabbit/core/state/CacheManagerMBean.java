@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+/**
+ * The management interface of the {@link CacheManager}. The global cache
+ * manager is registered as a standard MBean with the platform MBean server,
+ * if available.
+ */
+public interface CacheManagerMBean {
+
+    /**
+     * Returns the amount of memory that is distributed across the caches.
+     *
+     * @return the size in bytes
+     */
+    long getMaxMemory();
+
+    /**
+     * Sets the amount of memory that is distributed across the caches. The
+     * new limit is applied the next time the caches are resized.
+     *
+     * @param maxMemory the size in bytes
+     */
+    void setMaxMemory(long maxMemory);
+
+    /**
+     * Returns the maximum memory per cache.
+     *
+     * @return the size in bytes
+     */
+    long getMaxMemoryPerCache();
+
+    /**
+     * Sets the maximum memory per cache.
+     *
+     * @param maxMemoryPerCache the size in bytes
+     */
+    void setMaxMemoryPerCache(long maxMemoryPerCache);
+
+    /**
+     * Returns the minimum memory per cache.
+     *
+     * @return the size in bytes
+     */
+    long getMinMemoryPerCache();
+
+    /**
+     * Sets the minimum memory per cache.
+     *
+     * @param minMemoryPerCache the size in bytes
+     */
+    void setMinMemoryPerCache(long minMemoryPerCache);
+
+    /**
+     * Returns the minimum time between two resize operations.
+     *
+     * @return the interval in milliseconds
+     */
+    long getMinResizeInterval();
+
+    /**
+     * Sets the minimum time between two resize operations.
+     *
+     * @param minResizeInterval the interval in milliseconds
+     */
+    void setMinResizeInterval(long minResizeInterval);
+
+    /**
+     * Returns the number of registered caches.
+     *
+     * @return the number of caches
+     */
+    int getCacheCount();
+
+    /**
+     * Returns the memory currently used by all registered caches.
+     *
+     * @return the size in bytes
+     */
+    long getMemoryUsed();
+
+    /**
+     * Returns one line of statistics per registered cache: the memory limit,
+     * the memory used, the number of accesses and misses since the cache
+     * was registered, the overall hit ratio and the hit ratio of the last
+     * resize interval.
+     *
+     * @return the statistics of the registered caches
+     */
+    String[] getCacheStatistics();
+
+}
@@ -254,6 +254,22 @@ public class ChangeLog {
         modifiedRefs.putAll(other.modifiedRefs);
     }
 
+    /**
+     * Add all changes of another change log to this change log, without
+     * reconciling operations on the same item. Unlike {@link #merge}, an
+     * item that has been added and later deleted remains in both the added
+     * and the deleted states. This is used to combine external change logs,
+     * where every item mentioned must be invalidated.
+     *
+     * @param other other change log
+     */
+    public void addAll(ChangeLog other) {
+        addedStates.putAll(other.addedStates);
+        modifiedStates.putAll(other.modifiedStates);
+        deletedStates.putAll(other.deletedStates);
+        modifiedRefs.putAll(other.modifiedRefs);
+    }
+
     /**
      * Push all states contained in the various maps of
      * items we have.
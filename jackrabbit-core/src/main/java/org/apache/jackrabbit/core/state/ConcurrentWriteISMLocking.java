@@ -0,0 +1,445 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.ItemId;
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.core.PropertyId;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>ConcurrentWriteISMLocking</code> grants write locks concurrently to
+ * change logs that do not intersect. Locks are held on node granularity:
+ * <ul>
+ * <li>a node state locks its node id,</li>
+ * <li>a property state locks the id of its parent node,</li>
+ * <li>a node references instance locks the id of its target node and</li>
+ * <li>a <code>REFERENCE</code> property additionally locks the ids of the
+ * nodes it refers to (old and new values), because the node references of
+ * these targets are only added to the change log after the write lock has
+ * been acquired.</li>
+ * </ul>
+ * Changes to different subtrees therefore only conflict if they modify the
+ * same node, e.g. add children to the same parent.
+ * <p/>
+ * A write lock is acquired for all nodes of a change log at once, or the
+ * requesting thread waits without holding any of them. While a writer waits,
+ * new read locks for its nodes are only granted to threads that already hold
+ * a lock of this instance, so that a steady stream of readers cannot starve
+ * the writer.
+ * <p/>
+ * A writer that needs a read lock for a node locked by another writer waits,
+ * unless the other writer is itself (directly or indirectly) waiting for a
+ * read lock of the current writer. The read lock is not granted in that case,
+ * because the other writer may already have applied part of its changes.
+ * Instead the request fails with an <code>InterruptedException</code>, which
+ * aborts the update of the current writer and releases its write lock.
+ * <p/>
+ * A downgraded write lock turns into a read lock on the nodes of its change
+ * log. Other writers are only blocked if their change log intersects.
+ */
+public class ConcurrentWriteISMLocking implements ISMLocking {
+
+    /**
+     * Logger instance.
+     */
+    private static Logger log = LoggerFactory.getLogger(ConcurrentWriteISMLocking.class);
+
+    /**
+     * The active write locks. Maps a {@link NodeId} to the {@link WriteLockImpl}
+     * that holds it.
+     */
+    private final Map writeLocks = new HashMap();
+
+    /**
+     * The read locks. Maps a {@link NodeId} to the number of read locks held
+     * for it (<code>int[1]</code>).
+     */
+    private final Map readLocks = new HashMap();
+
+    /**
+     * The active write locks by owner thread.
+     */
+    private final Map owners = new HashMap();
+
+    /**
+     * The nodes of the change logs of waiting writers. Maps a {@link NodeId}
+     * to the number of writers waiting for it (<code>int[1]</code>).
+     */
+    private final Map queuedWriters = new HashMap();
+
+    /**
+     * The number of read locks held by a thread, including downgraded write
+     * locks. Maps a {@link Thread} to <code>int[1]</code>.
+     */
+    private final Map readers = new HashMap();
+
+    /**
+     * The number of threads waiting in this locking instance.
+     */
+    private int waiting = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadLock acquireReadLock(ItemId id) throws InterruptedException {
+        NodeId nodeId = getNodeId(id);
+        synchronized (this) {
+            Thread thread = Thread.currentThread();
+            WriteLockImpl current = (WriteLockImpl) owners.get(thread);
+            // a thread that holds a lock must not wait for a queued writer,
+            // which may itself wait for that lock
+            boolean holdsLock = current != null || readers.containsKey(thread);
+            for (;;) {
+                WriteLockImpl writer = (WriteLockImpl) writeLocks.get(nodeId);
+                if (writer == null || writer.owner == thread) {
+                    if (holdsLock || !queuedWriters.containsKey(nodeId)) {
+                        break;
+                    }
+                } else if (current != null) {
+                    if (writer.isWaitingFor(current)) {
+                        log.info("Deadlock between writers detected, aborting"
+                                + " the update that requested a read lock for " + id);
+                        throw new InterruptedException(
+                                "Deadlock while acquiring read lock for " + id);
+                    }
+                    current.waitingFor = writer;
+                }
+                try {
+                    waitForChange();
+                } finally {
+                    if (current != null) {
+                        current.waitingFor = null;
+                    }
+                }
+            }
+            addReadLock(nodeId);
+            addReader(thread);
+        }
+        return new ReadLockImpl(nodeId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public WriteLock acquireWriteLock(ChangeLog changeLog)
+            throws InterruptedException {
+        Set ids = getNodeIds(changeLog);
+        synchronized (this) {
+            if (hasConflict(ids)) {
+                addCounts(queuedWriters, ids);
+                try {
+                    do {
+                        waitForChange();
+                    } while (hasConflict(ids));
+                } finally {
+                    removeCounts(queuedWriters, ids);
+                }
+            }
+            WriteLockImpl lock = new WriteLockImpl(ids);
+            for (Iterator it = ids.iterator(); it.hasNext(); ) {
+                writeLocks.put(it.next(), lock);
+            }
+            lock.previous = (WriteLockImpl) owners.put(Thread.currentThread(), lock);
+            return lock;
+        }
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Waits until a lock is released. Must be called while holding the
+     * monitor of this instance.
+     *
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private void waitForChange() throws InterruptedException {
+        waiting++;
+        try {
+            wait();
+        } finally {
+            waiting--;
+        }
+    }
+
+    /**
+     * Wakes up waiting threads. Must be called while holding the monitor of
+     * this instance.
+     */
+    private void notifyWaiting() {
+        if (waiting > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Checks if any of the given nodes is locked. Must be called while
+     * holding the monitor of this instance.
+     *
+     * @param ids the node ids.
+     * @return <code>true</code> if a read or write lock is held for one of
+     *         the nodes.
+     */
+    private boolean hasConflict(Set ids) {
+        for (Iterator it = ids.iterator(); it.hasNext(); ) {
+            Object id = it.next();
+            if (writeLocks.containsKey(id) || readLocks.containsKey(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addReadLock(NodeId id) {
+        addCount(readLocks, id);
+    }
+
+    private void removeReadLock(NodeId id) {
+        if (readLocks.get(id) == null) {
+            throw new IllegalStateException("No lock present for id: " + id);
+        }
+        removeCount(readLocks, id);
+    }
+
+    private void addReader(Thread thread) {
+        addCount(readers, thread);
+    }
+
+    private void removeReader(Thread thread) {
+        removeCount(readers, thread);
+    }
+
+    private void addCounts(Map counts, Set keys) {
+        for (Iterator it = keys.iterator(); it.hasNext(); ) {
+            addCount(counts, it.next());
+        }
+    }
+
+    private void removeCounts(Map counts, Set keys) {
+        for (Iterator it = keys.iterator(); it.hasNext(); ) {
+            removeCount(counts, it.next());
+        }
+    }
+
+    private static void addCount(Map counts, Object key) {
+        int[] count = (int[]) counts.get(key);
+        if (count == null) {
+            counts.put(key, new int[] {1});
+        } else {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Decrements the count of <code>key</code> and wakes up waiting threads
+     * if it drops to zero. Must be called while holding the monitor of this
+     * instance.
+     *
+     * @param counts the counts.
+     * @param key    the key.
+     */
+    private void removeCount(Map counts, Object key) {
+        int[] count = (int[]) counts.get(key);
+        if (count != null && --count[0] == 0) {
+            counts.remove(key);
+            notifyWaiting();
+        }
+    }
+
+    /**
+     * Returns the id of the node that is locked for the given item.
+     *
+     * @param id an item id.
+     * @return the node id.
+     */
+    private static NodeId getNodeId(ItemId id) {
+        if (id.denotesNode()) {
+            return (NodeId) id;
+        } else {
+            return ((PropertyId) id).getParentId();
+        }
+    }
+
+    /**
+     * Returns the ids of the nodes that are locked for the given change log.
+     *
+     * @param changeLog the change log.
+     * @return the set of {@link NodeId}s.
+     */
+    private static Set getNodeIds(ChangeLog changeLog) {
+        Set ids = new HashSet();
+        addNodeIds(ids, changeLog.addedStates());
+        addNodeIds(ids, changeLog.modifiedStates());
+        addNodeIds(ids, changeLog.deletedStates());
+        for (Iterator it = changeLog.modifiedRefs(); it.hasNext(); ) {
+            ids.add(((NodeReferences) it.next()).getTargetId());
+        }
+        return ids;
+    }
+
+    private static void addNodeIds(Set ids, Iterator states) {
+        while (states.hasNext()) {
+            ItemState state = (ItemState) states.next();
+            ids.add(getNodeId(state.getId()));
+            if (!state.isNode()) {
+                addReferenceTargets(ids, state);
+                if (state.hasOverlayedState()) {
+                    addReferenceTargets(ids, state.getOverlayedState());
+                }
+            }
+        }
+    }
+
+    private static void addReferenceTargets(Set ids, ItemState state) {
+        PropertyState property = (PropertyState) state;
+        if (property.getType() == PropertyType.REFERENCE) {
+            InternalValue[] values = property.getValues();
+            for (int i = 0; values != null && i < values.length; i++) {
+                ids.add(new NodeId(values[i].getUUID()));
+            }
+        }
+    }
+
+    private final class WriteLockImpl implements WriteLock {
+
+        /**
+         * The ids of the locked nodes.
+         */
+        private final Set ids;
+
+        /**
+         * The owner of this lock.
+         */
+        private final Thread owner = Thread.currentThread();
+
+        /**
+         * The write lock the owner of this lock is currently waiting for
+         * or <code>null</code>. Guarded by the enclosing instance.
+         */
+        private WriteLockImpl waitingFor;
+
+        /**
+         * Another write lock held by the owner when this lock was acquired
+         * or <code>null</code>. Guarded by the enclosing instance.
+         */
+        private WriteLockImpl previous;
+
+        /**
+         * Whether this lock is still held as a write lock. Guarded by the
+         * enclosing instance.
+         */
+        private boolean active = true;
+
+        WriteLockImpl(Set ids) {
+            this.ids = ids;
+        }
+
+        /**
+         * Checks if the owner of this lock waits for the given lock, either
+         * directly or through the owners of other write locks. Must be called
+         * while holding the monitor of the enclosing instance.
+         *
+         * @param lock a write lock.
+         * @return <code>true</code> if this lock waits for <code>lock</code>.
+         */
+        boolean isWaitingFor(WriteLockImpl lock) {
+            WriteLockImpl w = waitingFor;
+            // the chain is bounded by the number of active writers
+            for (int i = 0; w != null && i <= owners.size(); i++) {
+                if (w == lock) {
+                    return true;
+                }
+                w = w.waitingFor;
+            }
+            return false;
+        }
+
+        public void release() {
+            synchronized (ConcurrentWriteISMLocking.this) {
+                removeWriteLocks();
+                notifyWaiting();
+            }
+        }
+
+        public ReadLock downgrade() {
+            synchronized (ConcurrentWriteISMLocking.this) {
+                removeWriteLocks();
+                for (Iterator it = ids.iterator(); it.hasNext(); ) {
+                    addReadLock((NodeId) it.next());
+                }
+                addReader(owner);
+                notifyWaiting();
+            }
+            return new ReadLock() {
+                public void release() {
+                    synchronized (ConcurrentWriteISMLocking.this) {
+                        for (Iterator it = ids.iterator(); it.hasNext(); ) {
+                            removeReadLock((NodeId) it.next());
+                        }
+                        removeReader(owner);
+                    }
+                }
+            };
+        }
+
+        private void removeWriteLocks() {
+            for (Iterator it = ids.iterator(); it.hasNext(); ) {
+                writeLocks.remove(it.next());
+            }
+            active = false;
+            if (owners.get(owner) == this) {
+                WriteLockImpl p = previous;
+                while (p != null && !p.active) {
+                    p = p.previous;
+                }
+                if (p != null) {
+                    owners.put(owner, p);
+                } else {
+                    owners.remove(owner);
+                }
+            }
+        }
+    }
+
+    private final class ReadLockImpl implements ReadLock {
+
+        private final NodeId id;
+
+        private final Thread owner = Thread.currentThread();
+
+        ReadLockImpl(NodeId id) {
+            this.id = id;
+        }
+
+        public void release() {
+            synchronized (ConcurrentWriteISMLocking.this) {
+                removeReadLock(id);
+                removeReader(owner);
+            }
+        }
+    }
+}
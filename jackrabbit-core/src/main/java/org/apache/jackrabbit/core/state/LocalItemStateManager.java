@@ -22,6 +22,11 @@ import org.apache.jackrabbit.core.PropertyId;
 import org.apache.jackrabbit.core.observation.EventStateCollectionFactory;
 import org.apache.jackrabbit.spi.Name;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
 import javax.jcr.ReferentialIntegrityException;
 
 /**
@@ -136,6 +141,29 @@ public class LocalItemStateManager
         return changeLog;
     }
 
+    /**
+     * Hints this item state manager that the node states with the given ids
+     * are about to be read. Ids of node states that are already cached by
+     * this manager are ignored, the remaining ids are passed to the shared
+     * item state manager.
+     *
+     * @param ids the {@link NodeId}s of the node states
+     * @see SharedItemStateManager#prefetch(Collection)
+     */
+    public void prefetch(Collection ids) {
+        List uncached = new ArrayList(ids.size());
+        Iterator iter = ids.iterator();
+        while (iter.hasNext()) {
+            NodeId id = (NodeId) iter.next();
+            if (!cache.isCached(id)) {
+                uncached.add(id);
+            }
+        }
+        if (!uncached.isEmpty()) {
+            sharedStateMgr.prefetch(uncached);
+        }
+    }
+
     //-----------------------------------------------------< ItemStateManager >
     /**
      * {@inheritDoc}
@@ -52,6 +52,9 @@ public class MLRUItemStateCache implements ItemStateCache, Cache {
     /** the access count */
     private long accessCount = 0;
 
+    /** the miss count */
+    private long missCount = 0;
+
     /** the cache access listeners */
     private CacheAccessListener accessListener;
 
@@ -100,6 +103,7 @@ public class MLRUItemStateCache implements ItemStateCache, Cache {
                 cache.put(id, entry);
                 return entry.state;
             } else {
+                missCount++;
                 return null;
             }
         }
@@ -209,6 +213,13 @@ public class MLRUItemStateCache implements ItemStateCache, Cache {
         return accessCount;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -238,6 +249,7 @@ public class MLRUItemStateCache implements ItemStateCache, Cache {
     public void resetAccessCount() {
         synchronized (cache) {
             accessCount = 0;
+            missCount = 0;
         }
     }
 
@@ -321,6 +321,8 @@ public class SessionItemStateManager
         disposeAllTransientItemStates();
         // dispose our (i.e. 'local') state manager
         stateMgr.dispose();
+        // and unregister the hierarchy cache
+        hierMgr.dispose();
     }
 
     //< more methods for listing and retrieving transient ItemState instances >
@@ -551,6 +553,31 @@ public class SessionItemStateManager
         return atticStore.contains(id);
     }
 
+    /**
+     * Hints this item state manager that the node states with the given ids
+     * are about to be read. Transient node states are ignored, the remaining
+     * ids are passed to the underlying local item state manager.
+     *
+     * @param ids the {@link NodeId}s of the node states
+     * @see LocalItemStateManager#prefetch(Collection)
+     */
+    public void prefetch(Collection ids) {
+        if (!(stateMgr instanceof LocalItemStateManager)) {
+            return;
+        }
+        List persistent = new ArrayList(ids.size());
+        Iterator iter = ids.iterator();
+        while (iter.hasNext()) {
+            NodeId id = (NodeId) iter.next();
+            if (!transientStore.contains(id) && !atticStore.contains(id)) {
+                persistent.add(id);
+            }
+        }
+        if (!persistent.isEmpty()) {
+            ((LocalItemStateManager) stateMgr).prefetch(persistent);
+        }
+    }
+
     //------< methods for creating & discarding transient ItemState instances >
 
     /**
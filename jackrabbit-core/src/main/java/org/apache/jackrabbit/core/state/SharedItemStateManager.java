@@ -17,6 +17,8 @@
 package org.apache.jackrabbit.core.state;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -43,6 +45,7 @@ import org.apache.jackrabbit.core.observation.EventStateCollection;
 import org.apache.jackrabbit.core.observation.EventStateCollectionFactory;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.persistence.bundle.CachingPersistenceManager;
+import org.apache.jackrabbit.core.persistence.bundle.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.util.Dumpable;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.virtual.VirtualItemStateProvider;
@@ -448,6 +451,38 @@ public class SharedItemStateManager
         cache.evictAll();
     }
 
+    /**
+     * Hints this manager that the node states with the given ids are about
+     * to be read. If the persistence manager implements
+     * {@link PrefetchingPersistenceManager}, the node states that are not
+     * cached are loaded in advance with as few requests as possible.
+     * Errors are logged and otherwise ignored, because the node states are
+     * read again when they are actually requested.
+     *
+     * @param ids the {@link NodeId}s of the node states
+     */
+    public void prefetch(Collection ids) {
+        if (!(persistMgr instanceof PrefetchingPersistenceManager)) {
+            return;
+        }
+        List uncached = new ArrayList(ids.size());
+        Iterator iter = ids.iterator();
+        while (iter.hasNext()) {
+            NodeId id = (NodeId) iter.next();
+            if (!cache.isCached(id)) {
+                uncached.add(id);
+            }
+        }
+        // a single state is loaded on demand anyway
+        if (uncached.size() > 1) {
+            try {
+                ((PrefetchingPersistenceManager) persistMgr).prefetch(uncached);
+            } catch (ItemStateException e) {
+                log.warn("unable to prefetch node states: " + e);
+            }
+        }
+    }
+
     /**
      * Adds a new virtual item state provider.<p/>
      * NOTE: This method is not synchronized, because it is called right after
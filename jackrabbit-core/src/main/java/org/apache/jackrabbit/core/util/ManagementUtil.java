@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.util;
+
+import java.lang.reflect.Method;
+
+/**
+ * Registers MBeans with the platform MBean server. The management classes
+ * are accessed using reflection, because they are not available on all
+ * supported platforms. All methods throw an exception if the management
+ * classes are missing; callers usually just log it and go on without JMX.
+ */
+public final class ManagementUtil {
+
+    /**
+     * Private constructor, static methods only.
+     */
+    private ManagementUtil() {
+    }
+
+    /**
+     * Registers an MBean with the platform MBean server.
+     *
+     * @param mbean the standard MBean.
+     * @param name  the object name.
+     * @return the registered <code>javax.management.ObjectName</code>, to
+     *         be passed to {@link #unregisterMBean(Object)}.
+     * @throws Exception if the MBean cannot be registered.
+     */
+    public static Object registerMBean(Object mbean, String name)
+            throws Exception {
+        Class nameClass = Class.forName("javax.management.ObjectName");
+        Object objectName = nameClass.getConstructor(new Class[] {String.class})
+                .newInstance(new Object[] {name});
+        Method register = Class.forName("javax.management.MBeanServer")
+                .getMethod("registerMBean", new Class[] {Object.class, nameClass});
+        register.invoke(getMBeanServer(), new Object[] {mbean, objectName});
+        return objectName;
+    }
+
+    /**
+     * Unregisters an MBean from the platform MBean server.
+     *
+     * @param objectName the name returned by
+     *                   {@link #registerMBean(Object, String)}.
+     * @throws Exception if the MBean cannot be unregistered.
+     */
+    public static void unregisterMBean(Object objectName) throws Exception {
+        Class nameClass = Class.forName("javax.management.ObjectName");
+        Method unregister = Class.forName("javax.management.MBeanServer")
+                .getMethod("unregisterMBean", new Class[] {nameClass});
+        unregister.invoke(getMBeanServer(), new Object[] {objectName});
+    }
+
+    /**
+     * Quotes a value for use in an object name.
+     *
+     * @param value the value.
+     * @return the quoted value.
+     * @throws Exception if the management classes are not available.
+     */
+    public static String quote(String value) throws Exception {
+        return (String) Class.forName("javax.management.ObjectName")
+                .getMethod("quote", new Class[] {String.class})
+                .invoke(null, new Object[] {value});
+    }
+
+    /**
+     * @return the platform MBean server.
+     * @throws Exception if the management classes are not available.
+     */
+    private static Object getMBeanServer() throws Exception {
+        Class factory = Class.forName("java.lang.management.ManagementFactory");
+        return factory.getMethod("getPlatformMBeanServer", new Class[0])
+                .invoke(null, new Object[0]);
+    }
+}
@@ -23,6 +23,7 @@ import java.io.OutputStream;
 import javax.jcr.RepositoryException;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
 
 /**
  * Represents binary data which is backed by a resource or byte[].
@@ -111,6 +112,16 @@ public abstract class BLOBFileValue {
      */
     public abstract int hashCode();
 
+    /**
+     * Returns the identifier of the data store record that backs this value.
+     *
+     * @return the data identifier, or <code>null</code> if this value is not
+     *         stored in the data store.
+     */
+    public DataIdentifier getDataIdentifier() {
+        return null;
+    }
+
     /**
      * Check if the value is small (contains a low number of bytes) and should
      * be stored inline.
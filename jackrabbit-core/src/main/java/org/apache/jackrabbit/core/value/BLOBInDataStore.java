@@ -136,6 +136,13 @@ public class BLOBInDataStore extends BLOBFileValue {
         return store.getRecord(identifier);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public DataIdentifier getDataIdentifier() {
+        return identifier;
+    }
+
     public boolean isSmall() {
         return false;
     }
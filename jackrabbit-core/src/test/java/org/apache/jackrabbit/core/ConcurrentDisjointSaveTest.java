@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * <code>ConcurrentDisjointSaveTest</code> saves changes to disjoint subtrees
+ * concurrently. The test runs against the <code>concurrent-write</code>
+ * workspace, which is configured with the
+ * {@link org.apache.jackrabbit.core.state.ConcurrentWriteISMLocking}.
+ */
+public class ConcurrentDisjointSaveTest extends AbstractConcurrencyTest {
+
+    private static final String WORKSPACE = "concurrent-write";
+
+    private static final int NUM_THREADS = 8;
+
+    private static final int NUM_SAVES = 50;
+
+    private static final int NODES_PER_SAVE = 5;
+
+    private static final int RUN_NUM_SECONDS = 120;
+
+    private Session session;
+
+    private Node root;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        session = helper.getSuperuserSession(WORKSPACE);
+        if (session.getRootNode().hasNode("concurrentwrite")) {
+            session.getRootNode().getNode("concurrentwrite").remove();
+            session.save();
+        }
+        root = session.getRootNode().addNode("concurrentwrite");
+        for (int i = 0; i < NUM_THREADS; i++) {
+            Node n = root.addNode("subtree" + i);
+            n.addMixin(mixReferenceable);
+        }
+        session.save();
+    }
+
+    protected void tearDown() throws Exception {
+        try {
+            root.remove();
+            session.save();
+        } finally {
+            session.logout();
+            session = null;
+            root = null;
+        }
+        super.tearDown();
+    }
+
+    public void testDisjointSaves() throws Exception {
+        final List exceptions = Collections.synchronizedList(new ArrayList());
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int i = 0; i < NUM_THREADS; i++) {
+            final Session s = helper.getSuperuserSession(WORKSPACE);
+            final String path = root.getPath() + "/subtree" + i;
+            // each thread also references the subtree of its neighbour
+            final String target = root.getNode(
+                    "subtree" + ((i + 1) % NUM_THREADS)).getUUID();
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Node subtree = (Node) s.getItem(path);
+                        for (int j = 0; j < NUM_SAVES; j++) {
+                            Node n = subtree.addNode("node" + j);
+                            for (int k = 0; k < NODES_PER_SAVE; k++) {
+                                Node c = n.addNode("child" + k);
+                                c.setProperty("value", j * NODES_PER_SAVE + k);
+                            }
+                            n.setProperty("ref", s.getNodeByUUID(target));
+                            s.save();
+                            // modify a node that was saved before
+                            if (j > 0) {
+                                subtree.getNode("node" + (j - 1)).getProperty("ref").remove();
+                                s.save();
+                            }
+                        }
+                    } catch (RepositoryException e) {
+                        exceptions.add(e);
+                    } finally {
+                        s.logout();
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        long timeout = System.currentTimeMillis() + RUN_NUM_SECONDS * 1000;
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join(Math.max(timeout - System.currentTimeMillis(), 1));
+            if (threads[i].isAlive()) {
+                dumpStacks(threads);
+                for (int j = 0; j < threads.length; j++) {
+                    threads[j].interrupt();
+                }
+                fail("saves did not complete within " + RUN_NUM_SECONDS
+                        + " seconds, possible deadlock");
+            }
+        }
+        if (!exceptions.isEmpty()) {
+            throw (Exception) exceptions.get(0);
+        }
+
+        // verify that all changes were persisted
+        session.refresh(false);
+        for (int i = 0; i < NUM_THREADS; i++) {
+            Node subtree = root.getNode("subtree" + i);
+            NodeIterator it = subtree.getNodes();
+            assertEquals(NUM_SAVES, it.getSize());
+            while (it.hasNext()) {
+                Node n = it.nextNode();
+                assertEquals(NODES_PER_SAVE, n.getNodes().getSize());
+            }
+            assertTrue(subtree.getNode("node" + (NUM_SAVES - 1)).hasProperty("ref"));
+            assertFalse(subtree.getNode("node0").hasProperty("ref"));
+            // every subtree is referenced by the last node of its neighbour
+            assertEquals(1, subtree.getReferences().getSize());
+        }
+    }
+}
@@ -27,7 +27,8 @@ public class TestAll extends TestCase {
 
     /**
      * @return a <code>Test</code> suite that executes all tests inside this
-     *         package, except the multi-threading related ones.
+     *         package, except the long running multi-threading related
+     *         ones.
      */
     public static Test suite() {
         TestSuite suite = new TestSuite("Core tests");
@@ -38,6 +39,7 @@ public class TestAll extends TestCase {
         suite.addTestSuite(XATest.class);
         suite.addTestSuite(RestoreAndCheckoutTest.class);
         suite.addTestSuite(NodeImplTest.class);
+        suite.addTestSuite(ConcurrentDisjointSaveTest.class);
 
         return suite;
     }
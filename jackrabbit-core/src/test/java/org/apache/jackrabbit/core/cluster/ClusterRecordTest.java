@@ -30,6 +30,7 @@ import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.core.config.JournalConfig;
 import org.apache.jackrabbit.core.journal.MemoryJournal;
 import org.apache.jackrabbit.core.nodetype.NodeTypeDef;
+import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
@@ -117,6 +118,47 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), update);
     }
 
+    /**
+     * Test consuming updates in batches while records are read ahead.
+     * Verify that consecutive updates are merged, but not across other
+     * operations, and that the batches are applied by a synchronization.
+     * @throws Exception
+     */
+    public void testBatchedUpdateOperations() throws Exception {
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        UpdateEvent[] updates = new UpdateEvent[5];
+        for (int i = 0; i < updates.length; i++) {
+            updates[i] = factory.createUpdateOperation();
+            if (i == 3) {
+                LockEvent event = new LockEvent(new NodeId(UUID.randomUUID()), true, "admin");
+                master.createLockChannel(DEFAULT_WORKSPACE).create(event.getNodeId(),
+                        event.isDeep(), event.getUserId()).ended(true);
+            }
+            channel.updateCreated(updates[i]);
+            channel.updatePrepared(updates[i]);
+            channel.updateCommitted(updates[i]);
+        }
+
+        Properties params = new Properties();
+        params.setProperty("replayBatchSize", "2");
+        params.setProperty("replayPrefetchSize", "3");
+        ClusterNode batchSlave = createClusterNode("batchSlave", records, params);
+        try {
+            SimpleEventListener listener = new SimpleEventListener();
+            batchSlave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+            batchSlave.createLockChannel(DEFAULT_WORKSPACE).setListener(listener);
+            batchSlave.sync();
+
+            assertEquals(4, listener.getClusterEvents().size());
+            assertEquals(listener.getClusterEvents().get(0), merge(updates, 0, 2));
+            assertEquals(listener.getClusterEvents().get(1), merge(updates, 2, 3));
+            assertTrue(listener.getClusterEvents().get(2) instanceof LockEvent);
+            assertEquals(listener.getClusterEvents().get(3), merge(updates, 3, 5));
+        } finally {
+            batchSlave.stop();
+        }
+    }
+
     /**
      * Test producing and consuming a lock operation.
      * @throws Exception
@@ -262,7 +304,21 @@ public class ClusterRecordTest extends JUnitTest {
     private ClusterNode createClusterNode(String id, ArrayList records)
             throws ClusterException {
 
-        BeanConfig bc = new BeanConfig(MemoryJournal.class.getName(), new Properties());
+        return createClusterNode(id, records, new Properties());
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing a list of records.
+     *
+     * @param id cluster node id
+     * @param records memory journal's list of records
+     * @param params memory journal's parameters
+     */
+    private ClusterNode createClusterNode(String id, ArrayList records,
+                                          Properties params)
+            throws ClusterException {
+
+        BeanConfig bc = new BeanConfig(MemoryJournal.class.getName(), params);
         JournalConfig jc = new JournalConfig(bc);
         ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, jc);
         SimpleClusterContext context = new SimpleClusterContext(cc);
@@ -274,4 +330,22 @@ public class ClusterRecordTest extends JUnitTest {
         }
         return clusterNode;
     }
+
+    /**
+     * Merge a range of update operations into one.
+     *
+     * @param updates update operations
+     * @param start index of the first update operation to merge
+     * @param end index after the last update operation to merge
+     * @return merged update operation
+     */
+    private static UpdateEvent merge(UpdateEvent[] updates, int start, int end) {
+        ChangeLog changes = new ChangeLog();
+        ArrayList events = new ArrayList();
+        for (int i = start; i < end; i++) {
+            changes.addAll(updates[i].getChanges());
+            events.addAll(updates[i].getEvents());
+        }
+        return new UpdateEvent(changes, events);
+    }
 }
@@ -17,12 +17,14 @@
 package org.apache.jackrabbit.core.cluster;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Properties;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.config.BeanConfig;
 import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.core.config.JournalConfig;
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
 import org.apache.jackrabbit.core.journal.MemoryJournal;
 import org.apache.jackrabbit.test.JUnitTest;
 
@@ -84,4 +86,160 @@ public class ClusterTest extends JUnitTest {
 
         assertEquals(id, ((MemoryJournal) clusterNode.getJournal()).getId());
     }
+
+    /**
+     * Start a cluster node with a long synchronization delay. Verify that
+     * a requested synchronization is done without waiting for the delay.
+     *
+     * @throws Exception
+     */
+    public void testRequestSync() throws Exception {
+        BeanConfig bc = new BeanConfig(MemoryJournal.class.getName(), new Properties());
+        JournalConfig jc = new JournalConfig(bc);
+        ClusterConfig cc = new ClusterConfig("node", 60 * 1000, jc);
+        SimpleClusterContext context = new SimpleClusterContext(cc, repositoryHome);
+
+        final Object monitor = new Object();
+        final int[] syncs = new int[1];
+        ClusterNode clusterNode = new ClusterNode() {
+            public void sync() throws ClusterException {
+                super.sync();
+                synchronized (monitor) {
+                    syncs[0]++;
+                    monitor.notifyAll();
+                }
+            }
+        };
+        clusterNode.init(context);
+        clusterNode.start();
+        try {
+            clusterNode.requestSync();
+            long end = System.currentTimeMillis() + 10 * 1000;
+            synchronized (monitor) {
+                while (syncs[0] < 2 && System.currentTimeMillis() < end) {
+                    monitor.wait(100);
+                }
+            }
+            assertEquals("requested sync not done", 2, syncs[0]);
+        } finally {
+            clusterNode.stop();
+        }
+    }
+
+    /**
+     * Publish snapshots on one cluster node. Verify that only the newest
+     * snapshots are kept and that a new cluster node starts from the
+     * revision of the newest snapshot.
+     *
+     * @throws Exception
+     */
+    public void testSnapshot() throws Exception {
+        File snapshotDirectory = new File(repositoryHome, "snapshots");
+        Properties params = new Properties();
+        params.setProperty("snapshotDirectory", snapshotDirectory.getPath());
+        ArrayList records = new ArrayList();
+
+        ClusterNode master = createClusterNode("master", params, records);
+        ClusterNode first = createClusterNode("first", params, records);
+        try {
+            master.start();
+            UpdateEventChannel channel = master.createUpdateChannel("default");
+            for (int i = 0; i < 3; i++) {
+                UpdateEvent update = UpdateEventFactory.getInstance().createUpdateOperation();
+                channel.updateCreated(update);
+                channel.updatePrepared(update);
+                channel.updateCommitted(update);
+
+                first.sync();
+                first.publishSnapshot();
+            }
+            assertEquals(2, snapshotDirectory.list().length);
+            assertTrue(master.getRevision() > 0);
+
+            ClusterNode second = createClusterNode("second", params, records);
+            try {
+                assertEquals(master.getRevision(), second.getRevision());
+            } finally {
+                second.stop();
+            }
+        } finally {
+            first.stop();
+            master.stop();
+        }
+    }
+
+    /**
+     * Publish a snapshot while a local update has appended its record but
+     * its changes have not been indexed yet. Verify that the snapshot is
+     * only labelled with the revision of that update once the update has
+     * finished.
+     *
+     * @throws Exception
+     */
+    public void testSnapshotDuringUpdate() throws Exception {
+        final File snapshotDirectory = new File(repositoryHome, "snapshots");
+        Properties params = new Properties();
+        params.setProperty("snapshotDirectory", snapshotDirectory.getPath());
+        snapshotDirectory.mkdirs();
+
+        final ClusterNode master = createClusterNode("master", params, new ArrayList());
+        try {
+            master.start();
+            UpdateEventChannel channel = master.createUpdateChannel("default");
+            UpdateEvent update = UpdateEventFactory.getInstance().createUpdateOperation();
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+
+            final Exception[] exception = new Exception[1];
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        master.publishSnapshot();
+                    } catch (Exception e) {
+                        exception[0] = e;
+                    }
+                }
+            });
+            t.start();
+            t.join(500);
+            assertTrue("snapshot published during update", t.isAlive());
+            assertEquals(0, snapshotDirectory.list().length);
+
+            // the search managers are notified here, then the update ends
+            channel.updateCommitted(update);
+            t.join();
+            if (exception[0] != null) {
+                throw exception[0];
+            }
+
+            String[] names = snapshotDirectory.list();
+            assertEquals(1, names.length);
+            assertEquals("snapshot-" + master.getRevision() + "-master", names[0]);
+        } finally {
+            master.stop();
+        }
+    }
+
+    /**
+     * Create a cluster node with a memory journal.
+     *
+     * @param id cluster node id
+     * @param params memory journal's parameters
+     * @param records memory journal's list of records
+     * @return cluster node
+     * @throws ClusterException
+     */
+    private ClusterNode createClusterNode(String id, Properties params,
+                                          ArrayList records)
+            throws ClusterException {
+        BeanConfig bc = new BeanConfig(MemoryJournal.class.getName(), params);
+        JournalConfig jc = new JournalConfig(bc);
+        ClusterConfig cc = new ClusterConfig(id, 60 * 1000, jc);
+        SimpleClusterContext context = new SimpleClusterContext(cc, repositoryHome);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        ((MemoryJournal) clusterNode.getJournal()).setRecords(records);
+        return clusterNode;
+    }
 }
@@ -104,4 +104,20 @@ public class SimpleClusterContext implements ClusterContext {
     public void updateEventsReady(String workspace) throws RepositoryException {
         // nothing to be done here
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void snapshotIndexes(File directory) throws RepositoryException {
+        // no search indexes, only create the directory
+        directory.mkdirs();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean restoreIndexes(File directory) throws RepositoryException {
+        // no search indexes to restore
+        return true;
+    }
 }
@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for group commit in {@link AbstractJournal}.
+ */
+public class GroupCommitTest extends JUnitTest {
+
+    /**
+     * Errors thrown in update threads, rethrown on the test thread.
+     */
+    private final List errors = Collections.synchronizedList(new ArrayList());
+
+    /**
+     * Directory of the derby database used by the database journal.
+     */
+    private File directory;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("jackrabbit", "journal");
+        directory.delete();
+        super.setUp();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        try {
+            DriverManager.getConnection("jdbc:derby:" + directory.getPath()
+                    + ";shutdown=true");
+        } catch (SQLException e) {
+            // expected, derby reports a shutdown as exception
+        }
+        delete(directory);
+    }
+
+    /**
+     * Without group commit, every update unlocks the journal revision.
+     *
+     * @throws Exception
+     */
+    public void testWithoutGroupCommit() throws Exception {
+        final CountingJournal journal = createJournal(1);
+        journal.lockAndSync();
+
+        Thread t = startUpdate(journal);
+        Thread.sleep(500);
+        journal.unlock(true);
+        join(t);
+
+        assertEquals(2, journal.commits);
+        assertEquals(0, journal.lockLevel);
+    }
+
+    /**
+     * With group commit, an update waiting for the journal takes over the
+     * lock of the previous update and the journal revision is unlocked once.
+     *
+     * @throws Exception
+     */
+    public void testGroupCommit() throws Exception {
+        final CountingJournal journal = createJournal(4);
+        journal.lockAndSync();
+
+        Thread t = startUpdate(journal);
+        Thread.sleep(500);
+        journal.unlock(true);
+        join(t);
+
+        assertEquals(1, journal.commits);
+        assertEquals(0, journal.lockLevel);
+
+        // a single update is unlocked immediately
+        journal.lockAndSync();
+        journal.unlock(true);
+        assertEquals(2, journal.commits);
+        assertEquals(0, journal.lockLevel);
+    }
+
+    /**
+     * A failed update in a group ends the group: its lock is undone on its
+     * own and the journal revision is unlocked for the successful updates.
+     *
+     * @throws Exception
+     */
+    public void testFailedUpdateEndsGroup() throws Exception {
+        final CountingJournal journal = createJournal(4);
+        journal.lockAndSync();
+
+        Thread t = start(new Runnable() {
+            public void run() {
+                try {
+                    journal.lockAndSync();
+                } catch (JournalException e) {
+                    throw new RuntimeException(e.getMessage());
+                }
+                journal.unlock(false);
+            }
+        });
+        Thread.sleep(500);
+        journal.unlock(true);
+        join(t);
+
+        assertEquals(1, journal.nestedRollbacks);
+        assertEquals(1, journal.commits);
+        assertEquals(0, journal.rollbacks);
+        assertEquals(0, journal.lockLevel);
+    }
+
+    /**
+     * The record of an update that fails after having been appended within a
+     * group is not published with the successful updates of the group, and
+     * does not use up a revision.
+     *
+     * @throws Exception
+     */
+    public void testFailedUpdateInGroupNotPublished() throws Exception {
+        final FailingDatabaseJournal journal = new FailingDatabaseJournal();
+        journal.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        journal.setUrl("jdbc:derby:" + directory.getPath() + ";create=true");
+        journal.setSchema("derby");
+        journal.setGroupCommitSize(4);
+        journal.init("node", (NamespaceResolver) null);
+
+        try {
+            Record first = journal.getProducer("test").append();
+            first.writeString("first");
+
+            Thread t = start(new Runnable() {
+                public void run() {
+                    try {
+                        Record second = journal.getProducer("test").append();
+                        second.writeString("second");
+                        journal.failAppend = true;
+                        try {
+                            second.update();
+                            fail("Append of second record should fail.");
+                        } catch (JournalException e) {
+                            // expected
+                        }
+                    } catch (JournalException e) {
+                        throw new RuntimeException(e.getMessage());
+                    }
+                }
+            });
+            Thread.sleep(500);
+            first.update();
+            join(t);
+
+            journal.failAppend = false;
+            Record third = journal.getProducer("test").append();
+            third.writeString("third");
+            third.update();
+
+            assertEquals(first.getRevision() + 1, third.getRevision());
+
+            List published = new ArrayList();
+            RecordIterator iter = journal.getRecords(0);
+            try {
+                while (iter.hasNext()) {
+                    published.add(iter.nextRecord().readString());
+                }
+            } finally {
+                iter.close();
+            }
+            assertEquals(2, published.size());
+            assertEquals("first", published.get(0));
+            assertEquals("third", published.get(1));
+        } finally {
+            journal.close();
+        }
+    }
+
+    private CountingJournal createJournal(int groupCommitSize)
+            throws JournalException {
+        CountingJournal journal = new CountingJournal();
+        journal.setGroupCommitSize(groupCommitSize);
+        journal.init("node", (NamespaceResolver) null);
+        return journal;
+    }
+
+    private Thread startUpdate(final AbstractJournal journal) {
+        return start(new Runnable() {
+            public void run() {
+                try {
+                    journal.lockAndSync();
+                } catch (JournalException e) {
+                    throw new RuntimeException(e.getMessage());
+                }
+                journal.unlock(true);
+            }
+        });
+    }
+
+    /**
+     * Start a thread that remembers any error it throws.
+     *
+     * @param runnable update to run
+     * @return started thread
+     */
+    private Thread start(final Runnable runnable) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    /**
+     * Wait for a thread to finish and rethrow the first error thrown in
+     * any update thread.
+     *
+     * @param t thread to wait for
+     * @throws Exception if an update thread failed
+     */
+    private void join(Thread t) throws Exception {
+        t.join();
+        if (!errors.isEmpty()) {
+            Throwable e = (Throwable) errors.get(0);
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            throw (Exception) e;
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+
+    /**
+     * Memory journal that counts the nested locks of the journal revision
+     * like a database journal uses a transaction.
+     */
+    private static class CountingJournal extends MemoryJournal {
+
+        private int lockLevel;
+
+        private int commits;
+
+        private int rollbacks;
+
+        private int nestedRollbacks;
+
+        protected void doLock() throws JournalException {
+            super.doLock();
+            lockLevel++;
+        }
+
+        protected void doUnlock(boolean successful) {
+            super.doUnlock(successful);
+            if (--lockLevel == 0) {
+                if (successful) {
+                    commits++;
+                } else {
+                    rollbacks++;
+                }
+            } else if (!successful) {
+                nestedRollbacks++;
+            }
+        }
+    }
+
+    /**
+     * Database journal whose append fails after the record has been written
+     * to the database.
+     */
+    private static class FailingDatabaseJournal extends DatabaseJournal {
+
+        private volatile boolean failAppend;
+
+        protected void append(AppendRecord record, InputStream in, int length)
+                throws JournalException {
+            super.append(record, in, length);
+            if (failAppend) {
+                throw new JournalException("Append failed.");
+            }
+        }
+    }
+}
@@ -210,6 +210,7 @@ public class MemoryJournal extends AbstractJournal {
      */
     public void close() {
         closed = true;
+        super.close();
     }
 
     /**
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the compact and compressed record formats.
+ */
+public class RecordFormatTest extends JUnitTest {
+
+    /**
+     * Repository home value.
+     */
+    private static final String REPOSITORY_HOME = "target/repository_for_test";
+
+    /**
+     * Number of items written to each record.
+     */
+    private static final int ITEMS = 100;
+
+    /**
+     * Repository home.
+     */
+    private File repositoryHome;
+
+    /**
+     * Journal used to append and read records.
+     */
+    private FileJournal journal;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        repositoryHome = new File(REPOSITORY_HOME);
+        repositoryHome.mkdirs();
+        FileUtils.cleanDirectory(repositoryHome);
+
+        NamespaceMapping mapping = new NamespaceMapping();
+        mapping.setMapping("", "");
+        mapping.setMapping(Name.NS_JCR_PREFIX, Name.NS_JCR_URI);
+
+        journal = new FileJournal();
+        journal.setRepositoryHome(repositoryHome);
+        journal.setDirectory(new File(repositoryHome, "journal").getPath());
+        journal.init("node", mapping);
+
+        super.setUp();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception {
+        if (journal != null) {
+            journal.close();
+        }
+        if (repositoryHome != null) {
+            FileUtils.deleteDirectory(repositoryHome);
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Append records in all formats to the same journal and verify that
+     * they are read back in sequence, even if a record is not read
+     * completely. Verify that the compact and compressed records are
+     * smaller than the original ones.
+     *
+     * @throws Exception
+     */
+    public void testReadAllFormats() throws Exception {
+        long original = appendRecord();
+
+        journal.setCompactRecords(true);
+        long compact = appendRecord();
+
+        journal.setCompressRecords(true);
+        long compressed = appendRecord();
+        appendRecord();
+
+        journal.setCompactRecords(false);
+        journal.setCompressRecords(false);
+        appendRecord();
+
+        assertTrue(compact < original);
+        assertTrue(compressed < compact);
+
+        RecordIterator iter = journal.getRecords(0);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(iter.hasNext());
+                Record record = iter.nextRecord();
+                if (i == 2) {
+                    // only read the beginning of this record
+                    assertEquals("default", record.readString());
+                } else {
+                    verifyRecord(record);
+                }
+            }
+            assertFalse(iter.hasNext());
+        } finally {
+            iter.close();
+        }
+    }
+
+    /**
+     * Append a record with many names and paths, most of them repeated.
+     *
+     * @return the number of bytes the record occupies in the journal
+     * @throws Exception
+     */
+    private long appendRecord() throws Exception {
+        File file = new File(new File(repositoryHome, "journal"), "journal.log");
+        long size = file.length();
+
+        Record record = journal.getProducer("test").append();
+        record.writeString("default");
+        for (int i = 0; i < ITEMS; i++) {
+            record.writePath(createPath(i));
+            record.writeQName(NameConstants.JCR_PRIMARYTYPE);
+            record.writeInt(i);
+        }
+        record.update();
+
+        return file.length() - size;
+    }
+
+    /**
+     * Verify the contents of a record written by {@link #appendRecord()}.
+     *
+     * @param record record to verify
+     * @throws Exception
+     */
+    private void verifyRecord(Record record) throws Exception {
+        assertEquals("default", record.readString());
+        for (int i = 0; i < ITEMS; i++) {
+            assertEquals(createPath(i), record.readPath());
+            assertEquals(NameConstants.JCR_PRIMARYTYPE, record.readQName());
+            assertEquals(i, record.readInt());
+        }
+    }
+
+    /**
+     * Create a path below one of a few parent nodes.
+     *
+     * @param i item number
+     * @return path
+     */
+    private static Path createPath(int i) {
+        Name parent = NameFactoryImpl.getInstance().create("", "parent" + (i % 5));
+        return PathFactoryImpl.getInstance().create(new Path.Element[] {
+                PathFactoryImpl.getInstance().getRootElement(),
+                PathFactoryImpl.getInstance().createElement(parent) });
+    }
+}
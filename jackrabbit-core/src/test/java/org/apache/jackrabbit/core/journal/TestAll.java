@@ -38,6 +38,8 @@ public class TestAll extends TestCase {
         TestSuite suite = new TestSuite();
 
         suite.addTestSuite(FileJournalTest.class);
+        suite.addTestSuite(GroupCommitTest.class);
+        suite.addTestSuite(RecordFormatTest.class);
 
         return suite;
     }
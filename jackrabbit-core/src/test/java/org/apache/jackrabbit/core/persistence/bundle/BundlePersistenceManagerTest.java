@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.fs.FileSystemResource;
+import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
+import org.apache.jackrabbit.core.nodetype.NodeDefId;
+import org.apache.jackrabbit.core.persistence.PMContext;
+import org.apache.jackrabbit.core.persistence.bundle.util.BundleCache;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.uuid.UUID;
+
+/**
+ * Tests the bundle cache statistics of an
+ * {@link AbstractBundlePersistenceManager}.
+ */
+public class BundlePersistenceManagerTest extends TestCase {
+
+    private File home;
+
+    private BundleFsPersistenceManager pm;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        home = File.createTempFile("bundle", "");
+        home.delete();
+        home.mkdirs();
+        FileSystem fs = new MemoryFileSystem();
+        fs.init();
+        new FileSystemResource(fs, "/namespaces.properties").makeParentDirs();
+        fs.getOutputStream("/namespaces.properties").close();
+        pm = new BundleFsPersistenceManager();
+        pm.init(new PMContext(home, fs, new NodeId(UUID.randomUUID()),
+                null, null, null));
+    }
+
+    protected void tearDown() throws Exception {
+        pm.close();
+        FileUtils.deleteDirectory(home);
+        super.tearDown();
+    }
+
+    /**
+     * Checks that loading a bundle that is not cached counts exactly one
+     * cache miss, and that loading it again counts exactly one hit.
+     */
+    public void testCacheCounters() throws Exception {
+        NodeState state = createNodeState();
+        ChangeLog changes = new ChangeLog();
+        changes.added(state);
+        pm.store(changes);
+        pm.evictBundle(state.getNodeId());
+
+        BundleCache cache = pm.getBundleCache();
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        pm.load(state.getNodeId());
+        assertEquals(hits, cache.getHits());
+        assertEquals(misses + 1, cache.getMisses());
+
+        pm.load(state.getNodeId());
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    /**
+     * Checks that a bundle that does not exist counts one miss and is then
+     * answered from the cache of missing bundles.
+     */
+    public void testCacheCountersMissing() throws Exception {
+        BundleCache cache = pm.getBundleCache();
+        NodeId id = new NodeId(UUID.randomUUID());
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        assertFalse(pm.exists(id));
+        assertEquals(misses + 1, cache.getMisses());
+        try {
+            pm.load(id);
+            fail("node must not exist");
+        } catch (NoSuchItemStateException e) {
+            // expected
+        }
+        assertEquals(hits, cache.getHits());
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    //------------------------------< utilities >-------------------------------
+
+    private NodeState createNodeState() {
+        NodeState state = pm.createNew(new NodeId(UUID.randomUUID()));
+        state.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        state.setParentId(new NodeId(UUID.randomUUID()));
+        state.setDefinitionId(NodeDefId.valueOf("1"));
+        return state;
+    }
+}
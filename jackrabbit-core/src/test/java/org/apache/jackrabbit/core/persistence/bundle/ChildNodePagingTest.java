@@ -0,0 +1,416 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.core.NodeIdIterator;
+import org.apache.jackrabbit.core.PropertyId;
+import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.fs.FileSystemResource;
+import org.apache.jackrabbit.core.fs.local.LocalFileSystem;
+import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
+import org.apache.jackrabbit.core.nodetype.NodeDefId;
+import org.apache.jackrabbit.core.persistence.PMContext;
+import org.apache.jackrabbit.core.persistence.bundle.util.ChildNodePages;
+import org.apache.jackrabbit.core.persistence.bundle.util.NodePropBundle;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ChildNodeEntry;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.uuid.UUID;
+
+/**
+ * Tests the storage of child node entries in separate pages.
+ */
+public class ChildNodePagingTest extends TestCase {
+
+    private static final int PAGE_SIZE = 10;
+
+    private File home;
+
+    private PagingPersistenceManager pm;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        home = File.createTempFile("paging", "");
+        home.delete();
+        home.mkdirs();
+        pm = new PagingPersistenceManager();
+        pm.setChildNodeEntriesPageSize(String.valueOf(PAGE_SIZE));
+        pm.init(createContext(home, new MemoryFileSystem()));
+    }
+
+    protected void tearDown() throws Exception {
+        pm.close();
+        delete(home);
+        super.tearDown();
+    }
+
+    public void testPagedRoundTrip() throws Exception {
+        NodeState state = createNodeState();
+        for (int i = 0; i < 100; i++) {
+            state.addChildNodeEntry(name("child" + i), newId());
+        }
+        // same-name siblings must keep their order
+        for (int i = 0; i < 5; i++) {
+            state.addChildNodeEntry(name("sns"), newId());
+        }
+        store(state, true);
+        assertTrue(pm.getBundle(state).getChildPageCount() > 0);
+        // parent bundle plus pages
+        assertEquals(1 + pm.getBundle(state).getChildPageCount(), pm.stored.size());
+
+        pm.evictBundle(state.getNodeId());
+        assertSameEntries(state, pm.load(state.getNodeId()));
+    }
+
+    public void testModifyWritesSinglePage() throws Exception {
+        NodeState state = createNodeState();
+        for (int i = 0; i < 100; i++) {
+            state.addChildNodeEntry(name("child" + i), newId());
+        }
+        store(state, true);
+        int pages = pm.getBundle(state).getChildPageCount();
+
+        state = pm.load(state.getNodeId());
+        state.addChildNodeEntry(name("child100"), newId());
+        state.removeChildNodeEntry(name("child50"), 1);
+        pm.stored.clear();
+        store(state, false);
+        assertEquals(pages, pm.getBundle(state).getChildPageCount());
+        // parent bundle plus at most two modified pages
+        assertTrue(pm.stored.size() <= 3);
+        assertTrue(pm.stored.contains(state.getNodeId()));
+
+        pm.evictBundle(state.getNodeId());
+        assertSameEntries(state, pm.load(state.getNodeId()));
+    }
+
+    public void testUnpage() throws Exception {
+        NodeState state = createNodeState();
+        for (int i = 0; i < 100; i++) {
+            state.addChildNodeEntry(name("child" + i), newId());
+        }
+        store(state, true);
+        int pages = pm.getBundle(state).getChildPageCount();
+
+        state = pm.load(state.getNodeId());
+        for (int i = 0; i < 98; i++) {
+            state.removeChildNodeEntry(name("child" + i), 1);
+        }
+        store(state, false);
+        assertEquals(0, pm.getBundle(state).getChildPageCount());
+        assertEquals(pages, pm.destroyed.size());
+        for (int i = 0; i < pages; i++) {
+            assertTrue(pm.destroyed.contains(
+                    ChildNodePages.getPageId(state.getNodeId(), i)));
+        }
+
+        pm.evictBundle(state.getNodeId());
+        assertSameEntries(state, pm.load(state.getNodeId()));
+    }
+
+    public void testCachedSizeIncludesPages() throws Exception {
+        NodeState state = createNodeState();
+        for (int i = 0; i < 100; i++) {
+            state.addChildNodeEntry(name("child" + i), newId());
+        }
+        store(state, true);
+        NodePropBundle bundle = pm.getBundle(state);
+        int pages = bundle.getChildPageCount();
+        assertTrue(pages > 0);
+
+        long pagesSize = 0;
+        for (int i = 0; i < pages; i++) {
+            NodePropBundle page = pm.loadBundle(
+                    ChildNodePages.getPageId(state.getNodeId(), i));
+            assertTrue(page.getDataSize() > 0);
+            pagesSize += page.getDataSize();
+        }
+
+        // loaded with its pages into the bundle cache
+        pm.evictBundle(state.getNodeId());
+        pm.getBundleCache().clear();
+        pm.load(state.getNodeId());
+        long loaded = pm.getBundleCache().getCurrentSize();
+        NodePropBundle cached = pm.getBundleCache().get(state.getNodeId());
+        assertEquals(cached.getSize(), loaded);
+        long[] sizes = cached.getChildPageSizes();
+        assertEquals(pages, sizes.length);
+        for (int i = 0; i < sizes.length; i++) {
+            pagesSize -= sizes[i];
+        }
+        assertEquals(0, pagesSize);
+
+        // fewer pages after most child nodes are removed
+        state = pm.load(state.getNodeId());
+        for (int i = 0; i < 80; i++) {
+            state.removeChildNodeEntry(name("child" + i), 1);
+        }
+        store(state, false);
+        long stored = pm.getBundleCache().getCurrentSize();
+        assertTrue(stored < loaded);
+
+        pm.evictBundle(state.getNodeId());
+        pm.load(state.getNodeId());
+        assertEquals(stored, pm.getBundleCache().getCurrentSize());
+
+        // no pages anymore
+        state = pm.load(state.getNodeId());
+        for (int i = 80; i < 98; i++) {
+            state.removeChildNodeEntry(name("child" + i), 1);
+        }
+        store(state, false);
+        assertEquals(0, pm.getBundle(state).getChildPageCount());
+        assertEquals(pm.getBundle(state).getSize(),
+                pm.getBundleCache().getCurrentSize());
+    }
+
+    public void testOrderable() throws Exception {
+        pm.orderable = true;
+        NodeState state = createNodeState();
+        for (int i = 0; i < 100; i++) {
+            state.addChildNodeEntry(name("child" + i), newId());
+        }
+        store(state, true);
+        assertEquals(0, pm.getBundle(state).getChildPageCount());
+        assertEquals(1, pm.stored.size());
+    }
+
+    public void testPagesNotVisible() throws Exception {
+        // the memory file system cannot list the items of the persistence
+        // manager, use the local file system
+        File fsHome = new File(home, "fs");
+        fsHome.mkdirs();
+        LocalFileSystem fs = new LocalFileSystem();
+        fs.setRoot(fsHome);
+        PagingPersistenceManager local = new PagingPersistenceManager();
+        local.setChildNodeEntriesPageSize(String.valueOf(PAGE_SIZE));
+        local.init(createContext(fsHome, fs));
+        try {
+            checkPagesNotVisible(local);
+        } finally {
+            local.close();
+        }
+    }
+
+    public void testPagesNotVisibleDb() throws Exception {
+        File dbHome = new File(home, "db");
+        dbHome.mkdirs();
+        DerbyPersistenceManager db = new DerbyPersistenceManager() {
+            protected boolean hasOrderableChildNodes(NodePropBundle bundle) {
+                return false;
+            }
+        };
+        db.setChildNodeEntriesPageSize(String.valueOf(PAGE_SIZE));
+        db.init(createContext(dbHome, new MemoryFileSystem()));
+        try {
+            checkPagesNotVisible(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testPageCount() {
+        assertEquals(0, ChildNodePages.getPageCount(0, 10, 0));
+        assertEquals(0, ChildNodePages.getPageCount(0, 10, 10));
+        assertEquals(3, ChildNodePages.getPageCount(0, 11, 10));
+        // stable while the pages are neither too full nor too empty
+        assertEquals(3, ChildNodePages.getPageCount(3, 30, 10));
+        assertEquals(3, ChildNodePages.getPageCount(3, 5, 10));
+        assertEquals(7, ChildNodePages.getPageCount(3, 31, 10));
+        assertEquals(0, ChildNodePages.getPageCount(3, 4, 10));
+        assertEquals(20, ChildNodePages.getPageCount(1000, 100, 10));
+    }
+
+    //------------------------------< utilities >-------------------------------
+
+    /**
+     * Initializes the file system and creates a persistence manager context.
+     *
+     * @param home the home directory of the persistence manager
+     * @param fs the file system, not yet initialized
+     * @return the context
+     */
+    private static PMContext createContext(File home, FileSystem fs)
+            throws Exception {
+        fs.init();
+        new FileSystemResource(fs, "/namespaces.properties").makeParentDirs();
+        fs.getOutputStream("/namespaces.properties").close();
+        return new PMContext(home, fs, new NodeId(UUID.randomUUID()),
+                null, null, null);
+    }
+
+    /**
+     * Checks that the page bundles of a node with many child nodes are not
+     * visible as nodes.
+     *
+     * @param pm the persistence manager to check
+     */
+    private static void checkPagesNotVisible(AbstractBundlePersistenceManager pm)
+            throws Exception {
+        NodeState state = pm.createNew(newId());
+        state.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        state.setParentId(newId());
+        state.setDefinitionId(NodeDefId.valueOf("1"));
+        for (int i = 0; i < 100; i++) {
+            state.addChildNodeEntry(name("child" + i), newId());
+        }
+        ChangeLog changes = new ChangeLog();
+        changes.added(state);
+        pm.store(changes);
+        NodeId pageId = ChildNodePages.getPageId(state.getNodeId(), 0);
+        assertTrue(ChildNodePages.isPageId(pageId));
+        assertFalse(ChildNodePages.isPageId(state.getNodeId()));
+
+        for (int pass = 0; pass < 2; pass++) {
+            assertFalse(pm.exists(pageId));
+            try {
+                pm.load(pageId);
+                fail("page must not be visible as node");
+            } catch (NoSuchItemStateException e) {
+                // expected
+            }
+            PropertyId propId = new PropertyId(pageId, NameConstants.JCR_PRIMARYTYPE);
+            assertFalse(pm.exists(propId));
+            try {
+                pm.load(propId);
+                fail("page must not be visible as node");
+            } catch (NoSuchItemStateException e) {
+                // expected
+            }
+            assertTrue(pm.exists(state.getNodeId()));
+            // pages are cached now
+            pm.prefetch(Collections.singletonList(pageId));
+        }
+
+        List ids = new ArrayList();
+        for (NodeIdIterator it = pm.getAllNodeIds(null, 0); it.hasNext(); ) {
+            ids.add(it.nextNodeId());
+        }
+        assertEquals(Collections.singletonList(state.getNodeId()), ids);
+
+        // batches that only contain pages are skipped
+        ids.clear();
+        NodeId after = null;
+        for (;;) {
+            NodeIdIterator it = pm.getAllNodeIds(after, 1);
+            if (!it.hasNext()) {
+                break;
+            }
+            while (it.hasNext()) {
+                after = it.nextNodeId();
+                ids.add(after);
+            }
+        }
+        assertEquals(Collections.singletonList(state.getNodeId()), ids);
+
+        pm.evictBundle(state.getNodeId());
+        assertSameEntries(state, pm.load(state.getNodeId()));
+    }
+
+    private NodeState createNodeState() {
+        NodeState state = pm.createNew(newId());
+        state.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        state.setParentId(newId());
+        state.setDefinitionId(NodeDefId.valueOf("1"));
+        return state;
+    }
+
+    private void store(NodeState state, boolean added) throws Exception {
+        ChangeLog changes = new ChangeLog();
+        if (added) {
+            changes.added(state);
+        } else {
+            changes.modified(state);
+        }
+        pm.store(changes);
+    }
+
+    private static void assertSameEntries(NodeState expected, NodeState actual) {
+        List entries = actual.getChildNodeEntries();
+        assertEquals(expected.getChildNodeEntries().size(), entries.size());
+        Iterator iter = expected.getChildNodeEntries().iterator();
+        while (iter.hasNext()) {
+            ChildNodeEntry entry = (ChildNodeEntry) iter.next();
+            ChildNodeEntry other = actual.getChildNodeEntry(entry.getId());
+            assertNotNull(other);
+            assertEquals(entry.getName(), other.getName());
+            assertEquals(entry.getIndex(), other.getIndex());
+        }
+    }
+
+    private static Name name(String local) {
+        return NameFactoryImpl.getInstance().create(Name.NS_DEFAULT_URI, local);
+    }
+
+    private static NodeId newId() {
+        return new NodeId(UUID.randomUUID());
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            delete(files[i]);
+        }
+        file.delete();
+    }
+
+    /**
+     * Bundle persistence manager that records stored and destroyed bundles.
+     */
+    private static class PagingPersistenceManager extends BundleFsPersistenceManager {
+
+        private final List stored = new ArrayList();
+
+        private final List destroyed = new ArrayList();
+
+        private boolean orderable = false;
+
+        NodePropBundle getBundle(NodeState state) throws Exception {
+            return loadBundle(state.getNodeId());
+        }
+
+        protected boolean hasOrderableChildNodes(NodePropBundle bundle) {
+            return orderable;
+        }
+
+        protected synchronized void storeBundle(NodePropBundle bundle)
+                throws ItemStateException {
+            stored.add(bundle.getId());
+            super.storeBundle(bundle);
+        }
+
+        protected synchronized void destroyBundle(NodePropBundle bundle)
+                throws ItemStateException {
+            destroyed.add(bundle.getId());
+            super.destroyBundle(bundle);
+        }
+    }
+}
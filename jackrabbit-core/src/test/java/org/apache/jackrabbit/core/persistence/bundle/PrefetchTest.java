@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests iterating over child nodes whose states are prefetched from the
+ * persistence manager in batches.
+ */
+public class PrefetchTest extends AbstractJCRTest {
+
+    /**
+     * The number of child nodes, spans several prefetch batches.
+     */
+    private static final int NODES = 100;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < NODES; i++) {
+            testRootNode.addNode("node" + i, testNodeType).setProperty("index", i);
+        }
+        superuser.save();
+    }
+
+    /**
+     * Checks that all child nodes are returned in order with their
+     * properties.
+     */
+    public void testGetNodes() throws Exception {
+        Session s = helper.getReadOnlySession();
+        try {
+            Node root = (Node) s.getItem(testRoot);
+            int i = 0;
+            for (NodeIterator it = root.getNodes(); it.hasNext(); i++) {
+                Node n = it.nextNode();
+                assertEquals("node" + i, n.getName());
+                assertEquals(i, n.getProperty("index").getLong());
+            }
+            assertEquals(NODES, i);
+        } finally {
+            s.logout();
+        }
+    }
+
+    /**
+     * Checks that nodes removed by another session after the iterator
+     * was created are skipped.
+     */
+    public void testGetNodesConcurrentRemove() throws Exception {
+        Session s = helper.getReadOnlySession();
+        try {
+            Node root = (Node) s.getItem(testRoot);
+            NodeIterator it = root.getNodes();
+            for (int i = 1; i < NODES; i += 2) {
+                testRootNode.getNode("node" + i).remove();
+            }
+            superuser.save();
+            int i = 0;
+            while (it.hasNext()) {
+                assertEquals("node" + i, it.nextNode().getName());
+                i += 2;
+            }
+            assertEquals(NODES, i);
+        } finally {
+            s.logout();
+        }
+    }
+}
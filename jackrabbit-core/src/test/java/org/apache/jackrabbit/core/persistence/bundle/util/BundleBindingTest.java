@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.PropertyType;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.core.PropertyId;
+import org.apache.jackrabbit.core.nodetype.NodeDefId;
+import org.apache.jackrabbit.core.nodetype.PropDefId;
+import org.apache.jackrabbit.core.util.StringIndex;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.uuid.UUID;
+
+/**
+ * Unit tests for the serialization of bundles by {@link BundleBinding}.
+ */
+public class BundleBindingTest extends TestCase {
+
+    private BundleBinding binding;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        binding = new BundleBinding(new ErrorHandling(), null,
+                new MemoryIndex(), new MemoryIndex(), null);
+    }
+
+    public void testVarInt() throws IOException {
+        int[] ints = new int[] {0, 1, 127, 128, 16383, 16384,
+                Integer.MAX_VALUE, -1, -64, -65, Integer.MIN_VALUE};
+        long[] longs = new long[] {0, 1, -1, 63, -64, 64,
+                Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (int i = 0; i < ints.length; i++) {
+            binding.writeVarInt(out, ints[i]);
+            binding.writeSignedVarInt(out, ints[i]);
+        }
+        for (int i = 0; i < longs.length; i++) {
+            binding.writeSignedVarLong(out, longs[i]);
+        }
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(buffer.toByteArray()));
+        for (int i = 0; i < ints.length; i++) {
+            assertEquals(ints[i], binding.readVarInt(in));
+            assertEquals(ints[i], binding.readSignedVarInt(in));
+        }
+        for (int i = 0; i < longs.length; i++) {
+            assertEquals(longs[i], binding.readSignedVarLong(in));
+        }
+        assertEquals(-1, in.read());
+    }
+
+    public void testRoundTrip() throws IOException {
+        NodePropBundle bundle = createBundle(100);
+        byte[] data = write(bundle);
+        assertBundleEquals(bundle, read(data, bundle.getId()));
+        assertTrue(binding.checkBundle(
+                new DataInputStream(new ByteArrayInputStream(data))));
+    }
+
+    public void testChildPages() throws IOException {
+        NodePropBundle bundle = createBundle(100);
+        bundle.setChildPageCount(7);
+        byte[] data = write(bundle);
+        NodePropBundle read = read(data, bundle.getId());
+        assertEquals(7, read.getChildPageCount());
+        assertTrue(read.getChildNodeEntries().isEmpty());
+        assertEquals(bundle.isReferenceable(), read.isReferenceable());
+        assertTrue(binding.checkBundle(
+                new DataInputStream(new ByteArrayInputStream(data))));
+    }
+
+    public void testCheckTruncatedBundle() throws IOException {
+        NodePropBundle bundle = createBundle(10);
+        byte[] data = write(bundle);
+        byte[] truncated = new byte[data.length - 10];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertFalse(binding.checkBundle(
+                new DataInputStream(new ByteArrayInputStream(truncated))));
+    }
+
+    /**
+     * Reads a bundle written in the format of version 2 and checks that
+     * it is written in the smaller current format.
+     */
+    public void testReadVersion2() throws IOException {
+        NodePropBundle bundle = createBundle(100);
+        // version 2 does not support all property types the same way,
+        // only keep string properties
+        Iterator iter = new ArrayList(bundle.getPropertyNames()).iterator();
+        while (iter.hasNext()) {
+            Name name = (Name) iter.next();
+            if (bundle.getPropertyEntry(name).getType() != PropertyType.STRING) {
+                bundle.removeProperty(name);
+            }
+        }
+        byte[] v2 = writeVersion2(bundle);
+        assertTrue(binding.checkBundle(
+                new DataInputStream(new ByteArrayInputStream(v2))));
+        NodePropBundle read = read(v2, bundle.getId());
+        assertBundleEquals(bundle, read);
+
+        byte[] v3 = write(read);
+        assertBundleEquals(bundle, read(v3, bundle.getId()));
+        assertTrue("compact format is larger: " + v3.length + " >= " + v2.length,
+                v3.length < v2.length);
+    }
+
+    private byte[] write(NodePropBundle bundle) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        binding.writeBundle(out, bundle);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private NodePropBundle read(byte[] data, NodeId id) throws IOException {
+        return binding.readBundle(
+                new DataInputStream(new ByteArrayInputStream(data)), id);
+    }
+
+    /**
+     * Writes a bundle with string properties in the format of version 2.
+     */
+    private byte[] writeVersion2(NodePropBundle bundle) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        Name type = bundle.getNodeTypeName();
+        out.writeInt((ItemStateBinding.VERSION_2 << 24)
+                | binding.nsIndex.stringToIndex(type.getNamespaceURI()));
+        out.writeInt(binding.nameIndex.stringToIndex(type.getLocalName()));
+        binding.writeID(out, bundle.getParentId());
+        out.writeUTF(bundle.getNodeDefId().toString());
+        Iterator iter = bundle.getMixinTypeNames().iterator();
+        while (iter.hasNext()) {
+            binding.writeIndexedQName(out, (Name) iter.next());
+        }
+        binding.writeIndexedQName(out, null);
+        iter = bundle.getPropertyNames().iterator();
+        while (iter.hasNext()) {
+            NodePropBundle.PropertyEntry entry =
+                bundle.getPropertyEntry((Name) iter.next());
+            binding.writeIndexedQName(out, entry.getName());
+            out.writeInt(entry.getType() | (entry.getModCount() << 16));
+            out.writeBoolean(entry.isMultiValued());
+            out.writeUTF(entry.getPropDefId().toString());
+            InternalValue[] values = entry.getValues();
+            out.writeInt(values.length);
+            for (int i = 0; i < values.length; i++) {
+                byte[] bytes = values[i].toString().getBytes("UTF-8");
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        binding.writeIndexedQName(out, null);
+        out.writeBoolean(bundle.isReferenceable());
+        iter = bundle.getChildNodeEntries().iterator();
+        while (iter.hasNext()) {
+            NodePropBundle.ChildNodeEntry entry =
+                (NodePropBundle.ChildNodeEntry) iter.next();
+            binding.writeID(out, entry.getId());
+            binding.writeQName(out, entry.getName());
+        }
+        binding.writeID(out, null);
+        binding.writeModCount(out, bundle.getModCount());
+        iter = bundle.getSharedSet().iterator();
+        while (iter.hasNext()) {
+            binding.writeID(out, (NodeId) iter.next());
+        }
+        binding.writeID(out, null);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    private NodePropBundle createBundle(int children) {
+        NodeId id = new NodeId(UUID.randomUUID());
+        NodePropBundle bundle = new NodePropBundle(binding, id);
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setParentId(new NodeId(UUID.randomUUID()));
+        bundle.setNodeDefId(NodeDefId.valueOf("-12345678"));
+        Set mixins = new HashSet();
+        mixins.add(NameConstants.MIX_REFERENCEABLE);
+        bundle.setMixinTypeNames(mixins);
+        bundle.setReferenceable(true);
+        bundle.setModCount((short) 42);
+
+        addProperty(bundle, "string", PropertyType.STRING,
+                new InternalValue[] {InternalValue.create("value")});
+        addProperty(bundle, "strings", PropertyType.STRING,
+                new InternalValue[] {InternalValue.create("a"),
+                        InternalValue.create("äöü")});
+        addProperty(bundle, "long", PropertyType.LONG,
+                new InternalValue[] {InternalValue.create(-1234567890123L)});
+        addProperty(bundle, "double", PropertyType.DOUBLE,
+                new InternalValue[] {InternalValue.create(3.14)});
+        addProperty(bundle, "boolean", PropertyType.BOOLEAN,
+                new InternalValue[] {InternalValue.create(true)});
+        addProperty(bundle, "name", PropertyType.NAME,
+                new InternalValue[] {InternalValue.create(NameConstants.NT_BASE)});
+        addProperty(bundle, "reference", PropertyType.REFERENCE,
+                new InternalValue[] {InternalValue.create(UUID.randomUUID())});
+        addProperty(bundle, "binary", PropertyType.BINARY,
+                new InternalValue[] {InternalValue.create(new byte[] {1, 2, 3})});
+
+        for (int i = 0; i < children; i++) {
+            // same name siblings and names with common prefixes
+            Name name = NameFactoryImpl.getInstance().create(
+                    "", i % 10 == 0 ? "child" : "child" + i);
+            bundle.addChildNodeEntry(name, new NodeId(UUID.randomUUID()));
+        }
+        Set sharedSet = new HashSet();
+        sharedSet.add(new NodeId(UUID.randomUUID()));
+        bundle.setSharedSet(sharedSet);
+        return bundle;
+    }
+
+    private void addProperty(NodePropBundle bundle, String name, int type,
+                             InternalValue[] values) {
+        Name propName = NameFactoryImpl.getInstance().create("", name);
+        NodePropBundle.PropertyEntry entry = new NodePropBundle.PropertyEntry(
+                new PropertyId(bundle.getId(), propName));
+        entry.setType(type);
+        entry.setMultiValued(values.length > 1);
+        entry.setPropDefId(PropDefId.valueOf("98765"));
+        entry.setModCount((short) 7);
+        entry.setValues(values);
+        entry.setBlobIds(new String[values.length]);
+        bundle.addProperty(entry);
+    }
+
+    private void assertBundleEquals(NodePropBundle expected,
+                                    NodePropBundle actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getNodeTypeName(), actual.getNodeTypeName());
+        assertEquals(expected.getParentId(), actual.getParentId());
+        assertEquals(expected.getNodeDefId(), actual.getNodeDefId());
+        assertEquals(expected.getMixinTypeNames(), actual.getMixinTypeNames());
+        assertEquals(expected.isReferenceable(), actual.isReferenceable());
+        assertEquals(expected.getModCount(), actual.getModCount());
+        assertEquals(expected.getSharedSet(), actual.getSharedSet());
+        assertEquals(expected.getPropertyNames(), actual.getPropertyNames());
+        Iterator iter = expected.getPropertyNames().iterator();
+        while (iter.hasNext()) {
+            Name name = (Name) iter.next();
+            NodePropBundle.PropertyEntry e = expected.getPropertyEntry(name);
+            NodePropBundle.PropertyEntry a = actual.getPropertyEntry(name);
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.isMultiValued(), a.isMultiValued());
+            assertEquals(e.getPropDefId(), a.getPropDefId());
+            assertEquals(e.getModCount(), a.getModCount());
+            assertEquals(e.getValues().length, a.getValues().length);
+            for (int i = 0; i < e.getValues().length; i++) {
+                assertEquals(e.getValues()[i].toString(), a.getValues()[i].toString());
+            }
+        }
+        List expectedEntries = expected.getChildNodeEntries();
+        List actualEntries = actual.getChildNodeEntries();
+        assertEquals(expectedEntries.size(), actualEntries.size());
+        for (int i = 0; i < expectedEntries.size(); i++) {
+            NodePropBundle.ChildNodeEntry e =
+                (NodePropBundle.ChildNodeEntry) expectedEntries.get(i);
+            NodePropBundle.ChildNodeEntry a =
+                (NodePropBundle.ChildNodeEntry) actualEntries.get(i);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getId(), a.getId());
+        }
+    }
+
+    /**
+     * A string index that is kept in memory.
+     */
+    private static class MemoryIndex implements StringIndex {
+
+        private final List strings = new ArrayList();
+
+        public int stringToIndex(String string) {
+            int index = strings.indexOf(string);
+            if (index < 0) {
+                index = strings.size();
+                strings.add(string);
+            }
+            return index;
+        }
+
+        public String indexToString(int idx) {
+            return (String) strings.get(idx);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.uuid.UUID;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link BundleCache} class and the eviction policies.
+ */
+public class BundleCacheTest extends TestCase {
+
+    /**
+     * The estimated memory usage of the bundles used for testing.
+     */
+    private static final long BUNDLE_SIZE = createBundle().getSize();
+
+    /**
+     * Creates an empty bundle with a random id.
+     *
+     * @return a new bundle
+     */
+    private static NodePropBundle createBundle() {
+        return new NodePropBundle(null, new NodeId(UUID.randomUUID()));
+    }
+
+    public void testGetPutRemove() {
+        BundleCache cache = new BundleCache(1024 * 1024);
+        NodePropBundle bundle = createBundle();
+        assertNull(cache.get(bundle.getId()));
+        cache.put(bundle);
+        assertTrue(cache.contains(bundle.getId()));
+        assertSame(bundle, cache.get(bundle.getId()));
+        assertEquals(1, cache.getCount());
+        assertEquals(BUNDLE_SIZE, cache.getCurrentSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertSame(bundle, cache.remove(bundle.getId()));
+        assertFalse(cache.contains(bundle.getId()));
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getCurrentSize());
+    }
+
+    public void testLRUEviction() {
+        LRUBundleCachePolicy policy = new LRUBundleCachePolicy();
+        policy.setMaxSize(3 * BUNDLE_SIZE);
+        NodePropBundle b1 = createBundle();
+        NodePropBundle b2 = createBundle();
+        NodePropBundle b3 = createBundle();
+        NodePropBundle b4 = createBundle();
+        assertEquals(0, policy.put(b1));
+        assertEquals(0, policy.put(b2));
+        assertEquals(0, policy.put(b3));
+        // access b1, b2 is now least recently used
+        assertSame(b1, policy.get(b1.getId()));
+        assertEquals(1, policy.put(b4));
+        assertFalse(policy.contains(b2.getId()));
+        assertTrue(policy.contains(b1.getId()));
+        assertTrue(policy.contains(b3.getId()));
+        assertTrue(policy.contains(b4.getId()));
+        assertEquals(3 * BUNDLE_SIZE, policy.getSize());
+    }
+
+    public void testTwoQueueScanResistance() {
+        TwoQueueBundleCachePolicy policy = new TwoQueueBundleCachePolicy();
+        policy.setMaxSize(20 * BUNDLE_SIZE);
+        NodePropBundle[] hot = new NodePropBundle[10];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = createBundle();
+            policy.put(hot[i]);
+        }
+        // scan evicts the hot bundles from the FIFO queue
+        for (int i = 0; i < 20; i++) {
+            policy.put(createBundle());
+        }
+        // put hot bundles again while their ids are remembered
+        for (int i = 0; i < hot.length; i++) {
+            assertNull(policy.get(hot[i].getId()));
+            policy.put(hot[i]);
+        }
+        // another scan must not evict the hot bundles
+        for (int i = 0; i < 1000; i++) {
+            policy.put(createBundle());
+        }
+        for (int i = 0; i < hot.length; i++) {
+            assertSame(hot[i], policy.get(hot[i].getId()));
+        }
+        assertTrue(policy.getSize() <= 20 * BUNDLE_SIZE);
+    }
+
+    public void testMaxSize() {
+        BundleCache cache = new BundleCache(
+                160 * BUNDLE_SIZE, BundleCache.POLICY_2Q);
+        for (int i = 0; i < 10000; i++) {
+            cache.put(createBundle());
+        }
+        assertTrue(cache.getCurrentSize() <= 160 * BUNDLE_SIZE);
+        assertEquals(10000, cache.getCount() + cache.getEvictions());
+        cache.clear();
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    public void testOversizedBundle() {
+        checkOversizedBundle(BundleCache.POLICY_LRU);
+        checkOversizedBundle(BundleCache.POLICY_2Q);
+    }
+
+    /**
+     * Checks that a bundle larger than the share of its segment is cached
+     * and that it only evicts other bundles.
+     *
+     * @param policy the eviction policy
+     */
+    private void checkOversizedBundle(String policy) {
+        BundleCache cache = new BundleCache(160 * BUNDLE_SIZE, policy);
+        for (int i = 0; i < 100; i++) {
+            cache.put(createBundle());
+        }
+        int count = cache.getCount();
+        NodePropBundle large = createBundle();
+        large.setSize(20 * BUNDLE_SIZE);
+        cache.put(large);
+        assertTrue(policy, cache.contains(large.getId()));
+        assertSame(policy, large, cache.get(large.getId()));
+        // the other segments are not affected
+        assertTrue(policy, cache.getCount() > count - 10);
+        // replacing the bundle keeps it cached
+        cache.put(large);
+        assertSame(policy, large, cache.get(large.getId()));
+        // and it is evicted like any other bundle later on
+        for (int i = 0; i < 1000; i++) {
+            cache.put(createBundle());
+        }
+        assertFalse(policy, cache.contains(large.getId()));
+        assertTrue(policy, cache.getCurrentSize() <= 160 * BUNDLE_SIZE);
+    }
+
+    public void testOversizedBundlePolicy() {
+        BundleCachePolicy[] policies = new BundleCachePolicy[] {
+                new LRUBundleCachePolicy(), new TwoQueueBundleCachePolicy() };
+        for (int i = 0; i < policies.length; i++) {
+            BundleCachePolicy policy = policies[i];
+            policy.setMaxSize(4 * BUNDLE_SIZE);
+            policy.put(createBundle());
+            policy.put(createBundle());
+            NodePropBundle large = createBundle();
+            large.setSize(10 * BUNDLE_SIZE);
+            assertEquals(2, policy.put(large));
+            assertTrue(policy.contains(large.getId()));
+            assertEquals(1, policy.getCount());
+            assertEquals(large.getSize(), policy.getSize());
+            // the next bundle evicts the oversized bundle
+            NodePropBundle small = createBundle();
+            assertEquals(1, policy.put(small));
+            assertTrue(policy.contains(small.getId()));
+            assertFalse(policy.contains(large.getId()));
+        }
+    }
+
+    public void testCacheCounters() {
+        BundleCache cache = new BundleCache(1024 * 1024);
+        NodePropBundle bundle = createBundle();
+        assertNull(cache.get(bundle.getId()));
+        cache.put(bundle);
+        cache.get(bundle.getId());
+        assertEquals(2, cache.getAccessCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(BUNDLE_SIZE, cache.getMemoryUsed());
+        cache.resetAccessCount();
+        assertEquals(0, cache.getAccessCount());
+        assertEquals(0, cache.getMissCount());
+        cache.get(bundle.getId());
+        assertEquals(1, cache.getAccessCount());
+        assertEquals(0, cache.getMissCount());
+        // the overall statistics are not reset
+        assertEquals(2, cache.getHits());
+        cache.setMaxMemorySize(512 * 1024);
+        assertEquals(512 * 1024, cache.getMaxSize());
+    }
+
+    public void testPutIfAbsent() {
+        BundleCache cache = new BundleCache(1024 * 1024);
+        NodePropBundle bundle = createBundle();
+        assertNull(cache.putIfAbsent(bundle));
+        NodePropBundle other = new NodePropBundle(null, bundle.getId());
+        assertSame(bundle, cache.putIfAbsent(other));
+        assertEquals(1, cache.getCount());
+        // not counted as cache accesses
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertSame(bundle, cache.get(bundle.getId()));
+    }
+
+    public void testInvalidPolicy() {
+        try {
+            new BundleCache(1024, "no.such.Policy");
+            fail("invalid policy must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
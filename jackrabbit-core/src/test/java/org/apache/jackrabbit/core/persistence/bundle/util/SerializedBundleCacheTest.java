@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle.util;
+
+import java.util.Arrays;
+
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.uuid.UUID;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link SerializedBundleCache} class.
+ */
+public class SerializedBundleCacheTest extends TestCase {
+
+    /**
+     * Creates test data of the given length.
+     *
+     * @param length the length
+     * @param seed the first byte
+     * @return the data
+     */
+    private static byte[] createData(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    public void testGetPutRemove() {
+        SerializedBundleCache cache = new SerializedBundleCache(16 * 1024);
+        NodeId id = new NodeId(UUID.randomUUID());
+        assertNull(cache.get(id));
+        byte[] data = createData(100, 1);
+        cache.put(id, data);
+        assertTrue(Arrays.equals(data, cache.get(id)));
+        data = createData(200, 2);
+        cache.put(id, data);
+        assertTrue(Arrays.equals(data, cache.get(id)));
+        assertEquals(1, cache.getCount());
+        cache.remove(id);
+        assertNull(cache.get(id));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testTooLarge() {
+        SerializedBundleCache cache = new SerializedBundleCache(16 * 1024);
+        NodeId id = new NodeId(UUID.randomUUID());
+        cache.put(id, new byte[2048]);
+        assertNull(cache.get(id));
+    }
+
+    public void testEviction() {
+        // 1024 bytes per segment
+        SerializedBundleCache cache = new SerializedBundleCache(16 * 1024);
+        NodeId[] ids = new NodeId[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new NodeId(UUID.randomUUID());
+            cache.put(ids[i], createData(50 + i % 7, i));
+        }
+        assertTrue(cache.getCount() <= 16 * (1024 / 50));
+        int found = 0;
+        for (int i = 0; i < ids.length; i++) {
+            byte[] data = cache.get(ids[i]);
+            if (data != null) {
+                assertTrue(Arrays.equals(createData(50 + i % 7, i), data));
+                found++;
+            }
+        }
+        assertEquals(cache.getCount(), found);
+        // the most recently written bundle is always available
+        assertNotNull(cache.get(ids[ids.length - 1]));
+        cache.clear();
+        assertEquals(0, cache.getCount());
+    }
+
+    /**
+     * Checks that the hits and misses of all segments are counted when the
+     * cache is read concurrently.
+     */
+    public void testConcurrentCounters() throws InterruptedException {
+        final SerializedBundleCache cache = new SerializedBundleCache(64 * 1024);
+        final NodeId[] ids = new NodeId[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new NodeId(UUID.randomUUID());
+            if (i % 2 == 0) {
+                cache.put(ids[i], createData(10, i));
+            }
+        }
+        final int rounds = 100;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int r = 0; r < rounds; r++) {
+                        for (int i = 0; i < ids.length; i++) {
+                            cache.get(ids[i]);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+        }
+        long reads = (long) threads.length * rounds * ids.length / 2;
+        assertEquals(reads, cache.getHits());
+        assertEquals(reads, cache.getMisses());
+        cache.clear();
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.DataIdentifier;
+import org.apache.jackrabbit.core.data.DataRecord;
+import org.apache.jackrabbit.core.data.DataStore;
+
+/**
+ * <code>ExtractedTextCacheTest</code> checks the cache of extracted text.
+ */
+public class ExtractedTextCacheTest extends TestCase {
+
+    private static final DataIdentifier ID1 = new DataIdentifier("0123456789abcdef");
+
+    private static final DataIdentifier ID2 = new DataIdentifier("fedcba9876543210");
+
+    private File directory;
+
+    private ExtractedTextCache cache;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("textcache", "");
+        directory.delete();
+        cache = new ExtractedTextCache(directory);
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+        super.tearDown();
+    }
+
+    public void testPutGet() throws IOException {
+        String key = ExtractedTextCache.createKey(ID1, "application/pdf", null);
+        assertNull(cache.get(key));
+        cache.put(key, "some text");
+        assertTrue(cache.contains(key));
+        assertEquals("some text", read(cache.get(key)));
+
+        // different content type of the same binary
+        String other = ExtractedTextCache.createKey(ID1, "text/plain", "UTF-8");
+        assertFalse(key.equals(other));
+        assertFalse(cache.contains(other));
+    }
+
+    public void testPurge() throws Exception {
+        String key1 = ExtractedTextCache.createKey(ID1, "application/pdf", null);
+        String key2 = ExtractedTextCache.createKey(ID2, "application/pdf", null);
+        cache.put(key1, "one");
+        cache.put(key2, "two");
+        assertEquals(1, cache.purge(new IdentifierStore(new DataIdentifier[] {ID2})));
+        assertFalse(cache.contains(key1));
+        assertTrue(cache.contains(key2));
+    }
+
+    private static String read(Reader reader) throws IOException {
+        try {
+            return IOUtils.toString(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * A data store that only lists identifiers.
+     */
+    private static final class IdentifierStore implements DataStore {
+
+        private final DataIdentifier[] ids;
+
+        IdentifierStore(DataIdentifier[] ids) {
+            this.ids = ids;
+        }
+
+        public Iterator getAllIdentifiers() {
+            return Arrays.asList(ids).iterator();
+        }
+
+        public DataRecord getRecord(DataIdentifier identifier) {
+            throw new UnsupportedOperationException();
+        }
+
+        public DataRecord addRecord(InputStream stream) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void updateModifiedDateOnAccess(long before) {
+        }
+
+        public int deleteAllOlderThan(long min) {
+            return 0;
+        }
+
+        public void init(String homeDir) {
+        }
+
+        public int getMinRecordLength() {
+            return 0;
+        }
+
+        public void close() {
+        }
+
+        public void clearInUse() {
+        }
+    }
+}
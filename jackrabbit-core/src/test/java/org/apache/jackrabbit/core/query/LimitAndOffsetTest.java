@@ -146,4 +146,19 @@ public class LimitAndOffsetTest extends AbstractQueryTest {
         assertEquals(3, ((QueryResultImpl) result).getTotalSize());
     }
 
+    public void testLimitKeepsSortOrder() throws Exception {
+        query = createXPathQuery("/jcr:root" + testRoot + "/* order by @name descending");
+        query.setLimit(2);
+        NodeIterator nodes = query.execute().getNodes();
+        assertTrue(nodes.nextNode() == node3);
+        assertTrue(nodes.nextNode() == node2);
+        assertFalse(nodes.hasNext());
+
+        query.setOffset(1);
+        nodes = query.execute().getNodes();
+        assertTrue(nodes.nextNode() == node2);
+        assertTrue(nodes.nextNode() == node1);
+        assertFalse(nodes.hasNext());
+    }
+
 }
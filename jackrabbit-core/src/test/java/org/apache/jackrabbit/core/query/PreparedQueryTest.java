@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import org.apache.jackrabbit.api.jsr283.query.PreparedQuery;
+
+import javax.jcr.Node;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+
+/**
+ * <code>PreparedQueryTest</code> checks XPath queries with bind variables.
+ */
+public class PreparedQueryTest extends AbstractQueryTest {
+
+    private ValueFactory vf;
+
+    private Node n1;
+
+    private Node n2;
+
+    private Node n3;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        vf = superuser.getValueFactory();
+        n1 = testRootNode.addNode(nodeName1);
+        n1.setProperty(propertyName1, "foo");
+        n1.setProperty(propertyName2, 1);
+        n2 = testRootNode.addNode(nodeName2);
+        n2.setProperty(propertyName1, "bar");
+        n2.setProperty(propertyName2, 2);
+        n3 = testRootNode.addNode(nodeName3);
+        n3.setProperty(propertyName1, "foobar");
+        n3.setProperty(propertyName2, 3);
+        testRootNode.save();
+    }
+
+    protected void tearDown() throws Exception {
+        vf = null;
+        n1 = null;
+        n2 = null;
+        n3 = null;
+        super.tearDown();
+    }
+
+    public void testGetBindVariableNames() throws Exception {
+        PreparedQuery q = createQuery(testPath + "/*[@" + propertyName1
+                + " = $v1 or @" + propertyName2 + " > $v2 or @"
+                + propertyName1 + " = $v1]");
+        String[] names = q.getBindVariableNames();
+        assertEquals(2, names.length);
+        assertTrue(("v1".equals(names[0]) && "v2".equals(names[1]))
+                || ("v2".equals(names[0]) && "v1".equals(names[1])));
+
+        q = createQuery(testPath + "/*[@" + propertyName1 + " = 'foo']");
+        assertEquals(0, q.getBindVariableNames().length);
+    }
+
+    public void testBindValue() throws Exception {
+        PreparedQuery q = createQuery(testPath + "/*[@" + propertyName1 + " = $v]");
+        q.bindValue("v", vf.createValue("bar"));
+        checkResult(q.execute(), new Node[]{n2});
+
+        q = createQuery(testPath + "/*[@" + propertyName2 + " >= $v]");
+        q.bindValue("v", vf.createValue(2));
+        checkResult(q.execute(), new Node[]{n2, n3});
+    }
+
+    public void testBindLikePattern() throws Exception {
+        PreparedQuery q = createQuery(testPath + "/*[jcr:like(@"
+                + propertyName1 + ", $pattern)]");
+        q.bindValue("pattern", vf.createValue("foo%"));
+        checkResult(q.execute(), new Node[]{n1, n3});
+    }
+
+    public void testRebind() throws Exception {
+        PreparedQuery q = createQuery(testPath + "/*[@" + propertyName1 + " = $v]");
+        q.bindValue("v", vf.createValue("foo"));
+        checkResult(q.execute(), new Node[]{n1});
+        q.bindValue("v", vf.createValue("bar"));
+        checkResult(q.execute(), new Node[]{n2});
+    }
+
+    public void testUnknownVariable() throws Exception {
+        PreparedQuery q = createQuery(testPath + "/*[@" + propertyName1 + " = $v]");
+        try {
+            q.bindValue("w", vf.createValue("foo"));
+            fail("bindValue must throw IllegalArgumentException for an unknown variable");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testUnboundVariable() throws Exception {
+        PreparedQuery q = createQuery(testPath + "/*[@" + propertyName1 + " = $v]");
+        try {
+            q.execute();
+            fail("execute must fail when a variable is not bound");
+        } catch (InvalidQueryException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Queries with the same statement share the parsed query tree. A value
+     * bound in one query must not be visible in another query.
+     */
+    public void testBindValueDoesNotLeak() throws Exception {
+        String stmt = testPath + "/*[@" + propertyName1 + " = $v]";
+        PreparedQuery q1 = createQuery(stmt);
+        q1.bindValue("v", vf.createValue("foo"));
+        checkResult(q1.execute(), new Node[]{n1});
+
+        PreparedQuery q2 = createQuery(stmt);
+        try {
+            q2.execute();
+            fail("value bound in another query must not be used");
+        } catch (InvalidQueryException e) {
+            // expected
+        }
+        q2.bindValue("v", vf.createValue("bar"));
+        checkResult(q2.execute(), new Node[]{n2});
+
+        // the first query still uses its own value
+        checkResult(q1.execute(), new Node[]{n1});
+
+        // a literal statement with the same shape is not affected
+        checkResult(executeQuery(testPath + "/*[@" + propertyName1
+                + " = 'foobar']"), new Node[]{n3});
+    }
+
+    private PreparedQuery createQuery(String statement) throws Exception {
+        return (PreparedQuery) qm.createQuery(statement, Query.XPATH);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.query.DefaultQueryNodeFactory;
+import org.apache.jackrabbit.spi.commons.query.QueryConstants;
+import org.apache.jackrabbit.spi.commons.query.RelationQueryNode;
+import org.apache.jackrabbit.value.LongValue;
+import org.apache.jackrabbit.value.StringValue;
+
+/**
+ * <code>RelationQueryNodeTest</code> checks equality and value binding of
+ * relation query nodes.
+ */
+public class RelationQueryNodeTest extends TestCase {
+
+    private static final DefaultQueryNodeFactory QUERY_NODE_FACTORY = new DefaultQueryNodeFactory(
+            Arrays.asList(new Name[] { NameConstants.NT_NODETYPE }));
+
+    private static final Name VAR_A = NameFactoryImpl.getInstance().create("", "a");
+
+    private static final Name VAR_B = NameFactoryImpl.getInstance().create("", "b");
+
+    public void testEqualsAndHashCode() {
+        RelationQueryNode n1 = createRelation(VAR_A);
+        RelationQueryNode n2 = createRelation(VAR_A);
+        assertEquals(n1, n2);
+        assertEquals(n1.hashCode(), n2.hashCode());
+
+        n1.setStringValue("foo");
+        n2.setStringValue("foo");
+        assertEquals(n1, n2);
+        assertEquals(n1.hashCode(), n2.hashCode());
+
+        n1.setDoubleValue(0.0);
+        n2.setDoubleValue(-0.0);
+        assertEquals(n1, n2);
+        assertEquals(n1.hashCode(), n2.hashCode());
+    }
+
+    public void testBindVariableName() {
+        RelationQueryNode n1 = createRelation(VAR_A);
+        RelationQueryNode n2 = createRelation(VAR_B);
+        RelationQueryNode n3 = createRelation(null);
+        assertFalse(n1.equals(n2));
+        assertFalse(n1.equals(n3));
+        assertFalse(n3.equals(n1));
+
+        Set set = new HashSet();
+        set.add(n1);
+        set.add(n2);
+        set.add(n3);
+        assertEquals(3, set.size());
+        assertTrue(set.contains(createRelation(VAR_A)));
+        assertTrue(set.contains(createRelation(VAR_B)));
+        assertTrue(set.contains(createRelation(null)));
+    }
+
+    public void testBindValueCopies() throws Exception {
+        RelationQueryNode node = createRelation(VAR_A);
+        RelationQueryNode bound = node.bindValue(new StringValue("foo"));
+        assertNotSame(node, bound);
+        assertEquals("foo", bound.getStringValue());
+        assertEquals(QueryConstants.TYPE_STRING, bound.getValueType());
+        assertNull(bound.getBindVariableName());
+
+        // the node with the variable is left unchanged
+        assertEquals(createRelation(VAR_A), node);
+        assertEquals(VAR_A, node.getBindVariableName());
+        assertNull(node.getStringValue());
+
+        RelationQueryNode other = node.bindValue(new LongValue(42));
+        assertEquals(42, other.getLongValue());
+        assertEquals(QueryConstants.TYPE_LONG, other.getValueType());
+        assertEquals("foo", bound.getStringValue());
+        assertEquals(createRelation(VAR_A), node);
+    }
+
+    private static RelationQueryNode createRelation(Name varName) {
+        RelationQueryNode node = QUERY_NODE_FACTORY.createRelationQueryNode(
+                null, QueryConstants.OPERATION_EQ_VALUE);
+        node.setBindVariableName(varName);
+        return node;
+    }
+}
@@ -53,12 +53,15 @@ public class TestAll extends TestCase {
         suite.addTestSuite(QueryResultTest.class);
         suite.addTestSuite(FnNameQueryTest.class);
         suite.addTestSuite(PathQueryNodeTest.class);
+        suite.addTestSuite(RelationQueryNodeTest.class);
+        suite.addTestSuite(PreparedQueryTest.class);
         suite.addTestSuite(SynonymProviderTest.class);
         suite.addTestSuite(ArrayHitsTest.class);
         suite.addTestSuite(ExcerptTest.class);
         suite.addTestSuite(IndexingAggregateTest.class);
         suite.addTestSuite(IndexFormatVersionTest.class);
         suite.addTestSuite(IndexingRuleTest.class);
+        suite.addTestSuite(ExtractedTextCacheTest.class);
 
         return suite;
     }
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * <code>DescendantDocsCacheTest</code> checks the computation and caching of
+ * descendant documents.
+ */
+public class DescendantDocsCacheTest extends TestCase {
+
+    /**
+     * The parent of each document:
+     * <pre>
+     * 0
+     * +-- 1
+     * |   +-- 3
+     * |   +-- 4
+     * |       +-- 6
+     * +-- 2
+     *     +-- 5
+     * </pre>
+     */
+    private static final int[] PARENTS = new int[] {-1, 0, 0, 1, 1, 2, 4};
+
+    private IndexReader reader;
+
+    private DescendantDocsCache cache;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true);
+        for (int i = 0; i < PARENTS.length; i++) {
+            writer.addDocument(new Document());
+        }
+        writer.close();
+        reader = IndexReader.open(dir);
+        cache = new DescendantDocsCache(reader, new HierarchyResolver() {
+            public int getParent(int n) {
+                return PARENTS[n];
+            }
+        });
+    }
+
+    protected void tearDown() throws Exception {
+        cache.dispose();
+        reader.close();
+        super.tearDown();
+    }
+
+    public void testDescendants() throws IOException {
+        assertEquals(bits(new int[] {3, 4, 6}), cache.getDescendants(1, true));
+        assertEquals(bits(new int[] {5}), cache.getDescendants(2, true));
+        assertEquals(bits(new int[] {1, 2, 3, 4, 5, 6}), cache.getDescendants(0, true));
+        assertEquals(bits(new int[0]), cache.getDescendants(6, true));
+    }
+
+    public void testComputedOnSecondRequest() throws IOException {
+        assertNull(cache.getDescendants(1, false));
+        BitSet descendants = cache.getDescendants(1, false);
+        assertEquals(bits(new int[] {3, 4, 6}), descendants);
+        // cached
+        assertSame(descendants, cache.getDescendants(1, false));
+    }
+
+    public void testMemoryLimit() throws IOException {
+        BitSet descendants = cache.getDescendants(1, true);
+        long size = cache.getMemoryUsed();
+        assertTrue(size > 0);
+        cache.setMaxMemorySize(size);
+        // evicts the least recently used descendants
+        cache.getDescendants(2, true);
+        assertEquals(size, cache.getMemoryUsed());
+        assertNotSame(descendants, cache.getDescendants(1, true));
+
+        // descendants larger than the limit are not cached
+        cache.setMaxMemorySize(size - 1);
+        assertEquals(0, cache.getMemoryUsed());
+        descendants = cache.getDescendants(1, true);
+        assertEquals(0, cache.getMemoryUsed());
+        assertNotSame(descendants, cache.getDescendants(1, true));
+    }
+
+    public void testDispose() throws IOException {
+        cache.getDescendants(1, true);
+        cache.dispose();
+        assertEquals(0, cache.getMemoryUsed());
+        BitSet descendants = cache.getDescendants(1, true);
+        assertEquals(bits(new int[] {3, 4, 6}), descendants);
+        assertNotSame(descendants, cache.getDescendants(1, true));
+    }
+
+    private static BitSet bits(int[] docs) {
+        BitSet bits = new BitSet();
+        for (int i = 0; i < docs.length; i++) {
+            bits.set(docs[i]);
+        }
+        return bits;
+    }
+}
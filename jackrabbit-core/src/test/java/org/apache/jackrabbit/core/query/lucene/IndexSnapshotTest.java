@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DefaultSimilarity;
+
+/**
+ * <code>IndexSnapshotTest</code> checks that the files captured by a
+ * snapshot of an index are kept while the index is modified.
+ */
+public class IndexSnapshotTest extends TestCase {
+
+    private File dir;
+
+    private PersistentIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("snapshot", "");
+        dir.delete();
+        index = new PersistentIndex("_0", dir, new WhitespaceAnalyzer(),
+                new DefaultSimilarity(), null, null);
+        for (int i = 0; i < 10; i++) {
+            index.getIndexWriter().addDocument(createDocument(i));
+        }
+        index.commit();
+    }
+
+    protected void tearDown() throws Exception {
+        index.close();
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testSnapshotFilesKept() throws IOException {
+        index.removeDocument(new Term("id", "1"));
+        Collection files = index.snapshot();
+
+        // modify the index with readers and writers
+        index.removeDocument(new Term("id", "2"));
+        index.commit();
+        index.getIndexWriter().addDocument(createDocument(10));
+        index.commit(true);
+        index.removeDocument(new Term("id", "3"));
+        index.commit();
+        assertExist(files);
+
+        // a copy of the files is the index at the time of the snapshot
+        File copy = new File(dir, "copy");
+        copy.mkdir();
+        for (Iterator it = files.iterator(); it.hasNext(); ) {
+            FileUtils.copyFileToDirectory(new File(dir, (String) it.next()), copy);
+        }
+        IndexReader reader = IndexReader.open(copy);
+        try {
+            assertEquals(9, reader.numDocs());
+        } finally {
+            reader.close();
+        }
+        FileUtils.deleteDirectory(copy);
+
+        index.releaseSnapshot();
+        index.removeDocument(new Term("id", "4"));
+        index.commit();
+        for (Iterator it = files.iterator(); it.hasNext(); ) {
+            String name = (String) it.next();
+            assertFalse(name, new File(dir, name).exists());
+        }
+    }
+
+    public void testSingleSnapshot() throws IOException {
+        index.snapshot();
+        try {
+            index.snapshot();
+            fail("only one snapshot may be taken at a time");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        index.releaseSnapshot();
+        assertExist(index.snapshot());
+        index.releaseSnapshot();
+    }
+
+    private void assertExist(Collection files) {
+        for (Iterator it = files.iterator(); it.hasNext(); ) {
+            String name = (String) it.next();
+            assertTrue(name, new File(dir, name).exists());
+        }
+    }
+
+    private static Document createDocument(int id) {
+        Document doc = new Document();
+        doc.add(new Field("id", String.valueOf(id),
+                Field.Store.YES, Field.Index.UN_TOKENIZED));
+        return doc;
+    }
+}
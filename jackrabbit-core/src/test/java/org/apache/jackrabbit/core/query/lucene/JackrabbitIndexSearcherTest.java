@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.uuid.UUID;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * <code>JackrabbitIndexSearcherTest</code> checks that a parallel search
+ * returns the same hits as a sequential search.
+ */
+public class JackrabbitIndexSearcherTest extends TestCase {
+
+    private static final int SEGMENT_SIZE = 12000;
+
+    private static final DynamicPooledExecutor EXECUTOR = new DynamicPooledExecutor();
+
+    private IndexReader reader;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        IndexReader[] segments = new IndexReader[3];
+        for (int i = 0; i < segments.length; i++) {
+            RAMDirectory dir = new RAMDirectory();
+            IndexWriter writer = new IndexWriter(dir, new WhitespaceAnalyzer(), true);
+            for (int j = 0; j < SEGMENT_SIZE; j++) {
+                Document doc = new Document();
+                StringBuffer text = new StringBuffer();
+                if (j % 3 == 0) {
+                    text.append("foo ");
+                }
+                if (j % 7 == 0) {
+                    text.append("bar foo");
+                }
+                doc.add(new Field("text", text.toString(),
+                        Field.Store.NO, Field.Index.TOKENIZED));
+                writer.addDocument(doc);
+            }
+            writer.close();
+            segments[i] = IndexReader.open(dir);
+        }
+        reader = new SegmentedReader(segments);
+    }
+
+    protected void tearDown() throws Exception {
+        reader.close();
+        super.tearDown();
+    }
+
+    public void testTermQuery() throws IOException {
+        assertSameHits(new TermQuery(new Term("text", "foo")), null);
+    }
+
+    public void testBooleanQueryWithFilter() throws IOException {
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term("text", "foo")), BooleanClause.Occur.SHOULD);
+        query.add(new TermQuery(new Term("text", "bar")), BooleanClause.Occur.SHOULD);
+        assertSameHits(query, new Filter() {
+            public BitSet bits(IndexReader r) {
+                BitSet bits = new BitSet();
+                for (int i = 0; i < r.maxDoc(); i += 2) {
+                    bits.set(i);
+                }
+                return bits;
+            }
+        });
+    }
+
+    private void assertSameHits(Query query, Filter filter) throws IOException {
+        int n = reader.maxDoc();
+        TopDocs expected = new JackrabbitIndexSearcher(
+                null, reader, null).search(query, filter, n);
+        TopDocs actual = new JackrabbitIndexSearcher(
+                null, reader, null, EXECUTOR).search(query, filter, n);
+        assertTrue(expected.totalHits > 0);
+        assertEquals(expected.totalHits, actual.totalHits);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            ScoreDoc e = expected.scoreDocs[i];
+            ScoreDoc a = actual.scoreDocs[i];
+            assertEquals(e.doc, a.doc);
+            assertEquals(e.score, a.score, 0.0f);
+        }
+    }
+
+    /**
+     * A multi reader that exposes its segments.
+     */
+    private static final class SegmentedReader
+            extends MultiReader implements MultiIndexReader {
+
+        private final IndexReader[] segments;
+
+        SegmentedReader(IndexReader[] segments) throws IOException {
+            super(segments);
+            this.segments = segments;
+        }
+
+        public IndexReader[] getIndexReaders() {
+            return segments;
+        }
+
+        public ForeignSegmentDocId createDocId(UUID uuid) {
+            return null;
+        }
+
+        public int getDocumentNumber(ForeignSegmentDocId docId) {
+            return -1;
+        }
+
+        public void release() throws IOException {
+            close();
+        }
+    }
+}
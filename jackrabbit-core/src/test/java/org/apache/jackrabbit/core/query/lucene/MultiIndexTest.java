@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.uuid.UUID;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * <code>MultiIndexTest</code> checks the background commit of the volatile
+ * index and the recovery from the redo log while a commit is pending.
+ */
+public class MultiIndexTest extends TestCase {
+
+    /**
+     * Number of documents in the volatile index that trigger a commit.
+     */
+    private static final int MIN_MERGE_DOCS = 10;
+
+    private File dir;
+
+    private SearchIndex handler;
+
+    /**
+     * The multi indexes opened by a test.
+     */
+    private final List indexes = new ArrayList();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("index", "");
+        dir.delete();
+        dir.mkdirs();
+        handler = new SearchIndex();
+        handler.setMinMergeDocs(MIN_MERGE_DOCS);
+        handler.setBackgroundVolatileCommit(true);
+        handler.setVolatileIdleTime(3600);
+    }
+
+    protected void tearDown() throws Exception {
+        for (Iterator it = indexes.iterator(); it.hasNext(); ) {
+            ((MultiIndex) it.next()).close();
+        }
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testUpdatesWhileCommitPending() throws IOException {
+        MultiIndex index = open("index");
+        List uuids = new ArrayList();
+        VolatileIndex pending = index.getVolatileIndex();
+        // the background copy waits for the monitor of the volatile index
+        synchronized (pending) {
+            update(index, Collections.EMPTY_LIST,
+                    createDocuments(uuids, MIN_MERGE_DOCS));
+            assertNotSame(pending, index.getVolatileIndex());
+            // remove documents of the pending and of the new volatile index
+            List remove = new ArrayList();
+            remove.add(uuids.remove(0));
+            remove.add(uuids.remove(0));
+            update(index, Collections.EMPTY_LIST, createDocuments(uuids, 3));
+            remove.add(uuids.remove(uuids.size() - 1));
+            update(index, remove, createDocuments(uuids, 2));
+            assertDocuments(index, uuids);
+        }
+        index.flush();
+        assertDocuments(index, uuids);
+
+        index.close();
+        indexes.remove(index);
+        index = open("index");
+        assertFalse(index.getRedoLogApplied());
+        assertDocuments(index, uuids);
+    }
+
+    public void testReaderValidDuringPendingCommit() throws IOException {
+        MultiIndex index = open("index");
+        List uuids = new ArrayList();
+        // a reader flushes the volatile index into a new segment
+        for (int i = 0; i < 3; i++) {
+            update(index, Collections.EMPTY_LIST, createDocuments(uuids, 2));
+            index.getIndexReader().release();
+        }
+        VolatileIndex pending = index.getVolatileIndex();
+        CachingMultiIndexReader reader;
+        List files;
+        synchronized (pending) {
+            update(index, Collections.EMPTY_LIST,
+                    createDocuments(uuids, MIN_MERGE_DOCS - 6));
+            assertNotSame(pending, index.getVolatileIndex());
+            reader = index.getIndexReader();
+            files = Arrays.asList(pending.getDirectory().list());
+        }
+        try {
+            // waits for the background copy and registers it
+            index.flush();
+            assertEquals(new HashSet(files),
+                    new HashSet(Arrays.asList(pending.getDirectory().list())));
+            assertEquals(uuids.size(), reader.numDocs());
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                String uuid = reader.document(i).get(FieldNames.UUID);
+                assertTrue(uuid, uuids.contains(UUID.fromString(uuid)));
+            }
+        } finally {
+            reader.release();
+        }
+        assertDocuments(index, uuids);
+    }
+
+    public void testCrashDuringPendingCommit() throws IOException {
+        MultiIndex index = open("index");
+        List uuids = new ArrayList();
+        File image;
+        VolatileIndex pending = index.getVolatileIndex();
+        synchronized (pending) {
+            update(index, Collections.EMPTY_LIST,
+                    createDocuments(uuids, MIN_MERGE_DOCS));
+            List remove = new ArrayList();
+            remove.add(uuids.remove(0));
+            update(index, remove, createDocuments(uuids, 3));
+            image = crash("index");
+        }
+
+        MultiIndex recovered = open(image.getName());
+        assertTrue(recovered.getRedoLogApplied());
+        assertDocuments(recovered, uuids);
+    }
+
+    public void testCrashAfterPendingCommitRegistered() throws IOException {
+        MultiIndex index = open("index");
+        List uuids = new ArrayList();
+        VolatileIndex pending = index.getVolatileIndex();
+        synchronized (pending) {
+            // keep the commit pending until the next update
+            update(index, Collections.EMPTY_LIST,
+                    createDocuments(uuids, MIN_MERGE_DOCS));
+        }
+        File image;
+        pending = index.getVolatileIndex();
+        synchronized (pending) {
+            // registers the first pending commit and hands over the
+            // volatile index again
+            List remove = new ArrayList();
+            remove.add(uuids.remove(0));
+            update(index, remove, createDocuments(uuids, MIN_MERGE_DOCS));
+            assertNotSame(pending, index.getVolatileIndex());
+            update(index, Collections.EMPTY_LIST, createDocuments(uuids, 3));
+            image = crash("index");
+        }
+        String log = FileUtils.readFileToString(new File(image, "redo.log"));
+        assertTrue(log.indexOf(MultiIndex.Action.CREATE_INDEX) != -1);
+
+        MultiIndex recovered = open(image.getName());
+        assertTrue(recovered.getRedoLogApplied());
+        assertDocuments(recovered, uuids);
+    }
+
+    /**
+     * Opens a multi index that creates the documents of nodes in the redo
+     * log with {@link #createDocument(UUID)}.
+     *
+     * @param name the name of the index directory.
+     * @return the multi index.
+     * @throws IOException if the index cannot be opened.
+     */
+    private MultiIndex open(String name) throws IOException {
+        File indexDir = new File(dir, name);
+        indexDir.mkdirs();
+        MultiIndex index = new MultiIndex(indexDir, handler,
+                Collections.EMPTY_SET, null) {
+            Document createDocument(NodeId id) {
+                return MultiIndexTest.createDocument(id.getUUID());
+            }
+        };
+        indexes.add(index);
+        return index;
+    }
+
+    /**
+     * Copies the directory of an index that is still in use, like a crash
+     * leaves it behind.
+     *
+     * @param name the name of the index directory.
+     * @return the copy.
+     * @throws IOException if the directory cannot be copied.
+     */
+    private File crash(String name) throws IOException {
+        File image = new File(dir, name + "-crashed");
+        FileUtils.copyDirectory(new File(dir, name), image);
+        return image;
+    }
+
+    private static void update(MultiIndex index, List remove, List add)
+            throws IOException {
+        index.update(remove.iterator(), add.iterator());
+    }
+
+    /**
+     * Creates documents for new nodes.
+     *
+     * @param uuids the uuids of the new nodes are added to this list.
+     * @param num   the number of documents.
+     * @return the documents.
+     */
+    private static List createDocuments(List uuids, int num) {
+        List docs = new ArrayList();
+        for (int i = 0; i < num; i++) {
+            UUID uuid = UUID.randomUUID();
+            uuids.add(uuid);
+            docs.add(createDocument(uuid));
+        }
+        return docs;
+    }
+
+    private static Document createDocument(UUID uuid) {
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.UUID, uuid.toString(),
+                Field.Store.YES, Field.Index.NO_NORMS));
+        doc.add(new Field(FieldNames.PARENT, "",
+                Field.Store.YES, Field.Index.NO_NORMS));
+        return doc;
+    }
+
+    /**
+     * Checks that the index contains exactly one document for each of the
+     * given uuids and no other documents.
+     *
+     * @param index the multi index.
+     * @param uuids the uuids of the indexed nodes.
+     * @throws IOException if an error occurs while reading the index.
+     */
+    private static void assertDocuments(MultiIndex index, Collection uuids)
+            throws IOException {
+        CachingMultiIndexReader reader = index.getIndexReader();
+        try {
+            assertEquals(uuids.size(), reader.numDocs());
+            for (Iterator it = uuids.iterator(); it.hasNext(); ) {
+                String uuid = it.next().toString();
+                assertEquals(uuid, 1, count(reader, new Term(FieldNames.UUID, uuid)));
+            }
+        } finally {
+            reader.release();
+        }
+    }
+
+    private static int count(IndexReader reader, Term term) throws IOException {
+        int num = 0;
+        TermDocs tDocs = reader.termDocs(term);
+        try {
+            while (tDocs.next()) {
+                num++;
+            }
+        } finally {
+            tDocs.close();
+        }
+        return num;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
+
+import javax.jcr.Session;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+
+/**
+ * <code>ParsedQueryCacheTest</code> checks if {@link SearchIndex} shares the
+ * parsed query trees of statements that were used before.
+ */
+public class ParsedQueryCacheTest extends AbstractIndexingTest {
+
+    private static final String XPATH = "//*[@foo = 'bar']";
+
+    private static final String SQL = "SELECT * FROM nt:base WHERE foo = 'bar'";
+
+    private SearchIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        index = (SearchIndex) getQueryHandler();
+    }
+
+    protected void tearDown() throws Exception {
+        index = null;
+        super.tearDown();
+    }
+
+    public void testHit() throws Exception {
+        QueryRootNode root = parse(XPATH, Query.XPATH);
+        assertSame(root, parse(XPATH, Query.XPATH));
+
+        root = parse(SQL, Query.SQL);
+        assertSame(root, parse(SQL, Query.SQL));
+    }
+
+    public void testMissOtherStatement() throws Exception {
+        QueryRootNode root = parse(XPATH, Query.XPATH);
+        QueryRootNode other = parse("//*[@foo = 'baz']", Query.XPATH);
+        assertNotSame(root, other);
+        assertFalse(root.equals(other));
+        assertSame(root, parse(XPATH, Query.XPATH));
+        assertSame(other, parse("//*[@foo = 'baz']", Query.XPATH));
+    }
+
+    public void testMissOtherLanguage() throws Exception {
+        // cache the statement as xpath
+        parse(XPATH, Query.XPATH);
+        try {
+            parse(XPATH, Query.SQL);
+            fail("xpath statement must not be accepted as sql");
+        } catch (InvalidQueryException e) {
+            // expected
+        }
+        assertNotSame(parse(XPATH, Query.XPATH), parse(SQL, Query.SQL));
+    }
+
+    public void testBindVariablesShareTree() throws Exception {
+        String stmt = "//*[@foo = $bar]";
+        QueryRootNode root = parse(stmt, Query.XPATH);
+        assertSame(root, parse(stmt, Query.XPATH));
+        assertFalse(root.equals(parse("//*[@foo = $baz]", Query.XPATH)));
+    }
+
+    public void testCacheDisabled() throws Exception {
+        int size = index.getParsedQueryCacheSize();
+        index.setParsedQueryCacheSize(0);
+        try {
+            QueryRootNode root = parse(XPATH, Query.XPATH);
+            assertNotSame(root, parse(XPATH, Query.XPATH));
+            assertEquals(root, parse(XPATH, Query.XPATH));
+        } finally {
+            index.setParsedQueryCacheSize(size);
+        }
+    }
+
+    public void testLocalNamespaceMappings() throws Exception {
+        Session s = helper.getSuperuserSession("indexing-test");
+        try {
+            s.setNamespacePrefix("myjcr", s.getNamespaceURI("jcr"));
+            SessionImpl sImpl = (SessionImpl) s;
+            QueryRootNode root = index.parseQuery(sImpl, XPATH, Query.XPATH);
+            assertNotSame(root, index.parseQuery(sImpl, XPATH, Query.XPATH));
+            assertNotSame(root, parse(XPATH, Query.XPATH));
+        } finally {
+            s.logout();
+        }
+    }
+
+    private QueryRootNode parse(String statement, String language)
+            throws InvalidQueryException {
+        return index.parseQuery((SessionImpl) session, statement, language);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+import java.io.IOException;
+
+/**
+ * <code>QueryHitsCursorsTest</code> checks that open query cursors are
+ * closed when they expire, when the session logs out and when the session
+ * opens too many cursors.
+ */
+public class QueryHitsCursorsTest extends AbstractJCRTest {
+
+    private static final long TIMEOUT = 200;
+
+    private QueryHitsCursors cursors;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cursors = new QueryHitsCursors(2, TIMEOUT);
+    }
+
+    protected void tearDown() throws Exception {
+        cursors.close();
+        cursors = null;
+        super.tearDown();
+    }
+
+    public void testExpiry() throws Exception {
+        TestHits hits = new TestHits();
+        QueryHitsCursor cursor = cursors.open((SessionImpl) superuser, hits);
+        assertNotNull(cursor);
+        assertEquals(1, cursors.getOpenCursorCount());
+
+        waitForClose(hits);
+        assertEquals(0, cursors.getOpenCursorCount());
+        assertNull(cursor.acquire());
+    }
+
+    public void testInUseDoesNotExpire() throws Exception {
+        TestHits hits = new TestHits();
+        QueryHitsCursor cursor = cursors.open((SessionImpl) superuser, hits);
+        assertSame(hits, cursor.acquire());
+        Thread.sleep(TIMEOUT * 3);
+        assertFalse(hits.closed);
+        cursor.release();
+        waitForClose(hits);
+    }
+
+    public void testLogout() throws Exception {
+        SessionImpl s = (SessionImpl) helper.getSuperuserSession();
+        TestHits hits1 = new TestHits();
+        TestHits hits2 = new TestHits();
+        QueryHitsCursor cursor;
+        try {
+            cursors.open(s, hits1);
+            cursor = cursors.open(s, hits2);
+            cursor.acquire();
+        } finally {
+            s.logout();
+        }
+        assertTrue(hits1.closed);
+        assertEquals(0, cursors.getOpenCursorCount());
+        // hits in use are closed on release
+        assertFalse(hits2.closed);
+        cursor.release();
+        assertTrue(hits2.closed);
+    }
+
+    /**
+     * The listener registration must survive the expiry of all cursors of a
+     * session, because the timer thread does not register it again.
+     */
+    public void testLogoutAfterExpiry() throws Exception {
+        SessionImpl s = (SessionImpl) helper.getSuperuserSession();
+        try {
+            TestHits hits = new TestHits();
+            cursors.open(s, hits);
+            waitForClose(hits);
+            assertEquals(0, cursors.getOpenCursorCount());
+
+            hits = new TestHits();
+            cursors.open(s, hits);
+            s.logout();
+            assertTrue(hits.closed);
+            assertEquals(0, cursors.getOpenCursorCount());
+        } finally {
+            s.logout();
+        }
+    }
+
+    public void testLeastRecentlyUsedClosed() throws Exception {
+        SessionImpl s = (SessionImpl) superuser;
+        TestHits hits1 = new TestHits();
+        TestHits hits2 = new TestHits();
+        TestHits hits3 = new TestHits();
+        QueryHitsCursor c1 = cursors.open(s, hits1);
+        cursors.open(s, hits2);
+        c1.acquire();
+        c1.release();
+        cursors.open(s, hits3);
+        assertFalse(hits1.closed);
+        assertTrue(hits2.closed);
+        assertFalse(hits3.closed);
+        assertEquals(2, cursors.getOpenCursorCount());
+    }
+
+    public void testClose() throws Exception {
+        TestHits hits = new TestHits();
+        cursors.open((SessionImpl) superuser, hits);
+        cursors.close();
+        assertTrue(hits.closed);
+        assertNull(cursors.open((SessionImpl) superuser, new TestHits()));
+    }
+
+    private static void waitForClose(TestHits hits)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT * 50;
+        while (!hits.closed && System.currentTimeMillis() < end) {
+            Thread.sleep(TIMEOUT / 4);
+        }
+        assertTrue("cursor not closed", hits.closed);
+    }
+
+    private static final class TestHits implements MultiColumnQueryHits {
+
+        private volatile boolean closed = false;
+
+        public ScoreNode[] nextScoreNodes() {
+            return null;
+        }
+
+        public Name[] getSelectorNames() {
+            return new Name[0];
+        }
+
+        public void close() throws IOException {
+            if (closed) {
+                throw new IOException("already closed");
+            }
+            closed = true;
+        }
+
+        public int getSize() {
+            return 0;
+        }
+
+        public void skip(int n) {
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>QueryStatisticsTest</code> checks the aggregation of query execution
+ * statistics.
+ */
+public class QueryStatisticsTest extends TestCase {
+
+    public void testNormalize() {
+        assertEquals("//element(*, nt:base)[@title = ? and @count > ?]",
+                QueryStatistics.normalize("//element(*, nt:base)[@title = 'a''b'"
+                        + " and @count > 42]"));
+        assertEquals("//node1/child[?]", QueryStatistics.normalize("//node1/child[2]"));
+        assertEquals("select * from nt:base where x = ? or y < ?",
+                QueryStatistics.normalize("select *  from nt:base\n"
+                        + "where x = \"foo\" or y < 1.5e3"));
+    }
+
+    public void testAggregation() {
+        QueryStatistics stats = new QueryStatistics(10, 0);
+        QueryStatistics.Execution e1 = stats.start("xpath", "//*[@a = 'x']");
+        e1.parsed(1);
+        e1.searched(10);
+        e1.collected(5, 100, 2);
+        e1.loaded(20, 10);
+        QueryStatistics.Execution e2 = stats.start("xpath", "//*[@a = 'y']");
+        e2.searched(4);
+        QueryStatistics.Execution e3 = stats.start("xpath", "//*[@b = 'y']");
+        e3.searched(1);
+
+        assertEquals(3, stats.getQueryCount());
+        assertEquals(41, stats.getTotalTime());
+        assertEquals(2, stats.getStatementCount());
+        assertEquals(0, stats.getSlowQueryCount());
+
+        String[] top = stats.listTopQueries(1);
+        assertEquals(1, top.length);
+        assertTrue(top[0], top[0].startsWith("count=2, slow=0, total=40 ms, max=36 ms"));
+        assertTrue(top[0], top[0].indexOf("hits=100, denied=2") != -1);
+        assertTrue(top[0], top[0].endsWith("xpath://*[@a = ?]"));
+
+        stats.reset();
+        assertEquals(0, stats.getQueryCount());
+        assertEquals(0, stats.listTopQueries(10).length);
+    }
+
+    public void testSlowQuery() {
+        QueryStatistics stats = new QueryStatistics(10, 0);
+        stats.setSlowQueryThreshold(10);
+        QueryStatistics.Execution e = stats.start("sql", "select * from nt:base");
+        e.searched(5);
+        assertEquals(0, stats.getSlowQueryCount());
+        e.loaded(5, 1);
+        e.loaded(5, 1);
+        // a query is counted once
+        assertEquals(1, stats.getSlowQueryCount());
+    }
+
+    public void testLeastRecentlyUsedStatementDropped() {
+        QueryStatistics stats = new QueryStatistics(2, 0);
+        stats.start("xpath", "//a");
+        stats.start("xpath", "//b");
+        stats.start("xpath", "//a");
+        stats.start("xpath", "//c");
+        String[] top = stats.listTopQueries(10);
+        assertEquals(2, top.length);
+        for (int i = 0; i < top.length; i++) {
+            assertTrue(top[i], top[i].indexOf("//b") == -1);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.query.QueryResult;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.HierarchyManager;
+import org.apache.jackrabbit.core.ItemId;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.query.QueryManagerImpl;
+import org.apache.jackrabbit.core.security.AMContext;
+import org.apache.jackrabbit.core.security.AnonymousPrincipal;
+import org.apache.jackrabbit.core.security.authorization.AccessControlProvider;
+import org.apache.jackrabbit.core.security.authorization.HierarchicalReadPermissions;
+import org.apache.jackrabbit.core.security.authorization.WorkspaceAccessManager;
+import org.apache.jackrabbit.core.security.simple.SimpleAccessManager;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.query.jsr283.qom.QueryObjectModelFactory;
+
+/**
+ * <code>ReadAccessFilterTest</code> checks that nodes, which are denied by
+ * an access manager with {@link HierarchicalReadPermissions}, are not
+ * contained in query results. The test uses its own repository, because the
+ * access manager of the test repository does not deny READ.
+ */
+public class ReadAccessFilterTest extends TestCase {
+
+    private static final String CONFIG =
+            "<Repository>"
+            + "<FileSystem class=\"org.apache.jackrabbit.core.fs.local.LocalFileSystem\">"
+            + "<param name=\"path\" value=\"${rep.home}/repository\"/></FileSystem>"
+            + "<Security appName=\"Jackrabbit\">"
+            + "<SecurityManager class=\"org.apache.jackrabbit.core.security.simple.SimpleSecurityManager\"/>"
+            + "<AccessManager class=\"" + DenyingAccessManager.class.getName() + "\"/>"
+            + "<LoginModule class=\"org.apache.jackrabbit.core.security.simple.SimpleLoginModule\"/>"
+            + "</Security>"
+            + "<Workspaces rootPath=\"${rep.home}/workspaces\" defaultWorkspace=\"default\"/>"
+            + "<Workspace name=\"${wsp.name}\">"
+            + "<FileSystem class=\"org.apache.jackrabbit.core.fs.local.LocalFileSystem\">"
+            + "<param name=\"path\" value=\"${wsp.home}\"/></FileSystem>"
+            + "<PersistenceManager class=\"org.apache.jackrabbit.core.persistence.mem.InMemPersistenceManager\">"
+            + "<param name=\"persistent\" value=\"false\"/></PersistenceManager>"
+            + "<SearchIndex class=\"org.apache.jackrabbit.core.query.lucene.SearchIndex\">"
+            + "<param name=\"path\" value=\"${wsp.home}/index\"/></SearchIndex>"
+            + "</Workspace>"
+            + "<Versioning rootPath=\"${rep.home}/version\">"
+            + "<FileSystem class=\"org.apache.jackrabbit.core.fs.local.LocalFileSystem\">"
+            + "<param name=\"path\" value=\"${rep.home}/version\"/></FileSystem>"
+            + "<PersistenceManager class=\"org.apache.jackrabbit.core.persistence.mem.InMemPersistenceManager\">"
+            + "<param name=\"persistent\" value=\"false\"/></PersistenceManager>"
+            + "</Versioning>"
+            + "</Repository>";
+
+    /**
+     * Number of READ checks for denied items.
+     */
+    private static int deniedChecks;
+
+    private File home;
+
+    private RepositoryImpl repository;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        home = File.createTempFile("readaccess", "");
+        home.delete();
+        RepositoryConfig config = RepositoryConfig.create(
+                new ByteArrayInputStream(CONFIG.getBytes("UTF-8")),
+                home.getAbsolutePath());
+        repository = RepositoryImpl.create(config);
+
+        Session session = repository.login(
+                new SimpleCredentials("admin", "admin".toCharArray()));
+        try {
+            Node test = session.getRootNode().addNode("test");
+            test.addNode("a").setProperty("prop", "a");
+            Node denied = test.addNode("denied");
+            denied.setProperty("prop", "denied");
+            denied.addNode("b").setProperty("prop", "b");
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        repository.shutdown();
+        FileUtils.deleteDirectory(home);
+        super.tearDown();
+    }
+
+    public void testDeniedNodesNotInResult() throws RepositoryException {
+        Session session = repository.login();
+        try {
+            QueryObjectModelFactory qf = ((QueryManagerImpl) session.getWorkspace()
+                    .getQueryManager()).getQOMFactory();
+            deniedChecks = 0;
+            for (int i = 0; i < 2; i++) {
+                QueryResult result = qf.createQuery(
+                        qf.selector("nt:unstructured", "s"),
+                        qf.and(qf.descendantNode("s", "/test"),
+                                qf.propertyExistence("s", "prop")),
+                        null, null).execute();
+                Set paths = new HashSet();
+                for (NodeIterator it = result.getNodes(); it.hasNext(); ) {
+                    paths.add(it.nextNode().getPath());
+                }
+                assertEquals(1, paths.size());
+                assertTrue(paths.contains("/test/a"));
+            }
+            // the filter drops the denied nodes before they are checked
+            assertEquals(0, deniedChecks);
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Denies READ on <code>/test/denied</code> and its descendants for
+     * anonymous sessions.
+     */
+    public static class DenyingAccessManager extends SimpleAccessManager
+            implements HierarchicalReadPermissions {
+
+        private HierarchyManager hierMgr;
+
+        private boolean anonymous;
+
+        private Path[] roots;
+
+        public void init(AMContext context,
+                         AccessControlProvider acProvider,
+                         WorkspaceAccessManager wspAccessManager)
+                throws Exception {
+            super.init(context, acProvider, wspAccessManager);
+            hierMgr = context.getHierarchyManager();
+            anonymous = !context.getSubject().getPrincipals(
+                    AnonymousPrincipal.class).isEmpty();
+            NamePathResolver resolver = context.getNamePathResolver();
+            roots = new Path[]{
+                    resolver.getQPath("/"), resolver.getQPath("/test/denied")};
+        }
+
+        public boolean isGranted(ItemId id, int permissions)
+                throws RepositoryException {
+            if (permissions == READ && isDenied(hierMgr.getPath(id))) {
+                deniedChecks++;
+                return false;
+            }
+            return super.isGranted(id, permissions);
+        }
+
+        public boolean isGranted(Path absPath, int permissions)
+                throws RepositoryException {
+            if (isDenied(absPath)) {
+                return false;
+            }
+            return super.isGranted(absPath, permissions);
+        }
+
+        public boolean canRead(Path itemPath) throws RepositoryException {
+            return !isDenied(itemPath);
+        }
+
+        public Path[] getReadPermissionRoots() {
+            return anonymous ? roots : null;
+        }
+
+        private boolean isDenied(Path path) throws RepositoryException {
+            Path denied = roots[1];
+            return anonymous
+                    && (path.equals(denied) || path.isDescendantOf(denied));
+        }
+    }
+}
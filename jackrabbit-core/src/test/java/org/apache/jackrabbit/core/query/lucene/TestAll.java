@@ -36,6 +36,16 @@ public class TestAll extends TestCase {
         TestSuite suite = new TestSuite("Search tests");
 
         suite.addTestSuite(IndexingQueueTest.class);
+        suite.addTestSuite(QueryStatisticsTest.class);
+        suite.addTestSuite(DescendantDocsCacheTest.class);
+        suite.addTestSuite(JackrabbitIndexSearcherTest.class);
+        suite.addTestSuite(TextExtractorQueueTest.class);
+        suite.addTestSuite(IndexSnapshotTest.class);
+        suite.addTestSuite(MultiIndexTest.class);
+        suite.addTestSuite(ParsedQueryCacheTest.class);
+        suite.addTestSuite(QueryHitsCursorsTest.class);
+        suite.addTestSuite(UpdateOrderTest.class);
+        suite.addTestSuite(ReadAccessFilterTest.class);
 
         return suite;
     }
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.extractor.TextExtractor;
+
+/**
+ * <code>TextExtractorQueueTest</code> checks the scheduling of text extractor
+ * jobs.
+ */
+public class TextExtractorQueueTest extends TestCase {
+
+    private final Object lock = new Object();
+
+    private boolean released = false;
+
+    private TextExtractorQueue queue;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        queue = new TextExtractorQueue(2, 10, 1);
+    }
+
+    protected void tearDown() throws Exception {
+        release();
+        queue.shutdown();
+        super.tearDown();
+    }
+
+    public void testMaxThreadsPerType() throws Exception {
+        TextExtractorJob pdf1 = createJob("application/pdf");
+        TextExtractorJob pdf2 = createJob("application/pdf");
+        TextExtractorJob text = createJob("text/plain");
+        assertTrue(queue.offer(pdf1));
+        assertTrue(queue.offer(pdf2));
+        assertTrue(queue.offer(text));
+
+        // the second thread skips the queued pdf job
+        assertNotNull(text.getReader(5000));
+        assertNull(pdf1.getReader(100));
+        assertNull(pdf2.peek());
+
+        release();
+        assertNotNull(pdf1.getReader(5000));
+        assertNotNull(pdf2.getReader(5000));
+    }
+
+    public void testBackLog() throws Exception {
+        queue.shutdown();
+        queue = new TextExtractorQueue(1, 1, 1);
+        assertTrue(queue.offer(createJob("application/pdf")));
+        // wait until the first job runs
+        Thread.sleep(100);
+        assertTrue(queue.offer(createJob("application/pdf")));
+        assertFalse(queue.offer(createJob("application/pdf")));
+    }
+
+    public void testCheapTypesFirst() throws Exception {
+        queue.shutdown();
+        queue = new TextExtractorQueue(1, 10, 1);
+        // learn the extraction time of a slow type
+        TextExtractorJob word = createJob("application/msword");
+        assertTrue(queue.offer(word));
+        assertNotNull(word.getReader(5000));
+
+        // occupy the only thread
+        TextExtractorJob pdf = createJob("application/pdf");
+        assertTrue(queue.offer(pdf));
+        Thread.sleep(100);
+        word = createJob("application/msword");
+        TextExtractorJob text = createJob("text/plain");
+        assertTrue(queue.offer(word));
+        assertTrue(queue.offer(text));
+
+        // the text job overtakes the slow job that was offered earlier
+        release();
+        assertNotNull(text.getReader(5000));
+        assertNull(word.peek());
+        assertNotNull(word.getReader(5000));
+    }
+
+    private TextExtractorJob createJob(String type) {
+        InputStream in = new ByteArrayInputStream(new byte[0]);
+        return new TextExtractorJob(new TextExtractor() {
+            public String[] getContentTypes() {
+                return new String[0];
+            }
+            public Reader extractText(InputStream stream,
+                                      String type,
+                                      String encoding) throws IOException {
+                if (type.equals("application/msword")) {
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted");
+                    }
+                } else if (type.equals("application/pdf")) {
+                    synchronized (lock) {
+                        while (!released) {
+                            try {
+                                lock.wait();
+                            } catch (InterruptedException e) {
+                                throw new IOException("interrupted");
+                            }
+                        }
+                    }
+                }
+                return new StringReader("text");
+            }
+        }, in, type, null);
+    }
+
+    private void release() {
+        synchronized (lock) {
+            released = true;
+            lock.notifyAll();
+        }
+    }
+}
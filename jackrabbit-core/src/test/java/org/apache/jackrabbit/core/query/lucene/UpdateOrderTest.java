@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * <code>UpdateOrderTest</code> checks that concurrent index updates are
+ * applied in the order in which they started.
+ */
+public class UpdateOrderTest extends TestCase {
+
+    private UpdateOrder order;
+
+    /**
+     * The tickets in the order in which the updates were applied.
+     */
+    private List applied;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        order = new UpdateOrder();
+        applied = Collections.synchronizedList(new ArrayList());
+    }
+
+    /**
+     * Updates that finish preparing in reverse order are still applied in
+     * ticket order.
+     */
+    public void testWriteOrder() throws Exception {
+        int num = 5;
+        Update[] updates = new Update[num];
+        for (int i = 0; i < num; i++) {
+            updates[i] = new Update(order.nextTicket());
+        }
+        for (int i = num - 1; i >= 0; i--) {
+            updates[i].start();
+            // give the update time to wait for its turn
+            Thread.sleep(50);
+        }
+        for (int i = 0; i < num; i++) {
+            updates[i].join(5000);
+            assertFalse("update " + i + " did not finish", updates[i].isAlive());
+        }
+        assertEquals(num, applied.size());
+        for (int i = 0; i < num; i++) {
+            assertEquals(new Long(i), applied.get(i));
+        }
+    }
+
+    /**
+     * A later update waits until an earlier update is finished.
+     */
+    public void testLaterUpdateWaits() throws Exception {
+        long first = order.nextTicket();
+        Update second = new Update(order.nextTicket());
+        second.start();
+        second.join(200);
+        assertTrue("later update must wait", second.isAlive());
+        assertTrue(applied.isEmpty());
+
+        order.waitForTurn(first);
+        applied.add(new Long(first));
+        order.finish(first);
+        second.join(5000);
+        assertFalse(second.isAlive());
+        assertEquals(2, applied.size());
+        assertEquals(new Long(first), applied.get(0));
+    }
+
+    /**
+     * An update that fails before its turn still passes the turn on.
+     */
+    public void testFailedUpdate() throws Exception {
+        long failed = order.nextTicket();
+        Update next = new Update(order.nextTicket());
+        next.start();
+        order.finish(failed);
+        next.join(5000);
+        assertFalse(next.isAlive());
+        assertEquals(1, applied.size());
+
+        // a new ticket gets its turn right away
+        long ticket = order.nextTicket();
+        order.waitForTurn(ticket);
+        order.finish(ticket);
+    }
+
+    /**
+     * Applies an update with a given ticket.
+     */
+    private final class Update extends Thread {
+
+        private final long ticket;
+
+        Update(long ticket) {
+            this.ticket = ticket;
+        }
+
+        public void run() {
+            try {
+                order.waitForTurn(ticket);
+                applied.add(new Long(ticket));
+            } catch (InterruptedException e) {
+                // not applied
+            } finally {
+                order.finish(ticket);
+            }
+        }
+    }
+}
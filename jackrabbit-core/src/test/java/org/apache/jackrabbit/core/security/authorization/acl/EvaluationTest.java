@@ -26,8 +26,14 @@ import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.test.NotExecutableException;
 
 import javax.jcr.AccessDeniedException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Map;
 import java.security.Principal;
 
@@ -173,4 +179,97 @@ public class EvaluationTest extends AbstractEvaluationTest {
         assertFalse(testSession.hasPermission(policyPath, SessionImpl.REMOVE_ACTION));
         assertTrue(testAcMgr.hasPrivileges(policyPath, new Privilege[] {rmChildNodes[0], rmNode[0]}));
     }
-}
\ No newline at end of file
+
+    public void testQueryDeniedAfterMove() throws Exception {
+        Session testSession = getTestSession();
+        // execute a query in order to have the read permissions cached
+        assertEquals(set(path, childNPath), queryPaths(testSession));
+
+        // deny READ at the sibling and move the tree at 'path' below it
+        withdrawPrivileges(siblingPath, privilegesFromName(Privilege.JCR_READ), getRestrictions(siblingPath));
+        assertEquals(set(path, childNPath), queryPaths(testSession));
+
+        String destPath = siblingPath + "/" + nodeName1;
+        superuser.move(path, destPath);
+        superuser.save();
+
+        // the moved nodes inherit the permission of their new ancestor
+        assertEquals(new HashSet(), queryPaths(testSession));
+        assertEquals(set(destPath, destPath + "/" + nodeName2), queryPaths(superuser));
+    }
+
+    public void testQueryMovedAccessControlledNode() throws Exception {
+        Session testSession = getTestSession();
+        withdrawPrivileges(childNPath, privilegesFromName(Privilege.JCR_READ), getRestrictions(childNPath));
+        assertEquals(set(path), queryPaths(testSession));
+
+        // the ACL moves with the node
+        String destPath = siblingPath + "/" + nodeName2;
+        superuser.move(childNPath, destPath);
+        superuser.save();
+        assertEquals(set(path), queryPaths(testSession));
+
+        // a readable node moved to the former location of the denied node
+        ((Node) superuser.getItem(childNPath2)).setProperty(propertyName1, "anyValue");
+        superuser.save();
+        superuser.move(childNPath2, childNPath);
+        superuser.save();
+        assertEquals(set(path, childNPath), queryPaths(testSession));
+    }
+
+    public void testQueryNewAccessControlEntry() throws Exception {
+        Session testSession = getTestSession();
+        assertEquals(set(path, childNPath), queryPaths(testSession));
+
+        // a new ACE is effective for the next query
+        withdrawPrivileges(childNPath, privilegesFromName(Privilege.JCR_READ), getRestrictions(childNPath));
+        assertEquals(set(path), queryPaths(testSession));
+
+        // and so is an ACE that grants READ again
+        givePrivileges(childNPath, privilegesFromName(Privilege.JCR_READ), getRestrictions(childNPath));
+        assertEquals(set(path, childNPath), queryPaths(testSession));
+    }
+
+    public void testQueryReadPermissionsPerSession() throws Exception {
+        Session testSession = getTestSession();
+        Session readOnly = helper.getReadOnlySession();
+        try {
+            withdrawPrivileges(childNPath, privilegesFromName(Privilege.JCR_READ), getRestrictions(childNPath));
+
+            assertEquals(set(path), queryPaths(testSession));
+            assertEquals(set(path, childNPath), queryPaths(readOnly));
+            assertEquals(set(path), queryPaths(testSession));
+            assertEquals(set(path, childNPath), queryPaths(readOnly));
+        } finally {
+            readOnly.logout();
+        }
+    }
+
+    /**
+     * Returns the paths of the nodes below the test root that have the
+     * property <code>propertyName1</code> as seen by a query of
+     * <code>s</code>.
+     */
+    private Set queryPaths(Session s) throws RepositoryException {
+        String stmt = "/jcr:root" + testRoot + "//*[@" + propertyName1 + "]";
+        Query q = s.getWorkspace().getQueryManager().createQuery(stmt, Query.XPATH);
+        Set paths = new HashSet();
+        for (NodeIterator it = q.execute().getNodes(); it.hasNext();) {
+            Node n = it.nextNode();
+            paths.add(n.getPath());
+        }
+        return paths;
+    }
+
+    private static Set set(String p) {
+        Set s = new HashSet();
+        s.add(p);
+        return s;
+    }
+
+    private static Set set(String p1, String p2) {
+        Set s = set(p1);
+        s.add(p2);
+        return s;
+    }
+}
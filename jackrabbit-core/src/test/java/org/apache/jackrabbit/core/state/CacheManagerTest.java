@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.CachingHierarchyManager;
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.uuid.UUID;
+
+/**
+ * Tests the memory distribution of the {@link CacheManager}.
+ */
+public class CacheManagerTest extends TestCase {
+
+    private static final long MB = 1024 * 1024;
+
+    private CacheManager manager;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        manager = new CacheManager();
+        manager.setMaxMemory(8 * MB);
+        manager.setMaxMemoryPerCache(8 * MB);
+        manager.setMinMemoryPerCache(64 * 1024);
+        manager.setMinResizeInterval(0);
+    }
+
+    /**
+     * A full cache with many misses gets more memory than a full cache
+     * that is accessed as often but always hits.
+     */
+    public void testMemoryFollowsMisses() {
+        TestCache missing = new TestCache(2 * MB);
+        TestCache hitting = new TestCache(2 * MB);
+        manager.add(missing);
+        manager.add(hitting);
+        for (int i = 0; i < 3; i++) {
+            missing.access(1000, 500);
+            hitting.access(1000, 0);
+            missing.fill();
+            hitting.fill();
+            manager.cacheAccessed();
+        }
+        assertTrue(missing.getMaxMemorySize() > hitting.getMaxMemorySize());
+        assertTrue(missing.getMaxMemorySize() + hitting.getMaxMemorySize()
+                <= manager.getMaxMemory());
+    }
+
+    /**
+     * A cache that does not use its memory shrinks to what it uses, but not
+     * below the minimum size.
+     */
+    public void testUnusedMemoryIsReleased() {
+        TestCache idle = new TestCache(2 * MB);
+        TestCache busy = new TestCache(2 * MB);
+        manager.add(idle);
+        manager.add(busy);
+        idle.used = 100 * 1024;
+        busy.access(1000, 200);
+        busy.fill();
+        manager.cacheAccessed();
+        assertEquals(100 * 1024, idle.getMaxMemorySize());
+        assertTrue(busy.getMaxMemorySize() > 2 * MB);
+
+        idle.used = 0;
+        manager.cacheAccessed();
+        assertEquals(manager.getMinMemoryPerCache(), idle.getMaxMemorySize());
+    }
+
+    /**
+     * A full cache loses at most half of its memory in one step.
+     */
+    public void testFullCacheShrinksSlowly() {
+        TestCache cache = new TestCache(4 * MB);
+        TestCache other = new TestCache(4 * MB);
+        manager.add(cache);
+        manager.add(other);
+        cache.fill();
+        other.access(100000, 50000);
+        other.fill();
+        manager.cacheAccessed();
+        assertTrue(cache.getMaxMemorySize() >= 2 * MB);
+    }
+
+    public void testStatistics() {
+        TestCache cache = new TestCache(MB);
+        manager.add(cache);
+        cache.access(100, 25);
+        manager.cacheAccessed();
+        cache.access(100, 25);
+        assertEquals(1, manager.getCacheCount());
+        String[] stats = manager.getCacheStatistics();
+        assertEquals(1, stats.length);
+        assertTrue(stats[0], stats[0].indexOf("accesses=200") != -1);
+        assertTrue(stats[0], stats[0].indexOf("misses=50") != -1);
+        assertTrue(stats[0], stats[0].indexOf("hitRatio=75%") != -1);
+
+        manager.disposeCache(cache);
+        assertEquals(0, manager.getCacheCount());
+        assertEquals(0, manager.getCacheStatistics().length);
+    }
+
+    /**
+     * A cache with an explicitly configured size is never shrunk below that
+     * size, even if it is larger than the maximum memory per cache.
+     */
+    public void testConfiguredSizeIsKept() {
+        manager.setMaxMemoryPerCache(2 * MB);
+        TestCache configured = new TestCache(4 * MB);
+        TestCache busy = new TestCache(2 * MB);
+        manager.add(configured, 4 * MB);
+        manager.add(busy);
+        busy.access(1000, 500);
+        busy.fill();
+        manager.cacheAccessed();
+        assertEquals(4 * MB, configured.getMaxMemorySize());
+    }
+
+    /**
+     * A disposed hierarchy manager no longer takes part in the budget.
+     */
+    public void testDisposeHierarchyManager() {
+        CachingHierarchyManager hierMgr =
+            new CachingHierarchyManager(new NodeId(UUID.randomUUID()), null);
+        manager.add(hierMgr);
+        hierMgr.setAccessListener(manager);
+        assertEquals(1, manager.getCacheCount());
+        hierMgr.dispose();
+        assertEquals(0, manager.getCacheCount());
+    }
+
+    public void testGlobalInstance() {
+        assertSame(CacheManager.getInstance(), CacheManager.getInstance());
+    }
+
+    /**
+     * A cache that only records the values set by the cache manager.
+     */
+    private static class TestCache implements Cache {
+
+        private long maxMemory;
+
+        private long used;
+
+        private long accessCount;
+
+        private long missCount;
+
+        TestCache(long maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        void access(long accesses, long misses) {
+            accessCount += accesses;
+            missCount += misses;
+        }
+
+        void fill() {
+            used = maxMemory;
+        }
+
+        public void setMaxMemorySize(long size) {
+            maxMemory = size;
+            used = Math.min(used, size);
+        }
+
+        public long getMaxMemorySize() {
+            return maxMemory;
+        }
+
+        public long getMemoryUsed() {
+            return used;
+        }
+
+        public long getAccessCount() {
+            return accessCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public void resetAccessCount() {
+            accessCount = 0;
+            missCount = 0;
+        }
+
+        public void setAccessListener(CacheAccessListener listener) {
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import org.apache.jackrabbit.core.NodeId;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.uuid.UUID;
+
+/**
+ * <code>ConcurrentWriteISMLockingTest</code> executes the test cases
+ * implemented in {@link AbstractISMLockingTest} and additionally checks that
+ * write locks for disjoint change logs are granted concurrently.
+ */
+public class ConcurrentWriteISMLockingTest extends AbstractISMLockingTest {
+
+    public ISMLocking createISMLocking() {
+        return new ConcurrentWriteISMLocking();
+    }
+
+    /**
+     * Checks that a write lock for a change log that does not intersect with
+     * the change log of an active write lock is granted immediately.
+     */
+    public void testDisjointWrites() throws InterruptedException {
+        ChangeLog cl = new ChangeLog();
+        cl.modified(state);
+        ISMLocking.WriteLock wLock = locking.acquireWriteLock(cl);
+        try {
+            final ChangeLog other = new ChangeLog();
+            other.modified(createNodeState());
+            final InterruptedException[] ex = new InterruptedException[1];
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        checkNonBlocking(other);
+                    } catch (InterruptedException e) {
+                        ex[0] = e;
+                    }
+                }
+            });
+            t.start();
+            t.join();
+            if (ex[0] != null) {
+                fail(ex[0].toString());
+            }
+        } finally {
+            wLock.release();
+        }
+    }
+
+    /**
+     * Checks that two writers that read a node locked by the other writer do
+     * not deadlock: the read lock of the writer that closes the cycle fails
+     * instead of exposing the changes of the other writer.
+     */
+    public void testCrossReads() throws InterruptedException {
+        final NodeState other = createNodeState();
+        ChangeLog cl = new ChangeLog();
+        cl.modified(state);
+        ISMLocking.WriteLock wLock = locking.acquireWriteLock(cl);
+        final boolean[] done = new boolean[1];
+        final Object[] started = new Object[1];
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ChangeLog log = new ChangeLog();
+                    log.modified(other);
+                    ISMLocking.WriteLock lock = locking.acquireWriteLock(log);
+                    try {
+                        synchronized (started) {
+                            started[0] = lock;
+                            started.notifyAll();
+                        }
+                        // blocks until the main thread releases its lock
+                        locking.acquireReadLock(state.getId()).release();
+                        done[0] = true;
+                    } finally {
+                        lock.release();
+                    }
+                } catch (InterruptedException e) {
+                    // done[0] remains false
+                }
+            }
+        });
+        try {
+            t.start();
+            synchronized (started) {
+                while (started[0] == null) {
+                    started.wait();
+                }
+            }
+            // give the other thread time to wait for the read lock
+            Thread.sleep(100);
+            try {
+                locking.acquireReadLock(other.getId()).release();
+                fail("read lock of a node locked by a waiting writer granted");
+            } catch (InterruptedException e) {
+                // expected
+            }
+        } finally {
+            wLock.release();
+        }
+        t.join(1000);
+        assertTrue("other writer did not complete", done[0]);
+    }
+
+    /**
+     * Checks that new readers wait for a writer that waits for a read lock,
+     * while threads that already hold a lock may still read.
+     */
+    public void testQueuedWriterBlocksReaders() throws Exception {
+        ISMLocking.ReadLock rLock = locking.acquireReadLock(state.getId());
+        final ChangeLog cl = new ChangeLog();
+        cl.modified(state);
+        final boolean[] written = new boolean[1];
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    locking.acquireWriteLock(cl).release();
+                    written[0] = true;
+                } catch (InterruptedException e) {
+                    // written[0] remains false
+                }
+            }
+        });
+        try {
+            writer.start();
+            // give the writer time to queue up
+            Thread.sleep(100);
+            assertFalse(written[0]);
+            final Throwable[] ex = new Throwable[1];
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        checkBlocking(state.getId());
+                    } catch (Throwable e) {
+                        ex[0] = e;
+                    }
+                }
+            });
+            t.start();
+            t.join();
+            if (ex[0] != null) {
+                fail(ex[0].toString());
+            }
+            // the holder of a read lock is not blocked
+            checkNonBlocking(state.getId());
+        } finally {
+            rLock.release();
+        }
+        writer.join(1000);
+        assertTrue("writer did not complete", written[0]);
+        checkNonBlocking(state.getId());
+    }
+
+    //------------------------------< utilities >-------------------------------
+
+    protected void checkNonBlocking(ChangeLog log)
+            throws InterruptedException {
+        final Thread t = Thread.currentThread();
+        TimeBomb tb = new TimeBomb(100) {
+            public void explode() {
+                t.interrupt();
+            }
+        };
+        tb.arm();
+        try {
+            locking.acquireWriteLock(log).release();
+        } catch (InterruptedException e) {
+            fail("acquireWriteLock must not block");
+        }
+        tb.disarm();
+        // make sure interrupted status is cleared
+        // bomb may blow off right before we disarm it
+        Thread.interrupted();
+    }
+
+    private static NodeState createNodeState() {
+        NodeId id = new NodeId(UUID.randomUUID());
+        return new NodeState(id, NameConstants.NT_BASE, null,
+                ItemState.STATUS_EXISTING, true);
+    }
+}
@@ -18,11 +18,60 @@ package org.apache.jackrabbit.core.state;
 
 /**
  * <code>DefaultISMLockingTest</code> executes the test cases implemented in
- * {@link AbstractISMLockingTest}.
+ * {@link AbstractISMLockingTest} and additionally checks that readers are
+ * not blocked by a queued writer.
  */
 public class DefaultISMLockingTest extends AbstractISMLockingTest {
 
     public ISMLocking createISMLocking() {
         return new DefaultISMLocking();
     }
+
+    /**
+     * Checks that a thread which holds a read lock can acquire another read
+     * lock while a writer waits for the write lock. With plain writer
+     * preference the second read lock would wait for the writer, which in
+     * turn waits for the first read lock to be released.
+     */
+    public void testReadWithQueuedWriter() throws InterruptedException {
+        ISMLocking.ReadLock rLock = locking.acquireReadLock(state.getId());
+        final boolean[] written = new boolean[1];
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    locking.acquireWriteLock((ChangeLog) logs.get(0)).release();
+                    written[0] = true;
+                } catch (InterruptedException e) {
+                    // written[0] remains false
+                }
+            }
+        });
+        try {
+            writer.start();
+            // give the writer time to queue for the write lock
+            Thread.sleep(100);
+            assertTrue(writer.isAlive());
+            checkNonBlocking(state.getId());
+
+            // readers of other threads do not wait for the writer either
+            final boolean[] read = new boolean[1];
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        checkNonBlocking(state.getId());
+                        read[0] = true;
+                    } catch (InterruptedException e) {
+                        // read[0] remains false
+                    }
+                }
+            });
+            reader.start();
+            reader.join();
+            assertTrue("reader blocked by queued writer", read[0]);
+        } finally {
+            rLock.release();
+        }
+        writer.join(1000);
+        assertTrue("writer did not complete", written[0]);
+    }
 }
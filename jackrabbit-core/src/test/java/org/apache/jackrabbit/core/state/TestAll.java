@@ -38,6 +38,8 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ChangeLogTest.class);
         suite.addTestSuite(DefaultISMLockingTest.class);
         suite.addTestSuite(FineGrainedISMLockingTest.class);
+        suite.addTestSuite(ConcurrentWriteISMLockingTest.class);
+        suite.addTestSuite(CacheManagerTest.class);
 
         return suite;
     }
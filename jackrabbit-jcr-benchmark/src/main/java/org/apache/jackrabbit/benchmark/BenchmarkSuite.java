@@ -24,5 +24,6 @@ public class BenchmarkSuite extends TestSuite {
     public BenchmarkSuite() {
         super("JCR Benchmarks");
         addTestSuite(BigCollectionTest.class);
+        addTestSuite(ConcurrentReadTest.class);
     }
 }
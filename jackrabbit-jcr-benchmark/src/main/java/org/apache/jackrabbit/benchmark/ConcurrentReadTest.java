@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.jackrabbit.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Benchmarks the read throughput of a repository with an increasing number
+ * of concurrent reader threads. Each thread uses its own session and reads
+ * random nodes and their properties. Sessions are refreshed regularly so
+ * that items are loaded from the shared item state caches and the
+ * persistence manager.
+ * <p>
+ * If reads do not contend on a single lock, the number of reads per second
+ * should grow with the number of threads up to the number of processors.
+ */
+public class ConcurrentReadTest extends AbstractJCRTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentReadTest.class);
+
+    private static int NODES = 100;
+    private static int CHILDREN = 10;
+    private static int[] THREADS = new int[] {1, 2, 4, 8};
+    private static int RUNTIME = 5000;
+    private static int REFRESH_INTERVAL = 100;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        Session session = testRootNode.getSession();
+        if (testRootNode.hasNode("concurrentread")) {
+            testRootNode.getNode("concurrentread").remove();
+            session.save();
+        }
+        Node root = testRootNode.addNode("concurrentread", testNodeType);
+        for (int i = 0; i < NODES; i++) {
+            Node n = root.addNode("node" + i, testNodeType);
+            for (int j = 0; j < CHILDREN; j++) {
+                Node c = n.addNode("child" + j, testNodeType);
+                c.setProperty("string", "value " + i + "/" + j);
+                c.setProperty("long", i * CHILDREN + j);
+            }
+            session.save();
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        try {
+            testRootNode.getNode("concurrentread").remove();
+            testRootNode.getSession().save();
+        } catch (RepositoryException e) {
+            // nothing to do
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Runs the readers with an increasing number of threads and logs the
+     * throughput for each run.
+     */
+    public void testConcurrentRead() throws Exception {
+        for (int i = 0; i < THREADS.length; i++) {
+            long reads = performTest(THREADS[i]);
+            LOG.info("testConcurrentRead: " + THREADS[i] + " threads, "
+                    + (reads * 1000 / RUNTIME) + " reads per second");
+        }
+    }
+
+    private long performTest(int numThreads) throws Exception {
+        final String path = testRootNode.getPath() + "/concurrentread";
+        final List exceptions = Collections.synchronizedList(new ArrayList());
+        final long[] reads = new long[numThreads];
+        final long end = System.currentTimeMillis() + RUNTIME;
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int index = t;
+            final Session s = helper.getReadOnlySession();
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Random rand = new Random();
+                        Node root = (Node) s.getItem(path);
+                        long count = 0;
+                        while (System.currentTimeMillis() < end) {
+                            Node n = root.getNode("node" + rand.nextInt(NODES));
+                            Node c = n.getNode("child" + rand.nextInt(CHILDREN));
+                            for (PropertyIterator it = c.getProperties(); it.hasNext(); ) {
+                                it.nextProperty().getValue();
+                            }
+                            if (++count % REFRESH_INTERVAL == 0) {
+                                s.refresh(false);
+                            }
+                        }
+                        reads[index] = count;
+                    } catch (RepositoryException e) {
+                        exceptions.add(e);
+                    } finally {
+                        s.logout();
+                    }
+                }
+            });
+        }
+        for (int t = 0; t < numThreads; t++) {
+            threads[t].start();
+        }
+        for (int t = 0; t < numThreads; t++) {
+            threads[t].join();
+        }
+        if (!exceptions.isEmpty()) {
+            throw (Exception) exceptions.get(0);
+        }
+        long total = 0;
+        for (int t = 0; t < numThreads; t++) {
+            total += reads[t];
+        }
+        return total;
+    }
+}
@@ -222,7 +222,9 @@ public class QueryTreeDump implements QueryNodeVisitor {
             }
         }
         buffer.append(" Type=").append(QueryConstants.TYPE_NAMES.getName(node.getValueType()));
-        if (node.getValueType() == QueryConstants.TYPE_DATE) {
+        if (node.getBindVariableName() != null) {
+            buffer.append(" Variable=").append(node.getBindVariableName());
+        } else if (node.getValueType() == QueryConstants.TYPE_DATE) {
             buffer.append(" Value=").append(node.getDateValue());
         } else if (node.getValueType() == QueryConstants.TYPE_DOUBLE) {
             buffer.append(" Value=").append(node.getDoubleValue());
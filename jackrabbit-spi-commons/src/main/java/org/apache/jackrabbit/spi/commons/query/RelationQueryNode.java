@@ -16,9 +16,12 @@
  */
 package org.apache.jackrabbit.spi.commons.query;
 
+import java.util.ArrayList;
 import java.util.Date;
 
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
+import javax.jcr.Value;
 
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
@@ -78,6 +81,12 @@ public class RelationQueryNode extends NAryQueryNode implements QueryConstants {
      */
     private Date valueDate;
 
+    /**
+     * The name of the bind variable that provides the value of this relation
+     * or <code>null</code> if the value is given as a literal.
+     */
+    private Name bindVariableName;
+
     /**
      * The operation type of this relation. One of the operation values defined
      * in {@link QueryConstants}.
@@ -311,6 +320,64 @@ public class RelationQueryNode extends NAryQueryNode implements QueryConstants {
         type = TYPE_DATE;
     }
 
+    /**
+     * Returns the name of the bind variable that provides the value of this
+     * relation.
+     *
+     * @return the name of the bind variable or <code>null</code> if the
+     *         value is given as a literal.
+     */
+    public Name getBindVariableName() {
+        return bindVariableName;
+    }
+
+    /**
+     * Sets the name of the bind variable that provides the value of this
+     * relation.
+     *
+     * @param name the name of the bind variable.
+     */
+    public void setBindVariableName(Name name) {
+        bindVariableName = name;
+    }
+
+    /**
+     * Returns a copy of this relation where the bind variable is replaced
+     * with <code>value</code>. This node is not modified, which allows to
+     * share a parsed query tree between executions with different values.
+     *
+     * @param value the value bound to the variable of this relation.
+     * @return a relation with the given value.
+     * @throws RepositoryException if the value cannot be read.
+     */
+    public RelationQueryNode bindValue(Value value) throws RepositoryException {
+        RelationQueryNode node = new RelationQueryNode(getParent(), operation);
+        node.relPath = relPath;
+        node.unaryMinus = unaryMinus;
+        node.type = type;
+        if (operands != null) {
+            node.operands = new ArrayList(operands);
+        }
+        switch (value.getType()) {
+            case PropertyType.LONG:
+                if (type == TYPE_POSITION) {
+                    node.setPositionValue((int) value.getLong());
+                } else {
+                    node.setLongValue(value.getLong());
+                }
+                break;
+            case PropertyType.DOUBLE:
+                node.setDoubleValue(value.getDouble());
+                break;
+            case PropertyType.DATE:
+                node.setDateValue(value.getDate().getTime());
+                break;
+            default:
+                node.setStringValue(value.getString());
+        }
+        return node;
+    }
+
     /**
      * Returns the operation type.
      *
@@ -332,8 +399,28 @@ public class RelationQueryNode extends NAryQueryNode implements QueryConstants {
                     && valueLong == other.valueLong
                     && valuePosition == other.valuePosition
                     && (valueString == null ? other.valueString == null : valueString.equals(other.valueString))
+                    && (bindVariableName == null ? other.bindVariableName == null : bindVariableName.equals(other.bindVariableName))
                     && (relPath == null ? other.relPath == null : relPath.equals(other.relPath));
         }
         return false;
     }
+
+    /**
+     * Returns a hash code that is consistent with {@link #equals(Object)}.
+     *
+     * @return the hash code of this relation.
+     */
+    public int hashCode() {
+        int h = type;
+        h = 31 * h + (valueDate == null ? 0 : valueDate.hashCode());
+        // +0.0 and -0.0 are equal, but have different bits
+        long bits = valueDouble == 0 ? 0 : Double.doubleToLongBits(valueDouble);
+        h = 31 * h + (int) (bits ^ (bits >>> 32));
+        h = 31 * h + (int) (valueLong ^ (valueLong >>> 32));
+        h = 31 * h + valuePosition;
+        h = 31 * h + (valueString == null ? 0 : valueString.hashCode());
+        h = 31 * h + (bindVariableName == null ? 0 : bindVariableName.hashCode());
+        h = 31 * h + (relPath == null ? 0 : relPath.hashCode());
+        return h;
+    }
 }
@@ -541,7 +541,9 @@ class QueryFormat implements QueryNodeVisitor, QueryConstants {
     }
 
     private void appendValue(RelationQueryNode node, StringBuffer b) {
-        if (node.getValueType() == TYPE_LONG) {
+        if (node.getBindVariableName() != null) {
+            exceptions.add(new InvalidQueryException("Bind variables are not supported in SQL"));
+        } else if (node.getValueType() == TYPE_LONG) {
             b.append(node.getLongValue());
         } else if (node.getValueType() == TYPE_DOUBLE) {
             b.append(node.getDoubleValue());
@@ -491,7 +491,9 @@ class QueryFormat implements QueryNodeVisitor, QueryConstants {
      */
     private void appendValue(RelationQueryNode node, StringBuffer b)
             throws NamespaceException {
-        if (node.getValueType() == TYPE_LONG) {
+        if (node.getBindVariableName() != null) {
+            b.append("$").append(resolver.getJCRName(node.getBindVariableName()));
+        } else if (node.getValueType() == TYPE_LONG) {
             b.append(node.getLongValue());
         } else if (node.getValueType() == TYPE_DOUBLE) {
             b.append(node.getDoubleValue());
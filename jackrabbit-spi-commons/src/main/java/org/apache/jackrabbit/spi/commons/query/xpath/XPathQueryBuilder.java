@@ -505,6 +505,13 @@ public class XPathQueryBuilder implements XPathVisitor, XPathTreeConstants {
                     exceptions.add(new InvalidQueryException("Parse error: data is not a RelationQueryNode"));
                 }
                 break;
+            case JJTVARNAME:
+                if (queryNode.getType() == QueryNode.TYPE_RELATION) {
+                    assignBindVariable(node, (RelationQueryNode) queryNode);
+                } else {
+                    exceptions.add(new InvalidQueryException("Unsupported location for variable $" + node.getValue()));
+                }
+                break;
             case JJTUNARYMINUS:
                 if (queryNode.getType() == QueryNode.TYPE_RELATION) {
                     ((RelationQueryNode) queryNode).setUnaryMinus(true);
@@ -714,7 +721,8 @@ public class XPathQueryBuilder implements XPathVisitor, XPathTreeConstants {
                     String functionName = node.getFunctionName();
                     if ((functionName.equals(PropertyFunctionQueryNode.LOWER_CASE)
                             || functionName.equals(PropertyFunctionQueryNode.UPPER_CASE))
-                                && rqn.getValueType() != QueryConstants.TYPE_STRING) {
+                                && rqn.getValueType() != QueryConstants.TYPE_STRING
+                                && rqn.getBindVariableName() == null) {
                         String msg = "Upper and lower case function are only supported with String literals";
                         exceptions.add(new InvalidQueryException(msg));
                     }
@@ -768,6 +776,23 @@ public class XPathQueryBuilder implements XPathVisitor, XPathTreeConstants {
         }
     }
 
+    /**
+     * Assigns the bind variable <code>node</code> to <code>queryNode</code>.
+     * The value is bound when the query is executed.
+     *
+     * @param node      the variable name node from the xpath tree.
+     * @param queryNode current node in the query tree.
+     */
+    private void assignBindVariable(SimpleNode node, RelationQueryNode queryNode) {
+        try {
+            queryNode.setBindVariableName(resolver.getQName(node.getValue()));
+        } catch (NameException e) {
+            exceptions.add(new InvalidQueryException("Illegal variable name: " + node.getValue()));
+        } catch (NamespaceException e) {
+            exceptions.add(new InvalidQueryException("Illegal variable name: " + node.getValue()));
+        }
+    }
+
     /**
      * Creates a function based on <code>node</code>.
      *
@@ -861,6 +886,8 @@ public class XPathQueryBuilder implements XPathVisitor, XPathTreeConstants {
                         SimpleNode literal = (SimpleNode) node.jjtGetChild(2).jjtGetChild(0);
                         if (literal.getId() == JJTSTRINGLITERAL) {
                             like.setStringValue(unescapeQuotes(literal.getValue()));
+                        } else if (literal.getId() == JJTVARNAME) {
+                            assignBindVariable(literal, like);
                         } else {
                             exceptions.add(new InvalidQueryException("Wrong second argument type for jcr:like"));
                         }